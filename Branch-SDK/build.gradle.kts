@@ -45,6 +45,9 @@ dependencies {
     // In app browser experience
     compileOnly("androidx.browser:browser:1.8.0")
 
+    // HTTP/2 transport over the app's own OkHttp client, see Branch.setHttp2Client
+    compileOnly("com.squareup.okhttp3:okhttp:4.12.0")
+
     androidTestImplementation("androidx.test.ext:junit:1.1.5")
     androidTestImplementation("androidx.test:runner:1.5.2")
     androidTestImplementation("androidx.test:rules:1.5.0")
@@ -76,6 +79,10 @@ dependencies {
     testImplementation("androidx.browser:browser:1.8.0")
     testImplementation("com.android.billingclient:billing:8.0.0")
 
+    // The OkHttp transport is benchmarked against a local HTTP/2 server
+    testImplementation("com.squareup.okhttp3:okhttp:4.12.0")
+    testImplementation("com.squareup.okhttp3:mockwebserver:4.12.0")
+
 }
 
 val VERSION_NAME: String by project
@@ -93,6 +100,14 @@ android {
     defaultConfig {
         minSdk = ANDROID_BUILD_SDK_VERSION_MINIMUM.toInt()
         testInstrumentationRunner = "androidx.test.runner.AndroidJUnitRunner"
+        // The instrumented benchmarks, left out like the unit test ones unless -PrunBenchmarks is set
+        if (!project.hasProperty("runBenchmarks")) {
+            testInstrumentationRunnerArguments["notClass"] = listOf(
+                "io.branch.referral.DeviceInfoBenchmark",
+                "io.branch.referral.PrefHelperBenchmark",
+                "io.branch.referral.ServerRequestQueueLanesBenchmark"
+            ).joinToString(",")
+        }
         consumerProguardFiles("proguard-consumer.txt")
     }
 
@@ -280,6 +295,10 @@ publishing {
 
 tasks {
     withType<Test> {
+        // Benchmarks measure timings and allocations, which vary with the machine. Run them with -PrunBenchmarks
+        if (!project.hasProperty("runBenchmarks")) {
+            exclude("**/*Benchmark*")
+        }
         testLogging {
             exceptionFormat = TestExceptionFormat.FULL
             events = setOf(
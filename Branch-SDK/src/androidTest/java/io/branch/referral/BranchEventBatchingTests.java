@@ -0,0 +1,185 @@
+package io.branch.referral;
+
+import androidx.lifecycle.Lifecycle;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.branch.referral.network.BranchRemoteInterface;
+import io.branch.referral.util.BRANCH_STANDARD_EVENT;
+import io.branch.referral.util.BranchEvent;
+
+/**
+ * Tests for {@link BranchEventBatcher}, run against a local stand-in for the Branch API that
+ * records every upload it receives.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BranchEventBatchingTests extends BranchTest {
+    private static final int LARGE_BATCH_BYTES = 64 * 1024;
+    private static final long LONG_LATENCY_MS = 60000;
+
+    @Test
+    public void testEventsAreBatchedByCount() {
+        initBranchInstance(TEST_KEY);
+        initSessionResumeActivity(null, new Runnable() {
+            @Override
+            public void run() {
+                StandInEndpoint endpoint = new StandInEndpoint();
+                branch.setBranchRemoteInterface(endpoint);
+                branch.enableEventBatching(3, LARGE_BATCH_BYTES, LONG_LATENCY_MS);
+
+                awaitEvents(logEvents(3));
+
+                List<JSONObject> uploads = endpoint.uploadsTo(Defines.RequestPath.TrackEventBatch);
+                Assert.assertEquals(1, uploads.size());
+                Assert.assertTrue(endpoint.uploadsTo(Defines.RequestPath.TrackStandardEvent).isEmpty());
+                assertBatch(uploads.get(0), 3);
+            }
+        });
+    }
+
+    @Test
+    public void testBatchIsFlushedAfterMaxLatency() {
+        initBranchInstance(TEST_KEY);
+        initSessionResumeActivity(null, new Runnable() {
+            @Override
+            public void run() {
+                StandInEndpoint endpoint = new StandInEndpoint();
+                branch.setBranchRemoteInterface(endpoint);
+                branch.enableEventBatching(100, LARGE_BATCH_BYTES, 300);
+
+                awaitEvents(logEvents(2));
+
+                List<JSONObject> uploads = endpoint.uploadsTo(Defines.RequestPath.TrackEventBatch);
+                Assert.assertEquals(1, uploads.size());
+                assertBatch(uploads.get(0), 2);
+            }
+        });
+    }
+
+    @Test
+    public void testBatchIsSplitBySize() {
+        initBranchInstance(TEST_KEY);
+        initSessionResumeActivity(null, new Runnable() {
+            @Override
+            public void run() {
+                StandInEndpoint endpoint = new StandInEndpoint();
+                branch.setBranchRemoteInterface(endpoint);
+                // Small enough that every event starts a new batch
+                branch.enableEventBatching(100, 1, LONG_LATENCY_MS);
+
+                awaitEvents(logEvents(2));
+
+                List<JSONObject> uploads = endpoint.uploadsTo(Defines.RequestPath.TrackEventBatch);
+                Assert.assertEquals(2, uploads.size());
+                assertBatch(uploads.get(0), 1);
+                assertBatch(uploads.get(1), 1);
+            }
+        });
+    }
+
+    @Test
+    public void testBatchIsFlushedWhenBackgrounded() {
+        initBranchInstance(TEST_KEY);
+        initSessionResumeActivity(null, new Runnable() {
+            @Override
+            public void run() {
+                StandInEndpoint endpoint = new StandInEndpoint();
+                branch.setBranchRemoteInterface(endpoint);
+                branch.enableEventBatching(100, LARGE_BATCH_BYTES, LONG_LATENCY_MS);
+
+                CountDownLatch latch = logEvents(2);
+                activityScenario.moveToState(Lifecycle.State.CREATED);
+                awaitEvents(latch);
+
+                List<JSONObject> uploads = endpoint.uploadsTo(Defines.RequestPath.TrackEventBatch);
+                Assert.assertEquals(1, uploads.size());
+                assertBatch(uploads.get(0), 2);
+            }
+        });
+    }
+
+    private CountDownLatch logEvents(int count) {
+        final CountDownLatch latch = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            new BranchEvent(BRANCH_STANDARD_EVENT.ADD_TO_CART)
+                    .addCustomDataProperty("index", String.valueOf(i))
+                    .logEvent(getTestContext(), new BranchEvent.BranchLogEventCallback() {
+                        @Override
+                        public void onSuccess(int responseCode) {
+                            latch.countDown();
+                        }
+
+                        @Override
+                        public void onFailure(Exception e) {
+                            BranchLogger.e("Batched event failed " + e.getMessage());
+                        }
+                    });
+        }
+        return latch;
+    }
+
+    private void awaitEvents(CountDownLatch latch) {
+        try {
+            Assert.assertTrue(latch.await(TEST_INIT_SESSION_TIMEOUT, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    private void assertBatch(JSONObject body, int expectedEvents) {
+        // One shared envelope
+        Assert.assertNotNull(body.optJSONObject(Defines.Jsonkey.UserData.getKey()));
+
+        JSONArray events = body.optJSONArray(Defines.Jsonkey.ContentEvents.getKey());
+        Assert.assertNotNull(events);
+        Assert.assertEquals(expectedEvents, events.length());
+
+        Set<String> uuids = new HashSet<>();
+        for (int i = 0; i < events.length(); i++) {
+            JSONObject event = events.optJSONObject(i);
+            Assert.assertEquals(BRANCH_STANDARD_EVENT.ADD_TO_CART.getName(), event.optString(Defines.Jsonkey.Name.getKey()));
+            Assert.assertFalse(event.has(Defines.Jsonkey.UserData.getKey()));
+            uuids.add(event.optString(Defines.Jsonkey.Branch_Sdk_Request_Uuid.getKey()));
+        }
+        Assert.assertEquals(expectedEvents, uuids.size());
+    }
+
+    private static class StandInEndpoint extends BranchRemoteInterface {
+        private final List<String> urls = new ArrayList<>();
+        private final List<JSONObject> bodies = new ArrayList<>();
+
+        @Override
+        public BranchResponse doRestfulGet(String url) {
+            return new BranchResponse("{}", 200);
+        }
+
+        @Override
+        public synchronized BranchResponse doRestfulPost(String url, JSONObject payload) {
+            urls.add(url);
+            bodies.add(payload);
+            return new BranchResponse("{}", 200);
+        }
+
+        synchronized List<JSONObject> uploadsTo(Defines.RequestPath path) {
+            List<JSONObject> uploads = new ArrayList<>();
+            for (int i = 0; i < urls.size(); i++) {
+                if (urls.get(i).endsWith(path.getPath())) {
+                    uploads.add(bodies.get(i));
+                }
+            }
+            return uploads;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package io.branch.referral;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.branch.referral.util.BRANCH_STANDARD_EVENT;
+import io.branch.referral.util.BranchEvent;
+
+/**
+ * Checks that logging an event from the UI thread leaves the device parameters to the request
+ * queue's background thread. They, and the partner parameters, are added when the event is sent
+ * rather than when it is logged.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BranchEventMainThreadCostTest extends BranchTest {
+    private static final int EVENTS = 20;
+
+    @Before
+    public void setUp() {
+        super.setUp();
+        initBranchInstance();
+    }
+
+    @Test
+    public void testLogEventLeavesDeviceParamsToTheQueue() throws Exception {
+        new BranchEvent(BRANCH_STANDARD_EVENT.PURCHASE).logEvent(getTestContext());
+        ServerRequestQueue queue = ServerRequestQueue.getInstance(getTestContext());
+        Assert.assertEquals(1, queue.getSize());
+        ServerRequest event = queue.peekAt(0);
+
+        Assert.assertTrue(event.isPostPending());
+        JSONObject userData = event.getPost().getJSONObject(Defines.Jsonkey.UserData.getKey());
+        Assert.assertFalse(userData.has(Defines.Jsonkey.Brand.getKey()));
+        Assert.assertFalse(userData.has(Defines.Jsonkey.ScreenWidth.getKey()));
+        Assert.assertTrue(event.getPost().has(Defines.Jsonkey.Name.getKey()));
+
+        // What the queue does before sending it
+        event.completePost();
+        Assert.assertFalse(event.isPostPending());
+        Assert.assertTrue(userData.has(Defines.Jsonkey.Brand.getKey()));
+        Assert.assertTrue(userData.has(Defines.Jsonkey.ScreenWidth.getKey()));
+        Assert.assertTrue(userData.has(Defines.Jsonkey.Environment.getKey()));
+    }
+
+    @Test
+    public void testPendingPostSurvivesTheJournal() throws Exception {
+        new BranchEvent(BRANCH_STANDARD_EVENT.PURCHASE).logEvent(getTestContext());
+        ServerRequest event = ServerRequestQueue.getInstance(getTestContext()).peekAt(0);
+
+        ServerRequest restored = ServerRequest.fromJSON(event.toJSON(), getTestContext());
+        Assert.assertNotNull(restored);
+        Assert.assertTrue(restored.isPostPending());
+        restored.completePost();
+        Assert.assertTrue(restored.getPost().getJSONObject(Defines.Jsonkey.UserData.getKey()).has(Defines.Jsonkey.Brand.getKey()));
+    }
+
+    @Test
+    public void testLogEventOnTheMainThreadLeavesDeviceParamsToTheQueue() throws Exception {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < EVENTS; i++) {
+                    // The device parameters would be read from the system again
+                    DeviceInfo.getInstance().invalidateSnapshot();
+                    new BranchEvent(BRANCH_STANDARD_EVENT.VIEW_ITEM).logEvent(getTestContext());
+                }
+            }
+        });
+
+        ServerRequestQueue queue = ServerRequestQueue.getInstance(getTestContext());
+        Assert.assertTrue(queue.getSize() > 0);
+        for (int i = 0; i < queue.getSize(); i++) {
+            ServerRequest event = queue.peekAt(i);
+            Assert.assertTrue(event.isPostPending());
+            JSONObject userData = event.getPost().getJSONObject(Defines.Jsonkey.UserData.getKey());
+            Assert.assertFalse(userData.has(Defines.Jsonkey.Brand.getKey()));
+            Assert.assertFalse(userData.has(Defines.Jsonkey.ScreenWidth.getKey()));
+            Assert.assertFalse(userData.has(Defines.Jsonkey.Environment.getKey()));
+        }
+    }
+}
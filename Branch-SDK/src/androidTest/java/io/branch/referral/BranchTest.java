@@ -15,6 +15,7 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.runner.RunWith;
 
+import java.io.File;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -71,6 +72,9 @@ abstract public class BranchTest extends BranchTestRequestUtil {
         editor = sharedPreferences.edit();
         editor.clear();
         editor.commit();
+
+        // Clear the ServerRequestQueue journal so requests do not leak between tests
+        new File(mContext.getFilesDir(), ServerRequestJournal.JOURNAL_FILE_NAME).delete();
     }
 
     protected void initBranchInstance() {
@@ -0,0 +1,55 @@
+package io.branch.referral;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the time taken to add the device parameters to an event when they are read from the
+ * system for every event, the way they used to be, with reusing a {@link DeviceSnapshot}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DeviceInfoBenchmark extends BranchTest {
+    private static final String TAG = "DeviceInfoBenchmark";
+    private static final int WARMUP = 50;
+    private static final int EVENTS = 500;
+
+    @Test
+    public void testReusedSnapshotBuildsEventsFaster() {
+        initBranchInstance();
+        DeviceInfo deviceInfo = DeviceInfo.getInstance();
+        Assert.assertNotNull(deviceInfo);
+        ServerRequest event = new ServerRequestLogEvent(Defines.RequestPath.TrackStandardEvent, new JSONObject(), getTestContext());
+        PrefHelper prefHelper = PrefHelper.getInstance(getTestContext());
+
+        long perEventCapture = nanosPerEvent(deviceInfo, event, prefHelper, true);
+        long reusedSnapshot = nanosPerEvent(deviceInfo, event, prefHelper, false);
+        Log.i(TAG, "Device parameters per event, read from the system: " + perEventCapture / 1000
+                + "us, from the snapshot: " + reusedSnapshot / 1000 + "us");
+
+        Assert.assertTrue(reusedSnapshot < perEventCapture);
+    }
+
+    private static long nanosPerEvent(DeviceInfo deviceInfo, ServerRequest event, PrefHelper prefHelper, boolean captureEachTime) {
+        for (int i = 0; i < WARMUP; i++) {
+            build(deviceInfo, event, prefHelper, captureEachTime);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < EVENTS; i++) {
+            build(deviceInfo, event, prefHelper, captureEachTime);
+        }
+        return (System.nanoTime() - start) / EVENTS;
+    }
+
+    private static void build(DeviceInfo deviceInfo, ServerRequest event, PrefHelper prefHelper, boolean captureEachTime) {
+        if (captureEachTime) {
+            deviceInfo.invalidateSnapshot();
+        }
+        deviceInfo.updateRequestWithV2Params(event, prefHelper, new JSONObject());
+    }
+}
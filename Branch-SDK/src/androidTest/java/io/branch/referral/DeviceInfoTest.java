@@ -86,6 +86,24 @@ public class DeviceInfoTest extends BranchTest {
         }
     }
 
+    @Test
+    public void testSnapshotIsReusedUntilInvalidated() {
+        initBranchInstance();
+        DeviceInfo deviceInfo = DeviceInfo.getInstance();
+        Assert.assertNotNull(deviceInfo);
+
+        DeviceSnapshot snapshot = deviceInfo.getSnapshot();
+        Assert.assertSame(snapshot, deviceInfo.getSnapshot());
+        Assert.assertEquals(SystemObserver.getConnectionType(getTestContext()), snapshot.connectionType);
+        Assert.assertEquals(SystemObserver.getLocale(), snapshot.locale);
+        Assert.assertEquals(SystemObserver.getUIMode(getTestContext()), snapshot.uiMode);
+
+        deviceInfo.invalidateSnapshot();
+        DeviceSnapshot recaptured = deviceInfo.getSnapshot();
+        Assert.assertNotSame(snapshot, recaptured);
+        Assert.assertSame(recaptured, deviceInfo.getSnapshot());
+    }
+
     @Test
     public void windowManagerAndDisplayManagerSameMetrics(){
         DisplayManager displayManager = (DisplayManager) getTestContext().getSystemService(Context.DISPLAY_SERVICE);
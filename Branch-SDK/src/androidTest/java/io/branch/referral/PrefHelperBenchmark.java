@@ -0,0 +1,85 @@
+package io.branch.referral;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the getters the request queue calls for every request when they read
+ * {@link SharedPreferences} and parse the stored gclid, the way they used to, with reading them
+ * from the snapshot of {@link BranchPrefsCache}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PrefHelperBenchmark extends BranchTest {
+    private static final String TAG = "PrefHelperBenchmark";
+    private static final int WARMUP = 1000;
+    private static final int DISPATCHES = 20000;
+
+    private interface Getters {
+        int read() throws JSONException;
+    }
+
+    @Test
+    public void testSnapshotGettersAreFaster() throws JSONException {
+        final PrefHelper prefHelper = PrefHelper.getInstance(getTestContext());
+        prefHelper.setBranchKey(TEST_KEY);
+        prefHelper.setSessionID("1234567890");
+        prefHelper.setRandomizedDeviceToken("1122334455");
+        prefHelper.setRandomizedBundleToken("5544332211");
+        prefHelper.setReferrerGclid("gclid_value");
+        PrefHelper.shutDown();
+        final PrefHelper cached = PrefHelper.getInstance(getTestContext());
+        final SharedPreferences sharedPrefs = getTestContext().getSharedPreferences("branch_referral_shared_pref", Context.MODE_PRIVATE);
+
+        Getters fromSharedPrefs = new Getters() {
+            @Override
+            public int read() throws JSONException {
+                String gclid = new JSONObject(sharedPrefs.getString("bnc_gclid_json_object", PrefHelper.NO_STRING_VALUE)).getString("bnc_gclid_value");
+                return sharedPrefs.getString("bnc_branch_key", PrefHelper.NO_STRING_VALUE).length()
+                        + sharedPrefs.getString("bnc_session_id", PrefHelper.NO_STRING_VALUE).length()
+                        + sharedPrefs.getString("bnc_randomized_device_token", PrefHelper.NO_STRING_VALUE).length()
+                        + sharedPrefs.getString("bnc_randomized_bundle_token", PrefHelper.NO_STRING_VALUE).length()
+                        + gclid.length();
+            }
+        };
+        Getters fromSnapshot = new Getters() {
+            @Override
+            public int read() {
+                return cached.getBranchKey().length()
+                        + cached.getSessionID().length()
+                        + cached.getRandomizedDeviceToken().length()
+                        + cached.getRandomizedBundleToken().length()
+                        + cached.getReferrerGclid().length();
+            }
+        };
+        Assert.assertEquals(fromSharedPrefs.read(), fromSnapshot.read());
+
+        long sharedPrefsNanos = nanosPerDispatch(fromSharedPrefs);
+        long snapshotNanos = nanosPerDispatch(fromSnapshot);
+        Log.i(TAG, "Dispatch path getters, from SharedPreferences: " + sharedPrefsNanos + "ns, from the snapshot: " + snapshotNanos + "ns");
+
+        Assert.assertTrue(snapshotNanos < sharedPrefsNanos);
+    }
+
+    private static long nanosPerDispatch(Getters getters) throws JSONException {
+        int sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += getters.read();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < DISPATCHES; i++) {
+            sink += getters.read();
+        }
+        long elapsed = System.nanoTime() - start;
+        Assert.assertTrue(sink > 0);
+        return elapsed / DISPATCHES;
+    }
+}
@@ -0,0 +1,72 @@
+package io.branch.referral;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.branch.referral.util.BranchEvent;
+
+/**
+ * Throughput benchmark for the dispatch lanes in {@link ServerRequestQueue}: times a burst of
+ * events sent through one lane and through several, against a fake server with a fixed
+ * per-request latency. The timings depend on the device, so they are logged rather than asserted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ServerRequestQueueLanesBenchmark extends BranchTest {
+    private static final String TAG = "ServerRequestQueueLanesBenchmark";
+    private static final int EVENT_COUNT = 12;
+    private static final int CONCURRENT_LANES = 4;
+
+    @Test
+    public void testConcurrentLanesThroughput() {
+        initBranchInstance(TEST_KEY);
+        initSessionResumeActivity(null, new Runnable() {
+            @Override
+            public void run() {
+                long singleLane = timeEventBurst(1);
+                long concurrent = timeEventBurst(CONCURRENT_LANES);
+
+                Log.i(TAG, EVENT_COUNT + " events at " + ServerRequestQueueLanesTests.FAKE_SERVER_LATENCY_MS
+                        + "ms each, 1 lane: " + singleLane + "ms, " + CONCURRENT_LANES + " lanes: " + concurrent
+                        + "ms, speed-up " + String.format("%.2f", singleLane / (double) Math.max(1, concurrent)));
+            }
+        });
+    }
+
+    private long timeEventBurst(int lanes) {
+        branch.setMaxConcurrentRequests(lanes);
+        branch.setBranchRemoteInterface(new ServerRequestQueueLanesTests.FakeServer());
+
+        final CountDownLatch latch = new CountDownLatch(EVENT_COUNT);
+        BranchEvent.BranchLogEventCallback callback = new BranchEvent.BranchLogEventCallback() {
+            @Override
+            public void onSuccess(int responseCode) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Assert.fail("event failed " + e.getMessage());
+            }
+        };
+
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            new BranchEvent("lanes_benchmark_" + i).logEvent(getTestContext(), callback);
+        }
+        try {
+            Assert.assertTrue(latch.await(EVENT_COUNT * ServerRequestQueueLanesTests.FAKE_SERVER_LATENCY_MS + TEST_INIT_SESSION_TIMEOUT, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            Assert.fail(e.getMessage());
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+}
@@ -0,0 +1,102 @@
+package io.branch.referral;
+
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.branch.referral.network.BranchRemoteInterface;
+import io.branch.referral.util.BranchEvent;
+
+/**
+ * Checks how many requests the dispatch lanes in {@link ServerRequestQueue} have in flight at once,
+ * against a fake server with a fixed per-request latency. {@link ServerRequestQueueLanesBenchmark}
+ * measures the throughput.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ServerRequestQueueLanesTests extends BranchTest {
+    private static final int EVENT_COUNT = 12;
+    static final long FAKE_SERVER_LATENCY_MS = 250;
+    private static final int CONCURRENT_LANES = 4;
+
+    @Test
+    public void testConcurrentLanes() {
+        initBranchInstance(TEST_KEY);
+        initSessionResumeActivity(null, new Runnable() {
+            @Override
+            public void run() {
+                FakeServer singleLaneServer = new FakeServer();
+                sendEventBurst(1, singleLaneServer);
+
+                FakeServer concurrentServer = new FakeServer();
+                sendEventBurst(CONCURRENT_LANES, concurrentServer);
+
+                Assert.assertEquals(1, singleLaneServer.maxInFlight.get());
+                Assert.assertTrue(concurrentServer.maxInFlight.get() > 1);
+                Assert.assertTrue(concurrentServer.maxInFlight.get() <= CONCURRENT_LANES);
+            }
+        });
+    }
+
+    private void sendEventBurst(int lanes, FakeServer server) {
+        branch.setMaxConcurrentRequests(lanes);
+        branch.setBranchRemoteInterface(server);
+
+        final CountDownLatch latch = new CountDownLatch(EVENT_COUNT);
+        BranchEvent.BranchLogEventCallback callback = new BranchEvent.BranchLogEventCallback() {
+            @Override
+            public void onSuccess(int responseCode) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Assert.fail("event failed " + e.getMessage());
+            }
+        };
+
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            new BranchEvent("lanes_benchmark_" + i).logEvent(getTestContext(), callback);
+        }
+        try {
+            Assert.assertTrue(latch.await(EVENT_COUNT * FAKE_SERVER_LATENCY_MS + TEST_INIT_SESSION_TIMEOUT, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    // Answers every request after FAKE_SERVER_LATENCY_MS, counting how many it holds at once
+    static class FakeServer extends BranchRemoteInterface {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        @Override
+        public BranchResponse doRestfulGet(String url) {
+            return respond();
+        }
+
+        @Override
+        public BranchResponse doRestfulPost(String url, JSONObject payload) {
+            return respond();
+        }
+
+        private BranchResponse respond() {
+            int current = inFlight.incrementAndGet();
+            int max;
+            while (current > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, current)) {
+                // retry
+            }
+            SystemClock.sleep(FAKE_SERVER_LATENCY_MS);
+            inFlight.decrementAndGet();
+            return new BranchResponse("{}", 200);
+        }
+    }
+}
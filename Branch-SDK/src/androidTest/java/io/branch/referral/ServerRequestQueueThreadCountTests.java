@@ -0,0 +1,85 @@
+package io.branch.referral;
+
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.branch.indexing.BranchUniversalObject;
+import io.branch.referral.network.BranchRemoteInterface;
+
+/**
+ * Checks that a burst of requests, each with its own timeout, does not add threads: the timeouts
+ * share {@link BranchTaskTimeoutScheduler}'s thread and the requests run on {@link BranchExecutor}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ServerRequestQueueThreadCountTests extends BranchTest {
+    private static final int BURST_SIZE = 1000;
+    private static final long FAKE_SERVER_LATENCY_MS = 5;
+    private static final int TIMEOUT_MS = 60000;
+
+    @Before
+    public void setUp() {
+        super.setUp();
+        initBranchInstance(TEST_KEY);
+    }
+
+    @Test
+    public void testThreadCountStaysFlatUnderABurst() throws InterruptedException {
+        final CountDownLatch answered = new CountDownLatch(BURST_SIZE);
+        branch.setBranchRemoteInterface(new BranchRemoteInterface() {
+            @Override
+            public BranchResponse doRestfulGet(String url) {
+                return respond();
+            }
+
+            @Override
+            public BranchResponse doRestfulPost(String url, JSONObject payload) {
+                return respond();
+            }
+
+            private BranchResponse respond() {
+                SystemClock.sleep(FAKE_SERVER_LATENCY_MS);
+                answered.countDown();
+                return new BranchResponse("{}", 200);
+            }
+        });
+        final ServerRequestQueue queue = ServerRequestQueue.getInstance(getTestContext());
+        int threadsBefore = Thread.activeCount();
+
+        // Requests are prepared on the main thread before they are handed to a worker
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < BURST_SIZE; i++) {
+                    ServerRequest event = new ServerRequestLogEvent(getTestContext(), Defines.RequestPath.TrackCustomEvent,
+                            "thread_count_" + i, new HashMap<String, Object>(), new JSONObject(), new JSONObject(), new ArrayList<BranchUniversalObject>());
+                    queue.executeTimedBranchPostTask(event, TIMEOUT_MS, false);
+                }
+            }
+        });
+
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MS;
+        int maxThreads = Thread.activeCount();
+        while (!answered.await(10, TimeUnit.MILLISECONDS)) {
+            maxThreads = Math.max(maxThreads, Thread.activeCount());
+            Assert.assertTrue("timed out with " + answered.getCount() + " requests unanswered", SystemClock.elapsedRealtime() < deadline);
+        }
+
+        // At most the workers and the shared timeout thread, however many requests are in flight
+        int allowed = BranchExecutor.getDefaultPoolSize() + 1;
+        Assert.assertTrue("thread count grew from " + threadsBefore + " to " + maxThreads + " for " + BURST_SIZE + " requests",
+                maxThreads - threadsBefore <= allowed);
+    }
+}
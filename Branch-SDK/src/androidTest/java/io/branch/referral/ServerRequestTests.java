@@ -17,6 +17,7 @@ import org.junit.runner.RunWith;
 
 import java.util.Calendar;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -145,6 +146,42 @@ public class ServerRequestTests extends BranchTest {
         Assert.assertTrue(eventRequest.creation_ts > 0);
     }
 
+    @Test
+    public void testSessionTokensAreResolvedWhenSent() throws JSONException {
+        PrefHelper prefHelper = PrefHelper.getInstance(getTestContext());
+        prefHelper.setRandomizedDeviceToken("device_token_1");
+        prefHelper.setRandomizedBundleToken("bundle_token_1");
+        ServerRequest open = new ServerRequestRegisterOpen(getTestContext(), null, false);
+
+        // An init response changes them while the request is queued
+        prefHelper.setRandomizedDeviceToken("device_token_2");
+        prefHelper.setRandomizedBundleToken("bundle_token_2");
+
+        JSONObject sent = open.getPostWithInstrumentationValues(new ConcurrentHashMap<String, String>());
+        Assert.assertEquals("device_token_2", sent.getString(Defines.Jsonkey.RandomizedDeviceToken.getKey()));
+        Assert.assertEquals("bundle_token_2", sent.getString(Defines.Jsonkey.RandomizedBundleToken.getKey()));
+        // The queued post keeps the placeholders, also through the journal
+        ServerRequest restored = ServerRequest.fromJSON(open.toJSON(), getTestContext());
+        Assert.assertNotNull(restored);
+        Assert.assertEquals(ServerRequest.sessionToken(Defines.Jsonkey.RandomizedDeviceToken),
+                restored.getPost().getString(Defines.Jsonkey.RandomizedDeviceToken.getKey()));
+    }
+
+    @Test
+    public void testResolvedPostShowsTheSentSessionTokens() throws JSONException {
+        PrefHelper prefHelper = PrefHelper.getInstance(getTestContext());
+        prefHelper.setRandomizedDeviceToken("device_token_1");
+        prefHelper.setRandomizedBundleToken("bundle_token_1");
+        ServerRequest open = new ServerRequestRegisterOpen(getTestContext(), null, false);
+
+        JSONObject resolved = open.getResolvedPost();
+        Assert.assertEquals("device_token_1", resolved.getString(Defines.Jsonkey.RandomizedDeviceToken.getKey()));
+        Assert.assertEquals("bundle_token_1", resolved.getString(Defines.Jsonkey.RandomizedBundleToken.getKey()));
+        Assert.assertTrue(resolved.toString().contains("device_token_1"));
+        Assert.assertEquals(ServerRequest.sessionToken(Defines.Jsonkey.RandomizedBundleToken),
+                open.getPost().getString(Defines.Jsonkey.RandomizedBundleToken.getKey()));
+    }
+
     private void setTimeouts(int timeout, int connectTimeout){
         branch.setNetworkTimeout(timeout);
         branch.setNetworkConnectTimeout(connectTimeout);
@@ -0,0 +1,207 @@
+package io.branch.referral;
+
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.branch.referral.network.BranchRemoteInterface;
+
+/**
+ * Tests that identical async short link requests made before the first response arrives are
+ * answered by a single network call.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ShortLinkCoalescingTests extends BranchTest {
+    private static final int CALLERS = 5;
+    private static final long FAKE_SERVER_LATENCY_MS = 500;
+    private static final String SHORT_URL = "https://bnc.lt/coalesced";
+
+    @Test
+    public void testIdenticalLinkRequestsShareOneNetworkCall() {
+        initBranchInstance(TEST_KEY);
+        initSessionResumeActivity(null, new Runnable() {
+            @Override
+            public void run() {
+                LinkServer server = new LinkServer();
+                branch.setBranchRemoteInterface(server);
+
+                final CountDownLatch latch = new CountDownLatch(CALLERS);
+                final Set<String> urls = Collections.synchronizedSet(new HashSet<String>());
+                final AtomicInteger errors = new AtomicInteger();
+                final CountDownLatch start = new CountDownLatch(1);
+                for (int i = 0; i < CALLERS; i++) {
+                    new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                start.await();
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                            new BranchShortLinkBuilder(getTestContext())
+                                    .setChannel("coalescing")
+                                    .setFeature("list_item")
+                                    .generateShortUrl(new Branch.BranchLinkCreateListener() {
+                                        @Override
+                                        public void onLinkCreate(String url, BranchError error) {
+                                            if (error != null) {
+                                                errors.incrementAndGet();
+                                            }
+                                            urls.add(url);
+                                            latch.countDown();
+                                        }
+                                    });
+                        }
+                    }).start();
+                }
+                start.countDown();
+
+                try {
+                    Assert.assertTrue(latch.await(TEST_REQUEST_TIMEOUT + FAKE_SERVER_LATENCY_MS, TimeUnit.MILLISECONDS));
+                } catch (InterruptedException e) {
+                    Assert.fail(e.getMessage());
+                }
+
+                Assert.assertEquals(0, errors.get());
+                Assert.assertEquals(1, server.linkRequests.get());
+                Assert.assertEquals(Collections.singleton(SHORT_URL), urls);
+                Assert.assertTrue(branch.pendingLinkRequests_.isEmpty());
+            }
+        });
+    }
+
+    @Test
+    public void testDifferentLinksAreNotCoalesced() {
+        initBranchInstance(TEST_KEY);
+        initSessionResumeActivity(null, new Runnable() {
+            @Override
+            public void run() {
+                LinkServer server = new LinkServer();
+                branch.setBranchRemoteInterface(server);
+
+                final CountDownLatch latch = new CountDownLatch(2);
+                Branch.BranchLinkCreateListener callback = new Branch.BranchLinkCreateListener() {
+                    @Override
+                    public void onLinkCreate(String url, BranchError error) {
+                        latch.countDown();
+                    }
+                };
+                new BranchShortLinkBuilder(getTestContext()).setChannel("first").generateShortUrl(callback);
+                new BranchShortLinkBuilder(getTestContext()).setChannel("second").generateShortUrl(callback);
+
+                try {
+                    Assert.assertTrue(latch.await(TEST_REQUEST_TIMEOUT + FAKE_SERVER_LATENCY_MS, TimeUnit.MILLISECONDS));
+                } catch (InterruptedException e) {
+                    Assert.fail(e.getMessage());
+                }
+                Assert.assertEquals(2, server.linkRequests.get());
+            }
+        });
+    }
+
+    @Test
+    public void testRemovedLinkRequestFailsItsCallbacks() {
+        initBranchInstance(TEST_KEY);
+        final RecordingCallback first = new RecordingCallback();
+        final RecordingCallback coalesced = new RecordingCallback();
+        ServerRequestCreateUrl req = lockedLinkRequest("removed", first);
+        Assert.assertTrue(req.coalesce(lockedLinkRequest("removed", coalesced)));
+        branch.pendingLinkRequests_.put(req.getLinkPost(), req);
+        branch.requestQueue_.enqueue(req);
+
+        branch.requestQueue_.remove(req);
+
+        Assert.assertEquals(1, first.errors.get());
+        Assert.assertEquals(1, coalesced.errors.get());
+        Assert.assertTrue(branch.pendingLinkRequests_.isEmpty());
+
+        // A late response finds nobody left to answer
+        req.handleFailure(BranchError.ERR_OTHER, "late");
+        Assert.assertEquals(1, first.errors.get());
+    }
+
+    @Test
+    public void testLinkRequestDroppedByQueueOverflowFailsItsCallback() {
+        initBranchInstance(TEST_KEY);
+        branch.requestQueue_.clear();
+        branch.requestQueue_.enqueue(lockedLinkRequest("head", null));
+        RecordingCallback callback = new RecordingCallback();
+        ServerRequestCreateUrl req = lockedLinkRequest("dropped", callback);
+        branch.pendingLinkRequests_.put(req.getLinkPost(), req);
+        branch.requestQueue_.enqueue(req);
+
+        // The oldest request behind the head is dropped once the queue is full
+        for (int i = 0; i < 100 && callback.errors.get() == 0; i++) {
+            branch.requestQueue_.enqueue(lockedLinkRequest("filler" + i, null));
+        }
+
+        Assert.assertEquals(1, callback.errors.get());
+        Assert.assertTrue(branch.pendingLinkRequests_.isEmpty());
+
+        branch.requestQueue_.clear();
+    }
+
+    @Test
+    public void testClearedQueueFailsPendingLinkRequests() {
+        initBranchInstance(TEST_KEY);
+        RecordingCallback callback = new RecordingCallback();
+        ServerRequestCreateUrl req = lockedLinkRequest("cleared", callback);
+        branch.pendingLinkRequests_.put(req.getLinkPost(), req);
+        branch.requestQueue_.enqueue(req);
+
+        branch.requestQueue_.clear();
+
+        Assert.assertEquals(1, callback.errors.get());
+        Assert.assertTrue(branch.pendingLinkRequests_.isEmpty());
+    }
+
+    // Held in the queue by a wait lock, so that it is never sent
+    private ServerRequestCreateUrl lockedLinkRequest(String channel, Branch.BranchLinkCreateListener callback) {
+        ServerRequestCreateUrl req = new ServerRequestCreateUrl(getTestContext(), null, 0, 0, null, channel,
+                null, null, null, new JSONObject(), callback, true, false);
+        req.addProcessWaitLock(ServerRequest.PROCESS_WAIT_LOCK.USER_SET_WAIT_LOCK);
+        return req;
+    }
+
+    private static class RecordingCallback implements Branch.BranchLinkCreateListener {
+        final AtomicInteger errors = new AtomicInteger();
+
+        @Override
+        public void onLinkCreate(String url, BranchError error) {
+            if (error != null) {
+                errors.incrementAndGet();
+            }
+        }
+    }
+
+    private static class LinkServer extends BranchRemoteInterface {
+        final AtomicInteger linkRequests = new AtomicInteger();
+
+        @Override
+        public BranchResponse doRestfulGet(String url) {
+            return new BranchResponse("{}", 200);
+        }
+
+        @Override
+        public BranchResponse doRestfulPost(String url, JSONObject payload) {
+            if (url.endsWith(Defines.RequestPath.GetURL.getPath())) {
+                linkRequests.incrementAndGet();
+                SystemClock.sleep(FAKE_SERVER_LATENCY_MS);
+                return new BranchResponse("{\"url\":\"" + SHORT_URL + "\"}", 200);
+            }
+            return new BranchResponse("{}", 200);
+        }
+    }
+}
@@ -8,6 +8,7 @@ import static io.branch.referral.Defines.Jsonkey.IN_APP_WEBVIEW;
 import static io.branch.referral.PrefHelper.isValidBranchKey;
 import static io.branch.referral.util.DependencyUtilsKt.billingGooglePlayClass;
 import static io.branch.referral.util.DependencyUtilsKt.classExists;
+import static io.branch.referral.util.DependencyUtilsKt.okHttpClientClass;
 
 import android.app.Activity;
 import android.app.Application;
@@ -18,7 +19,6 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
@@ -42,10 +42,12 @@ import java.net.HttpURLConnection;
 import java.net.URLEncoder;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -53,12 +55,17 @@ import io.branch.indexing.BranchUniversalObject;
 import io.branch.interfaces.IBranchLoggingCallbacks;
 import io.branch.referral.Defines.PreinstallKey;
 import io.branch.referral.ServerRequestGetLATD.BranchLastAttributedTouchDataListener;
+import io.branch.referral.network.BranchCompression;
+import io.branch.referral.network.BranchConnectionManager;
 import io.branch.referral.network.BranchRemoteInterface;
+import io.branch.referral.network.BranchRemoteInterfaceOkHttp;
 import io.branch.referral.network.BranchRemoteInterfaceUrlConnection;
 import io.branch.referral.util.BRANCH_STANDARD_EVENT;
 import io.branch.referral.util.BranchEvent;
 import io.branch.referral.util.DependencyUtilsKt;
 import io.branch.referral.util.LinkProperties;
+import kotlinx.coroutines.CoroutineDispatcher;
+import kotlinx.coroutines.ExecutorsKt;
 
 /**
  * <p>
@@ -234,6 +241,9 @@ public class Branch {
 
     final ConcurrentHashMap<BranchLinkData, String> linkCache_ = new ConcurrentHashMap<>();
 
+    // Async short link requests that have been queued but not answered yet, by link data
+    final ConcurrentHashMap<BranchLinkData, ServerRequestCreateUrl> pendingLinkRequests_ = new ConcurrentHashMap<>();
+
     /* Set to true when {@link Activity} life cycle callbacks are registered. */
     private static boolean isActivityLifeCycleCallbackRegistered_ = false;
     private CustomTabsIntent customTabsIntentOverride;
@@ -367,6 +377,8 @@ public class Branch {
             branchReferral_.setActivityLifeCycleObserver((Application) context);
         }
 
+        branchReferral_.prewarmApiConnection();
+
         return branchReferral_;
     }
 
@@ -460,6 +472,32 @@ public class Branch {
         }
     }
 
+    /**
+     * <p>Sends the SDK's requests through the app's own HTTP/2 capable client, so that they share
+     * its connection pool and are multiplexed over one connection to the Branch API instead of
+     * opening a socket each. An {@code okhttp3.OkHttpClient} is supported. If OkHttp is not in the
+     * app, or {@code client} is not one, the SDK keeps its default network layer.</p>
+     *
+     * @param client The app's {@code okhttp3.OkHttpClient}, or null to restore the default network layer.
+     */
+    public void setHttp2Client(@Nullable Object client) {
+        if (client == null) {
+            branchRemoteInterface_ = new BranchRemoteInterfaceUrlConnection(this);
+            return;
+        }
+        // Checked before BranchRemoteInterfaceOkHttp is loaded, OkHttp is an optional dependency
+        if (!classExists(okHttpClientClass)) {
+            BranchLogger.w("OkHttp is not in the app, keeping the default network layer");
+            return;
+        }
+        BranchRemoteInterface remoteInterface = BranchRemoteInterfaceOkHttp.wrap(this, client);
+        if (remoteInterface == null) {
+            BranchLogger.w("Unsupported HTTP client " + client.getClass().getName() + ", keeping the default network layer");
+            return;
+        }
+        branchRemoteInterface_ = remoteInterface;
+    }
+
     public BranchRemoteInterface getBranchRemoteInterface() {
         return branchRemoteInterface_;
     }
@@ -620,6 +658,9 @@ public class Branch {
     // Package Private
     // For Unit Testing, we need to reset the Branch state
     static void shutDown() {
+        if (branchReferral_ != null) {
+            branchReferral_.deviceInfo_.shutDown();
+        }
         ServerRequestQueue.shutDown();
         PrefHelper.shutDown();
         BranchUtil.shutDown();
@@ -663,12 +704,14 @@ public class Branch {
     public void setRetryCount(int retryCount) {
         if (prefHelper_ != null && retryCount >= 0) {
             prefHelper_.setRetryCount(retryCount);
+            requestQueue_.configureRetryPolicy(prefHelper_);
         }
     }
     
     /**
-     * Sets the amount of time in milliseconds to wait before re-attempting a timed-out request
-     * to the Branch API. Default 1000 ms.
+     * Sets the base amount of time in milliseconds to wait before re-attempting a failed request
+     * to the Branch API. Default 1000 ms. Each further retry of the same request waits a random
+     * time of up to twice as long as the previous one, capped as set in {@link #setRetryMaxInterval(int)}.
      *
      * @param retryInterval An {@link Integer} value specifying the number of milliseconds to
      *                      wait before re-attempting a timed-out request.
@@ -676,13 +719,59 @@ public class Branch {
     public void setRetryInterval(int retryInterval) {
         if (prefHelper_ != null && retryInterval > 0) {
             prefHelper_.setRetryInterval(retryInterval);
+            requestQueue_.configureRetryPolicy(prefHelper_);
+        }
+    }
+
+    /**
+     * Sets the maximum amount of time in milliseconds to wait between two attempts of a failed
+     * request to the Branch API. Default 16000 ms.
+     *
+     * @param retryMaxInterval An {@link Integer} value specifying the maximum number of milliseconds
+     *                         to wait before re-attempting a failed request.
+     */
+    public void setRetryMaxInterval(int retryMaxInterval) {
+        if (prefHelper_ != null && retryMaxInterval > 0) {
+            prefHelper_.setRetryMaxInterval(retryMaxInterval);
+            requestQueue_.configureRetryPolicy(prefHelper_);
         }
     }
+
+    /**
+     * Sets how many retries all requests to the Branch API may use in total until the next session
+     * is initialised. Once used up, failing requests are reported with
+     * {@link BranchError#ERR_BRANCH_RETRY_BUDGET_EXHAUSTED} instead of being retried. Default 10.
+     *
+     * @param retryBudget An {@link Integer} specifying the number of retries per session.
+     */
+    public void setRetryBudget(int retryBudget) {
+        if (prefHelper_ != null && retryBudget >= 0) {
+            prefHelper_.setRetryBudget(retryBudget);
+            requestQueue_.configureRetryPolicy(prefHelper_);
+        }
+    }
+
+    /**
+     * <p>Sets a listener notified when requests to a Branch API path start failing and the SDK stops
+     * sending them ({@link BranchCircuitBreaker.State#OPEN}), when it tries a single request again
+     * ({@link BranchCircuitBreaker.State#HALF_OPEN}), and when the path has recovered
+     * ({@link BranchCircuitBreaker.State#CLOSED}).</p>
+     *
+     * <p>While a path is open, logged events are held and sent once it recovers. Other requests fail
+     * with {@link BranchError#ERR_BRANCH_CIRCUIT_OPEN}.</p>
+     *
+     * @param listener A {@link BranchCircuitBreaker.StateListener}, or null to remove the current one.
+     */
+    public void setCircuitBreakerListener(@Nullable BranchCircuitBreaker.StateListener listener) {
+        requestQueue_.circuitBreaker_.setListener(listener);
+    }
     
     /**
      * <p>Sets the duration in milliseconds that the system should wait for a response before timing
-     * out any Branch API. Default 5500 ms. Note that this is the total time allocated for all request
-     * retries as set in {@link #setRetryCount(int)}.
+     * out any Branch API. Default 5500 ms. Note that this applies to each attempt of a request, as
+     * retried up to {@link #setRetryCount(int)} times.
+     * <p>Once the SDK has measured the round trip times of an API on the current network, its
+     * timeouts are derived from them instead, see {@link #setNetworkTimeoutBounds(int, int)}.
      *
      * @param timeout An {@link Integer} value specifying the number of milliseconds to wait before
      *                considering the request to have timed out.
@@ -693,6 +782,24 @@ public class Branch {
         }
     }
 
+    /**
+     * <p>Sets the bounds of the timeouts the SDK derives from the round trip times it observes. The
+     * SDK keeps a smoothed round trip time and its variance for each Branch API on each network
+     * type, and waits for that time plus a margin for the variance, so that it gives up early on
+     * requests that are clearly lost and gives slow but working networks the time they need.
+     * Default 3000 to 20000 ms. Pass the same value twice to use a fixed timeout.</p>
+     *
+     * @param minTimeout An {@link Integer} value specifying the shortest timeout in milliseconds.
+     * @param maxTimeout An {@link Integer} value specifying the longest timeout in milliseconds,
+     *                   not less than {@code minTimeout}.
+     */
+    public void setNetworkTimeoutBounds(int minTimeout, int maxTimeout) {
+        if (prefHelper_ != null && minTimeout > 0 && maxTimeout >= minTimeout) {
+            prefHelper_.setMinAdaptiveTimeout(minTimeout);
+            prefHelper_.setMaxAdaptiveTimeout(maxTimeout);
+        }
+    }
+
     /**
      * <p>Sets the duration in milliseconds that the system should wait for initializing a network
      * * request.</p>
@@ -720,6 +827,138 @@ public class Branch {
         }
     }
 
+    /**
+     * <p>Sets how many independent requests (events, short links and QR codes) may be sent to the
+     * Branch API at the same time. Session initialisation, setIdentity and logout are always sent
+     * one at a time and in order, whatever this value is.</p>
+     *
+     * Must be greater than 0
+     * Defaults to 1
+     * @param maxConcurrentRequests An {@link Integer} specifying the number of dispatch lanes.
+     */
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        if (prefHelper_ != null && maxConcurrentRequests > 0) {
+            prefHelper_.setMaxConcurrentRequests(maxConcurrentRequests);
+        }
+    }
+
+    /**
+     * <p>gzip encodes the body of requests to the Branch API once it reaches {@code minBytes}.
+     * Session and event payloads carry large, repetitive blocks such as user data and content
+     * items, and usually shrink several times over. Compressed responses are decoded whether or
+     * not this is enabled.</p>
+     *
+     * Must be 0 or greater
+     * Disabled by default
+     * @param minBytes An {@link Integer} specifying the smallest body, in bytes, to compress.
+     */
+    public void enableRequestCompression(int minBytes) {
+        if (prefHelper_ != null && minBytes >= 0) {
+            prefHelper_.setRequestCompressionThreshold(minBytes);
+        }
+    }
+
+    /**
+     * <p>Sends request bodies to the Branch API uncompressed, see {@link #enableRequestCompression(int)}.</p>
+     */
+    public void disableRequestCompression() {
+        if (prefHelper_ != null) {
+            prefHelper_.setRequestCompressionThreshold(PrefHelper.REQUEST_COMPRESSION_DISABLED);
+        }
+    }
+
+    /**
+     * <p>Gets the bytes compression has saved on the wire since the app started, by Branch API path,
+     * counting both compressed requests and compressed responses.</p>
+     *
+     * @return A {@link Map} of the bytes saved, by {@link Defines.RequestPath}.
+     */
+    public static Map<Defines.RequestPath, Long> getBytesSavedByCompression() {
+        return BranchCompression.getBytesSaved();
+    }
+
+    /**
+     * <p>Runs the SDK's background work (network requests, short link creation and skip list
+     * updates) on the given {@link Executor} instead of the SDK's own bounded pool. Call this before
+     * initialising the SDK so that every request uses it.</p>
+     *
+     * @param executor The {@link Executor} to use, or null to restore the SDK's own pool.
+     */
+    public static void setSdkExecutor(@Nullable Executor executor) {
+        BranchExecutor.setHostExecutor(executor);
+    }
+
+    /**
+     * <p>Runs the SDK's background work on the given {@link CoroutineDispatcher}, for example
+     * {@code Dispatchers.IO}. See {@link #setSdkExecutor(Executor)}.</p>
+     *
+     * @param dispatcher The {@link CoroutineDispatcher} to use, or null to restore the SDK's own pool.
+     */
+    public static void setSdkDispatcher(@Nullable CoroutineDispatcher dispatcher) {
+        BranchExecutor.setHostExecutor(dispatcher == null ? null : ExecutorsKt.asExecutor(dispatcher));
+    }
+
+    /**
+     * <p>Groups events logged with {@link BranchEvent#logEvent(Context)} into multi-event uploads
+     * that share a single device and user data block, instead of sending one request per event.
+     * A batch is sent as soon as any of the limits is reached, and whenever the app goes to the
+     * background. Callbacks passed to {@code logEvent} are invoked once the batch completes.</p>
+     * <p>Events waiting for their batch are kept in memory only. Unlike requests in the queue they
+     * are not persisted, so events logged shortly before the app process is killed can be lost.
+     * Use a low {@code maxLatencyMs} to keep that window short.</p>
+     *
+     * @param maxEvents     The maximum number of events in one upload.
+     * @param maxBatchBytes The approximate maximum size in bytes of the events in one upload.
+     * @param maxLatencyMs  The maximum time in milliseconds an event waits for the batch to fill up.
+     */
+    public void enableEventBatching(int maxEvents, int maxBatchBytes, long maxLatencyMs) {
+        requestQueue_.setEventBatcher(new BranchEventBatcher(context_, requestQueue_, maxEvents, maxBatchBytes, maxLatencyMs));
+    }
+
+    /**
+     * <p>Stops batching events. Any events waiting in the current batch are sent immediately.</p>
+     */
+    public void disableEventBatching() {
+        requestQueue_.setEventBatcher(null);
+    }
+
+    /**
+     * <p>Sends a second copy of a session init request that is still waiting for its response
+     * after the given percentile of recent init latencies, and uses whichever response arrives
+     * first. Both copies carry the same request uuid, so the server handles them as one request.
+     * This trims the long tail of cold start deep link latency, at the cost of sending at most
+     * {@code maxHedgeRate} of init requests twice.</p>
+     *
+     * @param latencyPercentile The percentile of recent init latencies after which a copy is sent,
+     *                          1 to 99, eg. 95.
+     * @param maxHedgeRate      The largest share of init requests that may be sent twice, greater
+     *                          than 0 and at most 1, eg. 0.05.
+     */
+    public void enableSessionInitHedging(int latencyPercentile, double maxHedgeRate) {
+        if (latencyPercentile < 1 || latencyPercentile > 99 || !(maxHedgeRate > 0 && maxHedgeRate <= 1)) {
+            BranchLogger.w("Invalid session init hedging settings, percentile " + latencyPercentile + " rate " + maxHedgeRate);
+            return;
+        }
+        requestQueue_.setHedgePolicy(new BranchHedgePolicy(new BranchHedgePolicy.Store() {
+            @Override
+            public String load() {
+                return prefHelper_.getSessionInitHedgingState();
+            }
+
+            @Override
+            public void save(String state) {
+                prefHelper_.setSessionInitHedgingState(state);
+            }
+        }, latencyPercentile, maxHedgeRate));
+    }
+
+    /**
+     * <p>Stops sending second copies of session init requests.</p>
+     */
+    public void disableSessionInitHedging() {
+        requestQueue_.setHedgePolicy(null);
+    }
+
     /**
      * Sets the window for the referrer GCLID field. The GCLID will be persisted locally from the
      * time it is set + window in milliseconds. Thereafter, it will be deleted.
@@ -963,7 +1202,6 @@ public class Branch {
         if (requestQueue_ == null) return;
         requestQueue_.postInitClear();
         requestQueue_.unlockProcessWait(ServerRequest.PROCESS_WAIT_LOCK.SDK_INIT_WAIT_LOCK);
-        requestQueue_.processNextQueueItem("unlockSDKInitWaitLock");
     }
     
     private boolean isIntentParamsAlreadyConsumed(Activity activity) {
@@ -1149,7 +1387,6 @@ public class Branch {
     @SuppressWarnings("WeakerAccess")
     public void removeSessionInitializationDelay() {
         requestQueue_.unlockProcessWait(ServerRequest.PROCESS_WAIT_LOCK.USER_SET_WAIT_LOCK);
-        requestQueue_.processNextQueueItem("removeSessionInitializationDelay");
     }
     
     /**
@@ -1303,7 +1540,9 @@ public class Branch {
                 return url;
             }
             if (req.isAsync()) {
-                requestQueue_.handleNewRequest(req);
+                if (!coalesceWithPendingLinkRequest(req)) {
+                    requestQueue_.handleNewRequest(req);
+                }
             } else {
                 return generateShortLinkSync(req);
             }
@@ -1311,6 +1550,33 @@ public class Branch {
         return null;
     }
 
+    /**
+     * Attaches the callback of {@code req} to a queued request for the same link, so that identical
+     * links requested before the first response arrives are created with a single network call.
+     *
+     * @return True if {@code req} was attached and must not be queued itself
+     */
+    private boolean coalesceWithPendingLinkRequest(ServerRequestCreateUrl req) {
+        BranchLinkData linkData = req.getLinkPost();
+        if (linkData == null) {
+            return false;
+        }
+        while (true) {
+            ServerRequestCreateUrl pending = pendingLinkRequests_.putIfAbsent(linkData, req);
+            if (pending == null) {
+                return false;
+            }
+            if (pending.coalesce(req)) {
+                BranchLogger.v("Coalesced short link request with pending request " + pending);
+                return true;
+            }
+            // The pending request completed in the meantime, this one takes its place
+            if (pendingLinkRequests_.replace(linkData, pending, req)) {
+                return false;
+            }
+        }
+    }
+
 
     /**
      * <p>Creates a link with given attributes and shares with the
@@ -1363,7 +1629,7 @@ public class Branch {
         ServerResponse response = null;
         try {
             int timeOut = prefHelper_.getTimeout() + 2000; // Time out is set to slightly more than link creation time to prevent any edge case
-            response = new GetShortLinkTask().execute(req).get(timeOut, TimeUnit.MILLISECONDS);
+            response = new GetShortLinkTask().executeTask(req).get(timeOut, TimeUnit.MILLISECONDS);
         } catch (InterruptedException | ExecutionException | TimeoutException e) {
             BranchLogger.d(e.getMessage());
         }
@@ -1551,9 +1817,8 @@ public class Branch {
             deviceInfo_.getSystemObserver().fetchInstallReferrer(context_, new SystemObserver.InstallReferrerFetchEvents() {
                 @Override
                 public void onInstallReferrersFinished() {
-                    request.removeProcessWaitLock(ServerRequest.PROCESS_WAIT_LOCK.INSTALL_REFERRER_FETCH_WAIT_LOCK);
+                    requestQueue_.unlockProcessWait(request, ServerRequest.PROCESS_WAIT_LOCK.INSTALL_REFERRER_FETCH_WAIT_LOCK);
                     BranchLogger.v("INSTALL_REFERRER_FETCH_WAIT_LOCK removed");
-                    requestQueue_.processNextQueueItem("onInstallReferrersFinished");
                 }
             });
         }
@@ -1565,7 +1830,6 @@ public class Branch {
             @Override
             public void onAdsParamsFetchFinished() {
                 requestQueue_.unlockProcessWait(ServerRequest.PROCESS_WAIT_LOCK.GAID_FETCH_WAIT_LOCK);
-                requestQueue_.processNextQueueItem("onAdsParamsFetchFinished");
             }
         });
     }
@@ -1585,7 +1849,6 @@ public class Branch {
     void onIntentReady(@NonNull Activity activity) {
         BranchLogger.v("onIntentReady " + activity + " removing INTENT_PENDING_WAIT_LOCK");
         setIntentState(Branch.INTENT_STATE.READY);
-        requestQueue_.unlockProcessWait(ServerRequest.PROCESS_WAIT_LOCK.INTENT_PENDING_WAIT_LOCK);
 
         Intent intent = activity.getIntent();
         SessionState sessionState = getInitState();
@@ -1597,7 +1860,8 @@ public class Branch {
             Uri intentData = activity.getIntent().getData();
             readAndStripParam(intentData, activity);
         }
-        requestQueue_.processNextQueueItem("onIntentReady");
+        // Released last, as it may dispatch the init request, which reads what was stripped above
+        requestQueue_.unlockProcessWait(ServerRequest.PROCESS_WAIT_LOCK.INTENT_PENDING_WAIT_LOCK);
     }
 
     /**
@@ -1608,7 +1872,6 @@ public class Branch {
         BranchLogger.v("unlockPendingIntent removing INTENT_PENDING_WAIT_LOCK");
         setIntentState(Branch.INTENT_STATE.READY);
         requestQueue_.unlockProcessWait(ServerRequest.PROCESS_WAIT_LOCK.INTENT_PENDING_WAIT_LOCK);
-        requestQueue_.processNextQueueItem("unlockPendingIntent");
     }
 
     /**
@@ -1618,6 +1881,24 @@ public class Branch {
         requestQueue_.processNextQueueItem("notifyNetworkAvailable");
     }
 
+    /**
+     * Connects to the Branch API in the background, so that DNS, TCP and TLS happen alongside the
+     * GAID and install referrer fetches instead of delaying the first request.
+     */
+    private void prewarmApiConnection() {
+        if (!(branchRemoteInterface_ instanceof BranchRemoteInterfaceUrlConnection) || trackingController.isTrackingDisabled()) {
+            return;
+        }
+        final String baseUrl = prefHelper_.getAPIBaseUrl();
+        final int connectTimeout = prefHelper_.getConnectTimeout();
+        BranchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                BranchConnectionManager.getInstance().prewarm(baseUrl, connectTimeout);
+            }
+        }, BranchExecutor.PRIORITY_NORMAL);
+    }
+
     private void setActivityLifeCycleObserver(Application application) {
         BranchLogger.v("setActivityLifeCycleObserver activityLifeCycleObserver: " + activityLifeCycleObserver
                 + " application: " + application);
@@ -1845,7 +2126,12 @@ public class Branch {
     /**
      * Async Task to create  a short link for synchronous methods
      */
-    private class GetShortLinkTask extends AsyncTask<ServerRequest, Void, ServerResponse> {
+    private class GetShortLinkTask extends BranchAsyncTask<ServerRequest, Void, ServerResponse> {
+        // The calling thread is blocked on the result
+        @Override protected int getPriority() {
+            return BranchExecutor.PRIORITY_HIGH;
+        }
+
         @Override protected ServerResponse doInBackground(ServerRequest... serverRequests) {
             return branchRemoteInterface_.make_restful_post(serverRequests[0].getPost(),
                     prefHelper_.getAPIBaseUrl() + Defines.RequestPath.GetURL.getPath(),
@@ -89,6 +89,9 @@ class BranchActivityLifecycleObserver implements Application.ActivityLifecycleCa
         if (branch.getShareLinkManager() != null) {
             branch.getShareLinkManager().cancelShareLinkDialog(true);
         }
+        // The process may be killed once the activity is paused. An apply() made now is waited
+        // for when the activity stops
+        branch.prefHelper_.flushPendingWrites();
         BranchLogger.v("activityCnt_: " + activityCnt_);
         BranchLogger.v("activitiesOnStack_: " + activitiesOnStack_);
     }
@@ -102,8 +105,12 @@ class BranchActivityLifecycleObserver implements Application.ActivityLifecycleCa
         activityCnt_--; // Check if this is the last activity. If so, stop the session.
         BranchLogger.v("activityCnt_: " + activityCnt_);
         if (activityCnt_ < 1) {
+            // Send batched events before the app can be killed in the background
+            branch.requestQueue_.flushEventBatch("background");
             branch.setInstantDeepLinkPossible(false);
             branch.closeSessionInternal();
+            // Closing the session clears the session preferences
+            branch.prefHelper_.flushPendingWrites();
 
             /* It is possible some integrations do not call Branch.getAutoInstance() before the first
             activity's lifecycle methods execute.
@@ -1,27 +1,197 @@
 package io.branch.referral;
 
 import android.os.AsyncTask;
-import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * <p>
- * Convenient class for handling ASync task with pool executor depending on the SDK platform
+ * Convenient class for running a task in the background on the SDK executor and publishing its
+ * result on the main thread, without sharing {@link AsyncTask}'s executors with the host app.
+ * </p>
+ * <p>
+ * This class no longer extends {@link AsyncTask}. It keeps the methods of {@link AsyncTask} that
+ * subclasses and callers use ({@link #execute(Object[])}, {@link #executeOnExecutor(Executor, Object[])},
+ * {@link #publishProgress(Object[])}, {@link #cancel(boolean)}, {@link #get()} and {@link #getStatus()}),
+ * so that existing subclasses keep working, but an instance can no longer be used as an {@link AsyncTask}.
  * </p>
  */
-public abstract class BranchAsyncTask<Params, Progress, Result> extends AsyncTask<Params, Progress, Result> {
+public abstract class BranchAsyncTask<Params, Progress, Result> {
+    private static final Handler mainHandler_ = new Handler(Looper.getMainLooper());
+
+    private final FutureTask<Result> future_;
+    private volatile Params[] params_;
+    private volatile AsyncTask.Status status_ = AsyncTask.Status.PENDING;
+
+    public BranchAsyncTask() {
+        future_ = new FutureTask<Result>(new Callable<Result>() {
+            @Override
+            public Result call() {
+                return doInBackground(params_);
+            }
+        }) {
+            @Override
+            protected void done() {
+                publishResult();
+            }
+        };
+    }
+
+    /**
+     * Runs on the background thread with the params passed to {@link #executeTask(Object[])}.
+     */
+    protected abstract Result doInBackground(Params... params);
+
+    /**
+     * Runs on the thread calling {@link #executeTask(Object[])}, before the task is queued.
+     */
+    protected void onPreExecute() {
+    }
+
+    /**
+     * Runs on the main thread with the result of {@link #doInBackground(Object[])}, unless the task was cancelled.
+     */
+    protected void onPostExecute(Result result) {
+    }
+
+    /**
+     * Runs on the main thread instead of {@link #onPostExecute(Object)} when the task was cancelled.
+     */
+    protected void onCancelled(Result result) {
+        onCancelled();
+    }
+
+    /**
+     * Runs on the main thread when the task was cancelled, unless {@link #onCancelled(Object)} is overridden.
+     */
+    protected void onCancelled() {
+    }
+
+    /**
+     * Runs on the main thread with the values passed to {@link #publishProgress(Object[])}.
+     */
+    protected void onProgressUpdate(Progress... values) {
+    }
 
     /**
-     * Execute Params in back ground depending on the platform version. This executes task in parallel with the {@link AsyncTask#THREAD_POOL_EXECUTOR}
+     * Called from {@link #doInBackground(Object[])} to publish progress on the main thread, unless
+     * the task was cancelled.
+     */
+    @SafeVarargs
+    protected final void publishProgress(final Progress... values) {
+        if (isCancelled()) {
+            return;
+        }
+        mainHandler_.post(new Runnable() {
+            @Override
+            public void run() {
+                onProgressUpdate(values);
+            }
+        });
+    }
+
+    /**
+     * @return The priority of this task on the SDK executor, one of the {@link BranchExecutor} priorities.
+     */
+    protected int getPriority() {
+        return BranchExecutor.PRIORITY_NORMAL;
+    }
+
+    /**
+     * Execute Params in back ground on the SDK executor.
      *
      * @param params Params for executing this Async task
      * @return This object for method chaining
      */
-    public final AsyncTask<Params, Progress, Result> executeTask(Params... params) {
+    @SafeVarargs
+    public final BranchAsyncTask<Params, Progress, Result> executeTask(Params... params) {
+        prepareExecute(params);
+        BranchExecutor.execute(future_, getPriority());
+        return this;
+    }
+
+    /**
+     * Same as {@link #executeTask(Object[])}.
+     */
+    @SafeVarargs
+    public final BranchAsyncTask<Params, Progress, Result> execute(Params... params) {
+        return executeTask(params);
+    }
+
+    /**
+     * Execute Params in back ground on the given executor instead of the SDK executor.
+     *
+     * @param executor The executor to run {@link #doInBackground(Object[])} on
+     * @param params   Params for executing this Async task
+     * @return This object for method chaining
+     */
+    @SafeVarargs
+    public final BranchAsyncTask<Params, Progress, Result> executeOnExecutor(Executor executor, Params... params) {
+        prepareExecute(params);
+        executor.execute(future_);
+        return this;
+    }
+
+    private void prepareExecute(Params[] params) {
+        // Like AsyncTask, a task runs at most once
+        synchronized (this) {
+            if (status_ != AsyncTask.Status.PENDING) {
+                throw new IllegalStateException("Cannot execute task: the task has already been executed");
+            }
+            status_ = AsyncTask.Status.RUNNING;
+        }
+        onPreExecute();
+        params_ = params;
+    }
+
+    public final AsyncTask.Status getStatus() {
+        return status_;
+    }
+
+    public final boolean cancel(boolean mayInterruptIfRunning) {
+        return future_.cancel(mayInterruptIfRunning);
+    }
+
+    public final boolean isCancelled() {
+        return future_.isCancelled();
+    }
+
+    public final Result get() throws InterruptedException, ExecutionException {
+        return future_.get();
+    }
+
+    public final Result get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        return future_.get(timeout, unit);
+    }
+
+    private void publishResult() {
+        Result result = null;
         try {
-            return executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, params);
-        } catch (Exception t) {
-            BranchLogger.w("Caught Exception in AsyncTask: " + t.getMessage());
-            return execute(params);
+            result = future_.get();
+        } catch (CancellationException | InterruptedException e) {
+            // Reported through onCancelled
+        } catch (ExecutionException e) {
+            BranchLogger.w("Caught Exception in BranchAsyncTask: " + e.getCause());
         }
+        final Result finalResult = result;
+        mainHandler_.post(new Runnable() {
+            @Override
+            public void run() {
+                if (isCancelled()) {
+                    onCancelled(finalResult);
+                } else {
+                    onPostExecute(finalResult);
+                }
+                status_ = AsyncTask.Status.FINISHED;
+            }
+        });
     }
 }
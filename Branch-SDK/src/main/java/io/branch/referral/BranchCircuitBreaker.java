@@ -0,0 +1,208 @@
+package io.branch.referral;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Tracks the health of each Branch API path so that, during an outage, queued requests are failed
+ * fast or held back instead of each going through its own timeouts and retries.
+ * </p>
+ * <p>
+ * A path starts {@link State#CLOSED}. After {@link #DEFAULT_FAILURE_THRESHOLD} consecutive failures
+ * it is {@link State#OPEN} and requests to it are refused. Once the open period has passed the
+ * path is {@link State#HALF_OPEN}: a single probe request is let through, and its outcome either
+ * closes the circuit or opens it again.
+ * </p>
+ */
+public class BranchCircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Notified whenever the circuit of an API path changes state.
+     */
+    public interface StateListener {
+        /**
+         * Called on the thread that recorded the outcome causing the change.
+         *
+         * @param path  The API path whose circuit changed.
+         * @param state The new state of the circuit.
+         */
+        void onCircuitStateChanged(Defines.RequestPath path, State state);
+    }
+
+    interface Clock {
+        long now();
+    }
+
+    static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    static final long DEFAULT_OPEN_DURATION_MS = 30000;
+
+    private final int failureThreshold_;
+    private final long openDurationMs_;
+    private final Clock clock_;
+    private final Map<Defines.RequestPath, Circuit> circuits_ = new EnumMap<>(Defines.RequestPath.class);
+    private volatile StateListener listener_;
+
+    BranchCircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION_MS, new Clock() {
+            @Override
+            public long now() {
+                return System.currentTimeMillis();
+            }
+        });
+    }
+
+    BranchCircuitBreaker(int failureThreshold, long openDurationMs, Clock clock) {
+        failureThreshold_ = Math.max(1, failureThreshold);
+        openDurationMs_ = openDurationMs;
+        clock_ = clock;
+    }
+
+    void setListener(StateListener listener) {
+        listener_ = listener;
+    }
+
+    /**
+     * Checks whether {@link #allowRequest(Defines.RequestPath)} would let a request to {@code path}
+     * through now, without handing out the probe of a half open circuit.
+     */
+    boolean isRequestAllowed(Defines.RequestPath path) {
+        synchronized (circuits_) {
+            Circuit circuit = getCircuit(path);
+            long now = clock_.now();
+            switch (circuit.state) {
+                case OPEN:
+                    return now - circuit.openedAt >= openDurationMs_;
+                case HALF_OPEN:
+                    return !circuit.probeInFlight || now - circuit.probeStartedAt >= openDurationMs_;
+                default:
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * Asks whether a request to {@code path} may be sent now. In the half open state this hands
+     * out the single probe, so it should only be called right before the request is sent.
+     */
+    boolean allowRequest(Defines.RequestPath path) {
+        State changedTo = null;
+        boolean allowed;
+        synchronized (circuits_) {
+            Circuit circuit = getCircuit(path);
+            long now = clock_.now();
+            switch (circuit.state) {
+                case OPEN:
+                    if (now - circuit.openedAt < openDurationMs_) {
+                        allowed = false;
+                        break;
+                    }
+                    circuit.state = State.HALF_OPEN;
+                    changedTo = State.HALF_OPEN;
+                    // Fall through to hand out the probe
+                case HALF_OPEN:
+                    // A probe that never reported back does not hold the circuit forever
+                    allowed = !circuit.probeInFlight || now - circuit.probeStartedAt >= openDurationMs_;
+                    if (allowed) {
+                        circuit.probeInFlight = true;
+                        circuit.probeStartedAt = now;
+                    }
+                    break;
+                default:
+                    allowed = true;
+            }
+        }
+        notifyListener(path, changedTo);
+        return allowed;
+    }
+
+    void onSuccess(Defines.RequestPath path) {
+        State changedTo = null;
+        synchronized (circuits_) {
+            Circuit circuit = getCircuit(path);
+            circuit.consecutiveFailures = 0;
+            circuit.probeInFlight = false;
+            if (circuit.state != State.CLOSED) {
+                circuit.state = State.CLOSED;
+                changedTo = State.CLOSED;
+            }
+        }
+        notifyListener(path, changedTo);
+    }
+
+    void onFailure(Defines.RequestPath path) {
+        State changedTo = null;
+        synchronized (circuits_) {
+            Circuit circuit = getCircuit(path);
+            circuit.consecutiveFailures++;
+            circuit.probeInFlight = false;
+            boolean trip = circuit.state == State.HALF_OPEN
+                    || (circuit.state == State.CLOSED && circuit.consecutiveFailures >= failureThreshold_);
+            if (trip) {
+                circuit.state = State.OPEN;
+                circuit.openedAt = clock_.now();
+                changedTo = State.OPEN;
+            }
+        }
+        notifyListener(path, changedTo);
+    }
+
+    State getState(Defines.RequestPath path) {
+        synchronized (circuits_) {
+            return getCircuit(path).state;
+        }
+    }
+
+    /**
+     * @return The time in milliseconds until the circuit may let another probe through, 0 if it
+     * would let one through now.
+     */
+    long getMsUntilNextProbe(Defines.RequestPath path) {
+        synchronized (circuits_) {
+            Circuit circuit = getCircuit(path);
+            long now = clock_.now();
+            if (circuit.state == State.OPEN) {
+                return Math.max(0, circuit.openedAt + openDurationMs_ - now);
+            }
+            if (circuit.state == State.HALF_OPEN && circuit.probeInFlight) {
+                return Math.max(0, circuit.probeStartedAt + openDurationMs_ - now);
+            }
+            return 0;
+        }
+    }
+
+    private Circuit getCircuit(Defines.RequestPath path) {
+        Circuit circuit = circuits_.get(path);
+        if (circuit == null) {
+            circuit = new Circuit();
+            circuits_.put(path, circuit);
+        }
+        return circuit;
+    }
+
+    private void notifyListener(Defines.RequestPath path, State state) {
+        StateListener listener = listener_;
+        if (state == null) {
+            return;
+        }
+        BranchLogger.v("Circuit for " + path + " is now " + state);
+        if (listener != null) {
+            try {
+                listener.onCircuitStateChanged(path, state);
+            } catch (Exception e) {
+                BranchLogger.e("Caught Exception in circuit breaker listener: " + e.getMessage());
+            }
+        }
+    }
+
+    private static class Circuit {
+        State state = State.CLOSED;
+        int consecutiveFailures;
+        long openedAt;
+        boolean probeInFlight;
+        long probeStartedAt;
+    }
+}
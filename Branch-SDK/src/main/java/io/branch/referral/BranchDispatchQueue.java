@@ -0,0 +1,280 @@
+package io.branch.referral;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Lock-free core of the {@link ServerRequestQueue}: the queued items in order, their dispatch state
+ * and the drain loop that decides which of them to start.
+ * </p>
+ * <p>
+ * Every item carries an atomic dispatch state, {@link #IDLE}, {@link #IN_FLIGHT} or {@link #REMOVED}.
+ * An item is only started by moving it from idle to in flight with a compare-and-set, so it can never
+ * be dispatched twice. Scans of the queue are serialised by a work-in-progress counter rather than a
+ * lock: a thread asking for a scan while another thread is scanning only bumps the counter, and the
+ * scanning thread goes round again before it stops, so a wakeup is never lost.
+ * </p>
+ * <p>
+ * Ordered items act as a barrier. They start only when nothing is in flight, and nothing starts while
+ * one is in flight. Concurrent items start alongside each other up to {@link Policy#maxInFlight()}.
+ * Nothing overtakes a blocked item.
+ * </p>
+ */
+class BranchDispatchQueue<T> implements Iterable<T> {
+    static final int IDLE = 0;
+    static final int IN_FLIGHT = 1;
+    static final int REMOVED = 2;
+
+    enum Admission {
+        /** Start the item now */
+        ADMIT,
+        /** Leave the item queued and carry on with the items behind it */
+        HOLD,
+        /** Hand the item to {@link Policy#onRejected(Object)} and carry on with the items behind it */
+        REJECT
+    }
+
+    interface Policy<T> {
+        AtomicInteger dispatchState(T item);
+
+        boolean isConcurrent(T item);
+
+        boolean isBlocked(T item);
+
+        int maxInFlight();
+
+        Admission admit(T item);
+
+        void onDispatch(T item);
+
+        void onRejected(T item);
+    }
+
+    private final ConcurrentLinkedDeque<T> items_ = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger size_ = new AtomicInteger();
+    private final AtomicInteger wip_ = new AtomicInteger();
+    private final AtomicInteger inFlight_ = new AtomicInteger();
+    private final AtomicInteger orderedInFlight_ = new AtomicInteger();
+    private final Policy<T> policy_;
+
+    BranchDispatchQueue(Policy<T> policy) {
+        policy_ = policy;
+    }
+
+    void addLast(T item) {
+        policy_.dispatchState(item).compareAndSet(REMOVED, IDLE);
+        items_.addLast(item);
+        size_.incrementAndGet();
+    }
+
+    void addFirst(T item) {
+        policy_.dispatchState(item).compareAndSet(REMOVED, IDLE);
+        items_.addFirst(item);
+        size_.incrementAndGet();
+    }
+
+    /**
+     * Removes the item, and releases its dispatch lane if it was in flight.
+     *
+     * @return True if the item was queued
+     */
+    boolean remove(T item) {
+        boolean removed = items_.remove(item);
+        if (removed) {
+            size_.decrementAndGet();
+        }
+        release(item, policy_.dispatchState(item).getAndSet(REMOVED));
+        return removed;
+    }
+
+    T removeAt(int index) {
+        T item = get(index);
+        if (item != null && remove(item)) {
+            return item;
+        }
+        return null;
+    }
+
+    void clear() {
+        T item;
+        while ((item = items_.pollFirst()) != null) {
+            size_.decrementAndGet();
+            release(item, policy_.dispatchState(item).getAndSet(REMOVED));
+        }
+    }
+
+    T peekFirst() {
+        return items_.peekFirst();
+    }
+
+    /**
+     * @return The item at {@code index}, or null. Walks the queue, prefer iterating for bulk access.
+     */
+    T get(int index) {
+        if (index < 0) {
+            return null;
+        }
+        int i = 0;
+        for (T item : items_) {
+            if (i++ == index) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    boolean contains(T item) {
+        return items_.contains(item);
+    }
+
+    int size() {
+        return Math.max(0, size_.get());
+    }
+
+    int getInFlightCount() {
+        return inFlight_.get();
+    }
+
+    /**
+     * Weakly consistent iterator over the queued items, it never throws
+     * {@link java.util.ConcurrentModificationException}.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return items_.iterator();
+    }
+
+    /**
+     * Marks an in flight item as finished, freeing its dispatch lane. The item stays queued and may
+     * be dispatched again, so a completed item should be removed with {@link #remove(Object)}, which
+     * frees the lane too. Call {@link #drain()} afterwards to start what was waiting for the lane.
+     */
+    void finish(T item) {
+        if (policy_.dispatchState(item).compareAndSet(IN_FLIGHT, IDLE)) {
+            release(item, IN_FLIGHT);
+        }
+    }
+
+    /**
+     * Starts as many queued items as the policy allows. Safe to call from any thread, any number of
+     * times; concurrent calls are folded into the scan already running.
+     */
+    void drain() {
+        if (wip_.getAndIncrement() != 0) {
+            return;
+        }
+        drainLoop(1);
+    }
+
+    /**
+     * Starts an item that is no longer blocked, and the items its block held up behind it. The items
+     * ahead of it are only looked at, not started: their chances did not change when it unblocked.
+     * Safe to call from any thread; if a scan is running, that scan goes round again instead.
+     */
+    void drainFrom(T unblocked) {
+        if (wip_.getAndIncrement() != 0) {
+            return;
+        }
+        try {
+            scanFrom(unblocked);
+        } catch (Exception e) {
+            BranchLogger.e("Caught Exception BranchDispatchQueue drainFrom: " + e.getMessage() + " stacktrace: " + BranchLogger.stackTraceToString(e));
+        }
+        int missed = wip_.decrementAndGet();
+        if (missed != 0) {
+            // Scans asked for in the meantime
+            drainLoop(missed);
+        }
+    }
+
+    private void drainLoop(int missed) {
+        do {
+            try {
+                scan(items_.iterator());
+            } catch (Exception e) {
+                BranchLogger.e("Caught Exception BranchDispatchQueue drain: " + e.getMessage() + " stacktrace: " + BranchLogger.stackTraceToString(e));
+            }
+            missed = wip_.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    // Only ever runs on one thread at a time, see drainFrom()
+    private void scanFrom(T unblocked) {
+        Iterator<T> items = items_.iterator();
+        while (items.hasNext()) {
+            T item = items.next();
+            if (item == unblocked) {
+                if (tryStart(item)) {
+                    scan(items);
+                }
+                return;
+            }
+            // Stop where a scan would stop before reaching the item. An idle concurrent item ahead
+            // is held for its circuit, or waiting for a lane the unblocked item needs too
+            if (policy_.dispatchState(item).get() == IDLE && (policy_.isBlocked(item) || !policy_.isConcurrent(item))) {
+                return;
+            }
+        }
+    }
+
+    // Only ever runs on one thread at a time, see drain()
+    private void scan(Iterator<T> items) {
+        while (items.hasNext()) {
+            if (!tryStart(items.next())) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return False if the scan must stop at this item
+     */
+    private boolean tryStart(T item) {
+        AtomicInteger state = policy_.dispatchState(item);
+        boolean concurrent = policy_.isConcurrent(item);
+        if (state.get() != IDLE) {
+            return true;
+        }
+        if (policy_.isBlocked(item)) {
+            return false;
+        }
+        if (concurrent) {
+            if (orderedInFlight_.get() > 0 || inFlight_.get() >= Math.max(1, policy_.maxInFlight())) {
+                return false;
+            }
+        } else if (inFlight_.get() > 0) {
+            return false;
+        }
+
+        Admission admission = policy_.admit(item);
+        if (admission == Admission.REJECT) {
+            policy_.onRejected(item);
+            return true;
+        }
+        if (admission == Admission.HOLD) {
+            return concurrent;
+        }
+        if (!state.compareAndSet(IDLE, IN_FLIGHT)) {
+            // Removed since we looked at it
+            return true;
+        }
+        inFlight_.incrementAndGet();
+        if (!concurrent) {
+            orderedInFlight_.incrementAndGet();
+        }
+        policy_.onDispatch(item);
+        return concurrent;
+    }
+
+    private void release(T item, int previousState) {
+        if (previousState != IN_FLIGHT) {
+            return;
+        }
+        if (!policy_.isConcurrent(item)) {
+            orderedInFlight_.decrementAndGet();
+        }
+        inFlight_.decrementAndGet();
+    }
+}
@@ -0,0 +1,292 @@
+package io.branch.referral;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Chooses which of the Branch API base urls a request is sent to, from the health and latency of
+ * each as observed by the request queue. Requests go to the first url in order of preference
+ * unless another one answers clearly faster, and a url that fails to connect, times out or answers
+ * with a server error is avoided for a cool down that grows with each consecutive failure, so that
+ * the retry of the request goes to the next one.
+ * </p>
+ * <p>
+ * Only urls allowed by the app's configuration are candidates, see {@link #getAllowedBaseUrls}:
+ * apps using the EU endpoint never have requests routed outside of it. The scores are kept in
+ * {@link PrefHelper} across launches.
+ * </p>
+ */
+class BranchEndpointManager {
+    interface Clock {
+        long now();
+    }
+
+    /**
+     * Persists the scores, as a JSON string.
+     */
+    interface Store {
+        String load();
+
+        void save(String scores);
+    }
+
+    static final long BASE_COOL_DOWN_MS = 10000;
+    static final long MAX_COOL_DOWN_MS = 5 * 60 * 1000;
+    // A url is only preferred over an earlier one if it answers in less than this share of the time
+    static final double FASTER_RATIO = 0.7;
+    // and is at least this much faster, so that small differences do not move traffic around
+    static final long MIN_FASTER_MS = 50;
+    // How long a latency is trusted before a single request is sent to the url to measure it again
+    static final long REMEASURE_INTERVAL_MS = 10 * 60 * 1000;
+    // Gain of the smoothed latency
+    private static final double LATENCY_GAIN = 1.0 / 8;
+    // Latency alone is saved at most this often, changes in health are saved at once
+    private static final long SAVE_INTERVAL_MS = 60000;
+
+    private static final String KEY_LATENCY = "latency";
+    private static final String KEY_FAILURES = "failures";
+    private static final String KEY_FAILED_AT = "failed_at";
+    private static final String KEY_MEASURED_AT = "measured_at";
+
+    private final Store store_;
+    private final Clock clock_;
+    private Map<String, Host> hosts_;
+    private long savedAt_;
+
+    BranchEndpointManager(Store store) {
+        this(store, new Clock() {
+            @Override
+            public long now() {
+                return System.currentTimeMillis();
+            }
+        });
+    }
+
+    BranchEndpointManager(Store store, Clock clock) {
+        store_ = store;
+        clock_ = clock;
+    }
+
+    /**
+     * @param useEUEndpoint True if the app keeps its data in the EU, see {@link Branch#useEUEndpoint()}.
+     * @param sdkInt        The API level of the device.
+     * @return The base urls requests may be sent to, in order of preference.
+     */
+    static List<String> getAllowedBaseUrls(boolean useEUEndpoint, int sdkInt) {
+        if (useEUEndpoint) {
+            return Collections.singletonList(PrefHelper.BRANCH_EU_BASE_URL_V3);
+        }
+        if (sdkInt < 20) {
+            // TLS 1.2 does not work reliably on api2 below API 20
+            return Collections.singletonList(PrefHelper.BRANCH_BASE_URL_V1);
+        }
+        List<String> urls = new ArrayList<>(2);
+        urls.add(PrefHelper.BRANCH_BASE_URL_V2);
+        urls.add(PrefHelper.BRANCH_BASE_URL_V1);
+        return urls;
+    }
+
+    /**
+     * @param candidates The allowed base urls, in order of preference.
+     * @return The base url to send the next request to.
+     */
+    synchronized String select(List<String> candidates) {
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        long now = clock_.now();
+        Host best = null;
+        String bestUrl = null;
+        for (String url : candidates) {
+            Host host = getHost(url);
+            if (!host.isAvailable(now)) {
+                continue;
+            }
+            if (best == null || isClearlyFaster(host, best)) {
+                best = host;
+                bestUrl = url;
+            }
+        }
+        if (bestUrl != null) {
+            return remeasureOrKeep(candidates, bestUrl, now);
+        }
+        // Every url is cooling down, take the one that is back soonest
+        long soonest = Long.MAX_VALUE;
+        for (String url : candidates) {
+            long availableAt = getHost(url).getAvailableAt();
+            if (availableAt < soonest) {
+                soonest = availableAt;
+                bestUrl = url;
+            }
+        }
+        return bestUrl;
+    }
+
+    private static boolean isClearlyFaster(Host host, Host than) {
+        return host.latencyMs >= 0 && than.latencyMs >= 0
+                && host.latencyMs < than.latencyMs * FASTER_RATIO
+                && host.latencyMs < than.latencyMs - MIN_FASTER_MS;
+    }
+
+    // Sends a single request to an available url that has not been measured lately, so that a
+    // url that became faster is noticed
+    private String remeasureOrKeep(List<String> candidates, String bestUrl, long now) {
+        if (getHost(bestUrl).latencyMs < 0) {
+            return bestUrl;
+        }
+        for (String url : candidates) {
+            Host host = getHost(url);
+            if (!url.equals(bestUrl) && host.isAvailable(now) && Math.abs(now - host.measuredAt) >= REMEASURE_INTERVAL_MS) {
+                // Counts as measured until the response says otherwise, so only one request is sent
+                host.measuredAt = now;
+                return url;
+            }
+        }
+        return bestUrl;
+    }
+
+    /**
+     * <p>Records a response from the server at {@code url}.</p>
+     *
+     * @param latencyMs The round trip time of the request.
+     */
+    synchronized void onSuccess(String url, long latencyMs) {
+        Host host = getHostForUrl(url);
+        if (host == null) {
+            return;
+        }
+        boolean recovered = host.consecutiveFailures > 0;
+        host.consecutiveFailures = 0;
+        if (latencyMs >= 0) {
+            host.latencyMs = host.latencyMs < 0 ? latencyMs : (1 - LATENCY_GAIN) * host.latencyMs + LATENCY_GAIN * latencyMs;
+            host.measuredAt = clock_.now();
+        }
+        if (recovered) {
+            BranchLogger.v("Branch API endpoint recovered " + url);
+        }
+        save(recovered);
+    }
+
+    /**
+     * <p>Records that the server at {@code url} could not be reached, timed out or failed.</p>
+     */
+    synchronized void onFailure(String url) {
+        Host host = getHostForUrl(url);
+        if (host == null) {
+            return;
+        }
+        host.consecutiveFailures++;
+        host.failedAt = clock_.now();
+        BranchLogger.v("Branch API endpoint failed " + host.consecutiveFailures + " time(s) in a row, avoiding it for "
+                + host.getCoolDownMs() + "ms: " + url);
+        save(true);
+    }
+
+    // The host whose base url starts url, or null if it is not one this manager knows of
+    private Host getHostForUrl(String url) {
+        if (url == null) {
+            return null;
+        }
+        loadIfNeeded();
+        for (Map.Entry<String, Host> entry : hosts_.entrySet()) {
+            if (url.startsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private Host getHost(String baseUrl) {
+        loadIfNeeded();
+        Host host = hosts_.get(baseUrl);
+        if (host == null) {
+            host = new Host();
+            hosts_.put(baseUrl, host);
+        }
+        return host;
+    }
+
+    private void loadIfNeeded() {
+        if (hosts_ != null) {
+            return;
+        }
+        hosts_ = new HashMap<>();
+        String scores = store_.load();
+        if (scores == null || scores.isEmpty() || PrefHelper.NO_STRING_VALUE.equals(scores)) {
+            return;
+        }
+        try {
+            JSONObject json = new JSONObject(scores);
+            Iterator<String> urls = json.keys();
+            while (urls.hasNext()) {
+                String url = urls.next();
+                JSONObject score = json.getJSONObject(url);
+                Host host = new Host();
+                host.latencyMs = score.optDouble(KEY_LATENCY, -1);
+                host.consecutiveFailures = score.optInt(KEY_FAILURES, 0);
+                host.failedAt = score.optLong(KEY_FAILED_AT, 0);
+                host.measuredAt = score.optLong(KEY_MEASURED_AT, 0);
+                hosts_.put(url, host);
+            }
+        } catch (JSONException e) {
+            BranchLogger.w("Caught JSONException " + e.getMessage());
+        }
+    }
+
+    private void save(boolean force) {
+        long now = clock_.now();
+        if (!force && now - savedAt_ < SAVE_INTERVAL_MS) {
+            return;
+        }
+        savedAt_ = now;
+        JSONObject json = new JSONObject();
+        try {
+            for (Map.Entry<String, Host> entry : hosts_.entrySet()) {
+                Host host = entry.getValue();
+                JSONObject score = new JSONObject();
+                score.put(KEY_LATENCY, Math.round(host.latencyMs));
+                score.put(KEY_FAILURES, host.consecutiveFailures);
+                score.put(KEY_FAILED_AT, host.failedAt);
+                score.put(KEY_MEASURED_AT, host.measuredAt);
+                json.put(entry.getKey(), score);
+            }
+        } catch (JSONException e) {
+            BranchLogger.w("Caught JSONException " + e.getMessage());
+            return;
+        }
+        store_.save(json.toString());
+    }
+
+    private static class Host {
+        // Smoothed round trip time, -1 until measured
+        double latencyMs = -1;
+        int consecutiveFailures;
+        long failedAt;
+        long measuredAt;
+
+        long getCoolDownMs() {
+            if (consecutiveFailures == 0) {
+                return 0;
+            }
+            int doublings = Math.min(consecutiveFailures - 1, 30);
+            return Math.min(MAX_COOL_DOWN_MS, BASE_COOL_DOWN_MS << doublings);
+        }
+
+        long getAvailableAt() {
+            return failedAt + getCoolDownMs();
+        }
+
+        boolean isAvailable(long now) {
+            // A clock set back since the failure does not keep the url out for good
+            return consecutiveFailures == 0 || now >= getAvailableAt() || now < failedAt;
+        }
+    }
+}
@@ -46,6 +46,10 @@ public class BranchError {
     public static final int ERR_NETWORK_ON_MAIN = -121;
     /* General error reporting */
     public static final int ERR_OTHER = -122;
+    /* Request failed and the retries allowed for this session are used up */
+    public static final int ERR_BRANCH_RETRY_BUDGET_EXHAUSTED = -123;
+    /* Request was not sent because the Branch API endpoint is failing, see BranchCircuitBreaker */
+    public static final int ERR_BRANCH_CIRCUIT_OPEN = -124;
 
     /**
      * <p>Returns the message explaining the error.</p>
@@ -130,6 +134,12 @@ public class BranchError {
             errorCode_ = ERR_BRANCH_ALREADY_INITIALIZED;
             errMsg = " Session initialization already happened. To force a new session, " +
                     "set intent extra, \"branch_force_new_session\", to true.";
+        } else if (statusCode == ERR_BRANCH_CIRCUIT_OPEN) {
+            errorCode_ = ERR_BRANCH_CIRCUIT_OPEN;
+            errMsg = " The Branch servers are currently unavailable, the request was not sent. Please try again shortly.";
+        } else if (statusCode == ERR_BRANCH_RETRY_BUDGET_EXHAUSTED) {
+            errorCode_ = ERR_BRANCH_RETRY_BUDGET_EXHAUSTED;
+            errMsg = " Unable to reach the Branch servers and no retries are left for this session, please try again later.";
         } else if (statusCode >= 500 || statusCode == ERR_BRANCH_UNABLE_TO_REACH_SERVERS) {
             errorCode_ = statusCode;
             errMsg = " Unable to reach the Branch servers, please try again shortly.";
@@ -0,0 +1,139 @@
+package io.branch.referral;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Opt-in batching stage in front of the {@link ServerRequestQueue}. Events logged through
+ * {@link io.branch.referral.util.BranchEvent#logEvent(Context)} are held here and uploaded together
+ * as a single {@link ServerRequestLogEventBatch} once any of the thresholds is reached:</p>
+ * <ul>
+ *     <li>the number of pending events reaches {@code maxEvents},</li>
+ *     <li>the estimated size of the pending event bodies reaches {@code maxBatchBytes},</li>
+ *     <li>the oldest pending event has waited {@code maxLatencyMs}.</li>
+ * </ul>
+ * <p>The batch is also flushed when the app goes to the background, see
+ * {@link BranchActivityLifecycleObserver}. Pending events are only held in memory: unlike queued
+ * requests they are not journaled, so events logged just before the process dies are lost.</p>
+ */
+class BranchEventBatcher {
+    private final Context context_;
+    private final ServerRequestQueue queue_;
+    private final int maxEvents_;
+    private final int maxBatchBytes_;
+    private final long maxLatencyMs_;
+
+    private final Handler handler_ = new Handler(Looper.getMainLooper());
+    private final Runnable latencyFlush_ = new Runnable() {
+        @Override
+        public void run() {
+            List<ServerRequestLogEvent> events;
+            synchronized (BranchEventBatcher.this) {
+                // A run that was already under way when its batch was drained finds the next one
+                long waitedMs = SystemClock.uptimeMillis() - batchStartMs_;
+                if (!pending_.isEmpty() && waitedMs < maxLatencyMs_) {
+                    handler_.postDelayed(this, maxLatencyMs_ - waitedMs);
+                    return;
+                }
+                events = drainLocked();
+            }
+            upload(events, "maxLatency");
+        }
+    };
+
+    // Guarded by this
+    private final List<ServerRequestLogEvent> pending_ = new ArrayList<>();
+    private int pendingBytes_ = 0;
+    // When the first of the pending events was added, in SystemClock.uptimeMillis()
+    private long batchStartMs_;
+
+    BranchEventBatcher(Context context, ServerRequestQueue queue, int maxEvents, int maxBatchBytes, long maxLatencyMs) {
+        context_ = context;
+        queue_ = queue;
+        maxEvents_ = Math.max(1, maxEvents);
+        maxBatchBytes_ = Math.max(1, maxBatchBytes);
+        maxLatencyMs_ = Math.max(0, maxLatencyMs);
+    }
+
+    /**
+     * <p>Adds an event to the current batch.</p>
+     *
+     * @param event The event to batch.
+     */
+    void add(ServerRequestLogEvent event) {
+        // Called on the thread logging the event, so the size is estimated rather than serialized
+        int eventBytes = ServerRequestLogEventBatch.estimateBatchEntrySize(event);
+
+        List<ServerRequestLogEvent> overflow = null;
+        List<ServerRequestLogEvent> full = null;
+        synchronized (this) {
+            // An event that would overflow the batch starts the next one
+            if (!pending_.isEmpty() && pendingBytes_ + eventBytes > maxBatchBytes_) {
+                overflow = drainLocked();
+            }
+            boolean first = pending_.isEmpty();
+            pending_.add(event);
+            pendingBytes_ += eventBytes;
+            if (pending_.size() >= maxEvents_ || pendingBytes_ >= maxBatchBytes_) {
+                full = drainLocked();
+            } else if (first) {
+                // Posted under the lock, so that a drain on another thread cannot remove it first
+                batchStartMs_ = SystemClock.uptimeMillis();
+                handler_.postDelayed(latencyFlush_, maxLatencyMs_);
+            }
+        }
+        BranchLogger.v("BranchEventBatcher added " + event);
+        event.onRequestQueued();
+
+        upload(overflow, "maxBatchBytes");
+        upload(full, "threshold");
+    }
+
+    /**
+     * <p>Uploads every pending event now.</p>
+     */
+    void flush(String reason) {
+        List<ServerRequestLogEvent> events;
+        synchronized (this) {
+            events = drainLocked();
+        }
+        upload(events, reason);
+    }
+
+    private List<ServerRequestLogEvent> drainLocked() {
+        handler_.removeCallbacks(latencyFlush_);
+        if (pending_.isEmpty()) {
+            return null;
+        }
+        List<ServerRequestLogEvent> events = new ArrayList<>(pending_);
+        pending_.clear();
+        pendingBytes_ = 0;
+        return events;
+    }
+
+    private void upload(List<ServerRequestLogEvent> events, String reason) {
+        if (events == null) {
+            return;
+        }
+        BranchLogger.v("BranchEventBatcher flushing " + events.size() + " events, reason: " + reason);
+        ServerRequestLogEventBatch batch = new ServerRequestLogEventBatch(context_, events);
+        if (batch.constructError_) {
+            batch.handleFailure(BranchError.ERR_OTHER, "Could not build event batch.");
+            return;
+        }
+        if (TextUtils.isEmpty(Branch._userAgentString)) {
+            batch.addProcessWaitLock(ServerRequest.PROCESS_WAIT_LOCK.USER_AGENT_STRING_LOCK);
+        }
+        queue_.handleNewRequest(batch);
+    }
+
+    synchronized int getPendingCount() {
+        return pending_.size();
+    }
+}
@@ -0,0 +1,111 @@
+package io.branch.referral;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * The SDK owned execution layer for background work. By default work runs on a small bounded pool of
+ * "branch-worker-N" threads that is not shared with the host app, so neither side can starve the
+ * other. Queued work is ordered by priority and then by submission order.
+ * </p>
+ * <p>
+ * Host apps may replace the pool with their own {@link Executor} through
+ * {@link Branch#setSdkExecutor(Executor)}, in which case priorities are left to that executor.
+ * </p>
+ */
+class BranchExecutor {
+    static final int PRIORITY_LOW = 0;
+    static final int PRIORITY_NORMAL = 5;
+    static final int PRIORITY_HIGH = 10;
+
+    private static final int MAX_POOL_SIZE = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final AtomicLong sequence_ = new AtomicLong();
+    private static ThreadPoolExecutor defaultExecutor_;
+    private static volatile Executor hostExecutor_;
+
+    /**
+     * Replaces the default pool with an executor supplied by the host app. Passing null restores
+     * the default pool.
+     */
+    static void setHostExecutor(@Nullable Executor executor) {
+        hostExecutor_ = executor;
+    }
+
+    /**
+     * Runs {@code task} on the SDK executor. Tasks with a higher {@code priority} are started ahead
+     * of queued tasks with a lower one.
+     */
+    static void execute(@NonNull Runnable task, int priority) {
+        Executor hostExecutor = hostExecutor_;
+        if (hostExecutor != null) {
+            try {
+                hostExecutor.execute(task);
+                return;
+            } catch (RejectedExecutionException e) {
+                BranchLogger.w("Host executor rejected task, falling back to the SDK pool: " + e.getMessage());
+            }
+        }
+        getDefaultExecutor().execute(new PrioritizedTask(task, priority, sequence_.getAndIncrement()));
+    }
+
+    static int getDefaultPoolSize() {
+        return Math.max(2, Math.min(MAX_POOL_SIZE, Runtime.getRuntime().availableProcessors()));
+    }
+
+    private static synchronized ThreadPoolExecutor getDefaultExecutor() {
+        if (defaultExecutor_ == null) {
+            int poolSize = getDefaultPoolSize();
+            // Core and max sizes are equal because a pool over an unbounded queue never grows past its core size
+            defaultExecutor_ = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count_ = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    Thread thread = new Thread(r, "branch-worker-" + count_.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            defaultExecutor_.allowCoreThreadTimeOut(true);
+        }
+        return defaultExecutor_;
+    }
+
+    private static class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        private final Runnable task_;
+        private final int priority_;
+        private final long sequence_;
+
+        PrioritizedTask(Runnable task, int priority, long sequence) {
+            task_ = task;
+            priority_ = priority;
+            sequence_ = sequence;
+        }
+
+        @Override
+        public void run() {
+            task_.run();
+        }
+
+        @Override
+        public int compareTo(@NonNull PrioritizedTask other) {
+            if (priority_ != other.priority_) {
+                return priority_ > other.priority_ ? -1 : 1;
+            }
+            return sequence_ < other.sequence_ ? -1 : (sequence_ == other.sequence_ ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package io.branch.referral;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Decides when a session init request still waiting for its response is sent a second time, see
+ * {@link Branch#enableSessionInitHedging(int, double)}. Both copies carry the same
+ * {@link Defines.Jsonkey#Branch_Sdk_Request_Uuid}, so the server treats them as one request, and the
+ * SDK takes whichever response arrives first.
+ * </p>
+ * <p>
+ * The second copy is sent once the first has been waiting longer than the configured percentile
+ * of recent init latencies. Each init request earns {@code maxHedgeRate} of a hedge, so over time
+ * no more than that share of init requests is sent twice. Latencies and the earned credit are kept in
+ * {@link PrefHelper}, as there is usually a single init per launch.
+ * </p>
+ */
+class BranchHedgePolicy {
+    interface Store {
+        String load();
+
+        void save(String state);
+    }
+
+    // Enough latencies to place a high percentile below a tail of a few percent
+    static final int MAX_SAMPLES = 100;
+    // Percentiles of fewer latencies say too little about the tail
+    static final int MIN_SAMPLES = 5;
+    // Credit piles up to a few hedges, so that a run of slow requests can all be hedged, but
+    // no further
+    static final double MAX_CREDIT = 5;
+    // Rates such as 0.1 do not add up to exactly 1
+    private static final double CREDIT_ROUNDING = 1e-9;
+
+    private static final String KEY_SAMPLES = "samples";
+    private static final String KEY_CREDIT = "credit";
+
+    private final Store store_;
+    private final int latencyPercentile_;
+    private final double maxHedgeRate_;
+    // Ring buffer of the latest init latencies
+    private final long[] samples_ = new long[MAX_SAMPLES];
+    private int sampleCount_;
+    private int nextSample_;
+    private double credit_;
+
+    /**
+     * @param latencyPercentile The percentile of recent latencies after which a hedge is sent, 1 to 99.
+     * @param maxHedgeRate      The largest share of init requests that may be hedged, 0 to 1.
+     */
+    BranchHedgePolicy(Store store, int latencyPercentile, double maxHedgeRate) {
+        store_ = store;
+        latencyPercentile_ = Math.max(1, Math.min(99, latencyPercentile));
+        maxHedgeRate_ = Math.max(0, Math.min(1, maxHedgeRate));
+        load();
+    }
+
+    /**
+     * <p>Called for every init request sent, each earns a share of a hedge.</p>
+     *
+     * @return The time in milliseconds after which the request should be hedged, or -1 if there
+     * are not enough latencies to tell.
+     */
+    synchronized long onRequest() {
+        credit_ = Math.min(MAX_CREDIT, credit_ + maxHedgeRate_);
+        if (sampleCount_ < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples_, sampleCount_);
+        Arrays.sort(sorted);
+        // Nearest rank
+        int rank = (int) Math.ceil(latencyPercentile_ / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    /**
+     * @return True if the hedge rate allows sending a hedge now, which is then counted.
+     */
+    synchronized boolean tryAcquireHedge() {
+        if (credit_ < 1 - CREDIT_ROUNDING) {
+            return false;
+        }
+        credit_ = Math.max(0, credit_ - 1);
+        save();
+        return true;
+    }
+
+    /**
+     * <p>Records the latency of an init request that succeeded.</p>
+     */
+    synchronized void onLatency(long latencyMs) {
+        if (latencyMs < 0) {
+            return;
+        }
+        samples_[nextSample_] = latencyMs;
+        nextSample_ = (nextSample_ + 1) % MAX_SAMPLES;
+        sampleCount_ = Math.min(MAX_SAMPLES, sampleCount_ + 1);
+        save();
+    }
+
+    private void load() {
+        String state = store_.load();
+        if (state == null || state.isEmpty() || PrefHelper.NO_STRING_VALUE.equals(state)) {
+            return;
+        }
+        try {
+            JSONObject json = new JSONObject(state);
+            JSONArray samples = json.getJSONArray(KEY_SAMPLES);
+            // Oldest first, so that the ring buffer continues where it left off
+            for (int i = Math.max(0, samples.length() - MAX_SAMPLES); i < samples.length(); i++) {
+                samples_[nextSample_] = samples.getLong(i);
+                nextSample_ = (nextSample_ + 1) % MAX_SAMPLES;
+                sampleCount_++;
+            }
+            credit_ = Math.max(0, Math.min(MAX_CREDIT, json.optDouble(KEY_CREDIT, 0)));
+        } catch (JSONException e) {
+            BranchLogger.w("Caught JSONException " + e.getMessage());
+        }
+    }
+
+    private void save() {
+        JSONArray samples = new JSONArray();
+        int oldest = sampleCount_ < MAX_SAMPLES ? 0 : nextSample_;
+        for (int i = 0; i < sampleCount_; i++) {
+            samples.put(samples_[(oldest + i) % MAX_SAMPLES]);
+        }
+        JSONObject json = new JSONObject();
+        try {
+            json.put(KEY_SAMPLES, samples);
+            json.put(KEY_CREDIT, credit_);
+        } catch (JSONException e) {
+            BranchLogger.w("Caught JSONException " + e.getMessage());
+            return;
+        }
+        store_.save(json.toString());
+    }
+}
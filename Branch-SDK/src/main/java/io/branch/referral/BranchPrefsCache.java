@@ -0,0 +1,215 @@
+package io.branch.referral;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * The Branch preferences held in memory, so that the getters of {@link PrefHelper} on the dispatch
+ * path do not go through {@link android.content.SharedPreferences} for every value. The preferences
+ * are loaded once into a concurrent map, which writes update in place, one key at a time. Values
+ * stored as JSON text are parsed once for each value written, see {@link #getJSONObject(String)}.
+ * </p>
+ * <p>
+ * Writes reach the store behind the snapshot {@link #WRITE_BEHIND_MS} after the first of them, all
+ * in one batch, and a value written several times in that window is written once. Until then a
+ * write is only in memory and is lost if the process is killed, so {@link #flush()} is also called
+ * when the app goes to the background. All writes to the Branch preferences must go through this
+ * cache, as it does not see changes made to the store directly.
+ * </p>
+ */
+class BranchPrefsCache {
+    interface Store {
+        Map<String, ?> loadAll();
+
+        /**
+         * Writes a batch of changes, removing the keys whose value is null.
+         *
+         * @param clear True to remove all values before the changes are written.
+         */
+        void write(boolean clear, Map<String, Object> changes);
+    }
+
+    interface Scheduler {
+        void schedule(Runnable task, long delayMs);
+    }
+
+    // Long enough to gather the writes of a response. A write made less than this before the
+    // process is killed, without going to the background first, is lost
+    static final long WRITE_BEHIND_MS = 100;
+
+    private final Store store_;
+    private final Scheduler scheduler_;
+    // Replaced only by clear(), a put updates it in place
+    private volatile ConcurrentHashMap<String, Object> snapshot_;
+    // The JSON values parsed so far, each with the string it was parsed from
+    private final ConcurrentHashMap<String, ParsedJson> parsed_ = new ConcurrentHashMap<>();
+
+    // Guarded by this, the changes not yet written to the store
+    private Map<String, Object> pending_ = new HashMap<>();
+    private boolean pendingClear_;
+    private boolean flushScheduled_;
+
+    // Held while a batch is written, so that batches reach the store in order
+    private final Object flushLock_ = new Object();
+
+    private final Runnable flush_ = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    BranchPrefsCache(Store store, Scheduler scheduler) {
+        store_ = store;
+        scheduler_ = scheduler;
+    }
+
+    private ConcurrentHashMap<String, Object> snapshot() {
+        ConcurrentHashMap<String, Object> snapshot = snapshot_;
+        if (snapshot == null) {
+            synchronized (this) {
+                snapshot = snapshot_;
+                if (snapshot == null) {
+                    snapshot = new ConcurrentHashMap<>();
+                    Map<String, ?> stored = store_.loadAll();
+                    if (stored != null) {
+                        for (Map.Entry<String, ?> entry : stored.entrySet()) {
+                            // SharedPreferences can hold a null String
+                            if (entry.getValue() != null) {
+                                snapshot.put(entry.getKey(), entry.getValue());
+                            }
+                        }
+                    }
+                    snapshot_ = snapshot;
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    boolean contains(String key) {
+        return snapshot().containsKey(key);
+    }
+
+    // The getters fail like those of SharedPreferences on a value of another type
+
+    int getInt(String key, int defaultValue) {
+        Object value = snapshot().get(key);
+        return value != null ? (Integer) value : defaultValue;
+    }
+
+    long getLong(String key, long defaultValue) {
+        Object value = snapshot().get(key);
+        return value != null ? (Long) value : defaultValue;
+    }
+
+    float getFloat(String key, float defaultValue) {
+        Object value = snapshot().get(key);
+        return value != null ? (Float) value : defaultValue;
+    }
+
+    String getString(String key, String defaultValue) {
+        Object value = snapshot().get(key);
+        return value != null ? (String) value : defaultValue;
+    }
+
+    boolean getBoolean(String key, boolean defaultValue) {
+        Object value = snapshot().get(key);
+        return value != null ? (Boolean) value : defaultValue;
+    }
+
+    /**
+     * <p>The value of {@code key} parsed as a {@link JSONObject}, shared by every caller until the
+     * value changes, so it must not be modified.</p>
+     *
+     * @return The parsed value, or null if there is none or it is not a JSON object.
+     */
+    JSONObject getJSONObject(String key) {
+        Object value = snapshot().get(key);
+        if (!(value instanceof String)) {
+            return null;
+        }
+        ParsedJson parsed = parsed_.get(key);
+        // The snapshot holds the same String instance until the value is written again
+        if (parsed == null || parsed.source != value) {
+            parsed = new ParsedJson((String) value);
+            parsed_.put(key, parsed);
+        }
+        return parsed.json;
+    }
+
+    /**
+     * <p>Sets the value of {@code key}, or removes it if {@code value} is null.</p>
+     */
+    synchronized void put(String key, Object value) {
+        if (value == null) {
+            snapshot().remove(key);
+        } else {
+            snapshot().put(key, value);
+        }
+        pending_.put(key, value);
+        scheduleFlush();
+    }
+
+    void remove(String key) {
+        put(key, null);
+    }
+
+    synchronized void clear() {
+        snapshot_ = new ConcurrentHashMap<>();
+        pending_.clear();
+        pendingClear_ = true;
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled_) {
+            flushScheduled_ = true;
+            scheduler_.schedule(flush_, WRITE_BEHIND_MS);
+        }
+    }
+
+    /**
+     * <p>Writes the pending changes to the store now.</p>
+     */
+    void flush() {
+        synchronized (flushLock_) {
+            Map<String, Object> changes;
+            boolean clear;
+            synchronized (this) {
+                flushScheduled_ = false;
+                if (pending_.isEmpty() && !pendingClear_) {
+                    return;
+                }
+                changes = pending_;
+                clear = pendingClear_;
+                pending_ = new HashMap<>();
+                pendingClear_ = false;
+            }
+            store_.write(clear, changes);
+        }
+    }
+
+    private static class ParsedJson {
+        final String source;
+        final JSONObject json;
+
+        ParsedJson(String source) {
+            this.source = source;
+            JSONObject json = null;
+            if (!PrefHelper.NO_STRING_VALUE.equals(source) && !source.isEmpty()) {
+                try {
+                    json = new JSONObject(source);
+                } catch (JSONException e) {
+                    BranchLogger.w("Caught JSONException " + e.getMessage());
+                }
+            }
+            this.json = json;
+        }
+    }
+}
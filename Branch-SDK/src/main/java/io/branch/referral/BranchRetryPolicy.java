@@ -0,0 +1,180 @@
+package io.branch.referral;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Decides whether and when a failed request to the Branch API is re-attempted. Delays follow a
+ * capped exponential backoff with full jitter, so that clients failing together during a backend
+ * brownout do not retry in lockstep. A server supplied {@code Retry-After} is treated as the
+ * earliest time a retry may be sent.
+ * </p>
+ * <p>
+ * Retries are also drawn from a per session budget, shared by all requests, which is refilled when
+ * a session is successfully initialised.
+ * </p>
+ */
+class BranchRetryPolicy {
+    /**
+     * Returned by {@link #getDelayMs(int, String, long)} when the request must not be retried.
+     */
+    static final long NO_RETRY = -1;
+
+    /**
+     * A server asking us to wait longer than this is treated as a request not to retry at all.
+     */
+    static final long MAX_RETRY_AFTER_MS = 60000;
+
+    private final Random random_;
+    private final AtomicInteger retriesUsed_ = new AtomicInteger();
+
+    private volatile long baseDelayMs_ = 1000;
+    private volatile long maxDelayMs_ = 16000;
+    private volatile int maxRetries_ = 3;
+    private volatile int sessionBudget_ = 10;
+
+    BranchRetryPolicy(Random random) {
+        random_ = random;
+    }
+
+    /**
+     * Updates the policy settings. The retries already used this session are kept.
+     */
+    void configure(long baseDelayMs, long maxDelayMs, int maxRetries, int sessionBudget) {
+        baseDelayMs_ = Math.max(0, baseDelayMs);
+        maxDelayMs_ = Math.max(baseDelayMs_, maxDelayMs);
+        maxRetries_ = Math.max(0, maxRetries);
+        sessionBudget_ = Math.max(0, sessionBudget);
+    }
+
+    /**
+     * @return True if a failure with this status code may succeed when sent again.
+     */
+    static boolean isRetryable(int statusCode) {
+        return statusCode >= 500
+                || statusCode == BranchError.ERR_BRANCH_REQ_TIMED_OUT
+                || statusCode == BranchError.ERR_BRANCH_NO_CONNECTIVITY
+                || statusCode == BranchError.ERR_BRANCH_UNABLE_TO_REACH_SERVERS;
+    }
+
+    /**
+     * <p>Decides whether a request that failed once its backoff retries ran out stays in the queue,
+     * to be sent again on a later dispatch. These replays are limited by
+     * {@link PrefHelper#getNoConnectionRetryMax()} and counted apart from the backoff retries.</p>
+     *
+     * @param statusCode  The status code of the failure.
+     * @param retryOnFail The {@link ServerRequest#shouldRetryOnFail()} of the request.
+     * @param replays     The number of times the request was already kept for a replay.
+     * @param maxReplays  The maximum number of replays.
+     * @return True if the request is kept in the queue.
+     */
+    static boolean isKeptForReplay(int statusCode, boolean retryOnFail, int replays, int maxReplays) {
+        boolean unretryableErrorCode = (400 <= statusCode && statusCode <= 451) || statusCode == BranchError.ERR_BRANCH_TRACKING_DISABLED
+                || statusCode == BranchError.ERR_BRANCH_RETRY_BUDGET_EXHAUSTED;
+        return !unretryableErrorCode && retryOnFail && replays < maxReplays;
+    }
+
+    /**
+     * @param retryNumber The number of retries already sent for the request.
+     * @return True if the request has not reached the maximum number of retries.
+     */
+    boolean hasAttemptsLeft(int retryNumber) {
+        return retryNumber < maxRetries_;
+    }
+
+    /**
+     * Takes one retry from the session budget.
+     *
+     * @return False if the budget is exhausted, in which case the request should not be retried.
+     */
+    boolean tryAcquireBudget() {
+        while (true) {
+            int used = retriesUsed_.get();
+            if (used >= sessionBudget_) {
+                return false;
+            }
+            if (retriesUsed_.compareAndSet(used, used + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Refills the session budget, called when a new session is established.
+     */
+    void resetBudget() {
+        retriesUsed_.set(0);
+    }
+
+    int getRemainingBudget() {
+        return Math.max(0, sessionBudget_ - retriesUsed_.get());
+    }
+
+    /**
+     * @param retryNumber The number of retries already sent for the request.
+     * @return A random delay between 0 and {@code min(maxDelay, baseDelay * 2^retryNumber)}.
+     */
+    long getBackoffMs(int retryNumber) {
+        long ceiling = baseDelayMs_;
+        for (int i = 0; i < retryNumber && ceiling < maxDelayMs_; i++) {
+            ceiling *= 2;
+        }
+        ceiling = Math.min(ceiling, maxDelayMs_);
+        if (ceiling <= 0) {
+            return 0;
+        }
+        return (long) (random_.nextDouble() * (ceiling + 1));
+    }
+
+    /**
+     * @param retryNumber The number of retries already sent for the request.
+     * @param retryAfter  The {@code Retry-After} header of the failed response, or null.
+     * @param nowMs       The current wall clock time, used to resolve a date valued header.
+     * @return The delay before the next attempt, or {@link #NO_RETRY} if the server asked for a
+     * longer wait than {@link #MAX_RETRY_AFTER_MS}.
+     */
+    long getDelayMs(int retryNumber, String retryAfter, long nowMs) {
+        long backoff = getBackoffMs(retryNumber);
+        long retryAfterMs = parseRetryAfterMs(retryAfter, nowMs);
+        if (retryAfterMs > MAX_RETRY_AFTER_MS) {
+            return NO_RETRY;
+        }
+        return Math.max(backoff, retryAfterMs);
+    }
+
+    /**
+     * Parses a {@code Retry-After} header, given either in seconds or as an HTTP date.
+     *
+     * @return The delay in milliseconds, or -1 if the header is absent or malformed.
+     */
+    static long parseRetryAfterMs(String retryAfter, long nowMs) {
+        if (retryAfter == null) {
+            return -1;
+        }
+        String value = retryAfter.trim();
+        if (value.isEmpty()) {
+            return -1;
+        }
+        try {
+            long seconds = Long.parseLong(value);
+            return seconds < 0 ? -1 : seconds * 1000;
+        } catch (NumberFormatException ignored) {
+            // Not delta-seconds, try an HTTP date
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = format.parse(value);
+            return date == null ? -1 : Math.max(0, date.getTime() - nowMs);
+        } catch (ParseException e) {
+            BranchLogger.d("Unable to parse Retry-After header " + value);
+            return -1;
+        }
+    }
+}
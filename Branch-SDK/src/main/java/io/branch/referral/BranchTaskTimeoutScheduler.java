@@ -0,0 +1,69 @@
+package io.branch.referral;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Single shared timer thread that enforces the task timeout of dispatched requests.</p>
+ *
+ * <p>Each dispatched request schedules one timeout here and cancels it when it completes, so a
+ * burst of requests costs one parked thread in total instead of one per request. Cancelled
+ * timeouts are removed from the work queue immediately so completed requests are not retained
+ * until their deadline.</p>
+ *
+ * <p>The timer also delays the write-behind of {@link BranchPrefsCache}, which only hands a batch
+ * of preferences to {@link android.content.SharedPreferences.Editor#apply()}.</p>
+ */
+class BranchTaskTimeoutScheduler {
+    private static BranchTaskTimeoutScheduler instance_;
+
+    private final ScheduledThreadPoolExecutor executor_;
+
+    static synchronized BranchTaskTimeoutScheduler getInstance() {
+        if (instance_ == null) {
+            instance_ = new BranchTaskTimeoutScheduler();
+        }
+        return instance_;
+    }
+
+    BranchTaskTimeoutScheduler() {
+        executor_ = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "branch-task-timeout");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor_.setRemoveOnCancelPolicy(true);
+        executor_.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * <p>Runs {@code onTimeout} on the timer thread after {@code timeoutMs}, unless the returned
+     * future is cancelled first. {@code onTimeout} should hand any real work off to another thread.</p>
+     *
+     * @param onTimeout The action to run when the deadline passes.
+     * @param timeoutMs The deadline in milliseconds from now.
+     * @return A {@link ScheduledFuture} to cancel once the guarded task completes.
+     */
+    ScheduledFuture<?> schedule(Runnable onTimeout, long timeoutMs) {
+        return executor_.schedule(onTimeout, timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The number of timeouts that are scheduled and have neither fired nor been cancelled.
+     */
+    int getPendingCount() {
+        return executor_.getQueue().size();
+    }
+
+    /**
+     * @return The number of threads backing the scheduler, for tests.
+     */
+    int getPoolSize() {
+        return executor_.getPoolSize();
+    }
+}
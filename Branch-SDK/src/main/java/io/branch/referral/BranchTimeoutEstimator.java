@@ -0,0 +1,157 @@
+package io.branch.referral;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Derives the read and task timeouts of requests from the round trip times the SDK observes, the
+ * way TCP derives its retransmission timeout (RFC 6298). A smoothed round trip time and its mean
+ * deviation are kept for each Branch API path on each network type, and the timeout is the
+ * smoothed time plus four deviations, within the bounds set with
+ * {@link Branch#setNetworkTimeoutBounds(int, int)}.
+ * </p>
+ * <p>
+ * Until a path has been measured on the current network, the static timeouts from
+ * {@link PrefHelper} apply. Each timeout doubles the next one, until a response arrives again.
+ * </p>
+ */
+public class BranchTimeoutEstimator {
+    /**
+     * Supplies the type of the network requests are currently sent over.
+     */
+    interface NetworkType {
+        /**
+         * @return The network type, eg. wifi or mobile, or null if it is not known.
+         */
+        String current();
+    }
+
+    // Gains of the smoothed round trip time and its deviation, as in RFC 6298
+    private static final double ALPHA = 1.0 / 8;
+    private static final double BETA = 1.0 / 4;
+    private static final int DEVIATIONS = 4;
+    // Lower limit on the margin above the smoothed time, for paths with almost no variance
+    private static final int MIN_MARGIN_MS = 200;
+    // Timeouts back off up to 8 times the estimate
+    private static final int MAX_BACKOFF_SHIFT = 3;
+
+    private final NetworkType networkType_;
+    private final Map<String, Estimate> estimates_ = new HashMap<>();
+
+    private volatile int defaultReadTimeout_ = PrefHelper.TIMEOUT;
+    private volatile int defaultTaskTimeout_ = PrefHelper.TASK_TIMEOUT;
+    private volatile int minTimeout_ = PrefHelper.DEFAULT_MIN_ADAPTIVE_TIMEOUT;
+    private volatile int maxTimeout_ = PrefHelper.DEFAULT_MAX_ADAPTIVE_TIMEOUT;
+
+    BranchTimeoutEstimator(NetworkType networkType) {
+        networkType_ = networkType;
+    }
+
+    /**
+     * @param readTimeout The read timeout to use while there is no estimate.
+     * @param taskTimeout The task timeout to use while there is no estimate.
+     * @param minTimeout  Lower bound of the estimated timeouts.
+     * @param maxTimeout  Upper bound of the estimated timeouts.
+     */
+    void configure(int readTimeout, int taskTimeout, int minTimeout, int maxTimeout) {
+        defaultReadTimeout_ = readTimeout;
+        defaultTaskTimeout_ = taskTimeout;
+        minTimeout_ = Math.max(1, minTimeout);
+        maxTimeout_ = Math.max(minTimeout_, maxTimeout);
+    }
+
+    /**
+     * <p>Records the time between sending a request to {@code path} and receiving its response.</p>
+     */
+    void onRoundTrip(Defines.RequestPath path, long roundTripMs) {
+        if (path == null || roundTripMs < 0) {
+            return;
+        }
+        String key = getKey(path);
+        synchronized (estimates_) {
+            Estimate estimate = estimates_.get(key);
+            if (estimate == null) {
+                estimate = new Estimate();
+                estimate.smoothedMs = roundTripMs;
+                estimate.deviationMs = roundTripMs / 2.0;
+                estimates_.put(key, estimate);
+            } else {
+                estimate.deviationMs = (1 - BETA) * estimate.deviationMs + BETA * Math.abs(estimate.smoothedMs - roundTripMs);
+                estimate.smoothedMs = (1 - ALPHA) * estimate.smoothedMs + ALPHA * roundTripMs;
+            }
+            estimate.backoffShift = 0;
+        }
+    }
+
+    /**
+     * <p>Records that a request to {@code path} timed out, which doubles its next timeouts.</p>
+     */
+    void onTimeout(Defines.RequestPath path) {
+        if (path == null) {
+            return;
+        }
+        String key = getKey(path);
+        synchronized (estimates_) {
+            Estimate estimate = estimates_.get(key);
+            if (estimate != null && estimate.backoffShift < MAX_BACKOFF_SHIFT) {
+                estimate.backoffShift++;
+            }
+        }
+    }
+
+    /**
+     * @return The time in milliseconds to wait for data from the server on a request to
+     * {@code path}.
+     */
+    public int getReadTimeout(Defines.RequestPath path) {
+        long timeout = getEstimatedTimeout(path);
+        if (timeout < 0) {
+            return defaultReadTimeout_;
+        }
+        return clamp(timeout);
+    }
+
+    /**
+     * @return The time in milliseconds a request to {@code path} may take as a whole, connecting,
+     * sending and receiving, before it is timed out.
+     */
+    public int getTaskTimeout(Defines.RequestPath path) {
+        long timeout = getEstimatedTimeout(path);
+        if (timeout < 0) {
+            return defaultTaskTimeout_;
+        }
+        // As much again as the read timeout, to connect and send the request
+        return clamp(2 * clamp(timeout));
+    }
+
+    // The estimated timeout, or -1 if the path has not been measured on this network
+    private long getEstimatedTimeout(Defines.RequestPath path) {
+        if (path == null) {
+            return -1;
+        }
+        String key = getKey(path);
+        synchronized (estimates_) {
+            Estimate estimate = estimates_.get(key);
+            if (estimate == null) {
+                return -1;
+            }
+            long timeout = Math.round(estimate.smoothedMs + Math.max(MIN_MARGIN_MS, DEVIATIONS * estimate.deviationMs));
+            return timeout << estimate.backoffShift;
+        }
+    }
+
+    private int clamp(long timeout) {
+        return (int) Math.max(minTimeout_, Math.min(maxTimeout_, timeout));
+    }
+
+    private String getKey(Defines.RequestPath path) {
+        return path.getPath() + "|" + networkType_.current();
+    }
+
+    private static class Estimate {
+        double smoothedMs;
+        double deviationMs;
+        int backoffShift;
+    }
+}
@@ -0,0 +1,108 @@
+package io.branch.referral;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Indexes the queued items by the {@link ServerRequest.PROCESS_WAIT_LOCK}s they hold, so that
+ * releasing a lock only visits the items waiting on it instead of the whole queue.
+ * </p>
+ * <p>
+ * The index learns about every lock added to or removed from a tracked item through
+ * {@link #onLockAdded(Object, ServerRequest.PROCESS_WAIT_LOCK)} and
+ * {@link #onLockRemoved(Object, ServerRequest.PROCESS_WAIT_LOCK, boolean)}, whichever way the lock
+ * was changed, and tells its {@link Listener} when an item is left with no locks.
+ * </p>
+ */
+class BranchWaitLockIndex<T> {
+    interface Locks<T> {
+        boolean hasLock(T item, ServerRequest.PROCESS_WAIT_LOCK lock);
+
+        /**
+         * Removes the lock from the item, which reports the change back to the index.
+         */
+        void removeLock(T item, ServerRequest.PROCESS_WAIT_LOCK lock);
+    }
+
+    interface Listener<T> {
+        /**
+         * Called on the thread that released the last wait lock of {@code item}.
+         */
+        void onUnblocked(T item);
+    }
+
+    private final Map<ServerRequest.PROCESS_WAIT_LOCK, Set<T>> waiters_ = new EnumMap<>(ServerRequest.PROCESS_WAIT_LOCK.class);
+    private final Locks<T> locks_;
+    private final Listener<T> listener_;
+
+    BranchWaitLockIndex(Locks<T> locks, Listener<T> listener) {
+        locks_ = locks;
+        listener_ = listener;
+        for (ServerRequest.PROCESS_WAIT_LOCK lock : ServerRequest.PROCESS_WAIT_LOCK.values()) {
+            waiters_.put(lock, Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>()));
+        }
+    }
+
+    /**
+     * Indexes the wait locks the item holds now.
+     */
+    void track(T item) {
+        for (ServerRequest.PROCESS_WAIT_LOCK lock : ServerRequest.PROCESS_WAIT_LOCK.values()) {
+            if (locks_.hasLock(item, lock)) {
+                waiters_.get(lock).add(item);
+            }
+        }
+    }
+
+    void untrack(T item) {
+        if (item == null) {
+            return;
+        }
+        for (Set<T> waiters : waiters_.values()) {
+            waiters.remove(item);
+        }
+    }
+
+    void onLockAdded(T item, ServerRequest.PROCESS_WAIT_LOCK lock) {
+        waiters_.get(lock).add(item);
+    }
+
+    /**
+     * @param lastLock True if the item holds no other wait lock.
+     */
+    void onLockRemoved(T item, ServerRequest.PROCESS_WAIT_LOCK lock, boolean lastLock) {
+        waiters_.get(lock).remove(item);
+        if (lastLock) {
+            listener_.onUnblocked(item);
+        }
+    }
+
+    /**
+     * Releases {@code lock} from every item waiting on it.
+     */
+    void unlock(ServerRequest.PROCESS_WAIT_LOCK lock) {
+        for (T item : waiters_.get(lock)) {
+            unlock(item, lock);
+        }
+    }
+
+    /**
+     * Releases {@code lock} from a single item.
+     */
+    void unlock(T item, ServerRequest.PROCESS_WAIT_LOCK lock) {
+        waiters_.get(lock).remove(item);
+        locks_.removeLock(item, lock);
+    }
+
+    boolean isWaiting(T item, ServerRequest.PROCESS_WAIT_LOCK lock) {
+        return waiters_.get(lock).contains(item);
+    }
+
+    int getWaiterCount(ServerRequest.PROCESS_WAIT_LOCK lock) {
+        return waiters_.get(lock).size();
+    }
+}
@@ -133,6 +133,9 @@ public class Defines {
         External_Intent_Extra("external_intent_extra"),
         Last_Round_Trip_Time("lrtt"),
         Branch_Round_Trip_Time("brtt"),
+        Branch_Connect_Time("bct"),
+        Branch_TLS_Time("btls"),
+        Branch_Time_To_First_Byte("bttfb"),
         Branch_Instrumentation("instrumentation"),
         Queue_Wait_Time("qwt"),
         InstantDeepLinkSession("instant_dl_session"),
@@ -269,6 +272,7 @@ public class Defines {
         ContentEvent("v1/content-events"),
         TrackStandardEvent("v2/event/standard"),
         TrackCustomEvent("v2/event/custom"),
+        TrackEventBatch("v2/event/batch"),
         GetLATD("v1/cpid/latd"),
         QRCode("v1/qr-code"),
         Logout("local/logout"),
@@ -392,7 +396,8 @@ public class Defines {
      */
     public enum HeaderKey {
         RequestId("X-Branch-Request-Id"),
-        SendCloseRequest("X-Branch-Send-Close-Request");
+        SendCloseRequest("X-Branch-Send-Close-Request"),
+        RetryAfter("Retry-After");
 
         private final String key;
 
@@ -4,16 +4,23 @@ import static android.content.Context.UI_MODE_SERVICE;
 import static io.branch.referral.PrefHelper.NO_STRING_VALUE;
 
 import android.app.UiModeManager;
+import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.res.Configuration;
+import android.net.ConnectivityManager;
 import android.text.TextUtils;
-import android.util.DisplayMetrics;
 
 import androidx.annotation.NonNull;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import io.branch.coroutines.DeviceSignalsKt;
 import kotlin.coroutines.Continuation;
 import kotlin.coroutines.CoroutineContext;
@@ -26,8 +33,20 @@ import kotlin.coroutines.EmptyCoroutineContext;
  * </p>
  */
 class DeviceInfo {
+    // A snapshot this old is captured again, for changes that come without a broadcast, such as a
+    // new address on the same network
+    static final long SNAPSHOT_TTL_MS = 5 * 60 * 1000;
+
     private final SystemObserver systemObserver_;
     private final Context context_;
+    private volatile DeviceSnapshot snapshot_;
+    // Counts invalidations, so that a snapshot captured across one is not kept
+    private final AtomicInteger snapshotGeneration_ = new AtomicInteger();
+    private final AtomicBoolean listeningForChanges_ = new AtomicBoolean();
+    // Kept so that they can be unregistered on shut down
+    private Context listeningContext_;
+    private BroadcastReceiver changeReceiver_;
+    private ComponentCallbacks changeCallbacks_;
 
     /**
      * Get the singleton instance for this class
@@ -51,6 +70,7 @@ class DeviceInfo {
      * @param requestObj JSON object for Branch server request
      */
     void updateRequestWithV1Params(ServerRequest serverRequest, JSONObject requestObj) {
+        DeviceSnapshot snapshot = getSnapshot();
         try {
             SystemObserver.UniqueId hardwareID = getHardwareID();
             if (!isNullOrEmptyOrBlank(hardwareID.getId())) {
@@ -73,15 +93,14 @@ class DeviceInfo {
                 requestObj.put(Defines.Jsonkey.Model.getKey(), modelName);
             }
 
-            DisplayMetrics displayMetrics = SystemObserver.getScreenDisplay(context_);
-            requestObj.put(Defines.Jsonkey.ScreenDpi.getKey(), displayMetrics.densityDpi);
-            requestObj.put(Defines.Jsonkey.ScreenHeight.getKey(), displayMetrics.heightPixels);
-            requestObj.put(Defines.Jsonkey.ScreenWidth.getKey(), displayMetrics.widthPixels);
+            requestObj.put(Defines.Jsonkey.ScreenDpi.getKey(), snapshot.screenDpi);
+            requestObj.put(Defines.Jsonkey.ScreenHeight.getKey(), snapshot.screenHeight);
+            requestObj.put(Defines.Jsonkey.ScreenWidth.getKey(), snapshot.screenWidth);
 
-            requestObj.put(Defines.Jsonkey.WiFi.getKey(), SystemObserver.getWifiConnected(context_));
-            requestObj.put(Defines.Jsonkey.UIMode.getKey(), SystemObserver.getUIMode(context_));
+            requestObj.put(Defines.Jsonkey.WiFi.getKey(), snapshot.wifiConnected);
+            requestObj.put(Defines.Jsonkey.UIMode.getKey(), snapshot.uiMode);
 
-            String osName = SystemObserver.getOS(context_);
+            String osName = snapshot.os;
             if (!isNullOrEmptyOrBlank(osName)) {
                 requestObj.put(Defines.Jsonkey.OS.getKey(), osName);
             }
@@ -93,17 +112,17 @@ class DeviceInfo {
                 requestObj.put(Defines.Jsonkey.PluginVersion.getKey(), Branch.getPluginVersion());
             }
 
-            String countryCode = SystemObserver.getISO2CountryCode();
+            String countryCode = snapshot.countryCode;
             if (!TextUtils.isEmpty(countryCode)) {
                 requestObj.put(Defines.Jsonkey.Country.getKey(), countryCode);
             }
 
-            String languageCode = SystemObserver.getISO2LanguageCode();
+            String languageCode = snapshot.languageCode;
             if (!TextUtils.isEmpty(languageCode)) {
                 requestObj.put(Defines.Jsonkey.Language.getKey(), languageCode);
             }
 
-            String localIpAddr = SystemObserver.getLocalIPAddress();
+            String localIpAddr = snapshot.localIpAddress;
             if ((!TextUtils.isEmpty(localIpAddr))) {
                 requestObj.put(Defines.Jsonkey.LocalIP.getKey(), localIpAddr);
             }
@@ -111,9 +130,9 @@ class DeviceInfo {
             if (serverRequest.isInitializationOrEventRequest()) {
                 requestObj.put(Defines.Jsonkey.CPUType.getKey(), SystemObserver.getCPUType());
                 requestObj.put(Defines.Jsonkey.DeviceBuildId.getKey(), SystemObserver.getDeviceBuildId());
-                requestObj.put(Defines.Jsonkey.Locale.getKey(), SystemObserver.getLocale());
-                requestObj.put(Defines.Jsonkey.ConnectionType.getKey(), SystemObserver.getConnectionType(context_));
-                requestObj.put(Defines.Jsonkey.DeviceCarrier.getKey(), SystemObserver.getCarrier(context_));
+                requestObj.put(Defines.Jsonkey.Locale.getKey(), snapshot.locale);
+                requestObj.put(Defines.Jsonkey.ConnectionType.getKey(), snapshot.connectionType);
+                requestObj.put(Defines.Jsonkey.DeviceCarrier.getKey(), snapshot.carrier);
                 requestObj.put(Defines.Jsonkey.OSVersionAndroid.getKey(), SystemObserver.getOSVersion());
             }
         } catch (JSONException e) {
@@ -121,6 +140,101 @@ class DeviceInfo {
         }
     }
 
+    /**
+     * @return The device parameters that rarely change, captured again after a connectivity,
+     * configuration or locale change, or once they are {@link #SNAPSHOT_TTL_MS} old.
+     */
+    DeviceSnapshot getSnapshot() {
+        DeviceSnapshot snapshot = snapshot_;
+        if (snapshot != null) {
+            long age = snapshot.getAgeMs();
+            if (age >= 0 && age < SNAPSHOT_TTL_MS) {
+                return snapshot;
+            }
+        }
+        listenForChanges();
+        int generation = snapshotGeneration_.get();
+        snapshot = DeviceSnapshot.capture(context_);
+        if (snapshotGeneration_.get() == generation) {
+            snapshot_ = snapshot;
+        }
+        return snapshot;
+    }
+
+    /**
+     * <p>Has the next request capture the device parameters again.</p>
+     */
+    void invalidateSnapshot() {
+        snapshotGeneration_.incrementAndGet();
+        snapshot_ = null;
+    }
+
+    // Registers once for the broadcasts and callbacks that signal a change in the snapshot
+    @SuppressWarnings("deprecation")
+    private synchronized void listenForChanges() {
+        if (context_ == null || !listeningForChanges_.compareAndSet(false, true)) {
+            return;
+        }
+        Context appContext = context_.getApplicationContext() != null ? context_.getApplicationContext() : context_;
+        listeningContext_ = appContext;
+        try {
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
+            filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+            changeReceiver_ = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    // CONNECTIVITY_ACTION is sticky, so registering delivers the last one right away
+                    // and would throw away the snapshot that was just captured
+                    if (isInitialStickyBroadcast()) {
+                        return;
+                    }
+                    invalidateSnapshot();
+                }
+            };
+            appContext.registerReceiver(changeReceiver_, filter);
+            // Screen size, orientation, UI mode and locale
+            changeCallbacks_ = new ComponentCallbacks() {
+                @Override
+                public void onConfigurationChanged(@NonNull Configuration newConfig) {
+                    invalidateSnapshot();
+                }
+
+                @Override
+                public void onLowMemory() {
+                }
+            };
+            appContext.registerComponentCallbacks(changeCallbacks_);
+        } catch (Exception e) {
+            // The snapshot is then only refreshed by its age
+            BranchLogger.w("Caught Exception DeviceInfo listenForChanges: " + e.getMessage());
+        }
+    }
+
+    /**
+     * <p>Unregisters the receiver and callbacks registered by {@link #listenForChanges()}, so that
+     * the instance can be released.</p>
+     */
+    synchronized void shutDown() {
+        if (listeningContext_ != null) {
+            try {
+                if (changeReceiver_ != null) {
+                    listeningContext_.unregisterReceiver(changeReceiver_);
+                }
+                if (changeCallbacks_ != null) {
+                    listeningContext_.unregisterComponentCallbacks(changeCallbacks_);
+                }
+            } catch (Exception e) {
+                BranchLogger.w("Caught Exception DeviceInfo shutDown: " + e.getMessage());
+            }
+        }
+        listeningContext_ = null;
+        changeReceiver_ = null;
+        changeCallbacks_ = null;
+        listeningForChanges_.set(false);
+        invalidateSnapshot();
+    }
+
     /**
      * Detects TV devices.
      *
@@ -141,6 +255,7 @@ class DeviceInfo {
      * @param userDataObj JSON object for Branch server request
      */
     void updateRequestWithV2Params(ServerRequest serverRequest, PrefHelper prefHelper, JSONObject userDataObj) {
+        DeviceSnapshot snapshot = getSnapshot();
         try {
             SystemObserver.UniqueId hardwareID = getHardwareID();
             if (!isNullOrEmptyOrBlank(hardwareID.getId())) {
@@ -162,13 +277,12 @@ class DeviceInfo {
                 userDataObj.put(Defines.Jsonkey.Model.getKey(), modelName);
             }
 
-            DisplayMetrics displayMetrics = SystemObserver.getScreenDisplay(context_);
-            userDataObj.put(Defines.Jsonkey.ScreenDpi.getKey(), displayMetrics.densityDpi);
-            userDataObj.put(Defines.Jsonkey.ScreenHeight.getKey(), displayMetrics.heightPixels);
-            userDataObj.put(Defines.Jsonkey.ScreenWidth.getKey(), displayMetrics.widthPixels);
-            userDataObj.put(Defines.Jsonkey.UIMode.getKey(), SystemObserver.getUIMode(context_));
+            userDataObj.put(Defines.Jsonkey.ScreenDpi.getKey(), snapshot.screenDpi);
+            userDataObj.put(Defines.Jsonkey.ScreenHeight.getKey(), snapshot.screenHeight);
+            userDataObj.put(Defines.Jsonkey.ScreenWidth.getKey(), snapshot.screenWidth);
+            userDataObj.put(Defines.Jsonkey.UIMode.getKey(), snapshot.uiMode);
 
-            String osName = SystemObserver.getOS(context_);
+            String osName = snapshot.os;
             if (!isNullOrEmptyOrBlank(osName)) {
                 userDataObj.put(Defines.Jsonkey.OS.getKey(), osName);
             }
@@ -180,17 +294,17 @@ class DeviceInfo {
                 userDataObj.put(Defines.Jsonkey.PluginVersion.getKey(), Branch.getPluginVersion());
             }
 
-            String countryCode = SystemObserver.getISO2CountryCode();
+            String countryCode = snapshot.countryCode;
             if (!TextUtils.isEmpty(countryCode)) {
                 userDataObj.put(Defines.Jsonkey.Country.getKey(), countryCode);
             }
 
-            String languageCode = SystemObserver.getISO2LanguageCode();
+            String languageCode = snapshot.languageCode;
             if (!TextUtils.isEmpty(languageCode)) {
                 userDataObj.put(Defines.Jsonkey.Language.getKey(), languageCode);
             }
 
-            String localIpAddr = SystemObserver.getLocalIPAddress();
+            String localIpAddr = snapshot.localIpAddress;
             if ((!TextUtils.isEmpty(localIpAddr))) {
                 userDataObj.put(Defines.Jsonkey.LocalIP.getKey(), localIpAddr);
             }
@@ -229,9 +343,9 @@ class DeviceInfo {
             if (serverRequest.isInitializationOrEventRequest()) {
                 userDataObj.put(Defines.Jsonkey.CPUType.getKey(), SystemObserver.getCPUType());
                 userDataObj.put(Defines.Jsonkey.DeviceBuildId.getKey(), SystemObserver.getDeviceBuildId());
-                userDataObj.put(Defines.Jsonkey.Locale.getKey(), SystemObserver.getLocale());
-                userDataObj.put(Defines.Jsonkey.ConnectionType.getKey(), SystemObserver.getConnectionType(context_));
-                userDataObj.put(Defines.Jsonkey.DeviceCarrier.getKey(), SystemObserver.getCarrier(context_));
+                userDataObj.put(Defines.Jsonkey.Locale.getKey(), snapshot.locale);
+                userDataObj.put(Defines.Jsonkey.ConnectionType.getKey(), snapshot.connectionType);
+                userDataObj.put(Defines.Jsonkey.DeviceCarrier.getKey(), snapshot.carrier);
                 userDataObj.put(Defines.Jsonkey.OSVersionAndroid.getKey(), SystemObserver.getOSVersion());
             }
 
@@ -246,7 +360,7 @@ class DeviceInfo {
      * or on time, query it synchronously.
      * @param userDataObj
      */
-    private void setPostUserAgent(final JSONObject userDataObj) {
+    void setPostUserAgent(final JSONObject userDataObj) {
         BranchLogger.v("setPostUserAgent " + Thread.currentThread().getName());
         try {
             if (!TextUtils.isEmpty(Branch._userAgentString)) {
@@ -255,7 +369,6 @@ class DeviceInfo {
                 userDataObj.put(Defines.Jsonkey.UserAgent.getKey(), Branch._userAgentString);
 
                 Branch.getInstance().requestQueue_.unlockProcessWait(ServerRequest.PROCESS_WAIT_LOCK.USER_AGENT_STRING_LOCK);
-                Branch.getInstance().requestQueue_.processNextQueueItem("setPostUserAgent");
             }
             else if (Branch.userAgentSync) {
                 // If user agent sync is false, then the async coroutine is executed instead but may not have finished yet.
@@ -282,7 +395,6 @@ class DeviceInfo {
                         }
 
                         Branch.getInstance().requestQueue_.unlockProcessWait(ServerRequest.PROCESS_WAIT_LOCK.USER_AGENT_STRING_LOCK);
-                        Branch.getInstance().requestQueue_.processNextQueueItem("onUserAgentStringFetchFinished");
                     }
                 });
             }
@@ -310,7 +422,6 @@ class DeviceInfo {
                         }
 
                         Branch.getInstance().requestQueue_.unlockProcessWait(ServerRequest.PROCESS_WAIT_LOCK.USER_AGENT_STRING_LOCK);
-                        Branch.getInstance().requestQueue_.processNextQueueItem("getUserAgentAsync resumeWith");
                     }
                 });
             }
@@ -318,7 +429,6 @@ class DeviceInfo {
         catch (Exception exception){
             BranchLogger.w("Caught exception trying to set userAgent " + exception.getMessage());
             Branch.getInstance().requestQueue_.unlockProcessWait(ServerRequest.PROCESS_WAIT_LOCK.USER_AGENT_STRING_LOCK);
-            Branch.getInstance().requestQueue_.processNextQueueItem("getUserAgentAsync");
         }
     }
 
@@ -0,0 +1,69 @@
+package io.branch.referral;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
+
+/**
+ * <p>
+ * The device parameters sent with every request that take system calls to read, captured once
+ * and shared by the requests built until they change, see {@link DeviceInfo#getSnapshot()}.
+ * Instances are immutable, so a request built while a new snapshot is being captured sees either
+ * the old values or the new ones, never a mix.
+ * </p>
+ */
+class DeviceSnapshot {
+    final int screenDpi;
+    final int screenHeight;
+    final int screenWidth;
+    final String uiMode;
+    final String os;
+    final String connectionType;
+    final boolean wifiConnected;
+    final String carrier;
+    final String countryCode;
+    final String languageCode;
+    final String locale;
+    final String localIpAddress;
+    // SystemClock.elapsedRealtime() at capture
+    final long capturedAt;
+
+    private DeviceSnapshot(DisplayMetrics displayMetrics, String uiMode, String os, String connectionType, String carrier,
+                           String countryCode, String languageCode, String locale, String localIpAddress, long capturedAt) {
+        this.screenDpi = displayMetrics.densityDpi;
+        this.screenHeight = displayMetrics.heightPixels;
+        this.screenWidth = displayMetrics.widthPixels;
+        this.uiMode = uiMode;
+        this.os = os;
+        this.connectionType = connectionType;
+        this.wifiConnected = "wifi".equalsIgnoreCase(connectionType);
+        this.carrier = carrier;
+        this.countryCode = countryCode;
+        this.languageCode = languageCode;
+        this.locale = locale;
+        this.localIpAddress = localIpAddress;
+        this.capturedAt = capturedAt;
+    }
+
+    /**
+     * Reads the device parameters from the system. Enumerates the network interfaces and queries
+     * several system services, so call it off the main thread.
+     */
+    static DeviceSnapshot capture(Context context) {
+        return new DeviceSnapshot(
+                SystemObserver.getScreenDisplay(context),
+                SystemObserver.getUIMode(context),
+                SystemObserver.getOS(context),
+                SystemObserver.getConnectionType(context),
+                SystemObserver.getCarrier(context),
+                SystemObserver.getISO2CountryCode(),
+                SystemObserver.getISO2LanguageCode(),
+                SystemObserver.getLocale(),
+                SystemObserver.getLocalIPAddress(),
+                SystemClock.elapsedRealtime());
+    }
+
+    long getAgeMs() {
+        return SystemClock.elapsedRealtime() - capturedAt;
+    }
+}
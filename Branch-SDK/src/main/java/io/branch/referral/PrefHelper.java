@@ -19,7 +19,9 @@ import org.json.JSONObject;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -56,13 +58,20 @@ public class PrefHelper {
      */
     private static final int MAX_RETRIES = 3; // Default retry count is 3
 
+    static final int DEFAULT_RETRY_MAX_INTERVAL = 16000; // Backoff between retries is capped at 16 seconds
+    static final int DEFAULT_RETRY_BUDGET = 10; // Retries allowed per session, across all requests
+
     static final int TIMEOUT = 5500; // Default timeout is 5.5 sec
     static final int CONNECT_TIMEOUT = 10000; // Default timeout is 10 seconds
     static final int TASK_TIMEOUT = TIMEOUT+CONNECT_TIMEOUT; // Default timeout is 15.5 seconds
+    static final int DEFAULT_MIN_ADAPTIVE_TIMEOUT = 3000; // Timeouts measured from round trips are at least 3 seconds
+    static final int DEFAULT_MAX_ADAPTIVE_TIMEOUT = 20000; // and at most 20 seconds
     static final long DEFAULT_VALID_WINDOW_FOR_REFERRER_GCLID = 2592000000L; // Default expiration is 30 days, in milliseconds
     static final long MAX_VALID_WINDOW_FOR_REFERRER_GCLID = 100000000000L; // Arbitrary maximum window to prevent overflow, 3 years, in milliseconds
     static final long MIN_VALID_WINDOW_FOR_REFERRER_GCLID = 0L; // Don't allow time set in the past , in milliseconds
     static final int DEFAULT_NO_CONNECTION_RETRY_MAX = 3;
+    static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 1; // Requests are dispatched one at a time by default
+    static final int REQUEST_COMPRESSION_DISABLED = -1; // Request bodies are sent uncompressed by default
 
     private static final String SHARED_PREF_FILE = "branch_referral_shared_pref";
     
@@ -96,10 +105,18 @@ public class PrefHelper {
     
     private static final String KEY_RETRY_COUNT = "bnc_retry_count";
     private static final String KEY_RETRY_INTERVAL = "bnc_retry_interval";
+    private static final String KEY_RETRY_MAX_INTERVAL = "bnc_retry_max_interval";
+    private static final String KEY_RETRY_BUDGET = "bnc_retry_budget";
     private static final String KEY_TIMEOUT = "bnc_timeout";
     private static final String KEY_TASK_TIMEOUT = "bnc_task_timeout";
     private static final String KEY_CONNECT_TIMEOUT = "bnc_connect_timeout";
+    private static final String KEY_MIN_ADAPTIVE_TIMEOUT = "bnc_min_adaptive_timeout";
+    private static final String KEY_MAX_ADAPTIVE_TIMEOUT = "bnc_max_adaptive_timeout";
+    private static final String KEY_ENDPOINT_SCORES = "bnc_endpoint_scores";
+    private static final String KEY_SESSION_INIT_HEDGING = "bnc_session_init_hedging";
     private static final String KEY_NO_CONNECTION_RETRY_MAX = "bnc_no_connection_retry_max";
+    private static final String KEY_MAX_CONCURRENT_REQUESTS = "bnc_max_concurrent_requests";
+    private static final String KEY_REQUEST_COMPRESSION_THRESHOLD = "bnc_request_compression_threshold";
 
     private static final String KEY_LAST_READ_SYSTEM = "bnc_system_read_date";
     
@@ -153,10 +170,10 @@ public class PrefHelper {
     private final SharedPreferences appSharedPrefs_;
     
     /**
-     * A single variable that holds a reference to an {@link Editor} object that is used by the
-     * helper class whenever the preferences for the application are changed.
+     * The preferences held in memory, which every getter reads and every setter writes through to
+     * {@link #appSharedPrefs_}.
      */
-    private Editor prefsEditor_;
+    private final BranchPrefsCache prefs_;
     
     /**
      * Arbitrary key values added to all requests.
@@ -188,6 +205,21 @@ public class PrefHelper {
      */
     final BranchPartnerParameters partnerParams_ = new BranchPartnerParameters();
 
+    /**
+     * Health and latency of the Branch API base urls, kept across launches.
+     */
+    final BranchEndpointManager endpointManager_ = new BranchEndpointManager(new BranchEndpointManager.Store() {
+        @Override
+        public String load() {
+            return getString(KEY_ENDPOINT_SCORES);
+        }
+
+        @Override
+        public void save(String scores) {
+            setString(KEY_ENDPOINT_SCORES, scores);
+        }
+    });
+
     /**
      * <p>Constructor with context passed from calling {@link Activity}.</p>
      *
@@ -196,7 +228,46 @@ public class PrefHelper {
      */
     private PrefHelper(Context context) {
         this.appSharedPrefs_ = context.getSharedPreferences(SHARED_PREF_FILE, Context.MODE_PRIVATE);
-        this.prefsEditor_ = this.appSharedPrefs_.edit();
+        this.prefs_ = new BranchPrefsCache(new BranchPrefsCache.Store() {
+            @Override
+            public Map<String, ?> loadAll() {
+                return appSharedPrefs_.getAll();
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public void write(boolean clear, Map<String, Object> changes) {
+                Editor editor = appSharedPrefs_.edit();
+                if (clear) {
+                    editor.clear();
+                }
+                for (Map.Entry<String, Object> change : changes.entrySet()) {
+                    String key = change.getKey();
+                    Object value = change.getValue();
+                    if (value == null) {
+                        editor.remove(key);
+                    } else if (value instanceof String) {
+                        editor.putString(key, (String) value);
+                    } else if (value instanceof Integer) {
+                        editor.putInt(key, (Integer) value);
+                    } else if (value instanceof Long) {
+                        editor.putLong(key, (Long) value);
+                    } else if (value instanceof Float) {
+                        editor.putFloat(key, (Float) value);
+                    } else if (value instanceof Boolean) {
+                        editor.putBoolean(key, (Boolean) value);
+                    } else if (value instanceof Set) {
+                        editor.putStringSet(key, (Set<String>) value);
+                    }
+                }
+                editor.apply();
+            }
+        }, new BranchPrefsCache.Scheduler() {
+            @Override
+            public void schedule(Runnable task, long delayMs) {
+                BranchTaskTimeoutScheduler.getInstance().schedule(task, delayMs);
+            }
+        });
     }
     
     /**
@@ -215,10 +286,19 @@ public class PrefHelper {
         return prefHelper_;
     }
 
+    /**
+     * <p>Writes the preferences changed in the last {@link BranchPrefsCache#WRITE_BEHIND_MS} to
+     * {@link SharedPreferences} now, for when the app goes to the background and may be killed.</p>
+     */
+    void flushPendingWrites() {
+        prefs_.flush();
+    }
+
     // Package Private
     static void shutDown() {
         if (prefHelper_ != null) {
-            prefHelper_.prefsEditor_ = null;
+            // Written before whatever comes next, such as the preferences being cleared
+            prefHelper_.prefs_.flush();
         }
 
         // Reset all of the statics.
@@ -241,23 +321,11 @@ public class PrefHelper {
      * <p>Returns the base URL to use for all calls to the Branch API as a {@link String}.</p>
      * NOTE: Below API v20, TLS 1.2 does not work reliably, so we will fall back in that case.
      *
-     * @return A {@link String} variable containing the hard-coded base URL that the Branch
-     * API uses.
+     * @return A {@link String} variable containing the custom base URL set by the user, or else the
+     * Branch API base URL that {@link BranchEndpointManager} currently routes requests to.
      */
     public String getAPIBaseUrl() {
-        if (URLUtil.isHttpsUrl(customServerURL_)) {
-            return customServerURL_;
-        }
-
-        if (useEUEndpoint_) {
-            return BRANCH_EU_BASE_URL_V3;
-        }
-
-        if (Build.VERSION.SDK_INT >= 20) {
-            return BRANCH_BASE_URL_V2;
-        } else {
-            return BRANCH_BASE_URL_V1;
-        }
+        return getAPIBaseUrl(true);
     }
 
     /**
@@ -269,15 +337,7 @@ public class PrefHelper {
             return customServerURL_;
         }
 
-        if (useEUEndpoint_) {
-            return BRANCH_EU_BASE_URL_V3;
-        }
-
-        if (Build.VERSION.SDK_INT >= 20) {
-            return BRANCH_BASE_URL_V2;
-        } else {
-            return BRANCH_BASE_URL_V1;
-        }
+        return endpointManager_.select(BranchEndpointManager.getAllowedBaseUrls(useEUEndpoint_, Build.VERSION.SDK_INT));
     }
 
     /**
@@ -353,6 +413,60 @@ public class PrefHelper {
     public int getConnectTimeout() {
         return getInteger(KEY_CONNECT_TIMEOUT, CONNECT_TIMEOUT);
     }
+
+    /**
+     * <p>Sets the lower bound of the timeouts derived from observed round trip times.</p>
+     *
+     * @param minTimeout The {@link Integer} value of the lower bound in milliseconds.
+     */
+    public void setMinAdaptiveTimeout(int minTimeout) {
+        setInteger(KEY_MIN_ADAPTIVE_TIMEOUT, minTimeout);
+    }
+
+    /**
+     * <p>Returns the lower bound of the timeouts derived from observed round trip times.</p>
+     *
+     * @return An {@link Integer} value containing the lower bound in milliseconds.
+     */
+    public int getMinAdaptiveTimeout() {
+        return getInteger(KEY_MIN_ADAPTIVE_TIMEOUT, DEFAULT_MIN_ADAPTIVE_TIMEOUT);
+    }
+
+    /**
+     * <p>Sets the upper bound of the timeouts derived from observed round trip times.</p>
+     *
+     * @param maxTimeout The {@link Integer} value of the upper bound in milliseconds.
+     */
+    public void setMaxAdaptiveTimeout(int maxTimeout) {
+        setInteger(KEY_MAX_ADAPTIVE_TIMEOUT, maxTimeout);
+    }
+
+    /**
+     * <p>Returns the upper bound of the timeouts derived from observed round trip times.</p>
+     *
+     * @return An {@link Integer} value containing the upper bound in milliseconds.
+     */
+    public int getMaxAdaptiveTimeout() {
+        return getInteger(KEY_MAX_ADAPTIVE_TIMEOUT, DEFAULT_MAX_ADAPTIVE_TIMEOUT);
+    }
+
+    /**
+     * <p>Saves the recent session init latencies and the earned hedge credit, see {@link BranchHedgePolicy}.</p>
+     *
+     * @param state A JSON {@link String} of the hedging state.
+     */
+    public void setSessionInitHedgingState(String state) {
+        setString(KEY_SESSION_INIT_HEDGING, state);
+    }
+
+    /**
+     * <p>Returns the recent session init latencies and the earned hedge credit, see {@link BranchHedgePolicy}.</p>
+     *
+     * @return A JSON {@link String} of the hedging state, or {@link #NO_STRING_VALUE} if none was saved.
+     */
+    public String getSessionInitHedgingState() {
+        return getString(KEY_SESSION_INIT_HEDGING);
+    }
     
     /**
      * <p>Sets the value specifying the number of times that a Branch API call has been re-attempted.</p>
@@ -399,6 +513,42 @@ public class PrefHelper {
         return getInteger(KEY_RETRY_INTERVAL, INTERVAL_RETRY);
     }
 
+    /**
+     * <p>Sets the upper bound in milliseconds of the exponential backoff between retries.</p>
+     *
+     * @param retryMaxInterval An {@link Integer} value specifying the maximum backoff in milliseconds.
+     */
+    public void setRetryMaxInterval(int retryMaxInterval) {
+        setInteger(KEY_RETRY_MAX_INTERVAL, retryMaxInterval);
+    }
+
+    /**
+     * <p>Gets the upper bound in milliseconds of the exponential backoff between retries.</p>
+     *
+     * @return An {@link Integer} value containing the maximum backoff in milliseconds.
+     */
+    public int getRetryMaxInterval() {
+        return getInteger(KEY_RETRY_MAX_INTERVAL, DEFAULT_RETRY_MAX_INTERVAL);
+    }
+
+    /**
+     * <p>Sets the number of retries allowed per session, shared by all requests.</p>
+     *
+     * @param retryBudget An {@link Integer} value specifying the number of retries per session.
+     */
+    public void setRetryBudget(int retryBudget) {
+        setInteger(KEY_RETRY_BUDGET, retryBudget);
+    }
+
+    /**
+     * <p>Gets the number of retries allowed per session, shared by all requests.</p>
+     *
+     * @return An {@link Integer} value containing the number of retries per session.
+     */
+    public int getRetryBudget() {
+        return getInteger(KEY_RETRY_BUDGET, DEFAULT_RETRY_BUDGET);
+    }
+
     /**
      * In cases of persistent no internet connection or offline modes,
      * set a maximum number of attempts for the Branch Request to be tried.
@@ -415,6 +565,44 @@ public class PrefHelper {
     public int getNoConnectionRetryMax(){
         return getInteger(KEY_NO_CONNECTION_RETRY_MAX, DEFAULT_NO_CONNECTION_RETRY_MAX);
     }
+
+    /**
+     * <p>Sets the number of independent requests, such as events and short links, that may be in
+     * flight at the same time.</p>
+     *
+     * @param maxConcurrentRequests An {@link Integer} value of at least 1.
+     */
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        setInteger(KEY_MAX_CONCURRENT_REQUESTS, maxConcurrentRequests);
+    }
+
+    /**
+     * <p>Gets the number of independent requests that may be in flight at the same time. Session
+     * requests are always dispatched one at a time regardless of this value.</p>
+     *
+     * @return An {@link Integer} value of the currently set concurrency level.
+     */
+    public int getMaxConcurrentRequests() {
+        return getInteger(KEY_MAX_CONCURRENT_REQUESTS, DEFAULT_MAX_CONCURRENT_REQUESTS);
+    }
+
+    /**
+     * <p>Sets the size in bytes from which request bodies are gzip encoded.</p>
+     *
+     * @param threshold An {@link Integer} value of at least 0, or {@link #REQUEST_COMPRESSION_DISABLED}.
+     */
+    public void setRequestCompressionThreshold(int threshold) {
+        setInteger(KEY_REQUEST_COMPRESSION_THRESHOLD, threshold);
+    }
+
+    /**
+     * <p>Gets the size in bytes from which request bodies are gzip encoded.</p>
+     *
+     * @return An {@link Integer} value of the threshold, negative if compression is disabled.
+     */
+    public int getRequestCompressionThreshold() {
+        return getInteger(KEY_REQUEST_COMPRESSION_THRESHOLD, REQUEST_COMPRESSION_DISABLED);
+    }
     
     /**
      * <p>Sets the value of {@link #KEY_APP_VERSION} in preferences.</p>
@@ -768,12 +956,16 @@ public class PrefHelper {
      * @return
      */
     public JSONObject getReferringURLQueryParameters()  {
-        String string = getString(KEY_REFERRING_URL_QUERY_PARAMETERS);
         JSONObject params = new JSONObject();
-
-        if (!TextUtils.isEmpty(string) && !PrefHelper.NO_STRING_VALUE.equals(string)) {
+        // A copy of the parsed value, which is shared
+        JSONObject parsed = prefs_.getJSONObject(KEY_REFERRING_URL_QUERY_PARAMETERS);
+        if (parsed != null) {
             try {
-                params = new JSONObject(string);
+                Iterator<String> keys = parsed.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    params.put(key, parsed.get(key));
+                }
             } catch (JSONException e) {
                 BranchLogger.w("Unable to get URL query parameters as string: " + e);
             }
@@ -812,8 +1004,11 @@ public class PrefHelper {
         String gclid = null;
 
         try {
-            JSONObject gclidJsonObject = new JSONObject(gclidObjectString);
-            long expiryDate = (long) gclidJsonObject.get(KEY_GCLID_EXPIRATION_DATE);
+            JSONObject gclidJsonObject = prefs_.getJSONObject(KEY_GCLID_JSON_OBJECT);
+            if (gclidJsonObject == null) {
+                throw new JSONException("Stored gclid is not a JSON object");
+            }
+            long expiryDate = gclidJsonObject.getLong(KEY_GCLID_EXPIRATION_DATE);
 
             // If expiry time has not elapsed, return it
             // No undefined behavior within bounds
@@ -1205,7 +1400,7 @@ public class PrefHelper {
      * @return A {@link Boolean} indicating whether some preference exists.
      */
     public boolean hasPrefValue(String key) {
-        return appSharedPrefs_.contains(key);
+        return prefs_.contains(key);
     }
 
     /**
@@ -1214,7 +1409,7 @@ public class PrefHelper {
      * @param key A {@link String} value containing the key to the value that's to be deleted.
      */
     public void removePrefValue(String key) {
-        prefsEditor_.remove(key).apply();
+        prefs_.remove(key);
     }
     
     /**
@@ -1238,7 +1433,7 @@ public class PrefHelper {
      * default value if null.
      */
     public int getInteger(String key, int defaultValue) {
-        return appSharedPrefs_.getInt(key, defaultValue);
+        return prefs_.getInt(key, defaultValue);
     }
     
     /**
@@ -1252,7 +1447,7 @@ public class PrefHelper {
     }
 
     public long getLong(String key, long defaultValue) {
-        return appSharedPrefs_.getLong(key, defaultValue);
+        return prefs_.getLong(key, defaultValue);
     }
     
     /**
@@ -1262,7 +1457,7 @@ public class PrefHelper {
      * @return A {@link Float} value of the specified key as stored in preferences.
      */
     public float getFloat(String key) {
-        return appSharedPrefs_.getFloat(key, 0);
+        return prefs_.getFloat(key, 0);
     }
     
     /**
@@ -1272,7 +1467,7 @@ public class PrefHelper {
      * @return A {@link String} value of the specified key as stored in preferences.
      */
     public String getString(String key) {
-        return appSharedPrefs_.getString(key, NO_STRING_VALUE);
+        return prefs_.getString(key, NO_STRING_VALUE);
     }
     
     /**
@@ -1282,7 +1477,7 @@ public class PrefHelper {
      * @return An {@link Boolean} value of the specified key as stored in preferences.
      */
     public boolean getBool(String key) {
-        return appSharedPrefs_.getBoolean(key, false);
+        return prefs_.getBoolean(key, false);
     }
     
     /**
@@ -1292,7 +1487,7 @@ public class PrefHelper {
      * @param value An {@link Integer} value to set the preference record to.
      */
     public void setInteger(String key, int value) {
-        prefsEditor_.putInt(key, value).apply();
+        prefs_.put(key, value);
     }
     
     /**
@@ -1302,7 +1497,7 @@ public class PrefHelper {
      * @param value A {@link Long} value to set the preference record to.
      */
     public void setLong(String key, long value) {
-        prefsEditor_.putLong(key, value).apply();
+        prefs_.put(key, value);
     }
     
     /**
@@ -1312,7 +1507,7 @@ public class PrefHelper {
      * @param value A {@link Float} value to set the preference record to.
      */
     public void setFloat(String key, float value) {
-        prefsEditor_.putFloat(key, value).apply();
+        prefs_.put(key, value);
     }
     
     /**
@@ -1322,7 +1517,7 @@ public class PrefHelper {
      * @param value A {@link String} value to set the preference record to.
      */
     public void setString(String key, String value) {
-        prefsEditor_.putString(key, value).apply();
+        prefs_.put(key, value);
     }
     
     /**
@@ -1332,7 +1527,7 @@ public class PrefHelper {
      * @param value A {@link Boolean} value to set the preference record to.
      */
     public void setBool(String key, Boolean value) {
-        prefsEditor_.putBoolean(key, value).apply();
+        prefs_.put(key, value);
     }
 
     /**
@@ -1347,13 +1542,12 @@ public class PrefHelper {
         String linkClickIdentifier = getLinkClickIdentifier();
         String appLink = getAppLink();
         String pushIdentifier = getPushIdentifier();
-        prefsEditor_.clear();
+        prefs_.clear();
         
         setLinkClickID(linkClickID);
         setLinkClickIdentifier(linkClickIdentifier);
         setAppLink(appLink);
         setPushIdentifier(pushIdentifier);
-        prefsEditor_.apply();
     }
     
     public void setRequestMetadata(@NonNull String key, @NonNull String value) {
@@ -249,8 +249,12 @@ public class BranchQRCode {
             @Override
             public void onDataReceived(ServerResponse data) {
                 try {
-                    String qrCodeString = data.getObject().getString(Defines.Jsonkey.QRCodeResponseString.getKey());
-                    byte[] qrCodeBytes = Base64.decode(qrCodeString, Base64.DEFAULT);
+                    byte[] qrCodeBytes = data.getBytes();
+                    if (qrCodeBytes == null) {
+                        // Custom network layers still hand the image over Base64 encoded
+                        String qrCodeString = data.getObject().getString(Defines.Jsonkey.QRCodeResponseString.getKey());
+                        qrCodeBytes = Base64.decode(qrCodeString, Base64.DEFAULT);
+                    }
 
                     final JSONObject cacheParamsJSON = new JSONObject(parameters);
                     BranchQRCodeCache.getInstance().addQRCodeToCache(cacheParamsJSON, qrCodeBytes);
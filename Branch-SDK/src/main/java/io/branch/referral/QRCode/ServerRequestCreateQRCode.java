@@ -72,4 +72,10 @@ public class ServerRequestCreateQRCode extends ServerRequest {
     protected boolean prepareExecuteWithoutTracking() {
         return true;
     }
+
+    @Override
+    protected boolean isPersistable() {
+        // The QR code is only of use to the handler waiting on it in this process
+        return false;
+    }
 }
@@ -5,6 +5,7 @@ import io.branch.referral.Branch.BranchReferralInitListener
 import io.branch.referral.BranchLogger.e
 import io.branch.referral.BranchLogger.v
 import io.branch.referral.Defines.RequestPath
+import org.json.JSONException
 import org.json.JSONObject
 
 /**
@@ -78,4 +79,18 @@ class QueueOperationSetIdentity(
     override fun prepareExecuteWithoutTracking(): Boolean {
         return true
     }
+
+    override fun toJSON(): JSONObject? {
+        val json = super.toJSON()
+        try {
+            json?.put(IDENTITY_KEY, userId_)
+        } catch (e: JSONException) {
+            e("Caught JSONException " + e.message)
+        }
+        return json
+    }
+
+    companion object {
+        const val IDENTITY_KEY = "REQ_IDENTITY"
+    }
 }
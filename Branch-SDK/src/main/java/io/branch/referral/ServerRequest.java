@@ -14,14 +14,12 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
-import java.util.ConcurrentModificationException;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Locale;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import java.util.UUID;
 
@@ -35,14 +33,22 @@ public abstract class ServerRequest {
             Defines.RequestPath.RegisterOpen,
             Defines.RequestPath.ContentEvent,
             Defines.RequestPath.TrackStandardEvent,
-            Defines.RequestPath.TrackCustomEvent};
+            Defines.RequestPath.TrackCustomEvent,
+            Defines.RequestPath.TrackEventBatch};
     
     private static final String POST_KEY = "REQ_POST";
     private static final String POST_PATH_KEY = "REQ_POST_PATH";
+    private static final String UUID_KEY = "REQ_UUID";
+    private static final String CREATION_TS_KEY = "REQ_CREATION_TS";
+    private static final String POST_PENDING_KEY = "REQ_POST_PENDING";
+    // Marks a value in params_ that stands in for a session scoped identifier, see sessionToken
+    private static final String SESSION_TOKEN_PREFIX = "bnc_session_token:";
     protected long creation_ts = 0;
     protected String uuid;
 
     private JSONObject params_;
+    // Set while the device parameters are still to be added to params_, see setPostDeferred
+    private volatile boolean postPending_;
     final Defines.RequestPath requestPath_;
     protected final PrefHelper prefHelper_;
     private long queueWaitTime_ = 0;
@@ -53,8 +59,23 @@ public abstract class ServerRequest {
         SDK_INIT_WAIT_LOCK, GAID_FETCH_WAIT_LOCK, INTENT_PENDING_WAIT_LOCK, USER_SET_WAIT_LOCK, INSTALL_REFERRER_FETCH_WAIT_LOCK, USER_AGENT_STRING_LOCK
     }
     
-    // Set for holding any active wait locks
-    private final Set<PROCESS_WAIT_LOCK> locks_;
+    // Bitmask of the active wait locks, one bit per PROCESS_WAIT_LOCK ordinal
+    private final AtomicInteger locks_ = new AtomicInteger();
+    // Set while the request is queued, see ServerRequestQueue
+    volatile WaitLockListener waitLockListener_;
+
+    /**
+     * Told when a wait lock is added to or removed from the request. Called on the thread that
+     * added or removed the lock.
+     */
+    interface WaitLockListener {
+        void onWaitLockAdded(ServerRequest request, PROCESS_WAIT_LOCK lock);
+
+        /**
+         * @param lastLock True if the request holds no other wait lock.
+         */
+        void onWaitLockRemoved(ServerRequest request, PROCESS_WAIT_LOCK lock, boolean lastLock);
+    }
     
     /*True if there is an error in creating this request such as error with json parameters.*/
     public boolean constructError_ = false;
@@ -65,7 +86,14 @@ public abstract class ServerRequest {
         V2
     }
 
+    // Number of times this request has been kept in the queue to be sent again after failing, see
+    // PrefHelper#getNoConnectionRetryMax
     public int currentRetryCount = 0;
+    // Number of backoff retries sent in the current dispatch of this request, see BranchRetryPolicy.
+    // Sent to the remote interface as the retry number
+    int retryNumber_ = 0;
+    // Owned by ServerRequestQueue, see BranchDispatchQueue
+    final AtomicInteger dispatchState_ = new AtomicInteger(BranchDispatchQueue.IDLE);
 
     /**
      * <p>Creates an instance of ServerRequest.</p>
@@ -91,7 +119,6 @@ public abstract class ServerRequest {
         requestPath_ = requestPath;
         params_ = post;
         prefHelper_ = PrefHelper.getInstance(context);
-        locks_ = new HashSet<>();
 
         creation_ts = System.currentTimeMillis();
         String creation_ts_date_formatted = formatUnixEpochToDateFormat(creation_ts);
@@ -276,10 +303,85 @@ public abstract class ServerRequest {
 
         params_.put(Defines.Jsonkey.Debug.getKey(), Branch.isDeviceIDFetchDisabled());
     }
+
+    /**
+     * <p>Like {@link #setPost(JSONObject)}, but leaves the device parameters and the app
+     * environment, which take system calls and preference reads, to {@link #completePost()}. The request queue calls it on its
+     * background thread before the request is sent, so that creating the request costs the calling
+     * thread, often the UI thread, little. Subclasses add their own deferred parameters in
+     * {@link #onCompletePost(JSONObject)}.</p>
+     * <p>The deferred parameters are read when the request is sent, not when it is created. A
+     * request queued behind session init or while offline therefore carries the device
+     * parameters and partner parameters current when it goes out.</p>
+     *
+     * @param post A {@link JSONObject} with the parameters the caller supplied.
+     */
+    protected void setPostDeferred(JSONObject post) throws JSONException {
+        BranchLogger.v("setPostDeferred " + post);
+        params_ = post;
+        if (getBranchRemoteAPIVersion() != BRANCH_API_VERSION.V1) {
+            // Present from the start, for the parameters added on the main thread before sending
+            JSONObject userDataObj = new JSONObject();
+            params_.put(Defines.Jsonkey.UserData.getKey(), userDataObj);
+            // Requests that wait on USER_AGENT_STRING_LOCK are only released once this has run
+            DeviceInfo deviceInfo = DeviceInfo.getInstance();
+            if (deviceInfo != null) {
+                deviceInfo.setPostUserAgent(userDataObj);
+            }
+        }
+        params_.put(Defines.Jsonkey.Debug.getKey(), Branch.isDeviceIDFetchDisabled());
+        postPending_ = true;
+    }
+
+    /**
+     * <p>Adds the parameters left out by {@link #setPostDeferred(JSONObject)}, if any. Called on the
+     * request queue's background thread.</p>
+     */
+    void completePost() {
+        if (!postPending_) {
+            return;
+        }
+        postPending_ = false;
+        try {
+            DeviceInfo deviceInfo = DeviceInfo.getInstance();
+            if (deviceInfo != null) {
+                if (getBranchRemoteAPIVersion() == BRANCH_API_VERSION.V1) {
+                    deviceInfo.updateRequestWithV1Params(this, params_);
+                } else {
+                    JSONObject userDataObj = params_.optJSONObject(Defines.Jsonkey.UserData.getKey());
+                    if (userDataObj == null) {
+                        userDataObj = new JSONObject();
+                        params_.put(Defines.Jsonkey.UserData.getKey(), userDataObj);
+                    }
+                    deviceInfo.updateRequestWithV2Params(this, prefHelper_, userDataObj);
+                }
+                updateEnvironment(context_, params_);
+            }
+            onCompletePost(params_);
+        } catch (JSONException e) {
+            BranchLogger.w("Caught JSONException " + e.getMessage());
+        }
+    }
+
+    /**
+     * <p>Override to add parameters to a post set with {@link #setPostDeferred(JSONObject)} once the
+     * device parameters are in, on the request queue's background thread.</p>
+     */
+    protected void onCompletePost(JSONObject post) throws JSONException {
+    }
+
+    /**
+     * @return True if the device parameters are still to be added to the post.
+     */
+    boolean isPostPending() {
+        return postPending_;
+    }
     
     /**
      * <p>Gets a {@link JSONObject} containing the post data supplied with the current request as
      * key-value pairs.</p>
+     * <p>Session scoped identifiers are held as placeholders, see {@link #sessionToken(Defines.Jsonkey)}.
+     * Use {@link #getResolvedPost()} to read the values that are sent.</p>
      *
      * @return A {@link JSONObject} containing the post data supplied with the current request
      * as key-value pairs.
@@ -287,6 +389,58 @@ public abstract class ServerRequest {
     public JSONObject getPost() {
         return params_;
     }
+
+    /**
+     * <p>Gets the post data with the current value of each session scoped identifier in place of
+     * its placeholder, as the request is sent. The post itself is not changed.</p>
+     *
+     * @return A copy of the post, or null if the request has no post. Values put in it are not
+     * added to the post of the request, nested values are those of the post.
+     */
+    public JSONObject getResolvedPost() {
+        if (params_ == null) {
+            return null;
+        }
+        ServerRequestPayload resolvedPost = new ServerRequestPayload(params_);
+        try {
+            resolveSessionTokens(resolvedPost);
+        } catch (JSONException e) {
+            BranchLogger.w("Caught JSONException " + e.getMessage());
+        }
+        return resolvedPost.toJSON();
+    }
+    
+    /**
+     * <p>
+     * A placeholder for the current value of a session scoped identifier, one of
+     * {@link Defines.Jsonkey#SessionID}, {@link Defines.Jsonkey#RandomizedBundleToken} and
+     * {@link Defines.Jsonkey#RandomizedDeviceToken}, to put in the post in place of the value. It is
+     * replaced by the value in {@link PrefHelper} when the request is sent, see
+     * {@link #getPostWithInstrumentationValues(ConcurrentHashMap)}, so that queued requests need
+     * not be updated when an init response changes the identifiers.
+     * </p>
+     *
+     * @param key The key of the identifier.
+     * @return A {@link String} to put in the post as the value of the identifier.
+     */
+    static String sessionToken(Defines.Jsonkey key) {
+        return SESSION_TOKEN_PREFIX + key.getKey();
+    }
+
+    // Lays the current value of each session scoped identifier over the placeholder for it in
+    // params_, see sessionToken. Writes go to the payload, params_ keeps the placeholders
+    private void resolveSessionTokens(ServerRequestPayload payload) throws JSONException {
+        resolveSessionToken(payload, Defines.Jsonkey.SessionID, prefHelper_.getSessionID());
+        resolveSessionToken(payload, Defines.Jsonkey.RandomizedBundleToken, prefHelper_.getRandomizedBundleToken());
+        resolveSessionToken(payload, Defines.Jsonkey.RandomizedDeviceToken, prefHelper_.getRandomizedDeviceToken());
+    }
+
+    private void resolveSessionToken(ServerRequestPayload payload, Defines.Jsonkey key, String currentValue) throws JSONException {
+        Object value = params_.opt(key.getKey());
+        if (value instanceof String && ((String) value).startsWith(SESSION_TOKEN_PREFIX)) {
+            payload.put(key.getKey(), currentValue);
+        }
+    }
     
     /**
      * <p>
@@ -307,42 +461,30 @@ public abstract class ServerRequest {
      * * @param instrumentationData {@link ConcurrentHashMap} with instrumentation values
      *
      * @return A {@link JSONObject} containing the post data supplied with the current request
-     * as key-value pairs and the instrumentation meta data.
+     * as key-value pairs and the instrumentation meta data. Values put in it are not added to
+     * the post of the request, nested values are those of the post.
      */
     public JSONObject getPostWithInstrumentationValues(ConcurrentHashMap<String, String> instrumentationData) {
-        JSONObject extendedPost = new JSONObject();
+        // The values of this attempt are laid over params_, which is not copied through its JSON text
+        ServerRequestPayload extendedPost = new ServerRequestPayload(params_ != null ? params_ : new JSONObject());
         try {
-            //Add original parameters
             if (params_ != null) {
-                JSONObject originalParams = new JSONObject(params_.toString());
-                Iterator<String> keys = originalParams.keys();
-                while (keys.hasNext()) {
-                    String key = keys.next();
-                    extendedPost.put(key, originalParams.get(key));
-                }
+                resolveSessionTokens(extendedPost);
             }
             // Append instrumentation metadata
             if (instrumentationData.size() > 0) {
                 JSONObject instrObj = new JSONObject();
                 Set<String> keys = instrumentationData.keySet();
-                try {
-                    for (String key : keys) {
-                        instrObj.put(key, instrumentationData.get(key));
-                        instrumentationData.remove(key);
-                    }
-                    extendedPost.put(Defines.Jsonkey.Branch_Instrumentation.getKey(), instrObj);
-                } catch (JSONException e) {
-                    BranchLogger.w("Caught JSONException " + e.getMessage());
+                for (String key : keys) {
+                    instrObj.put(key, instrumentationData.get(key));
+                    instrumentationData.remove(key);
                 }
+                extendedPost.put(Defines.Jsonkey.Branch_Instrumentation.getKey(), instrObj);
             }
         } catch (JSONException e) {
-            BranchLogger.d(e.getMessage());
-        } catch (ConcurrentModificationException ex) {
-            extendedPost = params_;
-        } catch (Exception e) {
-            BranchLogger.v("ServerRequest " + this + " getPostWithInstrumentationValues caught exception: " + e.getMessage());
+            BranchLogger.w("Caught JSONException " + e.getMessage());
         }
-        return extendedPost;
+        return extendedPost.toJSON();
     }
     
     /**
@@ -382,6 +524,12 @@ public abstract class ServerRequest {
         try {
             json.put(POST_KEY, params_);
             json.put(POST_PATH_KEY, requestPath_.getPath());
+            json.put(UUID_KEY, uuid);
+            json.put(CREATION_TS_KEY, creation_ts);
+            if (postPending_) {
+                // A request restored from the journal completes its post before it is sent
+                json.put(POST_PENDING_KEY, true);
+            }
         } catch (JSONException e) {
             BranchLogger.w("Caught JSONException " + e.getMessage());
             return null;
@@ -389,10 +537,10 @@ public abstract class ServerRequest {
         return json;
     }
 
-    // TODO: Replace with in-memory only ServerRequest objects.
     /**
      * <p>Converts a {@link JSONObject} object containing keys stored as key-value pairs into
-     * a {@link ServerRequest}.</p>
+     * a {@link ServerRequest}. This is the inverse of {@link #toJSON()} and is used to restore
+     * requests from the {@link ServerRequestJournal} after the process has been killed.</p>
      *
      * @param json    A {@link JSONObject} object containing post data stored as key-value pairs
      * @param context Application context.
@@ -431,23 +579,36 @@ public abstract class ServerRequest {
         }
 
         if (!TextUtils.isEmpty(requestPath)) {
-            return getExtendedServerRequest(requestPath, post, context, initiatedByClient);
+            ServerRequest extendedReq = getExtendedServerRequest(requestPath, post, json, context, initiatedByClient);
+            if (extendedReq != null) {
+                String uuid = json.optString(UUID_KEY);
+                if (!TextUtils.isEmpty(uuid)) {
+                    extendedReq.uuid = uuid;
+                    extendedReq.creation_ts = json.optLong(CREATION_TS_KEY, extendedReq.creation_ts);
+                }
+                extendedReq.postPending_ = json.optBoolean(POST_PENDING_KEY);
+            }
+            return extendedReq;
         }
         return null;
     }
 
-    // TODO: Replace with in-memory only ServerRequest objects.
     /**
      * <p>Factory method for creating the specific server requests objects. Creates requests according
-     * to the request path.</p>
+     * to the request path. Callbacks are not part of the serialised form, so restored requests
+     * complete silently.</p>
      *
      * @param requestPath Path for the server request. see {@link Defines.RequestPath}
      * @param post        A {@link JSONObject} object containing post data stored as key-value pairs.
+     * @param json        The full serialised request, for subclasses that persist extra state.
      * @param context     Application context.
      * @return A {@link ServerRequest} object for the given Post data.
      */
-    private static ServerRequest getExtendedServerRequest(String requestPath, JSONObject post, Context context, boolean initiatedByClient) {
+    private static ServerRequest getExtendedServerRequest(String requestPath, JSONObject post, JSONObject json, Context context, boolean initiatedByClient) {
         ServerRequest extendedReq = null;
+        if (post == null) {
+            post = new JSONObject();
+        }
 
         if (requestPath.equalsIgnoreCase(Defines.RequestPath.GetURL.getPath())) {
             extendedReq = new ServerRequestCreateUrl(Defines.RequestPath.GetURL, post, context);
@@ -455,10 +616,37 @@ public abstract class ServerRequest {
             extendedReq = new ServerRequestRegisterInstall(Defines.RequestPath.RegisterInstall, post, context, initiatedByClient);
         } else if (requestPath.equalsIgnoreCase(Defines.RequestPath.RegisterOpen.getPath())) {
             extendedReq = new ServerRequestRegisterOpen(Defines.RequestPath.RegisterOpen, post, context, initiatedByClient);
+        } else if (requestPath.equalsIgnoreCase(Defines.RequestPath.TrackStandardEvent.getPath())) {
+            extendedReq = new ServerRequestLogEvent(Defines.RequestPath.TrackStandardEvent, post, context);
+        } else if (requestPath.equalsIgnoreCase(Defines.RequestPath.TrackCustomEvent.getPath())) {
+            extendedReq = new ServerRequestLogEvent(Defines.RequestPath.TrackCustomEvent, post, context);
+        } else if (requestPath.equalsIgnoreCase(Defines.RequestPath.ContentEvent.getPath())) {
+            extendedReq = new ServerRequestLogEvent(Defines.RequestPath.ContentEvent, post, context);
+        } else if (requestPath.equalsIgnoreCase(Defines.RequestPath.TrackEventBatch.getPath())) {
+            extendedReq = new ServerRequestLogEventBatch(Defines.RequestPath.TrackEventBatch, post, context);
+        } else if (requestPath.equalsIgnoreCase(Defines.RequestPath.GetLATD.getPath())) {
+            extendedReq = new ServerRequestGetLATD(Defines.RequestPath.GetLATD, post, context);
+        } else if (requestPath.equalsIgnoreCase(Defines.RequestPath.Logout.getPath())) {
+            extendedReq = new QueueOperationLogout(context, Defines.RequestPath.Logout, null);
+        } else if (requestPath.equalsIgnoreCase(Defines.RequestPath.SetIdentity.getPath())) {
+            String userId = json.optString(QueueOperationSetIdentity.IDENTITY_KEY, null);
+            extendedReq = new QueueOperationSetIdentity(context, Defines.RequestPath.SetIdentity, userId, null);
         }
         return extendedReq;
     }
 
+    /**
+     * <p>Specifies whether this request should be written to the {@link ServerRequestJournal} so
+     * that it survives process death. Requests whose only purpose is to answer an in-process
+     * callback, or that are rebuilt on every launch such as session initialisation, should
+     * override and return false.</p>
+     *
+     * @return A {@link Boolean} whose value is true if this request should be persisted.
+     */
+    protected boolean isPersistable() {
+        return true;
+    }
+
     /**
      * Updates the google ads parameters. This should be called only from a background thread since it involves GADS method invocation using reflection
      * Ensure that when there is a valid GAID/AID, remove the SSAID if it's being used
@@ -695,6 +883,7 @@ public abstract class ServerRequest {
 
     void doFinalUpdateOnBackgroundThread() {
         BranchLogger.v("doFinalUpdateOnBackgroundThread");
+        completePost();
         if (this instanceof ServerRequestInitSession) {
             ((ServerRequestInitSession) this).updateLinkReferrerParams();
             if (prioritizeLinkAttribution(this.params_)) {
@@ -761,27 +950,63 @@ public abstract class ServerRequest {
      * @param lock {@link PROCESS_WAIT_LOCK} type of lock
      */
     public void addProcessWaitLock(PROCESS_WAIT_LOCK lock) {
-        if (lock != null) {
-            locks_.add(lock);
+        if (lock == null) {
+            return;
+        }
+        int bit = 1 << lock.ordinal();
+        int current;
+        do {
+            current = locks_.get();
+            if ((current & bit) != 0) {
+                return;
+            }
+        } while (!locks_.compareAndSet(current, current | bit));
+        WaitLockListener listener = waitLockListener_;
+        if (listener != null) {
+            listener.onWaitLockAdded(this, lock);
         }
     }
     
     /**
-     * Unlock the specified lock from the request. Call this when the locked process finishes
+     * Unlock the specified lock from the request. Call this when the locked process finishes. For a
+     * queued request, prefer {@link ServerRequestQueue#unlockProcessWait(ServerRequest, PROCESS_WAIT_LOCK)}.
      *
      * @param lock {@link PROCESS_WAIT_LOCK} type of lock
      */
     public void removeProcessWaitLock(PROCESS_WAIT_LOCK lock) {
-        locks_.remove(lock);
+        if (lock == null) {
+            return;
+        }
+        int bit = 1 << lock.ordinal();
+        int current;
+        do {
+            current = locks_.get();
+            if ((current & bit) == 0) {
+                return;
+            }
+        } while (!locks_.compareAndSet(current, current & ~bit));
+        WaitLockListener listener = waitLockListener_;
+        if (listener != null) {
+            listener.onWaitLockRemoved(this, lock, current == bit);
+        }
+    }
+
+    boolean hasProcessWaitLock(PROCESS_WAIT_LOCK lock) {
+        return (locks_.get() & (1 << lock.ordinal())) != 0;
     }
 
     public String printWaitLocks() {
-        try {
-            return Arrays.toString(locks_.toArray());
-        } catch (ConcurrentModificationException e) {
-            BranchLogger.w("ConcurrentModificationException in printWaitLocks - queue modified during iteration.");
-            return "[concurrent-modification]";
+        int locks = locks_.get();
+        StringBuilder builder = new StringBuilder("[");
+        for (PROCESS_WAIT_LOCK lock : PROCESS_WAIT_LOCK.values()) {
+            if ((locks & (1 << lock.ordinal())) != 0) {
+                if (builder.length() > 1) {
+                    builder.append(", ");
+                }
+                builder.append(lock);
+            }
         }
+        return builder.append("]").toString();
     }
     
     
@@ -791,7 +1016,7 @@ public abstract class ServerRequest {
      * @return True if this request if any pre processing operation pending
      */
     public boolean isWaitingOnProcessToFinish() {
-        return locks_.size() > 0;
+        return locks_.get() != 0;
     }
     
     /**
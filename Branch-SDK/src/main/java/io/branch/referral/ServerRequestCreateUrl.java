@@ -9,7 +9,9 @@ import org.json.JSONObject;
 
 import java.net.URL;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * * <p>
@@ -21,6 +23,9 @@ class ServerRequestCreateUrl extends ServerRequest {
     private BranchLinkData linkPost_;
     private boolean isAsync_ = true;
     private Branch.BranchLinkCreateListener callback_;
+    // Callbacks of identical link requests answered by this one, see Branch#generateShortLinkInternal
+    private final List<Branch.BranchLinkCreateListener> coalescedCallbacks_ = new ArrayList<>();
+    private boolean completed_ = false;
     /* Default long link base url*/
     private static final String DEF_BASE_URL = "https://bnc.lt/a/";
     private boolean defaultToLongUrl_ = true;
@@ -119,12 +124,54 @@ class ServerRequestCreateUrl extends ServerRequest {
         return false;
     }
 
+    /**
+     * Attaches the callback of an identical link request, so that it is answered by this request
+     * instead of sending its own.
+     *
+     * @param other A request for the same {@link BranchLinkData}
+     * @return False if this request has already completed and can no longer take callbacks
+     */
+    synchronized boolean coalesce(ServerRequestCreateUrl other) {
+        if (completed_) {
+            return false;
+        }
+        if (other.callback_ != null) {
+            coalescedCallbacks_.add(other.callback_);
+        }
+        return true;
+    }
+
+    /**
+     * Marks this request as completed and returns every callback waiting for its result, or none
+     * if it had already completed.
+     */
+    private List<Branch.BranchLinkCreateListener> complete() {
+        List<Branch.BranchLinkCreateListener> callbacks = new ArrayList<>();
+        synchronized (this) {
+            if (completed_) {
+                return callbacks;
+            }
+            completed_ = true;
+            if (callback_ != null) {
+                callbacks.add(callback_);
+            }
+            callbacks.addAll(coalescedCallbacks_);
+            coalescedCallbacks_.clear();
+        }
+        Branch branch = Branch.getInstance();
+        if (branch != null && linkPost_ != null) {
+            branch.pendingLinkRequests_.remove(linkPost_, this);
+        }
+        return callbacks;
+    }
+
     @Override
     public void onRequestSucceeded(ServerResponse resp, Branch branch) {
+        List<Branch.BranchLinkCreateListener> callbacks = complete();
         try {
             final String url = resp.getObject().getString("url");
-            if (callback_ != null) {
-                callback_.onLinkCreate(url, null);
+            for (Branch.BranchLinkCreateListener callback : callbacks) {
+                callback.onLinkCreate(url, null);
             }
         } catch (Exception ex) {
             BranchLogger.e("Caught Exception ServerRequestCreateUrl onRequestSucceeded: " + ex.getMessage() + " stacktrace: " + BranchLogger.stackTraceToString(ex));
@@ -145,15 +192,26 @@ class ServerRequestCreateUrl extends ServerRequest {
 
     @Override
     public void handleFailure(int statusCode, String causeMsg) {
-        if (callback_ != null) {
+        List<Branch.BranchLinkCreateListener> callbacks = complete();
+        if (!callbacks.isEmpty()) {
             String failedUrl = null;
             if (defaultToLongUrl_) {
                 failedUrl = getLongUrl();
             }
-            callback_.onLinkCreate(failedUrl, new BranchError("Trouble creating a URL. " + causeMsg, statusCode));
+            for (Branch.BranchLinkCreateListener callback : callbacks) {
+                callback.onLinkCreate(failedUrl, new BranchError("Trouble creating a URL. " + causeMsg, statusCode));
+            }
         }
     }
 
+    /**
+     * Fails this request if it leaves the queue before it has completed, so that its callback and
+     * those coalesced into it are answered and identical links are no longer attached to it.
+     */
+    void onRemovedFromQueue() {
+        handleFailure(BranchError.ERR_OTHER, "The request was removed from the queue before it completed.");
+    }
+
     public String getLongUrl() {
         String longUrl;
         if (!prefHelper_.getUserURL().equals(PrefHelper.NO_STRING_VALUE)) {
@@ -165,8 +223,8 @@ class ServerRequestCreateUrl extends ServerRequest {
     }
 
     public void handleDuplicateURLError() {
-        if (callback_ != null) {
-            callback_.onLinkCreate(null, new BranchError("Trouble creating a URL.", BranchError.ERR_BRANCH_DUPLICATE_URL));
+        for (Branch.BranchLinkCreateListener callback : complete()) {
+            callback.onLinkCreate(null, new BranchError("Trouble creating a URL.", BranchError.ERR_BRANCH_DUPLICATE_URL));
         }
     }
 
@@ -178,7 +236,10 @@ class ServerRequestCreateUrl extends ServerRequest {
     @Override
     public void
     clearCallbacks() {
-        callback_ = null;
+        synchronized (this) {
+            callback_ = null;
+            coalescedCallbacks_.clear();
+        }
     }
 
     public boolean isAsync() {
@@ -257,6 +318,12 @@ class ServerRequestCreateUrl extends ServerRequest {
         return longUrl;
     }
 
+    @Override
+    protected boolean isPersistable() {
+        // Restored after the process died, a link with a callback would be created for no one
+        return callback_ == null;
+    }
+
     @Override
     protected boolean prepareExecuteWithoutTracking() {
         // SDK-271 -- Allow creation of short links when tracking is disabled.
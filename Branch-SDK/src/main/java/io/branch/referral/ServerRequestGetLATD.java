@@ -29,6 +29,12 @@ public class ServerRequestGetLATD extends ServerRequest {
         updateEnvironment(context, reqBody);
     }
 
+    ServerRequestGetLATD(Defines.RequestPath requestPath, JSONObject post, Context context) {
+        super(requestPath, post, context);
+        // The attribution window is already part of the restored user_data
+        this.attributionWindow = defaultAttributionWindow;
+    }
+
     protected int getAttributionWindow() {
         return attributionWindow;
     }
@@ -78,6 +84,12 @@ public class ServerRequestGetLATD extends ServerRequest {
         return true;
     }
 
+    @Override
+    protected boolean isPersistable() {
+        // The data is only of use to the listener waiting on it in this process
+        return false;
+    }
+
     public interface BranchLastAttributedTouchDataListener {
         void onDataFetched(JSONObject jsonObject, BranchError error);
     }
@@ -313,6 +313,13 @@ abstract class ServerRequestInitSession extends ServerRequest {
         }
     }
 
+    @Override
+    protected boolean isPersistable() {
+        // A fresh open or install is built on every launch, replaying a stale one would
+        // double count the session.
+        return false;
+    }
+
     @Override
     public JSONObject toJSON() {
         JSONObject r = super.toJSON();
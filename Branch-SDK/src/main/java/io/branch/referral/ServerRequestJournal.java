@@ -0,0 +1,311 @@
+package io.branch.referral;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Append-only, checksummed write-ahead journal backing the {@link ServerRequestQueue}.</p>
+ *
+ * <p>Every queued request is recorded as a PUT record keyed by its request UUID, and completed
+ * requests are recorded as REMOVE records. Each record is framed as
+ * {@code [length][crc32][op][id][payload]} so that a record torn by process death is detected
+ * on replay and discarded together with anything after it. Once dead records outnumber live ones
+ * the journal is compacted by rewriting only the live entries into a fresh file.</p>
+ *
+ * <p>All methods perform blocking file I/O and must be called off the main thread. Calls are
+ * serialised on this object; callers are expected to funnel them through a single background
+ * executor so that the order of records matches the order of queue operations.</p>
+ */
+class ServerRequestJournal {
+    static final String JOURNAL_FILE_NAME = "branch_request_queue.journal";
+
+    private static final int MAGIC = 0x424E434A; // "BNCJ"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    // A single queued request is bounded by the queue size, anything larger is a corrupt length.
+    private static final int MAX_RECORD_SIZE = 4 * 1024 * 1024;
+    private static final int COMPACTION_MIN_DEAD_RECORDS = 32;
+
+    static final byte OP_PUT = 1;
+    static final byte OP_REMOVE = 2;
+    static final byte OP_CLEAR = 3;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file_;
+    private final LinkedHashMap<String, String> live_ = new LinkedHashMap<>();
+    private int deadRecords_ = 0;
+    private boolean replayed_ = false;
+
+    ServerRequestJournal(File file) {
+        file_ = file;
+    }
+
+    File getFile() {
+        return file_;
+    }
+
+    /**
+     * <p>Reads the journal and returns the live entries in insertion order. A torn or corrupt
+     * tail is truncated away so that subsequent appends start from the last good record.</p>
+     *
+     * @return The serialised requests that were still queued when the journal was last written.
+     */
+    synchronized List<String> replay() {
+        live_.clear();
+        deadRecords_ = 0;
+        replayed_ = true;
+
+        if (!file_.exists()) {
+            return new ArrayList<>();
+        }
+
+        long validLength = HEADER_SIZE;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file_)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                BranchLogger.w("Discarding request journal with unknown header " + file_);
+                closeQuietly(in);
+                in = null;
+                rewrite();
+                return new ArrayList<>();
+            }
+
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_SIZE) {
+                    BranchLogger.w("Request journal has corrupt record length " + length + ", truncating");
+                    break;
+                }
+                long checksum = in.readInt() & 0xFFFFFFFFL;
+                byte[] body = new byte[length];
+                in.readFully(body);
+
+                crc.reset();
+                crc.update(body, 0, length);
+                if (crc.getValue() != checksum) {
+                    BranchLogger.w("Request journal checksum mismatch, truncating");
+                    break;
+                }
+                applyRecord(body);
+                validLength += 8 + length;
+            }
+        } catch (EOFException e) {
+            BranchLogger.w("Request journal ends with a partial record, truncating");
+        } catch (IOException e) {
+            BranchLogger.w("Caught IOException " + e.getMessage());
+        } finally {
+            closeQuietly(in);
+        }
+
+        truncate(validLength);
+        if (shouldCompact()) {
+            rewrite();
+        }
+        return new ArrayList<>(live_.values());
+    }
+
+    /**
+     * <p>Records a queued request.</p>
+     *
+     * @param id      The request UUID.
+     * @param request The serialised request, see {@link ServerRequest#toJSON()}.
+     */
+    synchronized void put(String id, String request) {
+        ensureReplayed();
+        if (live_.put(id, request) != null) {
+            deadRecords_++;
+        }
+        append(OP_PUT, id, request);
+    }
+
+    /**
+     * <p>Records that a request has left the queue. Unknown ids are ignored.</p>
+     *
+     * @param id The request UUID.
+     */
+    synchronized void remove(String id) {
+        ensureReplayed();
+        if (live_.remove(id) == null) {
+            return;
+        }
+        deadRecords_ += 2;
+        if (shouldCompact()) {
+            rewrite();
+        } else {
+            append(OP_REMOVE, id, null);
+        }
+    }
+
+    /**
+     * <p>Drops every entry. The journal is rewritten rather than appended to since nothing in it
+     * is live any more.</p>
+     */
+    synchronized void clear() {
+        live_.clear();
+        deadRecords_ = 0;
+        replayed_ = true;
+        rewrite();
+    }
+
+    synchronized int getLiveCount() {
+        return live_.size();
+    }
+
+    private void ensureReplayed() {
+        if (!replayed_) {
+            replay();
+        }
+    }
+
+    private boolean shouldCompact() {
+        return deadRecords_ >= COMPACTION_MIN_DEAD_RECORDS && deadRecords_ > live_.size();
+    }
+
+    private void applyRecord(byte[] body) throws IOException {
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+        byte op = record.readByte();
+        if (op == OP_CLEAR) {
+            deadRecords_ += live_.size() + 1;
+            live_.clear();
+            return;
+        }
+        String id = record.readUTF();
+        if (op == OP_PUT) {
+            byte[] payload = new byte[record.available()];
+            record.readFully(payload);
+            if (live_.put(id, new String(payload, UTF_8)) != null) {
+                deadRecords_++;
+            }
+        } else if (op == OP_REMOVE) {
+            if (live_.remove(id) != null) {
+                deadRecords_++;
+            }
+            deadRecords_++;
+        }
+    }
+
+    private void append(byte op, String id, String request) {
+        FileOutputStream out = null;
+        try {
+            boolean writeHeader = !file_.exists() || file_.length() < HEADER_SIZE;
+            out = new FileOutputStream(file_, !writeHeader);
+            if (writeHeader) {
+                out.write(header());
+            }
+            out.write(encode(op, id, request));
+            out.flush();
+        } catch (IOException e) {
+            BranchLogger.w("Caught IOException " + e.getMessage());
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Compaction: writes the live entries to a temporary file and atomically renames it over the
+     * journal, so that a crash mid-compaction leaves either the old or the new journal intact.
+     */
+    private void rewrite() {
+        File tmp = new File(file_.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp, false);
+            out.write(header());
+            for (Map.Entry<String, String> entry : live_.entrySet()) {
+                out.write(encode(OP_PUT, entry.getKey(), entry.getValue()));
+            }
+            out.flush();
+            out.getFD().sync();
+            closeQuietly(out);
+            out = null;
+            if (!tmp.renameTo(file_)) {
+                BranchLogger.w("Failed to compact request journal " + file_);
+                return;
+            }
+            deadRecords_ = 0;
+        } catch (IOException e) {
+            BranchLogger.w("Caught IOException " + e.getMessage());
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private void truncate(long validLength) {
+        if (file_.length() <= validLength) {
+            return;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file_, "rw");
+            raf.setLength(validLength);
+        } catch (IOException e) {
+            BranchLogger.w("Caught IOException " + e.getMessage());
+        } finally {
+            closeQuietly(raf);
+        }
+    }
+
+    private static byte[] header() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        return bytes.toByteArray();
+    }
+
+    static byte[] encode(byte op, String id, String request) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        bodyOut.writeByte(op);
+        if (op != OP_CLEAR) {
+            bodyOut.writeUTF(id);
+        }
+        if (request != null) {
+            bodyOut.write(request.getBytes(UTF_8));
+        }
+        byte[] bodyBytes = body.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(bodyBytes, 0, bodyBytes.length);
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream(bodyBytes.length + 8);
+        DataOutputStream recordOut = new DataOutputStream(record);
+        recordOut.writeInt(bodyBytes.length);
+        recordOut.writeInt((int) crc.getValue());
+        recordOut.write(bodyBytes);
+        return record.toByteArray();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -47,16 +47,19 @@ public class ServerRequestLogEvent extends ServerRequest {
                     contentItemsArray.put(buo.convertToJson());
                 }
             }
-            setPost(reqBody);
+            setPostDeferred(reqBody);
         } catch (JSONException e) {
             BranchLogger.w("Caught JSONException " + e.getMessage());
         }
-        updateEnvironment(context, reqBody);
     }
 
+    ServerRequestLogEvent(Defines.RequestPath requestPath, JSONObject post, Context context) {
+        super(requestPath, post, context);
+    }
+
+    // Read at send time, so partner parameters set after the event was logged are included
     @Override
-    protected void setPost(JSONObject post) throws JSONException {
-        super.setPost(post);
+    protected void onCompletePost(JSONObject post) throws JSONException {
         prefHelper_.loadPartnerParams(post);
     }
 
@@ -0,0 +1,173 @@
+package io.branch.referral;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * <p>
+ * The server request for uploading several {@link ServerRequestLogEvent}s at once. The events share
+ * a single {@code user_data} envelope, filled in just before the batch is sent, and each event keeps its own
+ * request uuid and creation time so the server can still de-duplicate them individually.
+ * </p>
+ */
+class ServerRequestLogEventBatch extends ServerRequest {
+    // Estimated sizes of the request uuid and creation time of an entry, and of a number or boolean
+    private static final int ENTRY_IDENTITY_SIZE = 96;
+    private static final int SCALAR_SIZE = 8;
+
+    private final List<ServerRequestLogEvent> events_;
+
+    ServerRequestLogEventBatch(Context context, List<ServerRequestLogEvent> events) {
+        super(context, Defines.RequestPath.TrackEventBatch);
+        events_ = new ArrayList<>(events);
+
+        JSONObject reqBody = new JSONObject();
+        try {
+            JSONArray eventsArray = new JSONArray();
+            for (ServerRequestLogEvent event : events_) {
+                eventsArray.put(toBatchEntry(event));
+            }
+            reqBody.put(Defines.Jsonkey.ContentEvents.getKey(), eventsArray);
+            setPostDeferred(reqBody);
+        } catch (JSONException e) {
+            BranchLogger.w("Caught JSONException " + e.getMessage());
+            constructError_ = true;
+        }
+    }
+
+    ServerRequestLogEventBatch(Defines.RequestPath requestPath, JSONObject post, Context context) {
+        super(requestPath, post, context);
+        events_ = new ArrayList<>();
+    }
+
+    /**
+     * <p>Builds the per-event part of the batch body: everything the event carries except the
+     * device and user fields that are shared through the batch envelope.</p>
+     */
+    static JSONObject toBatchEntry(ServerRequestLogEvent event) throws JSONException {
+        JSONObject entry = new JSONObject();
+        JSONObject post = event.getPost();
+        Iterator<String> keys = post.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (isSharedKey(key)) {
+                continue;
+            }
+            entry.put(key, post.get(key));
+        }
+        entry.put(Defines.Jsonkey.Branch_Sdk_Request_Creation_Time_Stamp.getKey(), event.creation_ts);
+        entry.put(Defines.Jsonkey.Branch_Sdk_Request_Uuid.getKey(), event.uuid);
+        return entry;
+    }
+
+    /**
+     * <p>Estimates the size of the JSON text of the batch entry of {@code event} by walking its
+     * values, without building the entry or its text.</p>
+     */
+    static int estimateBatchEntrySize(ServerRequestLogEvent event) {
+        int size = ENTRY_IDENTITY_SIZE;
+        JSONObject post = event.getPost();
+        Iterator<String> keys = post.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (!isSharedKey(key)) {
+                size += key.length() + 4 + estimateSize(post.opt(key));
+            }
+        }
+        return size;
+    }
+
+    private static int estimateSize(Object value) {
+        if (value instanceof JSONObject) {
+            JSONObject json = (JSONObject) value;
+            int size = 2;
+            Iterator<String> keys = json.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                size += key.length() + 4 + estimateSize(json.opt(key));
+            }
+            return size;
+        }
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            int size = 2;
+            for (int i = 0; i < array.length(); i++) {
+                size += 1 + estimateSize(array.opt(i));
+            }
+            return size;
+        }
+        if (value instanceof String) {
+            return ((String) value).length() + 2;
+        }
+        return SCALAR_SIZE;
+    }
+
+    // The device and user fields, sent once in the batch envelope
+    private static boolean isSharedKey(String key) {
+        return Defines.Jsonkey.UserData.getKey().equals(key)
+                || Defines.Jsonkey.PartnerData.getKey().equals(key)
+                || Defines.Jsonkey.Debug.getKey().equals(key);
+    }
+
+    @Override
+    protected void onCompletePost(JSONObject post) throws JSONException {
+        prefHelper_.loadPartnerParams(post);
+    }
+
+    int getEventCount() {
+        return events_.size();
+    }
+
+    @Override
+    public boolean handleErrors(Context context) {
+        return false;
+    }
+
+    @Override
+    public void onRequestSucceeded(ServerResponse response, Branch branch) {
+        for (ServerRequestLogEvent event : events_) {
+            event.onRequestSucceeded(response, branch);
+        }
+    }
+
+    @Override
+    public void handleFailure(int statusCode, String causeMsg) {
+        for (ServerRequestLogEvent event : events_) {
+            event.handleFailure(statusCode, causeMsg);
+        }
+    }
+
+    @Override
+    public boolean isGetRequest() {
+        return false;
+    }
+
+    @Override
+    public void clearCallbacks() {
+        for (ServerRequestLogEvent event : events_) {
+            event.clearCallbacks();
+        }
+    }
+
+    @Override
+    public BRANCH_API_VERSION getBranchRemoteAPIVersion() {
+        return BRANCH_API_VERSION.V2;
+    }
+
+    @Override
+    protected boolean shouldUpdateLimitFacebookTracking() {
+        return true;
+    }
+
+    @Override
+    protected boolean shouldAddDMAParams() {
+        return true;
+    }
+}
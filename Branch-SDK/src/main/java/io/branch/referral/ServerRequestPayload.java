@@ -0,0 +1,61 @@
+package io.branch.referral;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+
+/**
+ * <p>
+ * The body of a single attempt at a request: the post of the request as its base, with the values
+ * of this attempt such as the instrumentation data and the resolved session identifiers laid over
+ * it. Values put here go to the attempt's own keys, the base is never changed.
+ * </p>
+ * <p>
+ * {@link #toJSON()} merges the two into the {@link JSONObject} that is handed to the remote
+ * interface. The merge only copies the top level entries of the base, nested objects and arrays
+ * are shared rather than copied again the way a copy through the JSON text would. The base must
+ * not change while the attempt is being sent, the request queue only changes a post before that.
+ * </p>
+ */
+class ServerRequestPayload {
+    private final JSONObject base_;
+    private final JSONObject overlay_ = new JSONObject();
+
+    ServerRequestPayload(JSONObject base) {
+        base_ = base;
+    }
+
+    /**
+     * Sets a value of this attempt, in place of the value the base has for {@code name}, if any.
+     */
+    ServerRequestPayload put(String name, Object value) throws JSONException {
+        overlay_.put(name, value);
+        return this;
+    }
+
+    /**
+     * @return A new {@link JSONObject} with the keys of the base, then those of this attempt. Values
+     * put in it are not added to the base, but nested values are those of the base.
+     */
+    JSONObject toJSON() {
+        JSONObject merged = new JSONObject();
+        try {
+            Iterator<String> keys = base_.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                if (!overlay_.has(key)) {
+                    merged.put(key, base_.opt(key));
+                }
+            }
+            keys = overlay_.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                merged.put(key, overlay_.opt(key));
+            }
+        } catch (JSONException e) {
+            BranchLogger.w("Caught JSONException " + e.getMessage());
+        }
+        return merged;
+    }
+}
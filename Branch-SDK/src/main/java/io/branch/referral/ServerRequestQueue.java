@@ -7,23 +7,37 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
 
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.branch.referral.QRCode.ServerRequestCreateQRCode;
+import io.branch.referral.network.BlockingTransportAdapter;
+import io.branch.referral.network.BranchAsyncTransport;
+import io.branch.referral.network.BranchRemoteInterface;
 
 /**
  * <p>The Branch SDK can queue up requests whilst it is waiting for initialization of a session to
@@ -36,16 +50,55 @@ public class ServerRequestQueue {
     private static ServerRequestQueue SharedInstance;
     private SharedPreferences sharedPref;
     private SharedPreferences.Editor editor;
-    private final List<ServerRequest> queue;
-    //Object for synchronising operations on server request queue
-    private static final Object reqQueueLockObject = new Object();
+    // Lock-free, holds both the queued requests and which of them are in flight
+    private final BranchDispatchQueue<ServerRequest> queue;
+    // Queued requests holding each wait lock, so releasing a lock only visits the requests waiting on it
+    private final BranchWaitLockIndex<ServerRequest> waitLocks_ = new BranchWaitLockIndex<>(new BranchWaitLockIndex.Locks<ServerRequest>() {
+        @Override
+        public boolean hasLock(ServerRequest req, ServerRequest.PROCESS_WAIT_LOCK lock) {
+            return req.hasProcessWaitLock(lock);
+        }
 
-    private final Semaphore serverSema_ = new Semaphore(1);
+        @Override
+        public void removeLock(ServerRequest req, ServerRequest.PROCESS_WAIT_LOCK lock) {
+            req.removeProcessWaitLock(lock);
+        }
+    }, new BranchWaitLockIndex.Listener<ServerRequest>() {
+        @Override
+        public void onUnblocked(ServerRequest req) {
+            BranchLogger.v("Wait locks released, dispatching " + req);
+            queue.drainFrom(req);
+        }
+    });
+    private final IndexingWaitLockListener waitLockListener_ = new IndexingWaitLockListener();
 
-    int networkCount_ = 0;
+    // Durable copy of the queue, only ever touched from journalExecutor_ so that records are
+    // written in the same order as the queue operations that produced them.
+    private final ServerRequestJournal journal_;
+    private static final ExecutorService journalExecutor_ = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "branch-request-journal");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
     final ConcurrentHashMap<String, String> instrumentationExtraData_ = new ConcurrentHashMap<>();
 
+    // Null unless event batching is enabled, see Branch#enableEventBatching
+    private volatile BranchEventBatcher eventBatcher_;
+    private volatile BlockingTransportAdapter blockingTransport_;
+    // Null unless hedging of session init requests is enabled, see Branch#enableSessionInitHedging
+    private volatile BranchHedgePolicy hedgePolicy_;
+
+    private final BranchRetryPolicy retryPolicy_ = new BranchRetryPolicy(new Random());
+
+    final BranchCircuitBreaker circuitBreaker_ = new BranchCircuitBreaker();
+    private final BranchTimeoutEstimator timeoutEstimator_;
+    // Paths with a pending re-check of held back requests, see holdForOpenCircuit
+    private final Set<Defines.RequestPath> circuitRechecks_ = Collections.newSetFromMap(new ConcurrentHashMap<Defines.RequestPath, Boolean>());
+
     /**
      * <p>Singleton method to return the pre-initialised, or newly initialise and return, a singleton
      * object of the type {@link ServerRequestQueue}.</p>
@@ -68,7 +121,7 @@ public class ServerRequestQueue {
 
     // Package Private
     static void shutDown() {
-        synchronized (reqQueueLockObject) {
+        synchronized (ServerRequestQueue.class) {
             SharedInstance = null;
         }
     }
@@ -84,8 +137,135 @@ public class ServerRequestQueue {
         BranchLogger.v("Creating ServerRequestQueue " + c);
         sharedPref = c.getSharedPreferences("BNC_Server_Request_Queue", Context.MODE_PRIVATE);
         editor = sharedPref.edit();
-        queue = Collections.synchronizedList(new LinkedList<ServerRequest>());
+        queue = new BranchDispatchQueue<>(new DispatchPolicy());
         BranchLogger.v("Created queue " + queue);
+        journal_ = new ServerRequestJournal(new File(c.getFilesDir(), ServerRequestJournal.JOURNAL_FILE_NAME));
+        final Context appContext = c.getApplicationContext();
+        timeoutEstimator_ = new BranchTimeoutEstimator(new BranchTimeoutEstimator.NetworkType() {
+            @Override
+            public String current() {
+                return SystemObserver.getConnectionType(appContext);
+            }
+        });
+        configureRetryPolicy(PrefHelper.getInstance(appContext));
+        restoreFromJournal(appContext);
+    }
+
+    /**
+     * <p>Applies the retry settings of {@link PrefHelper} to the retry policy. Called when the
+     * queue is created and whenever one of the settings is changed through {@link Branch}.</p>
+     */
+    void configureRetryPolicy(PrefHelper prefHelper) {
+        retryPolicy_.configure(prefHelper.getRetryInterval(), prefHelper.getRetryMaxInterval(), prefHelper.getRetryCount(), prefHelper.getRetryBudget());
+    }
+
+    /**
+     * @return The estimator that derives the timeouts of requests from their observed round trip
+     * times, for network layers to take their read timeouts from.
+     */
+    public BranchTimeoutEstimator getTimeoutEstimator() {
+        return timeoutEstimator_;
+    }
+
+    /**
+     * <p>Replays the request journal on a background thread and hands the restored requests back
+     * to the main thread, so that the disk read never blocks {@link Branch#getAutoInstance(Context)}.</p>
+     */
+    private void restoreFromJournal(final Context context) {
+        journalExecutor_.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<ServerRequest> restored = new LinkedList<>();
+                for (String entry : journal_.replay()) {
+                    ServerRequest req = null;
+                    try {
+                        req = ServerRequest.fromJSON(new JSONObject(entry), context);
+                    } catch (JSONException e) {
+                        BranchLogger.w("Caught JSONException " + e.getMessage());
+                    }
+                    if (req != null && req.isPersistable()) {
+                        restored.add(req);
+                    } else {
+                        BranchLogger.v("Dropping journal entry that cannot be restored: " + entry);
+                    }
+                }
+                // Drop the entries that will not be restored
+                journal_.clear();
+                for (ServerRequest req : restored) {
+                    journal_.put(req.uuid, req.toJSON().toString());
+                }
+                if (restored.isEmpty()) {
+                    return;
+                }
+
+                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (ServerRequest req : restored) {
+                            restoreRequest(req);
+                        }
+                        processNextQueueItem("restoreFromJournal");
+                    }
+                });
+            }
+        });
+    }
+
+    private void restoreRequest(ServerRequest req) {
+        Branch branch = Branch.getInstance();
+        if (branch == null || SharedInstance != this) {
+            return;
+        }
+        BranchLogger.v("Restoring request from journal " + req);
+        if (branch.getTrackingController().isTrackingDisabled() && !req.prepareExecuteWithoutTracking()) {
+            journalRemove(req);
+            return;
+        }
+        if (branch.initState_ != Branch.SessionState.INITIALISED && requestNeedsSession(req)) {
+            req.addProcessWaitLock(ServerRequest.PROCESS_WAIT_LOCK.SDK_INIT_WAIT_LOCK);
+        }
+        queue.addLast(req);
+        trackWaitLocks(req);
+        req.onRequestQueued();
+    }
+
+    private void journalPut(ServerRequest request) {
+        if (!request.isPersistable()) {
+            return;
+        }
+        final String id = request.uuid;
+        // Turned into text on the thread that owns the request, which may go on changing the nested
+        // values of its post, and only the write is left to the journal thread
+        final String serialized;
+        try {
+            JSONObject json = request.toJSON();
+            serialized = json != null ? json.toString() : null;
+        } catch (Exception e) {
+            BranchLogger.w("Could not journal request " + request + ": " + e.getMessage());
+            return;
+        }
+        if (serialized == null) {
+            return;
+        }
+        journalExecutor_.execute(new Runnable() {
+            @Override
+            public void run() {
+                journal_.put(id, serialized);
+            }
+        });
+    }
+
+    private void journalRemove(ServerRequest request) {
+        if (request == null || !request.isPersistable()) {
+            return;
+        }
+        final String id = request.uuid;
+        journalExecutor_.execute(new Runnable() {
+            @Override
+            public void run() {
+                journal_.remove(id);
+            }
+        });
     }
     
     /**
@@ -96,9 +276,7 @@ public class ServerRequestQueue {
      * that forms the logical queue for the class.
      */
     public int getSize() {
-        synchronized (reqQueueLockObject) {
-            return queue.size();
-        }
+        return queue.size();
     }
     
     /**
@@ -107,14 +285,17 @@ public class ServerRequestQueue {
      * @param request The {@link ServerRequest} object to add to the queue.
      */
     void enqueue(ServerRequest request) {
-        synchronized (reqQueueLockObject) {
-            BranchLogger.v("Queue operation enqueue. Request: " + request);
-            if (request != null) {
-                queue.add(request);
-                if (getSize() >= MAX_ITEMS) {
-                    BranchLogger.v("Queue maxed out. Removing index 1.");
-                    queue.remove(1);
-                }
+        BranchLogger.v("Queue operation enqueue. Request: " + request);
+        if (request != null) {
+            queue.addLast(request);
+            trackWaitLocks(request);
+            journalPut(request);
+            if (getSize() >= MAX_ITEMS) {
+                BranchLogger.v("Queue maxed out. Removing index 1.");
+                ServerRequest dropped = queue.removeAt(1);
+                untrackWaitLocks(dropped);
+                journalRemove(dropped);
+                onRemovedFromQueue(dropped);
             }
         }
     }
@@ -126,27 +307,17 @@ public class ServerRequestQueue {
      * @return The {@link ServerRequest} object at position with index 0 within the queue.
      */
     ServerRequest peek() {
-        ServerRequest req = null;
-        synchronized (reqQueueLockObject) {
-            try {
-                req = queue.get(0);
-            } catch (IndexOutOfBoundsException | NoSuchElementException e) {
-                BranchLogger.w("Caught Exception ServerRequestQueue peek: " + e.getMessage());
-            }
-        }
-        return req;
+        return queue.peekFirst();
     }
 
     public void printQueue(){
         // Only print the queue if the log level is verbose
         if (BranchLogger.getLoggingLevel().getLevel() == BranchLogger.BranchLogLevel.VERBOSE.getLevel()) {
-            synchronized (reqQueueLockObject) {
-                StringBuilder stringBuilder = new StringBuilder();
-                for (int i = 0; i < queue.size(); i++) {
-                    stringBuilder.append(queue.get(i)).append(" with locks ").append(queue.get(i).printWaitLocks()).append("\n");
-                }
-                BranchLogger.v("Queue is: " + stringBuilder);
+            StringBuilder stringBuilder = new StringBuilder();
+            for (ServerRequest req : queue) {
+                stringBuilder.append(req).append(" with locks ").append(req.printWaitLocks()).append("\n");
             }
+            BranchLogger.v("Queue is: " + stringBuilder);
         }
     }
     
@@ -158,44 +329,19 @@ public class ServerRequestQueue {
      *              pull the {@link ServerRequest} object.
      * @return The {@link ServerRequest} object at the specified index. Returns null if no
      * request exists at that position, or if the index supplied is not valid, for
-     * instance if {@link #getSize()} is 6 and index 6 is called.
+     * instance if {@link #getSize()} is 6 and index 6 is called. This walks the queue, so
+     * iterate over it instead when visiting every request.
      */
     ServerRequest peekAt(int index) {
-        ServerRequest req = null;
-        synchronized (reqQueueLockObject) {
-            try {
-                req = queue.get(index);
-                BranchLogger.v("Queue operation peekAt " + req);
-            } catch (IndexOutOfBoundsException | NoSuchElementException e) {
-                BranchLogger.e("Caught Exception ServerRequestQueue peekAt " + index + ": " + e.getMessage());
-            }
+        ServerRequest req = queue.get(index);
+        if (req == null) {
+            BranchLogger.e("No request in ServerRequestQueue at index " + index);
+        } else {
+            BranchLogger.v("Queue operation peekAt " + req);
         }
         return req;
     }
     
-    /**
-     * <p>As the method name implies, inserts a {@link ServerRequest} into the queue at the index
-     * position specified.</p>
-     *
-     * @param request The {@link ServerRequest} to insert into the queue.
-     * @param index   An {@link Integer} value specifying the index at which to insert the
-     *                supplied {@link ServerRequest} object. Fails silently if the index
-     *                supplied is invalid.
-     */
-    void insert(ServerRequest request, int index) {
-        synchronized (reqQueueLockObject) {
-            try {
-                BranchLogger.v("Queue operation insert. Request: " + request + " Size: " + queue.size() + " Index: " + index);
-                if (queue.size() < index) {
-                    index = queue.size();
-                }
-                queue.add(index, request);
-            } catch (IndexOutOfBoundsException e) {
-                BranchLogger.e("Caught IndexOutOfBoundsException " + e.getMessage());
-            }
-        }
-    }
-    
     /**
      * <p>As the method name implies, removes the {@link ServerRequest} object, at the position
      * indicated by the {@link Integer} parameter supplied.</p>
@@ -207,14 +353,13 @@ public class ServerRequestQueue {
      */
     @SuppressWarnings("unused")
     public ServerRequest removeAt(int index) {
-        ServerRequest req = null;
-        synchronized (reqQueueLockObject) {
-            try {
-                req = queue.remove(index);
-            } catch (IndexOutOfBoundsException e) {
-                BranchLogger.e("Caught IndexOutOfBoundsException " + e.getMessage());
-            }
+        ServerRequest req = queue.removeAt(index);
+        if (req == null) {
+            BranchLogger.e("No request in ServerRequestQueue at index " + index);
         }
+        untrackWaitLocks(req);
+        journalRemove(req);
+        onRemovedFromQueue(req);
         return req;
     }
 
@@ -226,32 +371,43 @@ public class ServerRequestQueue {
      * @return A {@link Boolean} whose value is true if the object is removed.
      */
     public boolean remove(ServerRequest request) {
-        boolean isRemoved = false;
-        synchronized (reqQueueLockObject) {
-            try {
-                BranchLogger.v("Queue operation remove. Request: " + request);
-                isRemoved = queue.remove(request) || !queue.contains(request);
-                BranchLogger.v("Queue operation remove. Removed: " + isRemoved);
-            } catch (UnsupportedOperationException e) {
-                BranchLogger.e("Caught UnsupportedOperationException " + e.getMessage());
-            }
-        }
+        BranchLogger.v("Queue operation remove. Request: " + request);
+        boolean isRemoved = queue.remove(request) || !queue.contains(request);
+        untrackWaitLocks(request);
+        journalRemove(request);
+        onRemovedFromQueue(request);
+        BranchLogger.v("Queue operation remove. Removed: " + isRemoved);
         return isRemoved;
     }
+
+    // A link request leaving the queue unanswered would keep its callers, and those coalesced into it, waiting
+    private void onRemovedFromQueue(ServerRequest req) {
+        if (req instanceof ServerRequestCreateUrl) {
+            ((ServerRequestCreateUrl) req).onRemovedFromQueue();
+        }
+    }
     
     /**
      * <p> Clears all pending requests in the queue </p>
      */
     void clear() {
-        synchronized (reqQueueLockObject) {
-            try {
-                BranchLogger.v("Queue operation clear: " + queue);
-                queue.clear();
-                BranchLogger.v("Queue cleared.");
-            } catch (UnsupportedOperationException e) {
-                BranchLogger.e("Caught UnsupportedOperationException " + e.getMessage());
-            }
+        BranchLogger.v("Queue operation clear: " + queue);
+        List<ServerRequest> cleared = new ArrayList<>();
+        for (ServerRequest req : queue) {
+            untrackWaitLocks(req);
+            cleared.add(req);
+        }
+        queue.clear();
+        for (ServerRequest req : cleared) {
+            onRemovedFromQueue(req);
         }
+        journalExecutor_.execute(new Runnable() {
+            @Override
+            public void run() {
+                journal_.clear();
+            }
+        });
+        BranchLogger.v("Queue cleared.");
     }
     
     /**
@@ -262,15 +418,13 @@ public class ServerRequestQueue {
      * <i>False</i> if not.
      */
     ServerRequestInitSession getSelfInitRequest() {
-        synchronized (reqQueueLockObject) {
-            for (ServerRequest req : queue) {
-                BranchLogger.v("Checking if " + req + " is instanceof ServerRequestInitSession");
-                if (req instanceof ServerRequestInitSession) {
-                    ServerRequestInitSession r = (ServerRequestInitSession) req;
-                    BranchLogger.v(r + " is initiated by client: " + r.initiatedByClient);
-                    if (r.initiatedByClient) {
-                        return r;
-                    }
+        for (ServerRequest req : queue) {
+            BranchLogger.v("Checking if " + req + " is instanceof ServerRequestInitSession");
+            if (req instanceof ServerRequestInitSession) {
+                ServerRequestInitSession r = (ServerRequestInitSession) req;
+                BranchLogger.v(r + " is initiated by client: " + r.initiatedByClient);
+                if (r.initiatedByClient) {
+                    return r;
                 }
             }
         }
@@ -278,15 +432,44 @@ public class ServerRequestQueue {
     }
     
     /**
-     * Set Process wait lock to false for any open / install request in the queue
+     * Set Process wait lock to false for any open / install request in the queue. Requests left
+     * with no wait locks are dispatched straight away, so callers need not process the queue.
      */
     void unlockProcessWait(ServerRequest.PROCESS_WAIT_LOCK lock) {
-        synchronized (reqQueueLockObject) {
-            for (ServerRequest req : queue) {
-                if (req != null) {
-                    req.removeProcessWaitLock(lock);
-                }
-            }
+        waitLocks_.unlock(lock);
+    }
+
+    /**
+     * Removes a wait lock from a single request. Like {@link #unlockProcessWait(ServerRequest.PROCESS_WAIT_LOCK)},
+     * the request is dispatched if that was its last wait lock.
+     */
+    void unlockProcessWait(ServerRequest req, ServerRequest.PROCESS_WAIT_LOCK lock) {
+        waitLocks_.unlock(req, lock);
+    }
+
+    // Indexes the wait locks the request holds now, and any it is given while queued
+    private void trackWaitLocks(ServerRequest req) {
+        req.waitLockListener_ = waitLockListener_;
+        waitLocks_.track(req);
+    }
+
+    private void untrackWaitLocks(ServerRequest req) {
+        if (req == null) {
+            return;
+        }
+        req.waitLockListener_ = null;
+        waitLocks_.untrack(req);
+    }
+
+    private class IndexingWaitLockListener implements ServerRequest.WaitLockListener {
+        @Override
+        public void onWaitLockAdded(ServerRequest request, ServerRequest.PROCESS_WAIT_LOCK lock) {
+            waitLocks_.onLockAdded(request, lock);
+        }
+
+        @Override
+        public void onWaitLockRemoved(ServerRequest request, ServerRequest.PROCESS_WAIT_LOCK lock, boolean lastLock) {
+            waitLocks_.onLockRemoved(request, lock, lastLock);
         }
     }
 
@@ -316,64 +499,267 @@ public class ServerRequestQueue {
         }
     }
 
+    /**
+     * <p>Dispatches as many queued requests as the dispatch lanes allow.</p>
+     *
+     * <p>Session-mutating requests (see {@link #canRunConcurrently(ServerRequest)}) act as a
+     * barrier: they only start once nothing else is in flight, and nothing behind them starts until
+     * they complete. Independent requests may run alongside each other, up to
+     * {@link PrefHelper#getMaxConcurrentRequests()} at a time. Requests never overtake a request
+     * ahead of them that is still waiting on a process lock.</p>
+     */
     void processNextQueueItem(String callingMethodName) {
         BranchLogger.v("processNextQueueItem " + callingMethodName);
         this.printQueue();
-        try {
-            serverSema_.acquire();
-            if (networkCount_ == 0 && this.getSize() > 0) {
-                networkCount_ = 1;
-                ServerRequest req = this.peek();
-
-                serverSema_.release();
-                if (req != null) {
-                    BranchLogger.d("processNextQueueItem, req " + req);
-                    if (!req.isWaitingOnProcessToFinish()) {
-                        // All network requests except Install request and queue operations need a valid RandomizedBundleToken
-                        if (!(req instanceof ServerRequestRegisterInstall)
-                                && !(req instanceof QueueOperationLogout)
-                                && !(req instanceof QueueOperationSetIdentity)
-                                && !hasUser()
-                        ) {
-                            BranchLogger.d("Branch Error: User session has not been initialized!");
-                            networkCount_ = 0;
-                            BranchLogger.v("Invoking " + req + " handleFailure. Has no session. hasUser: " + hasUser());
-                            req.handleFailure(BranchError.ERR_NO_SESSION, "Request " + req + " has no session.");
-                        }
-                        // Determine if a session is needed to execute (SDK-271)
-                        else if (requestNeedsSession(req) && !isSessionAvailableForRequest()) {
-                            networkCount_ = 0;
-                            BranchLogger.v("Invoking " + req + " handleFailure. Has no session.");
-                            req.handleFailure(BranchError.ERR_NO_SESSION, "Request " + req + " has no session.");
-                        } else {
-                            executeTimedBranchPostTask(req, Branch.getInstance().prefHelper_.getTaskTimeout());
-                        }
-                    }
-                    else {
-                        networkCount_ = 0;
-                    }
-                }
-                else {
-                    this.remove(null); //In case there is any request nullified remove it.
-                }
+        queue.drain();
+    }
+
+    /**
+     * <p>Applies the dispatch rules of this queue to {@link BranchDispatchQueue}.</p>
+     */
+    private class DispatchPolicy implements BranchDispatchQueue.Policy<ServerRequest> {
+        @Override
+        public AtomicInteger dispatchState(ServerRequest req) {
+            return req.dispatchState_;
+        }
+
+        @Override
+        public boolean isConcurrent(ServerRequest req) {
+            return canRunConcurrently(req);
+        }
+
+        @Override
+        public boolean isBlocked(ServerRequest req) {
+            return req.isWaitingOnProcessToFinish();
+        }
+
+        @Override
+        public int maxInFlight() {
+            return Branch.getInstance().prefHelper_.getMaxConcurrentRequests();
+        }
+
+        @Override
+        public BranchDispatchQueue.Admission admit(ServerRequest req) {
+            // Only a look: the probe of a half open circuit is claimed when the request is sent
+            if (circuitBreaker_.isRequestAllowed(req.requestPath_)) {
+                return BranchDispatchQueue.Admission.ADMIT;
             }
-            else {
-                serverSema_.release();
+            if (canHoldForOpenCircuit(req)) {
+                scheduleCircuitRecheck(req.requestPath_);
+                return BranchDispatchQueue.Admission.HOLD;
             }
-        } catch (Exception e) {
-            BranchLogger.e("Caught Exception " + callingMethodName + " processNextQueueItem: " + e.getMessage() + " stacktrace: " + BranchLogger.stackTraceToString(e));
+            return BranchDispatchQueue.Admission.REJECT;
+        }
+
+        @Override
+        public void onDispatch(ServerRequest req) {
+            dispatch(req);
+        }
+
+        @Override
+        public void onRejected(ServerRequest req) {
+            failForOpenCircuit(req);
         }
     }
 
-    void insertRequestAtFront(ServerRequest req) {
-        BranchLogger.v("Queue operation insertRequestAtFront " + req + " networkCount_: " + networkCount_);
-        if (networkCount_ == 0) {
-            this.insert(req, 0);
+    private void dispatch(ServerRequest req) {
+        BranchLogger.d("processNextQueueItem, req " + req);
+        // All network requests except Install request and queue operations need a valid RandomizedBundleToken
+        if (!(req instanceof ServerRequestRegisterInstall)
+                && !(req instanceof QueueOperationLogout)
+                && !(req instanceof QueueOperationSetIdentity)
+                && !hasUser()
+        ) {
+            BranchLogger.d("Branch Error: User session has not been initialized!");
+            onRequestFinished(req);
+            BranchLogger.v("Invoking " + req + " handleFailure. Has no session. hasUser: " + hasUser());
+            req.handleFailure(BranchError.ERR_NO_SESSION, "Request " + req + " has no session.");
+        }
+        // Determine if a session is needed to execute (SDK-271)
+        else if (requestNeedsSession(req) && !isSessionAvailableForRequest()) {
+            onRequestFinished(req);
+            BranchLogger.v("Invoking " + req + " handleFailure. Has no session.");
+            req.handleFailure(BranchError.ERR_NO_SESSION, "Request " + req + " has no session.");
         } else {
-            this.insert(req, 1);
+            send(req, false);
+        }
+    }
+
+    /**
+     * <p>Sends a request that is in flight, unless the circuit of its path refuses it, in which
+     * case it is held or failed. This is the only place the circuit breaker hands out its probe.</p>
+     */
+    private void send(ServerRequest req, boolean isRetry) {
+        if (!circuitBreaker_.allowRequest(req.requestPath_)) {
+            if (canHoldForOpenCircuit(req)) {
+                holdForOpenCircuit(req);
+            } else {
+                failForOpenCircuit(req);
+            }
+            processNextQueueItem(isRetry ? "retry" : "circuitRefused");
+            return;
+        }
+        executeTimedBranchPostTask(req, getTaskTimeout(req), isRetry);
+    }
+
+    /**
+     * <p>Schedules another attempt of a request that failed with a retryable error, after the
+     * backoff chosen by {@link BranchRetryPolicy}. The request keeps its place in the queue and its
+     * dispatch lane while it waits, and no thread is held in the meantime.</p>
+     *
+     * @return Null if a retry was scheduled, otherwise the response to fail the request with.
+     */
+    private ServerResponse scheduleRetry(final ServerRequest req, ServerResponse response) {
+        if (!retryPolicy_.hasAttemptsLeft(req.retryNumber_)) {
+            return response;
+        }
+        long delay = retryPolicy_.getDelayMs(req.retryNumber_, response.getRetryAfter(), System.currentTimeMillis());
+        if (delay == BranchRetryPolicy.NO_RETRY) {
+            BranchLogger.v("Not retrying " + req + ", server asked to retry after " + response.getRetryAfter());
+            return response;
+        }
+        if (!retryPolicy_.tryAcquireBudget()) {
+            BranchLogger.w("Not retrying " + req + ", the retry budget for this session is exhausted");
+            return new ServerResponse(response.getTag(), BranchError.ERR_BRANCH_RETRY_BUDGET_EXHAUSTED, "", "Retry budget exhausted, last status " + response.getStatusCode() + ". ");
+        }
+
+        req.retryNumber_++;
+        BranchLogger.v("Retrying " + req + " in " + delay + "ms, retry number " + req.retryNumber_);
+        BranchTaskTimeoutScheduler.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    @Override
+                    public void run() {
+                        retry(req);
+                    }
+                });
+            }
+        }, delay);
+        return null;
+    }
+
+    private void retry(ServerRequest req) {
+        // The queue may have been cleared while the retry was pending, eg. on logout
+        if (!queue.contains(req)) {
+            BranchLogger.v("Dropping retry of " + req + ", it is no longer queued");
+            onRequestFinished(req);
+            processNextQueueItem("retry");
+            return;
+        }
+        send(req, true);
+    }
+
+    private int getTaskTimeout(ServerRequest req) {
+        PrefHelper prefHelper = Branch.getInstance().prefHelper_;
+        timeoutEstimator_.configure(prefHelper.getTimeout(), prefHelper.getTaskTimeout(), prefHelper.getMinAdaptiveTimeout(), prefHelper.getMaxAdaptiveTimeout());
+        return timeoutEstimator_.getTaskTimeout(req.requestPath_);
+    }
+
+    /**
+     * <p>Events can wait out an outage, so while their circuit is open they stay queued instead of
+     * failing. Everything else fails fast.</p>
+     */
+    private boolean canHoldForOpenCircuit(ServerRequest req) {
+        return req instanceof ServerRequestLogEvent || req instanceof ServerRequestLogEventBatch;
+    }
+
+    /**
+     * <p>Returns an in flight request to the queue, to be sent once its circuit lets requests through again.</p>
+     */
+    private void holdForOpenCircuit(ServerRequest req) {
+        BranchLogger.v("Holding " + req + " until the circuit for " + req.requestPath_ + " closes");
+        onRequestFinished(req);
+        scheduleCircuitRecheck(req.requestPath_);
+    }
+
+    // A completing probe processes the queue itself, this only covers the circuit's own timers
+    private void scheduleCircuitRecheck(final Defines.RequestPath path) {
+        if (!circuitRechecks_.add(path)) {
+            return;
+        }
+        BranchTaskTimeoutScheduler.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    @Override
+                    public void run() {
+                        circuitRechecks_.remove(path);
+                        processNextQueueItem("circuitRecheck");
+                    }
+                });
+            }
+        }, circuitBreaker_.getMsUntilNextProbe(path));
+    }
+
+    private void failForOpenCircuit(ServerRequest req) {
+        BranchLogger.v("Failing " + req + ", the circuit for " + req.requestPath_ + " is open");
+        if (req instanceof ServerRequestInitSession && PrefHelper.NO_STRING_VALUE.equals(Branch.getInstance().prefHelper_.getSessionParams())) {
+            Branch.getInstance().setInitState(Branch.SessionState.UNINITIALISED);
+        }
+        req.handleFailure(BranchError.ERR_BRANCH_CIRCUIT_OPEN, "Request " + req + " was not sent, the Branch API is unavailable.");
+        remove(req);
+    }
+
+    /**
+     * <p>Feeds the outcome of an attempt to the circuit breaker. Only outcomes that say something
+     * about the health of the endpoint are counted.</p>
+     */
+    private void recordCircuitOutcome(ServerRequest req, int status) {
+        if (status == BranchError.ERR_BRANCH_TASK_TIMEOUT || BranchRetryPolicy.isRetryable(status)) {
+            circuitBreaker_.onFailure(req.requestPath_);
+        } else if (status >= 100) {
+            circuitBreaker_.onSuccess(req.requestPath_);
+        }
+    }
+
+    private void onRequestFinished(ServerRequest req) {
+        queue.finish(req);
+    }
+
+    /**
+     * <p>Requests that only read state, or whose side effects do not depend on each other, can share
+     * the dispatch lanes. Anything that mutates the session or identity, and any request type not
+     * known to be independent, is strictly ordered.</p>
+     */
+    private boolean canRunConcurrently(ServerRequest request) {
+        return request instanceof ServerRequestLogEvent
+                || request instanceof ServerRequestLogEventBatch
+                || request instanceof ServerRequestCreateUrl
+                || request instanceof ServerRequestCreateQRCode;
+    }
+
+    void setHedgePolicy(BranchHedgePolicy hedgePolicy) {
+        hedgePolicy_ = hedgePolicy;
+    }
+
+    void setEventBatcher(BranchEventBatcher batcher) {
+        BranchEventBatcher previous = eventBatcher_;
+        eventBatcher_ = batcher;
+        if (previous != null) {
+            previous.flush("batcherReplaced");
+        }
+    }
+
+    void flushEventBatch(String reason) {
+        BranchEventBatcher batcher = eventBatcher_;
+        if (batcher != null) {
+            batcher.flush(reason);
         }
     }
 
+    int getInFlightCount() {
+        return queue.getInFlightCount();
+    }
+
+    void insertRequestAtFront(ServerRequest req) {
+        // Requests already in flight hold their lanes whatever their position, so the head is fine
+        BranchLogger.v("Queue operation insertRequestAtFront " + req);
+        queue.addFirst(req);
+        trackWaitLocks(req);
+        journalPut(req);
+    }
+
     // Determine if a Request needs a Session to proceed.
     private boolean requestNeedsSession(ServerRequest request) {
         if (request instanceof ServerRequestInitSession) {
@@ -410,63 +796,50 @@ public class ServerRequestQueue {
         return !Branch.getInstance().prefHelper_.getRandomizedBundleToken().equals(PrefHelper.NO_STRING_VALUE);
     }
 
-    void updateAllRequestsInQueue() {
-        try {
-            for (int i = 0; i < this.getSize(); i++) {
-                ServerRequest req = this.peekAt(i);
-                BranchLogger.v("Queue operation updateAllRequestsInQueue updating: " + req);
-                if (req != null) {
-                    JSONObject reqJson = req.getPost();
-                    if (reqJson != null) {
-                        if (reqJson.has(Defines.Jsonkey.SessionID.getKey())) {
-                            req.getPost().put(Defines.Jsonkey.SessionID.getKey(), Branch.getInstance().prefHelper_.getSessionID());
-                        }
-                        if (reqJson.has(Defines.Jsonkey.RandomizedBundleToken.getKey())) {
-                            req.getPost().put(Defines.Jsonkey.RandomizedBundleToken.getKey(), Branch.getInstance().prefHelper_.getRandomizedBundleToken());
-                        }
-                        if (reqJson.has(Defines.Jsonkey.RandomizedDeviceToken.getKey())) {
-                            req.getPost().put(Defines.Jsonkey.RandomizedDeviceToken.getKey(), Branch.getInstance().prefHelper_.getRandomizedDeviceToken());
-                        }
-                    }
-                }
-            }
-        } catch (JSONException e) {
-            BranchLogger.e("Caught JSONException " + e.getMessage());
-        }
-    }
-
-    private void executeTimedBranchPostTask(final ServerRequest req, final int timeout) {
+    // Package private, so that tests can send a burst past the lanes of the queue
+    void executeTimedBranchPostTask(final ServerRequest req, final int timeout, boolean isRetry) {
         BranchLogger.v("executeTimedBranchPostTask " + req);
         if(req instanceof ServerRequestInitSession){
             BranchLogger.v("callback to be returned " + ((ServerRequestInitSession) req).callback_);
         }
 
-        final CountDownLatch latch = new CountDownLatch(1);
-        final BranchPostTask postTask = new BranchPostTask(req, latch);
-
+        final BranchPostTask postTask = new BranchPostTask(req, isRetry, timeout);
+        // Arm the timeout first so a task that completes immediately can still cancel it
+        postTask.timeout_ = BranchTaskTimeoutScheduler.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                onBranchPostTaskTimeout(postTask, timeout);
+            }
+        }, timeout);
         postTask.executeTask();
-        if (Looper.myLooper() == Looper.getMainLooper()) {
-            new Thread(new Runnable() {
-                @Override public void run() {
-                    awaitTimedBranchPostTask(latch, timeout, postTask);
-                }
-            }).start();
-        } else {
-            awaitTimedBranchPostTask(latch, timeout, postTask);
+
+        final BranchHedgePolicy hedgePolicy = hedgePolicy_;
+        if (hedgePolicy != null && req instanceof ServerRequestInitSession) {
+            long hedgeDelay = hedgePolicy.onRequest();
+            if (hedgeDelay >= 0 && hedgeDelay < timeout) {
+                BranchTaskTimeoutScheduler.getInstance().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        postTask.hedge(hedgePolicy);
+                    }
+                }, hedgeDelay);
+            }
         }
     }
 
-    private void awaitTimedBranchPostTask(CountDownLatch latch, int timeout, BranchPostTask postTask) {
-        try {
-            if (!latch.await(timeout, TimeUnit.MILLISECONDS)) {
-                postTask.cancel(true);
+    // Runs on the shared timeout thread, which must not be held by request callbacks
+    private void onBranchPostTaskTimeout(final BranchPostTask postTask, final int timeout) {
+        postTask.cancel();
+        timeoutEstimator_.onTimeout(postTask.thisReq_.requestPath_);
+        if (postTask.sentUrl_ != null) {
+            Branch.getInstance().prefHelper_.endpointManager_.onFailure(postTask.sentUrl_);
+        }
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
                 postTask.onPostExecuteInner(new ServerResponse(postTask.thisReq_.getRequestPath(), ERR_BRANCH_TASK_TIMEOUT, "", "Thread task timed out. Timeout: " + timeout));
             }
-        } catch (InterruptedException e) {
-            BranchLogger.e("Caught InterruptedException " + e.getMessage());
-            postTask.cancel(true);
-            postTask.onPostExecuteInner(new ServerResponse(postTask.thisReq_.getRequestPath(), ERR_BRANCH_TASK_TIMEOUT, "", e.getMessage()));
-        }
+        });
     }
 
 
@@ -486,6 +859,11 @@ public class ServerRequestQueue {
             req.handleFailure(BranchError.ERR_BRANCH_TRACKING_DISABLED, errMsg);
             return;
         }
+        BranchEventBatcher batcher = eventBatcher_;
+        if (batcher != null && req instanceof ServerRequestLogEvent) {
+            batcher.add((ServerRequestLogEvent) req);
+            return;
+        }
         //If not initialised put an open or install request in front of this request(only if this needs session)
         if (Branch.getInstance().initState_ != Branch.SessionState.INITIALISED &&
                 !(req instanceof ServerRequestInitSession
@@ -506,78 +884,249 @@ public class ServerRequestQueue {
     // If there is 1 (currently being removed) or 0 init requests in the queue, clear the init data
     public boolean canClearInitData() {
         int result = 0;
-        synchronized (reqQueueLockObject) {
-            for(int i = 0; i < queue.size(); i++){
-                if(queue.get(i) instanceof ServerRequestInitSession){
-                    result++;
-                }
+        for (ServerRequest req : queue) {
+            if (req instanceof ServerRequestInitSession) {
+                result++;
             }
         }
         return result <= 1;
     }
 
+    // Runs the blocking calls of a BranchRemoteInterface without an async transport on the post
+    // task's own SDK worker, as before. The queue's timeout enforces their deadline.
+    private static final Executor CALLING_THREAD = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    private BranchAsyncTransport getTransport(BranchRemoteInterface remoteInterface) {
+        BranchAsyncTransport transport = remoteInterface.getAsyncTransport();
+        if (transport != null) {
+            return transport;
+        }
+        BlockingTransportAdapter adapter = blockingTransport_;
+        if (adapter == null || adapter.getRemoteInterface() != remoteInterface) {
+            adapter = new BlockingTransportAdapter(remoteInterface, CALLING_THREAD, null);
+            blockingTransport_ = adapter;
+        }
+        return adapter;
+    }
+
     /**
-     * Asynchronous task handling execution of server requests. Execute the network task on background
-     * thread and request are  executed in sequential manner. Handles the request execution in
-     * Synchronous-Asynchronous pattern. Should be invoked only form main thread and  the results are
-     * published in the main thread.
+     * Handles execution of server requests. The request is prepared on an SDK worker and handed to
+     * the {@link BranchAsyncTransport} of the remote interface, which does not hold the worker while
+     * the request is in flight unless the remote interface only has blocking calls. Request are
+     * executed in sequential manner and the results are published in the main thread.
      */
-    private class BranchPostTask extends BranchAsyncTask<Void, Void, ServerResponse> {
+    private class BranchPostTask implements Runnable, BranchRemoteInterface.ServerResponseCallback {
+        private final Handler mainHandler_ = new Handler(Looper.getMainLooper());
         ServerRequest thisReq_;
-        final CountDownLatch latch_;
-
-        public BranchPostTask(ServerRequest request, CountDownLatch latch) {
-            super();
+        // A retry re-sends the payload built for the first attempt as is
+        private final boolean isRetry_;
+        private final long deadlineAt_;
+        // Set once the task has completed or timed out, so the result is only delivered once
+        private final AtomicBoolean completed_ = new AtomicBoolean(false);
+        private volatile boolean cancelled_;
+        private volatile BranchAsyncTransport.Call call_;
+        // When the request was handed to the transport, 0 for requests answered locally
+        private volatile long sentAt_;
+        volatile String sentUrl_;
+        volatile ScheduledFuture<?> timeout_;
+        // Set on the second copy of a hedged request, which hands its response to the first
+        private final BranchPostTask owner_;
+        private volatile BranchPostTask hedge_;
+        // Copies of the request still waiting for their response
+        private final AtomicInteger pendingCopies_ = new AtomicInteger(1);
+
+        public BranchPostTask(ServerRequest request, boolean isRetry, int timeout) {
             thisReq_ = request;
-            latch_ = latch;
+            isRetry_ = isRetry;
+            deadlineAt_ = SystemClock.elapsedRealtime() + timeout;
+            owner_ = null;
         }
 
-        @Override
-        protected void onPreExecute() {
-            super.onPreExecute();
-            thisReq_.onPreExecute();
-            thisReq_.doFinalUpdateOnMainThread();
+        // A second copy of owner's request, sent with the payload and deadline of the first
+        private BranchPostTask(BranchPostTask owner) {
+            thisReq_ = owner.thisReq_;
+            isRetry_ = true;
+            deadlineAt_ = owner.deadlineAt_;
+            owner_ = owner;
+        }
+
+        private int getPriority() {
+            if (thisReq_ instanceof ServerRequestInitSession) {
+                return BranchExecutor.PRIORITY_HIGH;
+            }
+            if (thisReq_ instanceof ServerRequestLogEvent || thisReq_ instanceof ServerRequestLogEventBatch) {
+                return BranchExecutor.PRIORITY_LOW;
+            }
+            return BranchExecutor.PRIORITY_NORMAL;
+        }
+
+        void executeTask() {
+            if (!isRetry_) {
+                thisReq_.onPreExecute();
+                thisReq_.doFinalUpdateOnMainThread();
+            }
+            BranchExecutor.execute(this, getPriority());
+        }
+
+        /**
+         * Abandons the request, the result is delivered by whoever cancels.
+         */
+        void cancel() {
+            cancelled_ = true;
+            BranchAsyncTransport.Call call = call_;
+            if (call != null) {
+                call.cancel();
+            }
+            BranchPostTask hedge = hedge_;
+            if (hedge != null) {
+                hedge.cancel();
+            }
+        }
+
+        /**
+         * Sends a second copy of the request if it is still waiting for its response and the hedge
+         * rate allows it. The copy has the same request uuid, so the server handles both as one.
+         */
+        void hedge(BranchHedgePolicy hedgePolicy) {
+            if (cancelled_ || completed_.get() || hedge_ != null || !hedgePolicy.tryAcquireHedge()) {
+                return;
+            }
+            BranchLogger.v("Hedging " + thisReq_ + ", no response yet");
+            pendingCopies_.incrementAndGet();
+            BranchPostTask hedge = new BranchPostTask(this);
+            hedge_ = hedge;
+            // Timed out while the copy was being made
+            if (cancelled_) {
+                hedge.cancel();
+            }
+            BranchExecutor.execute(hedge, getPriority());
         }
 
         @Override
-        protected ServerResponse doInBackground(Void... voids) {
+        public void run() {
+            if (cancelled_) {
+                return;
+            }
             // update queue wait time
-            thisReq_.doFinalUpdateOnBackgroundThread();
+            if (!isRetry_) {
+                thisReq_.doFinalUpdateOnBackgroundThread();
+            }
 
             if(thisReq_ instanceof QueueOperationLogout || thisReq_ instanceof QueueOperationSetIdentity){
-                return new ServerResponse("", 200, "", "");
+                onResponse(new ServerResponse("", 200, "", ""));
+                return;
             }
 
             if (Branch.getInstance().getTrackingController().isTrackingDisabled() && !thisReq_.prepareExecuteWithoutTracking()) {
-                return new ServerResponse(thisReq_.getRequestPath(), BranchError.ERR_BRANCH_TRACKING_DISABLED, "", "Tracking is disabled");
+                onResponse(new ServerResponse(thisReq_.getRequestPath(), BranchError.ERR_BRANCH_TRACKING_DISABLED, "", "Tracking is disabled"));
+                return;
             }
             String branchKey = Branch.getInstance().prefHelper_.getBranchKey();
-            ServerResponse result = null;
+            BranchRemoteInterface remoteInterface = Branch.getInstance().getBranchRemoteInterface();
+            BranchAsyncTransport transport = getTransport(remoteInterface);
+            long deadlineMs = Math.max(1, deadlineAt_ - SystemClock.elapsedRealtime());
+            sentAt_ = SystemClock.elapsedRealtime();
 
             try {
+                // Resolved per attempt, so that a retry goes to whichever endpoint is healthy now
+                String url = thisReq_.getRequestUrl();
+                sentUrl_ = url;
                 if (thisReq_.isGetRequest()) {
-                    result = Branch.getInstance().getBranchRemoteInterface().make_restful_get(thisReq_.getRequestUrl(), thisReq_.getGetParams(), thisReq_.getRequestPath(), branchKey);
+                    call_ = remoteInterface.make_restful_get_async(url, thisReq_.getGetParams(), thisReq_.getRequestPath(), branchKey, thisReq_.retryNumber_, transport, deadlineMs, this);
                 } else {
-                    BranchLogger.v("BranchPostTask doInBackground beginning rest post for " + thisReq_);
-                    result = Branch.getInstance().getBranchRemoteInterface().make_restful_post(thisReq_.getPostWithInstrumentationValues(instrumentationExtraData_), thisReq_.getRequestUrl(), thisReq_.getRequestPath(), branchKey);
+                    BranchLogger.v("BranchPostTask beginning rest post for " + thisReq_);
+                    call_ = remoteInterface.make_restful_post_async(thisReq_.getPostWithInstrumentationValues(instrumentationExtraData_), url, thisReq_.getRequestPath(), branchKey, thisReq_.retryNumber_, transport, deadlineMs, this);
                 }
-                if (latch_ != null) {
-                    latch_.countDown();
+                // Cancelled while the call was being issued
+                if (cancelled_) {
+                    call_.cancel();
                 }
             }
             catch (Exception e){
-                BranchLogger.v("BranchPostTask doInBackground caught exception: " + e.getMessage());
+                BranchLogger.v("BranchPostTask caught exception: " + e.getMessage());
+                onResponse(null);
             }
-            return result;
         }
 
         @Override
-        protected void onPostExecute(ServerResponse serverResponse) {
-            super.onPostExecute(serverResponse);
-            onPostExecuteInner(serverResponse);
+        public void onResponse(final ServerResponse serverResponse) {
+            if (cancelled_) {
+                return;
+            }
+            recordAttempt(serverResponse);
+            if (owner_ != null) {
+                owner_.deliver(serverResponse);
+            } else {
+                deliver(serverResponse);
+            }
+        }
+
+        // A failure is held back while the other copy of a hedged request may still succeed
+        private void deliver(final ServerResponse serverResponse) {
+            boolean otherCopyPending = pendingCopies_.decrementAndGet() > 0;
+            if (otherCopyPending && (serverResponse == null || BranchRetryPolicy.isRetryable(serverResponse.getStatusCode()))) {
+                BranchLogger.v("Waiting for the other copy of " + thisReq_ + " after a failed one");
+                return;
+            }
+            mainHandler_.post(new Runnable() {
+                @Override
+                public void run() {
+                    onPostExecuteInner(serverResponse);
+                }
+            });
+        }
+
+        private void recordAttempt(ServerResponse serverResponse) {
+            long sentAt = sentAt_;
+            if (sentAt == 0 || serverResponse == null) {
+                return;
+            }
+            int status = serverResponse.getStatusCode();
+            long roundTripMs = SystemClock.elapsedRealtime() - sentAt;
+            if (status == BranchError.ERR_BRANCH_REQ_TIMED_OUT) {
+                timeoutEstimator_.onTimeout(thisReq_.requestPath_);
+            } else if (status >= 100) {
+                // Only requests the server answered say how long a round trip takes
+                timeoutEstimator_.onRoundTrip(thisReq_.requestPath_, roundTripMs);
+            }
+
+            BranchEndpointManager endpointManager = Branch.getInstance().prefHelper_.endpointManager_;
+            if (status >= 500 || status == BranchError.ERR_BRANCH_REQ_TIMED_OUT || status == BranchError.ERR_BRANCH_NO_CONNECTIVITY
+                    || status == BranchError.ERR_BRANCH_UNABLE_TO_REACH_SERVERS) {
+                endpointManager.onFailure(sentUrl_);
+            } else if (status >= 100) {
+                endpointManager.onSuccess(sentUrl_, roundTripMs);
+            }
+
+            BranchHedgePolicy hedgePolicy = hedgePolicy_;
+            if (hedgePolicy != null && status == 200 && thisReq_ instanceof ServerRequestInitSession) {
+                hedgePolicy.onLatency(roundTripMs);
+            }
         }
 
         void onPostExecuteInner(ServerResponse serverResponse) {
+            if (!completed_.compareAndSet(false, true)) {
+                BranchLogger.v("onPostExecuteInner " + thisReq_ + " already completed, ignoring " + serverResponse);
+                return;
+            }
+            ScheduledFuture<?> timeout = timeout_;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            BranchPostTask hedge = hedge_;
+            if (hedge != null) {
+                // Abandons whichever copy is still in flight
+                hedge.cancel();
+                BranchAsyncTransport.Call call = call_;
+                if (call != null) {
+                    call.cancel();
+                }
+            }
             try {
                 // For the time being, execute the callback only for init requests
                 BranchLogger.v("onPostExecuteInner " + thisReq_);
@@ -588,7 +1137,8 @@ public class ServerRequestQueue {
                         uri = thisReq_.getPost().getString(Defines.Jsonkey.External_Intent_URI.getKey());
                     }
 
-                    JSONObject requestJson = thisReq_.getPost();
+                    // With the session identifiers that were sent rather than their placeholders
+                    JSONObject requestJson = thisReq_.getResolvedPost();
                     JSONObject requestResponse = serverResponse.getObject();
 
                     String error = "";
@@ -597,28 +1147,43 @@ public class ServerRequestQueue {
                         error = (new BranchError(serverResponse.getMessage(), serverResponse.getStatusCode())).toString();
                     }
 
-                    Branch.getCallbackForTracingRequests().onRequestCompleted(uri, requestJson, requestResponse, error, thisReq_.getRequestUrl());
+                    Branch.getCallbackForTracingRequests().onRequestCompleted(uri, requestJson, requestResponse, error, sentUrl_ != null ? sentUrl_ : thisReq_.getRequestUrl());
                 }
             }
             catch (Exception exception){
                 BranchLogger.e("Failed to invoke tracing request callback:" + exception.getMessage());
             }
 
-            if (latch_ != null) {
-                latch_.countDown();
-            }
             if (serverResponse == null) {
+                onRequestFinished(thisReq_);
                 thisReq_.handleFailure(BranchError.ERR_OTHER, "Null response.");
                 return;
             }
 
             int status = serverResponse.getStatusCode();
+            if (!(thisReq_ instanceof QueueOperationLogout || thisReq_ instanceof QueueOperationSetIdentity)) {
+                recordCircuitOutcome(thisReq_, status);
+            }
+            if (status != 200 && BranchRetryPolicy.isRetryable(status) && circuitBreaker_.getState(thisReq_.requestPath_) == BranchCircuitBreaker.State.OPEN) {
+                // No point retrying until the endpoint recovers
+                if (canHoldForOpenCircuit(thisReq_)) {
+                    holdForOpenCircuit(thisReq_);
+                    return;
+                }
+            } else if (status != 200 && BranchRetryPolicy.isRetryable(status)) {
+                ServerResponse failure = scheduleRetry(thisReq_, serverResponse);
+                if (failure == null) {
+                    return;
+                }
+                serverResponse = failure;
+                status = failure.getStatusCode();
+            }
             if (status == 200) {
                 onRequestSuccess(serverResponse);
             } else {
                 onRequestFailed(serverResponse, status);
             }
-            ServerRequestQueue.this.networkCount_ = 0;
+            onRequestFinished(thisReq_);
 
             // In rare cases where this method is called directly (eg. when network calls time out),
             // starting the next queue item can lead to stack over flow. Ensuring that this is
@@ -641,9 +1206,10 @@ public class ServerRequestQueue {
             }
 
             if(thisReq_ instanceof QueueOperationLogout){
-                //On Logout clear the link cache and all pending requests
+                //On Logout clear the link cache and all pending requests, failing pending link requests
                 Branch.getInstance().linkCache_.clear();
                 Branch.getInstance().requestQueue_.clear();
+                Branch.getInstance().pendingLinkRequests_.clear();
             }
 
             if (thisReq_ instanceof ServerRequestCreateUrl && respJson != null) {
@@ -651,21 +1217,23 @@ public class ServerRequestQueue {
                     // cache the link
                     BranchLinkData postBody = ((ServerRequestCreateUrl) thisReq_).getLinkPost();
                     final String url = respJson.getString("url");
-                    Branch.getInstance().linkCache_.put(postBody, url);
+                    // Requests restored from the journal have no link data to key the cache on
+                    if (postBody != null) {
+                        Branch.getInstance().linkCache_.put(postBody, url);
+                    }
                 } catch (JSONException ex) {
                     BranchLogger.w("Caught JSONException " + ex.getMessage());
                 }
             }
 
             if (thisReq_ instanceof ServerRequestInitSession) {
-                // If this request changes a session update the session-id to queued requests.
-                boolean updateRequestsInQueue = false;
+                // Queued requests carry placeholders for these, resolved when each is sent, see
+                // ServerRequest.sessionToken
                 if (!Branch.getInstance().isTrackingDisabled() && respJson != null) {
                     // Update PII data only if tracking is disabled
                     try {
                         if (respJson.has(Defines.Jsonkey.SessionID.getKey())) {
                             Branch.getInstance().prefHelper_.setSessionID(respJson.getString(Defines.Jsonkey.SessionID.getKey()));
-                            updateRequestsInQueue = true;
                         }
                         if (respJson.has(Defines.Jsonkey.RandomizedBundleToken.getKey())) {
                             String new_Randomized_Bundle_Token = respJson.getString(Defines.Jsonkey.RandomizedBundleToken.getKey());
@@ -673,15 +1241,10 @@ public class ServerRequestQueue {
                                 //On setting a new Randomized Bundle Token clear the link cache
                                 Branch.getInstance().linkCache_.clear();
                                 Branch.getInstance().prefHelper_.setRandomizedBundleToken(new_Randomized_Bundle_Token);
-                                updateRequestsInQueue = true;
                             }
                         }
                         if (respJson.has(Defines.Jsonkey.RandomizedDeviceToken.getKey())) {
                             Branch.getInstance().prefHelper_.setRandomizedDeviceToken(respJson.getString(Defines.Jsonkey.RandomizedDeviceToken.getKey()));
-                            updateRequestsInQueue = true;
-                        }
-                        if (updateRequestsInQueue) {
-                            updateAllRequestsInQueue();
                         }
                     } catch (JSONException ex) {
                         BranchLogger.w("Caught JSONException " + ex.getMessage());
@@ -690,6 +1253,7 @@ public class ServerRequestQueue {
 
                 if (thisReq_ instanceof ServerRequestInitSession) {
                     Branch.getInstance().setInitState(Branch.SessionState.INITIALISED);
+                    retryPolicy_.resetBudget();
 
                     Branch.getInstance().checkForAutoDeepLinkConfiguration(); //TODO: Delete?
                     // Count down the latch holding getLatestReferringParamsSync
@@ -727,19 +1291,19 @@ public class ServerRequestQueue {
             } else {
                 //On Network error or Branch is down fail all the pending requests in the queue except
                 //for request which need to be replayed on failure.
-                ServerRequestQueue.this.networkCount_ = 0;
                 thisReq_.handleFailure(status, serverResponse.getFailReason() + status + " " + serverResponse.getMessage());
             }
 
-            boolean unretryableErrorCode = (400 <= status && status <= 451) || status == BranchError.ERR_BRANCH_TRACKING_DISABLED;
             // If it has an un-retryable error code, or it should not retry on fail, or the current retry count exceeds the max
-            // remove it from the queue
-            if (unretryableErrorCode || !thisReq_.shouldRetryOnFail() || (thisReq_.currentRetryCount >= Branch.getInstance().prefHelper_.getNoConnectionRetryMax())) {
+            // remove it from the queue. The backoff retries of this dispatch are not counted
+            if (!BranchRetryPolicy.isKeptForReplay(status, thisReq_.shouldRetryOnFail(), thisReq_.currentRetryCount, Branch.getInstance().prefHelper_.getNoConnectionRetryMax())) {
                 Branch.getInstance().requestQueue_.remove(thisReq_);
             } else {
                 // failure has already been handled
                 // todo does it make sense to retry the request without a callback? (e.g. CPID, LATD)
                 thisReq_.clearCallbacks();
+                // The next dispatch starts its backoff afresh
+                thisReq_.retryNumber_ = 0;
             }
 
             thisReq_.currentRetryCount++;
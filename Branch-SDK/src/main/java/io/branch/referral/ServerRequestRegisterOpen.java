@@ -25,8 +25,9 @@ class ServerRequestRegisterOpen extends ServerRequestInitSession {
         callback_ = callback;
         JSONObject openPost = new JSONObject();
         try {
-            openPost.put(Defines.Jsonkey.RandomizedDeviceToken.getKey(), prefHelper_.getRandomizedDeviceToken());
-            openPost.put(Defines.Jsonkey.RandomizedBundleToken.getKey(), prefHelper_.getRandomizedBundleToken());
+            // Resolved when the request is sent, an earlier init may still change them
+            openPost.put(Defines.Jsonkey.RandomizedDeviceToken.getKey(), sessionToken(Defines.Jsonkey.RandomizedDeviceToken));
+            openPost.put(Defines.Jsonkey.RandomizedBundleToken.getKey(), sessionToken(Defines.Jsonkey.RandomizedBundleToken));
             setPost(openPost);
         } catch (JSONException ex) {
             BranchLogger.w("Caught JSONException " + ex.getMessage());
@@ -43,6 +43,16 @@ public class ServerResponse {
 
     private String message_;
 
+    /**
+     * The Retry-After header of the response, if any
+     */
+    private String retryAfter_;
+
+    /**
+     * The raw body of a binary response, such as the image of a QR code.
+     */
+    private byte[] bytes_;
+
     /**
      * <p>Main constructor method for the {@link ServerResponse} class that allows for the instantiation
      * of a server response object as a direct result of a server call.</p>
@@ -142,4 +152,36 @@ public class ServerResponse {
     public String getMessage() {
         return message_;
     }
+
+    /**
+     * <p>Sets the value of the {@code Retry-After} header returned with this response.</p>
+     *
+     * @param retryAfter A {@link String} number of seconds or HTTP date, or null if the response has none.
+     */
+    public void setRetryAfter(String retryAfter) {
+        retryAfter_ = retryAfter;
+    }
+
+    /**
+     * @return The {@code Retry-After} header returned with this response, or null if the response has none.
+     */
+    public String getRetryAfter() {
+        return retryAfter_;
+    }
+
+    /**
+     * <p>Sets the raw body of a binary response, such as the image of a QR code.</p>
+     *
+     * @param bytes The body of the response as sent by the server.
+     */
+    public void setBytes(byte[] bytes) {
+        bytes_ = bytes;
+    }
+
+    /**
+     * @return The raw body of a binary response, or null if the response was not binary.
+     */
+    public byte[] getBytes() {
+        return bytes_;
+    }
 }
@@ -159,6 +159,11 @@ class UniversalResourceAnalyser {
             this.prefHelper = PrefHelper.getInstance(context);
         }
         
+        @Override
+        protected int getPriority() {
+            return BranchExecutor.PRIORITY_LOW;
+        }
+
         @Override
         protected JSONObject doInBackground(Void... params) {
             TrafficStats.setThreadStatsTag(0);
@@ -0,0 +1,163 @@
+package io.branch.referral.network;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.branch.referral.BranchError;
+
+/**
+ * <p>
+ * Runs the blocking {@link BranchRemoteInterface#doRestfulGet(String)} and
+ * {@link BranchRemoteInterface#doRestfulPost(String, JSONObject)} of an existing implementation
+ * behind the {@link BranchAsyncTransport} contract. Each call occupies a thread of
+ * {@code executor} until its response arrives, as it always has.
+ * </p>
+ * <p>
+ * Cancelling a call, or passing its deadline, interrupts the thread running it and completes the
+ * call at once, whether or not the blocking implementation notices the interrupt.
+ * </p>
+ */
+public class BlockingTransportAdapter implements BranchAsyncTransport {
+    private final BranchRemoteInterface remoteInterface_;
+    private final Executor executor_;
+    private final ScheduledExecutorService deadlineScheduler_;
+
+    /**
+     * @param remoteInterface   The blocking implementation to run.
+     * @param executor          Runs the blocking calls. An executor that runs tasks on the calling
+     *                          thread makes every call synchronous.
+     * @param deadlineScheduler Enforces the deadlines of calls, or null if the caller enforces them
+     *                          with {@link Call#cancel()}.
+     */
+    public BlockingTransportAdapter(@NonNull BranchRemoteInterface remoteInterface, @NonNull Executor executor, @Nullable ScheduledExecutorService deadlineScheduler) {
+        remoteInterface_ = remoteInterface;
+        executor_ = executor;
+        deadlineScheduler_ = deadlineScheduler;
+    }
+
+    public BranchRemoteInterface getRemoteInterface() {
+        return remoteInterface_;
+    }
+
+    @Override
+    public Call get(final String url, long deadlineMs, Callback callback) {
+        return start(new BlockingCall(callback) {
+            @Override
+            BranchRemoteInterface.BranchResponse execute() throws BranchRemoteInterface.BranchRemoteException {
+                return remoteInterface_.doRestfulGet(url);
+            }
+        }, deadlineMs);
+    }
+
+    @Override
+    public Call post(final String url, final JSONObject payload, long deadlineMs, Callback callback) {
+        return start(new BlockingCall(callback) {
+            @Override
+            BranchRemoteInterface.BranchResponse execute() throws BranchRemoteInterface.BranchRemoteException {
+                return remoteInterface_.doRestfulPost(url, payload);
+            }
+        }, deadlineMs);
+    }
+
+    private Call start(final BlockingCall call, final long deadlineMs) {
+        if (deadlineScheduler_ != null && deadlineMs > 0) {
+            call.deadline_ = deadlineScheduler_.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    call.fail(new BranchRemoteInterface.BranchRemoteException(BranchError.ERR_BRANCH_TASK_TIMEOUT, "Deadline of " + deadlineMs + "ms passed"));
+                }
+            }, deadlineMs, TimeUnit.MILLISECONDS);
+        }
+        try {
+            executor_.execute(call);
+        } catch (RejectedExecutionException e) {
+            call.fail(new BranchRemoteInterface.BranchRemoteException(BranchError.ERR_OTHER, "Request rejected by executor: " + e.getMessage()));
+        }
+        return call;
+    }
+
+    private abstract static class BlockingCall implements Runnable, Call {
+        private final Callback callback_;
+        private final AtomicBoolean done_ = new AtomicBoolean(false);
+        // The thread in execute(), guarded by this so that it is never interrupted after it moved on
+        private Thread runner_;
+        volatile ScheduledFuture<?> deadline_;
+
+        BlockingCall(Callback callback) {
+            callback_ = callback;
+        }
+
+        abstract BranchRemoteInterface.BranchResponse execute() throws BranchRemoteInterface.BranchRemoteException;
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (done_.get()) {
+                    return;
+                }
+                runner_ = Thread.currentThread();
+            }
+            try {
+                BranchRemoteInterface.BranchResponse response = execute();
+                if (complete()) {
+                    callback_.onResponse(response);
+                }
+            } catch (BranchRemoteInterface.BranchRemoteException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                fail(new BranchRemoteInterface.BranchRemoteException(BranchError.ERR_OTHER, e.getMessage()));
+            } finally {
+                synchronized (this) {
+                    runner_ = null;
+                }
+                // Clear an interrupt from cancel() so it does not leak into the executor's next task
+                Thread.interrupted();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (complete()) {
+                interrupt();
+            }
+        }
+
+        @Override
+        public boolean isDone() {
+            return done_.get();
+        }
+
+        void fail(BranchRemoteInterface.BranchRemoteException exception) {
+            if (complete()) {
+                interrupt();
+                callback_.onFailure(exception);
+            }
+        }
+
+        private boolean complete() {
+            if (!done_.compareAndSet(false, true)) {
+                return false;
+            }
+            ScheduledFuture<?> deadline = deadline_;
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            return true;
+        }
+
+        private synchronized void interrupt() {
+            if (runner_ != null && runner_ != Thread.currentThread()) {
+                runner_.interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package io.branch.referral.network;
+
+import org.json.JSONObject;
+
+/**
+ * <p>
+ * Non blocking counterpart of {@link BranchRemoteInterface#doRestfulGet(String)} and
+ * {@link BranchRemoteInterface#doRestfulPost(String, JSONObject)}. A call returns as soon as the
+ * request is on its way and the result is delivered to a {@link Callback}, so the request queue does
+ * not hold a thread for every request in flight.
+ * </p>
+ * <p>
+ * Return an implementation from {@link BranchRemoteInterface#getAsyncTransport()} to have the SDK
+ * use it. Blocking implementations are driven through {@link BlockingTransportAdapter} instead.
+ * </p>
+ */
+public interface BranchAsyncTransport {
+
+    /**
+     * <p>Sends a GET to {@code url}.</p>
+     *
+     * @param url        The url end point, including its query params
+     * @param deadlineMs Milliseconds from now after which the response is no longer wanted. The
+     *                   call should fail with {@link io.branch.referral.BranchError#ERR_BRANCH_TASK_TIMEOUT}
+     *                   by then. 0 for no deadline.
+     * @param callback   Receives the result exactly once, on any thread, unless the call is cancelled.
+     * @return The call, to cancel it.
+     */
+    Call get(String url, long deadlineMs, Callback callback);
+
+    /**
+     * <p>Sends a POST of {@code payload} to {@code url}. See {@link #get(String, long, Callback)}.</p>
+     */
+    Call post(String url, JSONObject payload, long deadlineMs, Callback callback);
+
+    /**
+     * Receives the result of a {@link Call}.
+     */
+    interface Callback {
+        void onResponse(BranchRemoteInterface.BranchResponse response);
+
+        /**
+         * @param exception The failure, with one of the {@link io.branch.referral.BranchError} codes
+         *                  {@link BranchRemoteInterface#doRestfulPost(String, JSONObject)} may throw.
+         */
+        void onFailure(BranchRemoteInterface.BranchRemoteException exception);
+    }
+
+    /**
+     * A request that has been handed to the transport.
+     */
+    interface Call {
+        /**
+         * Abandons the request. The callback is not invoked after this returns, and the transport
+         * should free whatever the request holds. Does nothing once the call has completed.
+         */
+        void cancel();
+
+        /**
+         * @return True once the result has been delivered or the call was cancelled.
+         */
+        boolean isDone();
+    }
+}
@@ -0,0 +1,168 @@
+package io.branch.referral.network;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import io.branch.referral.Defines;
+
+/**
+ * <p>
+ * gzip encoding of request bodies, decoding of compressed responses, and a tally of the bytes this
+ * saves on the wire for each {@link Defines.RequestPath}.
+ * </p>
+ */
+public class BranchCompression {
+    static final String ENCODING_GZIP = "gzip";
+    static final String ENCODING_DEFLATE = "deflate";
+    static final String ACCEPT_ENCODING = ENCODING_GZIP + ", " + ENCODING_DEFLATE;
+
+    private static final Map<Defines.RequestPath, AtomicLong> bytesSaved_ = new ConcurrentHashMap<>();
+
+    private BranchCompression() {
+    }
+
+    /**
+     * Serializes {@code json} straight into the compressor, the uncompressed body is never held
+     * in memory as a whole.
+     *
+     * @param length The UTF-8 length of {@code json}, to size the buffer.
+     */
+    static byte[] gzip(JSONObject json, long length) throws IOException, JSONException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) Math.max(64, length / 4));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(buffer), "UTF-8"));
+        try {
+            BranchJsonWriter.write(json, writer);
+        } finally {
+            writer.close();
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * @param contentEncoding The {@code Content-Encoding} of the response, or null.
+     * @return A stream of the decoded response body. Unknown encodings are passed through as is.
+     */
+    static InputStream decode(InputStream in, String contentEncoding) throws IOException {
+        if (in == null || contentEncoding == null) {
+            return in;
+        }
+        String encoding = contentEncoding.trim();
+        if (ENCODING_GZIP.equalsIgnoreCase(encoding)) {
+            return new GZIPInputStream(in);
+        }
+        if (ENCODING_DEFLATE.equalsIgnoreCase(encoding)) {
+            return new InflaterInputStream(in, new Inflater());
+        }
+        return in;
+    }
+
+    /**
+     * Adds the difference between the decoded and the on the wire size of a request or response
+     * body to the tally of {@code path}. Paths outside the Branch API are ignored.
+     */
+    static void recordSaving(Defines.RequestPath path, long decodedBytes, long wireBytes) {
+        if (path == null || decodedBytes == wireBytes) {
+            return;
+        }
+        AtomicLong saved = bytesSaved_.get(path);
+        if (saved == null) {
+            AtomicLong created = new AtomicLong();
+            saved = bytesSaved_.putIfAbsent(path, created);
+            if (saved == null) {
+                saved = created;
+            }
+        }
+        saved.addAndGet(decodedBytes - wireBytes);
+    }
+
+    /**
+     * @return The bytes saved by compression since the app started, by API path. Paths that never
+     * sent or received a compressed body are absent.
+     */
+    public static Map<Defines.RequestPath, Long> getBytesSaved() {
+        Map<Defines.RequestPath, Long> result = new EnumMap<>(Defines.RequestPath.class);
+        for (Map.Entry<Defines.RequestPath, AtomicLong> entry : bytesSaved_.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    static void resetBytesSaved() {
+        bytesSaved_.clear();
+    }
+
+    /**
+     * @return The API path {@code url} is a request to, or null if it is not a Branch API url.
+     */
+    static Defines.RequestPath resolvePath(String url) {
+        if (url == null) {
+            return null;
+        }
+        int queryStart = url.indexOf('?');
+        String path = queryStart < 0 ? url : url.substring(0, queryStart);
+        Defines.RequestPath match = null;
+        for (Defines.RequestPath candidate : Defines.RequestPath.values()) {
+            // The longest match, so that v2/event/standard is not taken for a shorter path
+            if (path.endsWith(candidate.getPath()) && (match == null || candidate.getPath().length() > match.getPath().length())) {
+                match = candidate;
+            }
+        }
+        return match;
+    }
+
+    /**
+     * Counts the bytes read through it, to measure a body on the wire.
+     */
+    static class CountingInputStream extends FilterInputStream {
+        private long count_;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count_;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count_++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count_ += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count_ += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package io.branch.referral.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import io.branch.referral.BranchLogger;
+
+/**
+ * <p>
+ * Keeps connections to the Branch API alive across requests, and measures what each request
+ * spends connecting.
+ * </p>
+ * <p>
+ * {@link HttpURLConnection} returns a socket to the platform's connection pool once the response
+ * body has been read to the end and closed, but {@link HttpURLConnection#disconnect()} may close
+ * the socket instead. Connections are therefore released with {@link #release(HttpURLConnection)},
+ * and only disconnected when a request fails part way. {@link #prewarm(String, int)} connects ahead
+ * of the first request without sending anything, so that the DNS lookup is cached and the first
+ * request resumes the TLS session instead of doing a full handshake.
+ * </p>
+ */
+public class BranchConnectionManager {
+    private static BranchConnectionManager instance_;
+
+    // Set on the requesting thread when a new TLS connection is layered over a fresh socket
+    private final ThreadLocal<Long> tlsStartedAt_ = new ThreadLocal<>();
+    // Wraps the factory connections were last opened with, see openConnection
+    private volatile TimingSSLSocketFactory sslSocketFactory_;
+
+    public static synchronized BranchConnectionManager getInstance() {
+        if (instance_ == null) {
+            instance_ = new BranchConnectionManager();
+        }
+        return instance_;
+    }
+
+    BranchConnectionManager() {
+    }
+
+    /**
+     * Opens a connection that shares the connection pool of every other connection opened here.
+     */
+    HttpURLConnection openConnection(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if (connection instanceof HttpsURLConnection) {
+            HttpsURLConnection httpsConnection = (HttpsURLConnection) connection;
+            httpsConnection.setSSLSocketFactory(timingFactoryFor(httpsConnection.getSSLSocketFactory()));
+        }
+        return connection;
+    }
+
+    /**
+     * <p>Wraps the factory a new connection comes with, which is whatever the app last set with
+     * {@link HttpsURLConnection#setDefaultSSLSocketFactory(SSLSocketFactory)}, so that certificate
+     * pinning or a custom trust store set after start up still applies.</p>
+     * <p>The wrapper is reused for as long as the factory stays the same, a different factory
+     * instance would keep the socket out of the pool.</p>
+     */
+    private SSLSocketFactory timingFactoryFor(SSLSocketFactory factory) {
+        if (factory instanceof TimingSSLSocketFactory) {
+            return factory;
+        }
+        TimingSSLSocketFactory timingFactory = sslSocketFactory_;
+        if (timingFactory == null || timingFactory.delegate_ != factory) {
+            timingFactory = new TimingSSLSocketFactory(factory);
+            sslSocketFactory_ = timingFactory;
+        }
+        return timingFactory;
+    }
+
+    /**
+     * Connects, either over a pooled connection or a new one, and records how long it took.
+     *
+     * @return The timings of the request, to be completed with {@link ConnectionTimings#onFirstByte()}.
+     */
+    ConnectionTimings connect(HttpURLConnection connection) throws IOException {
+        tlsStartedAt_.remove();
+        long start = System.nanoTime();
+        connection.connect();
+        long connected = System.nanoTime();
+        Long tlsStartedAt = tlsStartedAt_.get();
+        tlsStartedAt_.remove();
+
+        ConnectionTimings timings = new ConnectionTimings();
+        timings.connectedAt_ = connected;
+        if (tlsStartedAt != null) {
+            timings.connectMs_ = toMs(tlsStartedAt - start);
+            timings.tlsMs_ = toMs(connected - tlsStartedAt);
+        } else {
+            timings.connectMs_ = toMs(connected - start);
+            timings.reused_ = connection instanceof HttpsURLConnection;
+        }
+        return timings;
+    }
+
+    /**
+     * Reads the unread response body and closes it, which hands the socket back to the pool. Use
+     * {@link HttpURLConnection#disconnect()} instead when the exchange did not complete.
+     */
+    void release(HttpURLConnection connection) {
+        try {
+            int responseCode = connection.getResponseCode();
+            drainAndClose(responseCode >= HttpURLConnection.HTTP_BAD_REQUEST ? connection.getErrorStream() : connection.getInputStream());
+        } catch (IOException e) {
+            BranchLogger.d("Could not release connection to the pool: " + e.getMessage());
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Reads a response body to the end and closes it, the pool only takes back sockets whose
+     * response was read to the end.
+     */
+    static void drainAndClose(InputStream stream) throws IOException {
+        if (stream == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[1024];
+            while (stream.read(buffer) != -1) {
+                // Discard
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * <p>Connects to {@code baseUrl}, which resolves the host and completes the TLS handshake, then
+     * closes the socket without sending a request. The first request still opens a new socket, but
+     * skips the DNS lookup and resumes the cached TLS session. Blocks, so call it off the main
+     * thread.</p>
+     *
+     * @param baseUrl          The API base url, eg. {@code https://api2.branch.io/}
+     * @param connectTimeoutMs The connect timeout requests use, see {@link io.branch.referral.PrefHelper#getConnectTimeout()}
+     */
+    public void prewarm(String baseUrl, int connectTimeoutMs) {
+        HttpURLConnection connection = null;
+        try {
+            connection = openConnection(new URL(baseUrl));
+            connection.setConnectTimeout(connectTimeoutMs);
+            ConnectionTimings timings = connect(connection);
+            BranchLogger.v("Pre-warmed connection to " + baseUrl + " " + timings);
+        } catch (Exception e) {
+            BranchLogger.d("Could not pre-warm connection to " + baseUrl + ": " + e.getMessage());
+        } finally {
+            // Nothing was sent, so there is no exchange to complete and the socket cannot be pooled
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static long toMs(long nanos) {
+        return Math.max(0, nanos / 1000000);
+    }
+
+    /**
+     * <p>Where a request to the Branch API spent its time before the response started arriving.</p>
+     */
+    public static class ConnectionTimings {
+        private long connectMs_;
+        private long tlsMs_;
+        private long ttfbMs_ = -1;
+        private boolean reused_;
+        private long connectedAt_;
+
+        /**
+         * Call when the response status line has been read.
+         */
+        void onFirstByte() {
+            ttfbMs_ = toMs(System.nanoTime() - connectedAt_);
+        }
+
+        /**
+         * @return Time spent on DNS and the TCP connect, 0 or close to it for a reused connection.
+         */
+        public long getConnectMs() {
+            return connectMs_;
+        }
+
+        /**
+         * @return Time spent on the TLS handshake, 0 for a reused or plain text connection.
+         */
+        public long getTlsMs() {
+            return tlsMs_;
+        }
+
+        /**
+         * @return Time from being connected to the first byte of the response, which includes
+         * sending the request. -1 if no response arrived.
+         */
+        public long getTtfbMs() {
+            return ttfbMs_;
+        }
+
+        /**
+         * @return True if the request went over a pooled TLS connection.
+         */
+        public boolean isReused() {
+            return reused_;
+        }
+
+        @Override
+        public String toString() {
+            return "connect: " + connectMs_ + "ms, tls: " + tlsMs_ + "ms, ttfb: " + ttfbMs_ + "ms, reused: " + reused_;
+        }
+    }
+
+    /**
+     * Notes when the platform layers TLS over a freshly connected socket, which it does on the
+     * requesting thread right before the handshake.
+     */
+    private class TimingSSLSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory delegate_;
+
+        TimingSSLSocketFactory(SSLSocketFactory delegate) {
+            delegate_ = delegate;
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            tlsStartedAt_.set(System.nanoTime());
+            return delegate_.createSocket(socket, host, port, autoClose);
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate_.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate_.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return delegate_.createSocket();
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            tlsStartedAt_.set(System.nanoTime());
+            return delegate_.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            tlsStartedAt_.set(System.nanoTime());
+            return delegate_.createSocket(host, port, localHost, localPort);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            tlsStartedAt_.set(System.nanoTime());
+            return delegate_.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            tlsStartedAt_.set(System.nanoTime());
+            return delegate_.createSocket(address, port, localAddress, localPort);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package io.branch.referral.network;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+
+/**
+ * <p>
+ * Writes a {@link JSONObject} tree as JSON text straight to a {@link Writer}, without building the
+ * whole document as a {@link String} first the way {@link JSONObject#toString()} does. Request
+ * bodies are streamed to the connection with it, and measured with {@link #utf8Length(JSONObject)}
+ * so that they can be sent with a fixed length.
+ * </p>
+ * <p>
+ * Numbers are formatted by {@link JSONObject#numberToString(Number)}, so the output parses back to
+ * the same values {@link JSONObject#toString()} would give.
+ * </p>
+ */
+class BranchJsonWriter {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private BranchJsonWriter() {
+    }
+
+    static void write(JSONObject json, Writer out) throws IOException, JSONException {
+        writeObject(json, out);
+    }
+
+    /**
+     * @return The number of bytes {@link #write(JSONObject, Writer)} produces for {@code json} when
+     * the writer encodes as UTF-8.
+     */
+    static long utf8Length(JSONObject json) throws IOException, JSONException {
+        Utf8CountingWriter counter = new Utf8CountingWriter();
+        writeObject(json, counter);
+        counter.close();
+        return counter.getCount();
+    }
+
+    private static void writeObject(JSONObject json, Writer out) throws IOException, JSONException {
+        out.write('{');
+        Iterator<String> keys = json.keys();
+        boolean first = true;
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            writeString(key, out);
+            out.write(':');
+            writeValue(json.opt(key), out);
+        }
+        out.write('}');
+    }
+
+    private static void writeArray(JSONArray array, Writer out) throws IOException, JSONException {
+        out.write('[');
+        for (int i = 0; i < array.length(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeValue(array.opt(i), out);
+        }
+        out.write(']');
+    }
+
+    private static void writeValue(Object value, Writer out) throws IOException, JSONException {
+        if (value == null || value == JSONObject.NULL) {
+            out.write("null");
+        } else if (value instanceof JSONObject) {
+            writeObject((JSONObject) value, out);
+        } else if (value instanceof JSONArray) {
+            writeArray((JSONArray) value, out);
+        } else if (value instanceof Boolean) {
+            out.write(value.toString());
+        } else if (value instanceof Number) {
+            out.write(JSONObject.numberToString((Number) value));
+        } else {
+            writeString(value.toString(), out);
+        }
+    }
+
+    private static void writeString(String value, Writer out) throws IOException {
+        out.write('"');
+        int length = value.length();
+        int runStart = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String escape = null;
+            switch (c) {
+                case '"':
+                    escape = "\\\"";
+                    break;
+                case '\\':
+                    escape = "\\\\";
+                    break;
+                case '\n':
+                    escape = "\\n";
+                    break;
+                case '\r':
+                    escape = "\\r";
+                    break;
+                case '\t':
+                    escape = "\\t";
+                    break;
+                case '\b':
+                    escape = "\\b";
+                    break;
+                case '\f':
+                    escape = "\\f";
+                    break;
+                default:
+                    // Control characters, line separators that break JavaScript, and surrogates
+                    // without their pair, which have no UTF-8 encoding of their own
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029 || isLoneSurrogate(value, i)) {
+                        escape = "";
+                    }
+            }
+            if (escape != null) {
+                out.write(value, runStart, i - runStart);
+                if (escape.isEmpty()) {
+                    out.write("\\u");
+                    out.write(HEX[(c >> 12) & 0xf]);
+                    out.write(HEX[(c >> 8) & 0xf]);
+                    out.write(HEX[(c >> 4) & 0xf]);
+                    out.write(HEX[c & 0xf]);
+                } else {
+                    out.write(escape);
+                }
+                runStart = i + 1;
+            }
+        }
+        out.write(value, runStart, length - runStart);
+        out.write('"');
+    }
+
+    private static boolean isLoneSurrogate(String value, int i) {
+        char c = value.charAt(i);
+        if (Character.isHighSurrogate(c)) {
+            return i + 1 >= value.length() || !Character.isLowSurrogate(value.charAt(i + 1));
+        }
+        if (Character.isLowSurrogate(c)) {
+            return i == 0 || !Character.isHighSurrogate(value.charAt(i - 1));
+        }
+        return false;
+    }
+
+    /**
+     * Counts the bytes the characters written to it take in UTF-8, without keeping them.
+     */
+    static class Utf8CountingWriter extends Writer {
+        private long count_;
+        private boolean pendingHighSurrogate_;
+
+        long getCount() {
+            return count_;
+        }
+
+        @Override
+        public void write(int c) {
+            count((char) c);
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                count(buffer[i]);
+            }
+        }
+
+        @Override
+        public void write(String value, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                count(value.charAt(i));
+            }
+        }
+
+        private void count(char c) {
+            if (pendingHighSurrogate_) {
+                pendingHighSurrogate_ = false;
+                if (Character.isLowSurrogate(c)) {
+                    count_ += 4;
+                    return;
+                }
+                // An encoder replaces an unpaired surrogate with a single '?'
+                count_ += 1;
+            }
+            if (Character.isHighSurrogate(c)) {
+                pendingHighSurrogate_ = true;
+            } else if (Character.isLowSurrogate(c) || c < 0x80) {
+                count_ += 1;
+            } else if (c < 0x800) {
+                count_ += 2;
+            } else {
+                count_ += 3;
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            if (pendingHighSurrogate_) {
+                pendingHighSurrogate_ = false;
+                count_ += 1;
+            }
+        }
+    }
+}
@@ -17,6 +17,7 @@ import io.branch.referral.BranchError;
 import io.branch.referral.BranchLogger;
 import io.branch.referral.Defines;
 import io.branch.referral.PrefHelper;
+import io.branch.referral.ServerRequestQueue;
 import io.branch.referral.ServerResponse;
 
 /**
@@ -89,11 +90,18 @@ public abstract class BranchRemoteInterface {
      * @return {@link ServerResponse} object representing the result of RESTful GET to Branch Server
      */
     public final ServerResponse make_restful_get(String url, JSONObject params, String tag, String branchKey) {
-        String modifiedUrl = url;
-        params = params != null ? params : new JSONObject();
-        if (addCommonParams(params, branchKey)) {
-            modifiedUrl += this.convertJSONtoString(params);
-        } else {
+        return make_restful_get(url, params, tag, branchKey, 0);
+    }
+
+    /**
+     * Same as {@link #make_restful_get(String, JSONObject, String, String)} for a request that is
+     * being re-attempted. The retry number is sent as the {@link #RETRY_NUMBER} query param.
+     *
+     * @param retryNumber The number of times this request has already been attempted
+     */
+    public final ServerResponse make_restful_get(String url, JSONObject params, String tag, String branchKey, int retryNumber) {
+        String modifiedUrl = prepareGetUrl(url, params, branchKey, retryNumber);
+        if (modifiedUrl == null) {
             return new ServerResponse(tag, BranchError.ERR_BRANCH_KEY_INVALID, "", "Invalid key");
         }
 
@@ -102,18 +110,36 @@ public abstract class BranchRemoteInterface {
 
         try {
             BranchResponse response = doRestfulGet(modifiedUrl);
+            addConnectionInstrumentation(tag, response);
             return processEntityForJSON(response, tag, response.requestId);
         } catch (BranchRemoteException branchError) {
             return new ServerResponse(tag, branchError.branchErrorCode, "", branchError.branchErrorMessage);
         } finally {
-            // Add total round trip time
-            if (Branch.getInstance() != null) {
-                int brttVal = (int) (System.currentTimeMillis() - reqStartTime);
-                Branch.getInstance().requestQueue_.addExtraInstrumentationData(tag + "-" + Defines.Jsonkey.Branch_Round_Trip_Time.getKey(), String.valueOf(brttVal));
-            }
+            addRoundTripTime(tag, reqStartTime);
         }
     }
 
+    /**
+     * Same as {@link #make_restful_get(String, JSONObject, String, String, int)}, but sent through
+     * {@code transport} without waiting for the response.
+     *
+     * @param transport  The transport to send the request with, see {@link #getAsyncTransport()}.
+     * @param deadlineMs Milliseconds from now after which the response is no longer wanted.
+     * @param callback   Receives the {@link ServerResponse}, on any thread, unless the returned call
+     *                   is cancelled first.
+     * @return The call, to cancel it.
+     */
+    public final BranchAsyncTransport.Call make_restful_get_async(String url, JSONObject params, final String tag, String branchKey, int retryNumber,
+                                                                  BranchAsyncTransport transport, long deadlineMs, ServerResponseCallback callback) {
+        String modifiedUrl = prepareGetUrl(url, params, branchKey, retryNumber);
+        if (modifiedUrl == null) {
+            callback.onResponse(new ServerResponse(tag, BranchError.ERR_BRANCH_KEY_INVALID, "", "Invalid key"));
+            return COMPLETED_CALL;
+        }
+        BranchLogger.v("getting " + modifiedUrl);
+        return transport.get(modifiedUrl, deadlineMs, new ResponseAdapter(tag, "", callback));
+    }
+
     /**
      * Method for handling the RESTful POST operations to Branch Servers. Internally calls abstract method {@link #doRestfulPost(String, JSONObject)}
      *
@@ -124,31 +150,117 @@ public abstract class BranchRemoteInterface {
      * @return {@link ServerResponse} object representing the result of RESTful POST to Branch Server
      */
     public final ServerResponse make_restful_post(JSONObject body, String url, String tag, String branchKey) {
+        return make_restful_post(body, url, tag, branchKey, 0);
+    }
+
+    /**
+     * Same as {@link #make_restful_post(JSONObject, String, String, String)} for a request that is
+     * being re-attempted. The retry number is sent as the {@link #RETRY_NUMBER} key of the body.
+     *
+     * @param retryNumber The number of times this request has already been attempted
+     */
+    public final ServerResponse make_restful_post(JSONObject body, String url, String tag, String branchKey, int retryNumber) {
         long reqStartTime = System.currentTimeMillis();
         body = body != null ? body : new JSONObject();
-
-        if (!addCommonParams(body, branchKey)) {
+        if (!preparePostBody(body, url, branchKey, retryNumber)) {
             return new ServerResponse(tag, BranchError.ERR_BRANCH_KEY_INVALID, "", "Failed to set common parameters, body: " + body + " key: " + branchKey);
         }
-        BranchLogger.v("posting to " + url);
-        BranchLogger.v("Post value = " + body.toString());
 
         try {
             BranchResponse response = doRestfulPost(url, body);
+            addConnectionInstrumentation(tag, response);
             return processEntityForJSON(response, tag, response.requestId);
         } catch (BranchRemoteException branchError) {
             return new ServerResponse(tag, branchError.branchErrorCode, "",  "Failed network request. " + branchError.branchErrorMessage);
         } finally {
-            if (Branch.getInstance() != null) {
-                int brttVal = (int) (System.currentTimeMillis() - reqStartTime);
-                Branch.getInstance().requestQueue_.addExtraInstrumentationData(tag + "-" + Defines.Jsonkey.Branch_Round_Trip_Time.getKey(), String.valueOf(brttVal));
-            }
+            addRoundTripTime(tag, reqStartTime);
+        }
+    }
+
+    /**
+     * Same as {@link #make_restful_post(JSONObject, String, String, String, int)}, but sent through
+     * {@code transport} without waiting for the response. See
+     * {@link #make_restful_get_async(String, JSONObject, String, String, int, BranchAsyncTransport, long, ServerResponseCallback)}.
+     */
+    public final BranchAsyncTransport.Call make_restful_post_async(JSONObject body, String url, final String tag, String branchKey, int retryNumber,
+                                                                   BranchAsyncTransport transport, long deadlineMs, ServerResponseCallback callback) {
+        body = body != null ? body : new JSONObject();
+        if (!preparePostBody(body, url, branchKey, retryNumber)) {
+            callback.onResponse(new ServerResponse(tag, BranchError.ERR_BRANCH_KEY_INVALID, "", "Failed to set common parameters, body: " + body + " key: " + branchKey));
+            return COMPLETED_CALL;
         }
+        return transport.post(url, body, deadlineMs, new ResponseAdapter(tag, "Failed network request. ", callback));
+    }
+
+    /**
+     * <p>
+     * Override to send requests without holding a thread for each one until its response arrives.
+     * The request queue then issues its requests through the returned transport instead of
+     * {@link #doRestfulGet(String)} and {@link #doRestfulPost(String, JSONObject)}.
+     * </p>
+     *
+     * @return The non blocking transport of this interface, or null (the default) to have the SDK
+     * call the blocking methods through a {@link BlockingTransportAdapter}.
+     */
+    @Nullable
+    public BranchAsyncTransport getAsyncTransport() {
+        return null;
     }
 
 
     //----------- private methods----------------------------//
 
+    // The url with the query params, or null if the common params could not be added
+    private String prepareGetUrl(String url, JSONObject params, String branchKey, int retryNumber) {
+        params = params != null ? params : new JSONObject();
+        try {
+            params.put(RETRY_NUMBER, retryNumber);
+        } catch (JSONException e) {
+            BranchLogger.w("Caught JSONException " + e.getMessage());
+        }
+        if (!addCommonParams(params, branchKey)) {
+            return null;
+        }
+        return url + this.convertJSONtoString(params);
+    }
+
+    private boolean preparePostBody(JSONObject body, String url, String branchKey, int retryNumber) {
+        try {
+            body.put(RETRY_NUMBER, retryNumber);
+        } catch (JSONException e) {
+            BranchLogger.w("Caught JSONException " + e.getMessage());
+        }
+
+        if (!addCommonParams(body, branchKey)) {
+            return false;
+        }
+        BranchLogger.v("posting to " + url);
+        if (isVerboseLogging()) {
+            // Only built when it is logged, it is the whole request body
+            BranchLogger.v("Post value = " + body.toString());
+        }
+        return true;
+    }
+
+    private static void addRoundTripTime(String tag, long reqStartTime) {
+        if (Branch.getInstance() != null) {
+            int brttVal = (int) (System.currentTimeMillis() - reqStartTime);
+            Branch.getInstance().requestQueue_.addExtraInstrumentationData(tag + "-" + Defines.Jsonkey.Branch_Round_Trip_Time.getKey(), String.valueOf(brttVal));
+        }
+    }
+
+    private void addConnectionInstrumentation(String tag, BranchResponse response) {
+        BranchConnectionManager.ConnectionTimings timings = response.timings;
+        if (timings == null || Branch.getInstance() == null) {
+            return;
+        }
+        BranchLogger.v(tag + " connection " + timings);
+        ServerRequestQueue queue = Branch.getInstance().requestQueue_;
+        queue.addExtraInstrumentationData(tag + "-" + Defines.Jsonkey.Branch_Connect_Time.getKey(), String.valueOf(timings.getConnectMs()));
+        queue.addExtraInstrumentationData(tag + "-" + Defines.Jsonkey.Branch_TLS_Time.getKey(), String.valueOf(timings.getTlsMs()));
+        queue.addExtraInstrumentationData(tag + "-" + Defines.Jsonkey.Branch_Time_To_First_Byte.getKey(), String.valueOf(timings.getTtfbMs()));
+    }
+
     /**
      * <p>Converts resultant output object from Branch Remote server into a {@link ServerResponse} object by
      * reading the content supplied in the raw server response, and creating a {@link JSONObject}
@@ -168,6 +280,14 @@ public abstract class BranchRemoteInterface {
         int statusCode = response.responseCode;
 
         ServerResponse result = new ServerResponse(tag, statusCode, requestId, "");
+        result.setRetryAfter(response.retryAfter);
+        if (response.responseBytes != null) {
+            BranchLogger.v("Server returned: [" + requestId + "] Status: [" + statusCode + "]; " + response.responseBytes.length + " bytes");
+            result.setBytes(response.responseBytes);
+            // An empty post, so the request does not mistake the binary response for a missing one
+            result.setPost(new JSONObject());
+            return result;
+        }
         if(!TextUtils.isEmpty(requestId)){
             BranchLogger.v(String.format(Locale.getDefault(), "Server returned: [%s] Status: [%d]; Data: %s", requestId, statusCode, responseString));
         } else {
@@ -176,32 +296,32 @@ public abstract class BranchRemoteInterface {
 
         if (responseString != null) {
             try {
-                JSONObject jsonObj = new JSONObject(responseString);
-                result.setPost(jsonObj);
+                result.setPost(BranchResponseReader.parseJson(responseString));
             } catch (JSONException ex) {
-                try {
-                    JSONArray jsonArray = new JSONArray(responseString);
-                    result.setPost(jsonArray);
-                } catch (JSONException ex2) {
-                    if (tag.contains(Defines.Jsonkey.QRCodeTag.getKey())) {
-                        try {
-                            JSONObject jsonObj = new JSONObject();
-                            jsonObj.put(Defines.Jsonkey.QRCodeResponseString.getKey(), responseString);
-                            result.setPost(jsonObj);
-                        } catch (JSONException e) {
-                            BranchLogger.w("Caught JSONException " + e.getMessage());
-                        }
-                    } else {
-                        BranchLogger.w("Caught JSONException " + ex2.getMessage());
+                if (tag.contains(Defines.Jsonkey.QRCodeTag.getKey())) {
+                    try {
+                        JSONObject jsonObj = new JSONObject();
+                        jsonObj.put(Defines.Jsonkey.QRCodeResponseString.getKey(), responseString);
+                        result.setPost(jsonObj);
+                    } catch (JSONException e) {
+                        BranchLogger.w("Caught JSONException " + e.getMessage());
                     }
+                } else {
+                    BranchLogger.w("Caught JSONException " + ex.getMessage());
                 }
             }
         }
         return result;
     }
 
+    private static boolean isVerboseLogging() {
+        return BranchLogger.getLoggingEnabled() && BranchLogger.getLoggingLevel().getLevel() >= BranchLogger.BranchLogLevel.VERBOSE.getLevel();
+    }
+
     private boolean addCommonParams(JSONObject post, String branch_key) {
-        BranchLogger.v("addCommonParams post: " + post + " key: " + branch_key);
+        if (isVerboseLogging()) {
+            BranchLogger.v("addCommonParams post: " + post + " key: " + branch_key);
+        }
         try {
             if (!post.has(Defines.Jsonkey.UserData.getKey())) { // user data already has the sdk in it as part of v2 request
                 post.put(Defines.Jsonkey.SDK.getKey(), "android" + Branch.getSdkVersionNumber());
@@ -251,6 +371,54 @@ public abstract class BranchRemoteInterface {
 
     //-------------- Supporting classes -----------------------//
 
+    /**
+     * Receives the result of a request sent with
+     * {@link #make_restful_post_async(JSONObject, String, String, String, int, BranchAsyncTransport, long, ServerResponseCallback)}
+     * or {@link #make_restful_get_async(String, JSONObject, String, String, int, BranchAsyncTransport, long, ServerResponseCallback)}.
+     */
+    public interface ServerResponseCallback {
+        void onResponse(ServerResponse response);
+    }
+
+    // Returned for requests that completed before reaching the transport
+    private static final BranchAsyncTransport.Call COMPLETED_CALL = new BranchAsyncTransport.Call() {
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public boolean isDone() {
+            return true;
+        }
+    };
+
+    // Turns the transport's result into a ServerResponse, as the blocking make_restful_* methods do
+    private class ResponseAdapter implements BranchAsyncTransport.Callback {
+        private final String tag_;
+        private final String failurePrefix_;
+        private final ServerResponseCallback callback_;
+        private final long reqStartTime_ = System.currentTimeMillis();
+
+        ResponseAdapter(String tag, String failurePrefix, ServerResponseCallback callback) {
+            tag_ = tag;
+            failurePrefix_ = failurePrefix;
+            callback_ = callback;
+        }
+
+        @Override
+        public void onResponse(BranchResponse response) {
+            addRoundTripTime(tag_, reqStartTime_);
+            addConnectionInstrumentation(tag_, response);
+            callback_.onResponse(processEntityForJSON(response, tag_, response.requestId));
+        }
+
+        @Override
+        public void onFailure(BranchRemoteException exception) {
+            addRoundTripTime(tag_, reqStartTime_);
+            callback_.onResponse(new ServerResponse(tag_, exception.branchErrorCode, "", failurePrefix_ + exception.branchErrorMessage));
+        }
+    }
+
     /**
      * <p>
      * Class for providing result of RESTful operation against Branch Remote server
@@ -259,7 +427,11 @@ public abstract class BranchRemoteInterface {
     public static class BranchResponse {
         private final String responseData;
         private final int responseCode;
+        private byte[] responseBytes;
         String requestId;
+        String retryAfter;
+        // Set by network layers that can measure them, see BranchConnectionManager
+        BranchConnectionManager.ConnectionTimings timings;
 
         /**
          * Creates a BranchResponse object with response data and status code
@@ -271,6 +443,36 @@ public abstract class BranchRemoteInterface {
             this.responseData = responseData;
             this.responseCode = responseCode;
         }
+
+        /**
+         * Sets the value of the response's {@code Retry-After} header, either a number of seconds
+         * or an HTTP date. Custom network layers should set this on 429 and 503 responses.
+         *
+         * @param retryAfter The {@code Retry-After} header, or null if the response has none.
+         */
+        public void setRetryAfter(@Nullable String retryAfter) {
+            this.retryAfter = retryAfter;
+        }
+
+        public int getResponseCode() {
+            return responseCode;
+        }
+
+        /**
+         * Sets the raw body of a binary response, such as the image of a QR code. Network layers
+         * that set it hand the bytes through as the server sent them, instead of Base64 encoding
+         * them into the response data.
+         *
+         * @param responseBytes The body of the response, or null if it is not binary.
+         */
+        public void setResponseBytes(@Nullable byte[] responseBytes) {
+            this.responseBytes = responseBytes;
+        }
+
+        @Nullable
+        public byte[] getResponseBytes() {
+            return responseBytes;
+        }
     }
 
     /**
@@ -295,6 +497,10 @@ public abstract class BranchRemoteInterface {
             branchErrorCode = errorCode;
             branchErrorMessage = errorMessage;
         }
+
+        public int getBranchErrorCode() {
+            return branchErrorCode;
+        }
     }
 
 }
@@ -0,0 +1,299 @@
+package io.branch.referral.network;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.branch.referral.Branch;
+import io.branch.referral.BranchError;
+import io.branch.referral.BranchLogger;
+import io.branch.referral.Defines;
+import io.branch.referral.PrefHelper;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+
+/**
+ * <p>
+ * {@link BranchRemoteInterface} over an {@link OkHttpClient} supplied by the app, see
+ * {@link Branch#setHttp2Client(Object)}. Requests share the app's connection pool, so all Branch
+ * calls to the API are multiplexed over one HTTP/2 connection where the server offers it, instead
+ * of each opening an HTTP/1.1 socket of its own.
+ * </p>
+ * <p>
+ * OkHttp is an optional dependency of the SDK. Only load this class once
+ * {@code classExists(okHttpClientClass)} says it is present.
+ * </p>
+ */
+public class BranchRemoteInterfaceOkHttp extends BranchRemoteInterface {
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    // What the default network layer sends the QR code settings as
+    private static final MediaType QR_CODE_SETTINGS = MediaType.get("application/x-www-form-urlencoded");
+
+    private final OkHttpClient hostClient_;
+    @Nullable
+    private final PrefHelper prefHelper_;
+    private final AsyncTransport asyncTransport_ = new AsyncTransport();
+
+    // The host client with the SDK's timeouts, rebuilt when they change
+    private OkHttpClient client_;
+    private int clientConnectTimeout_ = -1;
+    private int clientReadTimeout_ = -1;
+
+    public BranchRemoteInterfaceOkHttp(@NonNull Branch branch, @NonNull OkHttpClient client) {
+        this(client, PrefHelper.getInstance(branch.getApplicationContext()));
+    }
+
+    /**
+     * @return A remote interface over {@code client}, or null if it is not an {@link OkHttpClient}.
+     */
+    @Nullable
+    public static BranchRemoteInterfaceOkHttp wrap(@NonNull Branch branch, @NonNull Object client) {
+        return client instanceof OkHttpClient ? new BranchRemoteInterfaceOkHttp(branch, (OkHttpClient) client) : null;
+    }
+
+    BranchRemoteInterfaceOkHttp(@NonNull OkHttpClient client, @Nullable PrefHelper prefHelper) {
+        hostClient_ = client;
+        prefHelper_ = prefHelper;
+    }
+
+    @Override
+    public BranchResponse doRestfulGet(String url) throws BranchRemoteException {
+        Request request = new Request.Builder().url(url).get().build();
+        return execute(getClient().newCall(request), url);
+    }
+
+    @Override
+    public BranchResponse doRestfulPost(String url, JSONObject payload) throws BranchRemoteException {
+        return execute(getClient().newCall(buildPost(url, payload)), url);
+    }
+
+    @Override
+    public BranchAsyncTransport getAsyncTransport() {
+        return asyncTransport_;
+    }
+
+    private BranchResponse execute(okhttp3.Call call, String url) throws BranchRemoteException {
+        try (Response response = call.execute()) {
+            return toBranchResponse(response);
+        } catch (IOException e) {
+            throw toRemoteException(e, url);
+        }
+    }
+
+    private Request buildPost(String url, JSONObject payload) throws BranchRemoteException {
+        try {
+            long length = BranchJsonWriter.utf8Length(payload);
+            Request.Builder builder = new Request.Builder().url(url);
+            if (isQRCodeRequest(url)) {
+                // The QR code endpoint takes its settings uncompressed and answers with an image
+                return builder.header("Accept", "image/*").post(new JsonRequestBody(payload, length, QR_CODE_SETTINGS)).build();
+            }
+            int threshold = prefHelper_ != null ? prefHelper_.getRequestCompressionThreshold() : -1;
+            if (threshold >= 0 && length >= threshold) {
+                byte[] compressed = BranchCompression.gzip(payload, length);
+                BranchCompression.recordSaving(BranchCompression.resolvePath(url), length, compressed.length);
+                builder.header("Content-Encoding", BranchCompression.ENCODING_GZIP).post(RequestBody.create(compressed, JSON));
+            } else {
+                builder.post(new JsonRequestBody(payload, length, JSON));
+            }
+            return builder.build();
+        } catch (IOException | JSONException e) {
+            throw new BranchRemoteException(BranchError.ERR_OTHER, "Could not serialize request body: " + e.getMessage());
+        }
+    }
+
+    private BranchResponse toBranchResponse(Response response) throws IOException {
+        ResponseBody body = response.body();
+        // OkHttp has already decoded a gzip response
+        BranchResponse result;
+        if (response.isSuccessful() && body != null && isQRCodeRequest(response.request().url().toString())) {
+            // The image is handed through as the server sent it
+            result = new BranchResponse(null, response.code());
+            result.setResponseBytes(body.bytes());
+        } else {
+            result = new BranchResponse(body != null ? BranchResponseReader.readUtf8(body.byteStream(), body.contentLength()) : null, response.code());
+        }
+        result.requestId = response.header(Defines.HeaderKey.RequestId.getKey());
+        result.retryAfter = response.header(Defines.HeaderKey.RetryAfter.getKey());
+        BranchLogger.v("Branch Networking " + response.protocol() + " " + response.code() + " " + response.request().url());
+        return result;
+    }
+
+    private static BranchRemoteException toRemoteException(IOException e, String url) {
+        BranchLogger.e("Branch Networking Error: \nURL: " + url + "\nException: " + e);
+        if (e instanceof SocketTimeoutException) {
+            return new BranchRemoteException(BranchError.ERR_BRANCH_REQ_TIMED_OUT, e.getMessage());
+        }
+        if (e instanceof InterruptedIOException) {
+            // The call timeout, ie. the deadline of the request, or a cancellation
+            return new BranchRemoteException(BranchError.ERR_BRANCH_TASK_TIMEOUT, e.getMessage());
+        }
+        return new BranchRemoteException(BranchError.ERR_BRANCH_NO_CONNECTIVITY, e.getMessage());
+    }
+
+    private static boolean isQRCodeRequest(String url) {
+        return url.contains(Defines.Jsonkey.QRCodeTag.getKey());
+    }
+
+    /**
+     * The host client with the SDK's timeouts. A derived client shares the host's connection pool
+     * and dispatcher, which is what lets requests be multiplexed over the app's connections.
+     */
+    private synchronized OkHttpClient getClient() {
+        if (prefHelper_ == null) {
+            return hostClient_;
+        }
+        int connectTimeout = prefHelper_.getConnectTimeout();
+        int readTimeout = prefHelper_.getTimeout();
+        if (client_ == null || connectTimeout != clientConnectTimeout_ || readTimeout != clientReadTimeout_) {
+            client_ = hostClient_.newBuilder()
+                    .connectTimeout(connectTimeout, TimeUnit.MILLISECONDS)
+                    .readTimeout(readTimeout, TimeUnit.MILLISECONDS)
+                    .build();
+            clientConnectTimeout_ = connectTimeout;
+            clientReadTimeout_ = readTimeout;
+        }
+        return client_;
+    }
+
+    /**
+     * Streams the JSON payload into OkHttp's sink, see {@link BranchJsonWriter}.
+     */
+    private static class JsonRequestBody extends RequestBody {
+        private final JSONObject payload_;
+        private final long length_;
+        private final MediaType contentType_;
+
+        JsonRequestBody(JSONObject payload, long length, MediaType contentType) {
+            payload_ = payload;
+            length_ = length;
+            contentType_ = contentType;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return contentType_;
+        }
+
+        @Override
+        public long contentLength() {
+            return length_;
+        }
+
+        @Override
+        public void writeTo(@NonNull BufferedSink sink) throws IOException {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(sink.outputStream(), "UTF-8"));
+            try {
+                BranchJsonWriter.write(payload_, writer);
+            } catch (JSONException e) {
+                throw new IOException(e.getMessage());
+            }
+            // Flushes into the sink, which OkHttp closes itself
+            writer.flush();
+        }
+    }
+
+    /**
+     * Enqueues calls on the client's dispatcher, so the request queue's workers are not held
+     * while they are in flight.
+     */
+    private class AsyncTransport implements BranchAsyncTransport {
+        @Override
+        public Call get(String url, long deadlineMs, Callback callback) {
+            return enqueue(new Request.Builder().url(url).get().build(), url, deadlineMs, callback);
+        }
+
+        @Override
+        public Call post(String url, JSONObject payload, long deadlineMs, Callback callback) {
+            Request request;
+            try {
+                request = buildPost(url, payload);
+            } catch (BranchRemoteException e) {
+                EnqueuedCall failed = new EnqueuedCall(null, callback);
+                failed.fail(e);
+                return failed;
+            }
+            return enqueue(request, url, deadlineMs, callback);
+        }
+
+        private Call enqueue(Request request, final String url, long deadlineMs, Callback callback) {
+            okhttp3.Call call = getClient().newCall(request);
+            if (deadlineMs > 0) {
+                call.timeout().timeout(deadlineMs, TimeUnit.MILLISECONDS);
+            }
+            final EnqueuedCall enqueued = new EnqueuedCall(call, callback);
+            call.enqueue(new okhttp3.Callback() {
+                @Override
+                public void onFailure(@NonNull okhttp3.Call call, @NonNull IOException e) {
+                    enqueued.fail(toRemoteException(e, url));
+                }
+
+                @Override
+                public void onResponse(@NonNull okhttp3.Call call, @NonNull Response response) {
+                    BranchResponse result;
+                    try (Response closing = response) {
+                        result = toBranchResponse(closing);
+                    } catch (IOException e) {
+                        enqueued.fail(toRemoteException(e, url));
+                        return;
+                    }
+                    enqueued.succeed(result);
+                }
+            });
+            return enqueued;
+        }
+    }
+
+    private static class EnqueuedCall implements BranchAsyncTransport.Call {
+        // Null for a call that failed before it was enqueued
+        @Nullable
+        private final okhttp3.Call call_;
+        private final BranchAsyncTransport.Callback callback_;
+        private final AtomicBoolean done_ = new AtomicBoolean(false);
+
+        EnqueuedCall(@Nullable okhttp3.Call call, BranchAsyncTransport.Callback callback) {
+            call_ = call;
+            callback_ = callback;
+        }
+
+        void succeed(BranchResponse response) {
+            if (done_.compareAndSet(false, true)) {
+                callback_.onResponse(response);
+            }
+        }
+
+        void fail(BranchRemoteException exception) {
+            if (done_.compareAndSet(false, true)) {
+                callback_.onFailure(exception);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (done_.compareAndSet(false, true) && call_ != null) {
+                call_.cancel();
+            }
+        }
+
+        @Override
+        public boolean isDone() {
+            return done_.get();
+        }
+    }
+}
@@ -1,33 +1,29 @@
 package io.branch.referral.network;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.TrafficStats;
 import android.os.NetworkOnMainThreadException;
-import android.util.Base64;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 
 import com.google.android.gms.common.util.Strings;
 
-import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 
-import javax.net.ssl.HttpsURLConnection;
-
 import io.branch.referral.Branch;
 import io.branch.referral.BranchError;
 import io.branch.referral.BranchLogger;
@@ -41,154 +37,135 @@ import io.branch.referral.PrefHelper;
  */
 public class BranchRemoteInterfaceUrlConnection extends BranchRemoteInterface {
     private static final int THREAD_TAG_POST = 102;
+    private static final int BODY_BUFFER_SIZE = 8192;
 
     private @NonNull
     final Branch branch;
 
+    private final BranchConnectionManager connectionManager = BranchConnectionManager.getInstance();
+
     public BranchRemoteInterfaceUrlConnection(@NonNull Branch branch) {
         this.branch = branch;
         this.prefHelper = PrefHelper.getInstance(branch.getApplicationContext());
-        this.retryLimit = prefHelper.getRetryCount();
     }
 
-    private int lastResponseCode = -1;
-    private String lastResponseMessage = "";
-    private String lastRequestId = "";
     private PrefHelper prefHelper;
-    private int retryLimit;
 
-    @Override
-    public BranchResponse doRestfulGet(String url) throws BranchRemoteException {
-        return doRestfulGet(url, 0);
+    // What is known of the response to a single call, for its log messages. Calls run concurrently
+    // in the request queue's lanes, so each has its own
+    private static class CallStats {
+        int responseCode = -1;
+        String responseMessage = "";
+        String requestId = "";
     }
 
+    // Each call makes a single attempt. Failed requests are retried by the request queue, which
+    // schedules the retry on a timer rather than holding this thread, and sends the retry number
+    // as BranchRemoteInterface.RETRY_NUMBER.
+    ///-------------- RESTful GET / POST using HttpURLConnection ---------------//
     @Override
-    public BranchResponse doRestfulPost(String url, JSONObject payload) throws BranchRemoteException {
-        return doRestfulPost(url, payload, 0);
-    }
-
-
-    ///-------------- private methods to implement RESTful GET / POST using HttpURLConnection ---------------//
-    private BranchResponse doRestfulGet(String url, int retryNumber) throws BranchRemoteException {
-        HttpsURLConnection connection = null;
+    public BranchResponse doRestfulGet(String url) throws BranchRemoteException {
+        HttpURLConnection connection = null;
+        boolean completed = false;
         PrefHelper prefHelper = PrefHelper.getInstance(branch.getApplicationContext());
+        int retryNumber = getRetryNumber(url);
+        CallStats stats = new CallStats();
         try {
-            int timeout = prefHelper.getTimeout();
+            int timeout = getReadTimeout(BranchCompression.resolvePath(url), prefHelper);
             int connectTimeout = prefHelper.getConnectTimeout();
-            String appendKey = url.contains("?") ? "&" : "?";
-            String modifiedUrl = url + appendKey + RETRY_NUMBER + "=" + retryNumber;
-            URL urlObject = new URL(modifiedUrl);
-            connection = (HttpsURLConnection) urlObject.openConnection();
+            URL urlObject = new URL(url);
+            connection = connectionManager.openConnection(urlObject);
             connection.setConnectTimeout(connectTimeout);
             connection.setReadTimeout(timeout);
+            connection.setRequestProperty("Accept-Encoding", BranchCompression.ACCEPT_ENCODING);
+            BranchConnectionManager.ConnectionTimings timings = connectionManager.connect(connection);
 
             String requestId = connection.getHeaderField(Defines.HeaderKey.RequestId.getKey());
+            timings.onFirstByte();
 
             int responseCode = connection.getResponseCode();
-            if (responseCode >= 500 && retryNumber < retryLimit) {
-                try {
-                    Thread.sleep(prefHelper.getRetryInterval());
+            Defines.RequestPath path = BranchCompression.resolvePath(url);
+            BranchResponse result;
+            try {
+                if (responseCode != HttpURLConnection.HTTP_OK && connection.getErrorStream() != null) {
+                    result = new BranchResponse(getResponseString(connection, connection.getErrorStream(), path), responseCode);
                 }
-                catch (InterruptedException e) {
-                    BranchLogger.e(getNetworkErrorMessage(e, url, retryNumber));
+                else {
+                    result = new BranchResponse(getResponseString(connection, connection.getInputStream(), path), responseCode);
                 }
-                retryNumber++;
-                return doRestfulGet(url, retryNumber);
             }
-            else {
-                BranchResponse result;
-                try {
-                    if (responseCode != HttpsURLConnection.HTTP_OK && connection.getErrorStream() != null) {
-                        result = new BranchResponse(getResponseString(connection.getErrorStream()), responseCode);
-                    }
-                    else {
-                        result = new BranchResponse(getResponseString(connection.getInputStream()), responseCode);
-                    }
-                }
-                catch (FileNotFoundException ex) {
-                    // In case of Resource conflict getInputStream will throw FileNotFoundException. Handle it here in order to send the right status code
-                    BranchLogger.e(getNetworkErrorMessage(ex, url, retryNumber));
-                    result = new BranchResponse(null, responseCode);
-                }
-                result.requestId = Strings.emptyToNull(requestId);
-                return result;
+            catch (FileNotFoundException ex) {
+                // In case of Resource conflict getInputStream will throw FileNotFoundException. Handle it here in order to send the right status code
+                BranchLogger.e(getNetworkErrorMessage(ex, url, retryNumber, stats));
+                result = new BranchResponse(null, responseCode);
+                connectionManager.release(connection);
             }
+            result.requestId = Strings.emptyToNull(requestId);
+            result.retryAfter = connection.getHeaderField(Defines.HeaderKey.RetryAfter.getKey());
+            result.timings = timings;
+            completed = true;
+            return result;
         }
         catch (SocketException ex) {
-            BranchLogger.e(getNetworkErrorMessage(ex, url, retryNumber));
+            BranchLogger.e(getNetworkErrorMessage(ex, url, retryNumber, stats));
             throw new BranchRemoteException(BranchError.ERR_BRANCH_NO_CONNECTIVITY, ex.getMessage());
         }
         catch (SocketTimeoutException ex) {
-            // On socket  time out retry the request for retryNumber of times
-            if (retryNumber < retryLimit) {
-                try {
-                    Thread.sleep(prefHelper.getRetryInterval());
-                }
-                catch (InterruptedException e) {
-                    BranchLogger.e(getNetworkErrorMessage(e, url, retryNumber));
-                }
-                retryNumber++;
-                return doRestfulGet(url, retryNumber);
-            }
-            else {
-                throw new BranchRemoteException(BranchError.ERR_BRANCH_REQ_TIMED_OUT, ex.getMessage());
-            }
+            BranchLogger.e(getNetworkErrorMessage(ex, url, retryNumber, stats));
+            throw new BranchRemoteException(BranchError.ERR_BRANCH_REQ_TIMED_OUT, ex.getMessage());
         }
         catch (InterruptedIOException ex) {
-            BranchLogger.e(getNetworkErrorMessage(ex, url, retryNumber));
             // When the thread times out before or while sending the request
-            if (retryNumber < retryLimit) {
-                try {
-                    Thread.sleep(prefHelper.getRetryInterval());
-                }
-                catch (InterruptedException e) {
-                    BranchLogger.e(getNetworkErrorMessage(e, url, retryNumber));
-                }
-                retryNumber++;
-                return doRestfulGet(url, retryNumber);
-            }
-            else {
-                throw new BranchRemoteException(BranchError.ERR_BRANCH_TASK_TIMEOUT, ex.getMessage());
-            }
+            BranchLogger.e(getNetworkErrorMessage(ex, url, retryNumber, stats));
+            throw new BranchRemoteException(BranchError.ERR_BRANCH_TASK_TIMEOUT, ex.getMessage());
         }
         catch (IOException ex) {
-            BranchLogger.e(getNetworkErrorMessage(ex, url, retryNumber));
+            BranchLogger.e(getNetworkErrorMessage(ex, url, retryNumber, stats));
             throw new BranchRemoteException(BranchError.ERR_BRANCH_NO_CONNECTIVITY, ex.getMessage());
         }
         finally {
             if (connection != null) {
-                connection.disconnect();
-                resetStats();
+                // A completed exchange has handed its socket back to the pool, only tear down the rest
+                if (!completed) {
+                    connection.disconnect();
+                }
             }
         }
     }
 
-
-    private BranchResponse doRestfulPost(String url, JSONObject payload, int retryNumber) throws BranchRemoteException {
-        HttpsURLConnection connection = null;
+    @Override
+    public BranchResponse doRestfulPost(String url, JSONObject payload) throws BranchRemoteException {
+        HttpURLConnection connection = null;
+        boolean completed = false;
         PrefHelper prefHelper = PrefHelper.getInstance(branch.getApplicationContext());
-        int timeout = prefHelper.getTimeout();
         int connectTimeout = prefHelper.getConnectTimeout();
+        int retryNumber = payload.optInt(RETRY_NUMBER);
+        CallStats stats = new CallStats();
 
-        try {
-            payload.put(RETRY_NUMBER, retryNumber);
-        }
-        catch (JSONException e) {
-            BranchLogger.e("Caught JSONException, retry number: " + retryNumber + " " + e.getMessage() + " stacktrace: " + BranchLogger.stackTraceToString(e));
-        }
         try {
             // set the setThreadStatsTag for POST if API 26+
             if (android.os.Build.VERSION.SDK_INT >= 26) {
                 TrafficStats.setThreadStatsTag(THREAD_TAG_POST);
             }
 
+            Defines.RequestPath path = BranchCompression.resolvePath(url);
+            int timeout = getReadTimeout(path, prefHelper);
+            boolean isQRCodeRequest = url.contains(Defines.Jsonkey.QRCodeTag.getKey());
+            // Measured rather than serialized, so the body can be streamed with a fixed length
+            long bodyLength = BranchJsonWriter.utf8Length(payload);
+            byte[] compressedBody = null;
+            if (!isQRCodeRequest && shouldCompress(bodyLength, prefHelper.getRequestCompressionThreshold())) {
+                compressedBody = BranchCompression.gzip(payload, bodyLength);
+                BranchCompression.recordSaving(path, bodyLength, compressedBody.length);
+            }
+
             URL urlObject = new URL(url);
-            connection = (HttpsURLConnection) urlObject.openConnection();
+            connection = connectionManager.openConnection(urlObject);
             connection.setConnectTimeout(connectTimeout);
             connection.setReadTimeout(timeout);
             connection.setDoInput(true);
             connection.setDoOutput(true);
-            if (url.contains(Defines.Jsonkey.QRCodeTag.getKey())) {
+            if (isQRCodeRequest) {
                 connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
                 connection.setRequestProperty("Accept", "image/*");
             }
@@ -196,129 +173,93 @@ public class BranchRemoteInterfaceUrlConnection extends BranchRemoteInterface {
                 connection.setRequestProperty("Content-Type", "application/json");
                 connection.setRequestProperty("Accept", "application/json");
             }
+            if (compressedBody != null) {
+                connection.setRequestProperty("Content-Encoding", BranchCompression.ENCODING_GZIP);
+                connection.setFixedLengthStreamingMode(compressedBody.length);
+            }
+            else {
+                connection.setFixedLengthStreamingMode(bodyLength);
+            }
+            connection.setRequestProperty("Accept-Encoding", BranchCompression.ACCEPT_ENCODING);
             connection.setRequestMethod("POST");
+            BranchConnectionManager.ConnectionTimings timings = connectionManager.connect(connection);
 
-            OutputStreamWriter outputStreamWriter = new OutputStreamWriter(connection.getOutputStream());
-
-            outputStreamWriter.write(payload.toString());
-            outputStreamWriter.flush();
-            outputStreamWriter.close();
+            OutputStream outputStream = connection.getOutputStream();
+            if (compressedBody != null) {
+                outputStream.write(compressedBody);
+                outputStream.close();
+            }
+            else {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"), BODY_BUFFER_SIZE);
+                BranchJsonWriter.write(payload, writer);
+                writer.close();
+            }
 
             String requestId = connection.getHeaderField(Defines.HeaderKey.RequestId.getKey());
-            lastRequestId = requestId;
+            timings.onFirstByte();
+            stats.requestId = requestId;
 
             int responseCode = connection.getResponseCode();
-            lastResponseCode = responseCode;
-            lastResponseMessage = connection.getResponseMessage(); // If we have the response code, this will not invoke any more data transfer
-            BranchLogger.d("lastResponseMessage " + lastResponseMessage);
+            stats.responseCode = responseCode;
+            stats.responseMessage = connection.getResponseMessage(); // If we have the response code, this will not invoke any more data transfer
+            BranchLogger.d("responseMessage " + stats.responseMessage);
 
-            if (responseCode >= HttpsURLConnection.HTTP_INTERNAL_ERROR && retryNumber < retryLimit) {
-                try {
-                    Thread.sleep(prefHelper.getRetryInterval());
-                }
-                catch (InterruptedException e) {
-                    BranchLogger.e(getNetworkErrorMessage(e, url, retryNumber));
+            BranchResponse result;
+            try {
+                if (responseCode != HttpURLConnection.HTTP_OK && connection.getErrorStream() != null) {
+                    BranchLogger.e("Branch Networking Error: " + "\nURL: " + url + "" + "\nResponse Code: " + stats.responseCode + "\nResponse Message: " + stats.responseMessage + "\nRetry number: " + retryNumber +
+                            "\nrequestId: " + stats.requestId + "\nObject: " + this);
+                    result = new BranchResponse(getResponseString(connection, connection.getErrorStream(), path), responseCode);
                 }
-                retryNumber++;
-                return doRestfulPost(url, payload, retryNumber);
-            }
-            else {
-                BranchResponse result;
-                try {
-                    if (responseCode != HttpsURLConnection.HTTP_OK && connection.getErrorStream() != null) {
-                        BranchLogger.e("Branch Networking Error: " + "\nURL: " + url + "" + "\nResponse Code: " + lastResponseCode + "\nResponse Message: " + lastResponseMessage + "\nRetry number: " + retryNumber + "\nFinal attempt: true" + // no retry on 4XX errors
-                                "\nrequestId: " + lastRequestId + "\nObject: " + this);
-                        result = new BranchResponse(getResponseString(connection.getErrorStream()), responseCode);
+                else {
+                    if (isQRCodeRequest) {
+                        // The image is handed through as the server sent it
+                        result = new BranchResponse(null, responseCode);
+                        result.setResponseBytes(getResponseBytes(connection));
                     }
                     else {
-                        if (url.contains(Defines.Jsonkey.QRCodeTag.getKey())) {
-                            // Converting binary data to Base64
-                            InputStream inputStream = connection.getInputStream();
-                            Bitmap bmp = BitmapFactory.decodeStream(inputStream);
-                            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                            bmp.compress(Bitmap.CompressFormat.PNG, 100, baos);
-                            byte[] b = baos.toByteArray();
-                            String bmpString = Base64.encodeToString(b, Base64.DEFAULT);
-
-                            result = new BranchResponse(bmpString, responseCode);
-                        }
-                        else {
-                            result = new BranchResponse(getResponseString(connection.getInputStream()), responseCode);
-                        }
-
-                        BranchLogger.v("Branch Networking Success" +
-                                "\nURL: " + url +
-                                "\nResponse Code: " + lastResponseCode +
-                                "\nResponse Message: " + lastResponseMessage +
-                                "\nRetry number: " + retryNumber +
-                                "\nrequestId: " + lastRequestId +
-                                "\nObject: " + this);
+                        result = new BranchResponse(getResponseString(connection, connection.getInputStream(), path), responseCode);
                     }
-                }
-                catch (FileNotFoundException ex) {
-                    // In case of Resource conflict getInputStream will throw FileNotFoundException. Handle it here in order to send the right status code
-                    BranchLogger.e(getNetworkErrorMessage(ex, url, retryNumber));
-                    result = new BranchResponse(null, responseCode);
-                }
 
-                result.requestId = requestId;
-                return result;
+                    BranchLogger.v("Branch Networking Success" +
+                            "\nURL: " + url +
+                            "\nResponse Code: " + stats.responseCode +
+                            "\nResponse Message: " + stats.responseMessage +
+                            "\nRetry number: " + retryNumber +
+                            "\nrequestId: " + stats.requestId +
+                            "\nTimings: " + timings +
+                            "\nObject: " + this);
+                }
+            }
+            catch (FileNotFoundException ex) {
+                // In case of Resource conflict getInputStream will throw FileNotFoundException. Handle it here in order to send the right status code
+                BranchLogger.e(getNetworkErrorMessage(ex, url, retryNumber, stats));
+                result = new BranchResponse(null, responseCode);
+                connectionManager.release(connection);
             }
 
+            result.requestId = requestId;
+            result.retryAfter = connection.getHeaderField(Defines.HeaderKey.RetryAfter.getKey());
+            result.timings = timings;
+            completed = true;
+            return result;
         }
         catch (SocketTimeoutException ex) {
-            BranchLogger.e(getNetworkErrorMessage(ex, url, retryNumber));
-            // On socket  time out retry the request for retryNumber of times
-            if (retryNumber < retryLimit) {
-                try {
-                    Thread.sleep(prefHelper.getRetryInterval());
-                }
-                catch (InterruptedException e) {
-                    BranchLogger.e(getNetworkErrorMessage(e, url, retryNumber));
-                }
-                retryNumber++;
-                return doRestfulPost(url, payload, retryNumber);
-            }
-            else {
-                throw new BranchRemoteException(BranchError.ERR_BRANCH_REQ_TIMED_OUT, ex.getMessage());
-            }
+            BranchLogger.e(getNetworkErrorMessage(ex, url, retryNumber, stats));
+            throw new BranchRemoteException(BranchError.ERR_BRANCH_REQ_TIMED_OUT, ex.getMessage());
         }
         catch (InterruptedIOException ex) {
-            BranchLogger.e(getNetworkErrorMessage(ex, url, retryNumber));
             // When the thread times out before or while sending the request
-            if (retryNumber < retryLimit) {
-                try {
-                    Thread.sleep(prefHelper.getRetryInterval());
-                }
-                catch (InterruptedException e) {
-                    BranchLogger.e(getNetworkErrorMessage(e, url, retryNumber));
-                }
-                retryNumber++;
-                return doRestfulPost(url, payload, retryNumber);
-            }
-            else {
-                throw new BranchRemoteException(BranchError.ERR_BRANCH_TASK_TIMEOUT, ex.getMessage());
-            }
+            BranchLogger.e(getNetworkErrorMessage(ex, url, retryNumber, stats));
+            throw new BranchRemoteException(BranchError.ERR_BRANCH_TASK_TIMEOUT, ex.getMessage());
         }
         // Unable to resolve host/Unknown host exception
         catch (IOException ex) {
-            BranchLogger.e(getNetworkErrorMessage(ex, url, retryNumber));
-            if (retryNumber < retryLimit) {
-                try {
-                    Thread.sleep(prefHelper.getRetryInterval());
-                }
-                catch (InterruptedException e) {
-                    BranchLogger.e(getNetworkErrorMessage(e, url, retryNumber));
-                }
-                retryNumber++;
-                return doRestfulPost(url, payload, retryNumber);
-            }
-            else {
-                throw new BranchRemoteException(BranchError.ERR_BRANCH_NO_CONNECTIVITY, ex.getMessage());
-            }
+            BranchLogger.e(getNetworkErrorMessage(ex, url, retryNumber, stats));
+            throw new BranchRemoteException(BranchError.ERR_BRANCH_NO_CONNECTIVITY, ex.getMessage());
         }
         catch (Exception ex) {
-            BranchLogger.e(getNetworkErrorMessage(ex, url, retryNumber));
+            BranchLogger.e(getNetworkErrorMessage(ex, url, retryNumber, stats));
             if (ex instanceof NetworkOnMainThreadException) {
                 BranchLogger.e("Cannot make network request on main thread.");
                 throw new BranchRemoteException((BranchError.ERR_NETWORK_ON_MAIN), ex.getMessage());
@@ -327,47 +268,116 @@ public class BranchRemoteInterfaceUrlConnection extends BranchRemoteInterface {
         }
         finally {
             if (connection != null) {
-                connection.disconnect();
-                resetStats();
+                // A completed exchange has handed its socket back to the pool, only tear down the rest
+                if (!completed) {
+                    connection.disconnect();
+                }
             }
         }
     }
 
-    private void resetStats() {
-        lastRequestId = "";
-        lastResponseCode = -1;
-        lastResponseMessage = "";
+    // The read timeout derived from the round trip times of the path, see BranchTimeoutEstimator
+    private int getReadTimeout(Defines.RequestPath path, PrefHelper prefHelper) {
+        if (path != null && branch.requestQueue_ != null) {
+            return branch.requestQueue_.getTimeoutEstimator().getReadTimeout(path);
+        }
+        return prefHelper.getTimeout();
     }
 
-    private String getResponseString(InputStream inputStream) {
-        String responseString = null;
-        if (inputStream != null) {
-            BufferedReader rd = new BufferedReader(new InputStreamReader(inputStream));
-            try {
-                StringBuilder sb = new StringBuilder();
-                String line;
-                while ((line = rd.readLine()) != null) {
-                    sb.append(line);
+    private int getRetryNumber(String url) {
+        String marker = RETRY_NUMBER + "=";
+        int start = url.indexOf(marker);
+        if (start < 0) {
+            return 0;
+        }
+        start += marker.length();
+        int end = start;
+        while (end < url.length() && Character.isDigit(url.charAt(end))) {
+            end++;
+        }
+        try {
+            return Integer.parseInt(url.substring(start, end));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private boolean shouldCompress(long bodyLength, int threshold) {
+        return threshold >= 0 && bodyLength >= threshold;
+    }
+
+    private String getResponseString(HttpURLConnection connection, InputStream inputStream, Defines.RequestPath path) {
+        if (inputStream == null) {
+            return null;
+        }
+        BranchCompression.CountingInputStream wire = new BranchCompression.CountingInputStream(inputStream);
+        InputStream body;
+        try {
+            body = BranchCompression.decode(wire, connection.getContentEncoding());
+        }
+        catch (IOException e) {
+            BranchLogger.d("Could not decode " + connection.getContentEncoding() + " response: " + e.getMessage());
+            connection.disconnect();
+            return null;
+        }
+        // The length on the wire says nothing about the size of a decompressed body
+        int contentLength = body == wire ? connection.getContentLength() : -1;
+        BranchCompression.CountingInputStream decoded = new BranchCompression.CountingInputStream(body);
+        try {
+            String responseString = BranchResponseReader.readUtf8(decoded, contentLength);
+            BranchCompression.recordSaving(path, decoded.getCount(), wire.getCount());
+            return responseString;
+        }
+        catch (IOException e) {
+            BranchLogger.d(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads a binary response body into an array sized by its {@code Content-Length} where the
+     * server sent one, so the bytes are not copied again on the way out.
+     */
+    private static byte[] getResponseBytes(HttpURLConnection connection) throws IOException {
+        InputStream wire = connection.getInputStream();
+        InputStream inputStream = BranchCompression.decode(wire, connection.getContentEncoding());
+        // The length on the wire says nothing about the size of a decompressed body
+        int length = inputStream == wire ? connection.getContentLength() : -1;
+        try {
+            if (length >= 0) {
+                byte[] bytes = new byte[length];
+                int read = 0;
+                while (read < length) {
+                    int count = inputStream.read(bytes, read, length - read);
+                    if (count == -1) {
+                        throw new IOException("Response ended after " + read + " of " + length + " bytes");
+                    }
+                    read += count;
                 }
-                rd.close();
-                responseString = sb.toString();
+                return bytes;
             }
-            catch (IOException e) {
-                BranchLogger.d(e.getMessage());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(BODY_BUFFER_SIZE);
+            byte[] buffer = new byte[BODY_BUFFER_SIZE];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
             }
+            return bytes.toByteArray();
+        } finally {
+            // Reads anything past the declared length, so the socket can go back to the pool
+            BranchConnectionManager.drainAndClose(inputStream);
         }
-        return responseString;
     }
 
-    String getNetworkErrorMessage(Exception e, String url, int retry){
+    String getNetworkErrorMessage(Exception e, String url, int retry, CallStats stats){
         return "Branch Networking Error: " +
                 "\nURL: " + url +
-                "\nResponse Code: " + lastResponseCode +
-                "\nResponse Message: " + lastResponseMessage +
+                "\nResponse Code: " + stats.responseCode +
+                "\nResponse Message: " + stats.responseMessage +
                 "\nCaught exception type: " + e.getClass().getCanonicalName() +
                 "\nRetry number: " + retry +
-                "\nrequestId: " + lastRequestId +
-                "\nFinal attempt: " + (retry >= retryLimit) +
+                "\nrequestId: " + stats.requestId +
+                "\nFinal attempt: " + (retry >= prefHelper.getRetryCount()) +
                 "\nObject: " + this +
                 "\nException Message: " + e.getMessage() +
                 "\nStacktrace: " + BranchLogger.stackTraceToString(e);
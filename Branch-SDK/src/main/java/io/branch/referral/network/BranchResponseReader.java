@@ -0,0 +1,120 @@
+package io.branch.referral.network;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * <p>
+ * Reads response bodies into pooled byte buffers and decodes them as UTF-8, the charset the Branch
+ * API answers in, in a single pass once the whole body is in. A body with a {@code Content-Length}
+ * is read into a buffer of at least that size, others into one that grows as needed.
+ * </p>
+ * <p>
+ * Buffers of up to {@link #MAX_POOLED_SIZE} bytes go back to a small pool once the body is decoded,
+ * so that a run of responses does not allocate a buffer for each one.
+ * </p>
+ */
+class BranchResponseReader {
+    static final int BUFFER_SIZE = 8192;
+    static final int MAX_POOLED_SIZE = 64 * 1024;
+    // As many as there are requests in flight at a time, usually one or two
+    private static final int MAX_POOLED_BUFFERS = 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final ArrayDeque<byte[]> pool_ = new ArrayDeque<>(MAX_POOLED_BUFFERS);
+
+    private BranchResponseReader() {
+    }
+
+    /**
+     * Reads {@code in} to its end and closes it, also when reading fails.
+     *
+     * @param contentLength The length of the body in bytes, or -1 if it is not known.
+     * @return The body, decoded as UTF-8.
+     * @throws IOException If reading fails, or the body ends before {@code contentLength} bytes.
+     */
+    static String readUtf8(InputStream in, long contentLength) throws IOException {
+        // One byte more than the declared length, so that the end of the body is seen without growing
+        int initialSize = contentLength >= 0 && contentLength < Integer.MAX_VALUE ? (int) contentLength + 1 : BUFFER_SIZE;
+        byte[] buffer = acquire(initialSize);
+        try {
+            int length = 0;
+            int count;
+            while (true) {
+                if (length == buffer.length) {
+                    byte[] grown = acquire(buffer.length * 2);
+                    System.arraycopy(buffer, 0, grown, 0, length);
+                    release(buffer);
+                    buffer = grown;
+                }
+                count = in.read(buffer, length, buffer.length - length);
+                if (count == -1) {
+                    break;
+                }
+                length += count;
+            }
+            if (contentLength >= 0 && length < contentLength) {
+                throw new IOException("Response ended after " + length + " of " + contentLength + " bytes");
+            }
+            return new String(buffer, 0, length, UTF_8);
+        } finally {
+            release(buffer);
+            in.close();
+        }
+    }
+
+    /**
+     * Parses a response body as a {@link JSONObject} or, if it starts with {@code [}, as a
+     * {@link JSONArray}, so that an array is not first parsed as an object and failed on.
+     *
+     * @throws JSONException If the body is not JSON.
+     */
+    static Object parseJson(String body) throws JSONException {
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                if (c == '[') {
+                    return new JSONArray(body);
+                }
+                break;
+            }
+        }
+        return new JSONObject(body);
+    }
+
+    // A buffer of at least size bytes, from the pool if one there is large enough
+    static byte[] acquire(int size) {
+        if (size <= MAX_POOLED_SIZE) {
+            synchronized (pool_) {
+                Iterator<byte[]> buffers = pool_.iterator();
+                while (buffers.hasNext()) {
+                    byte[] buffer = buffers.next();
+                    if (buffer.length >= size) {
+                        buffers.remove();
+                        return buffer;
+                    }
+                }
+            }
+            return new byte[Math.max(size, BUFFER_SIZE)];
+        }
+        return new byte[size];
+    }
+
+    static void release(byte[] buffer) {
+        if (buffer.length > MAX_POOLED_SIZE) {
+            return;
+        }
+        synchronized (pool_) {
+            if (pool_.size() < MAX_POOLED_BUFFERS) {
+                pool_.push(buffer);
+            }
+        }
+    }
+}
@@ -29,4 +29,6 @@ const val xiaomiInstallReferrerClass = "com.miui.referrer.api.GetAppsReferrerCli
 
 const val billingGooglePlayClass = "com.android.billingclient.api.BillingClient"
 
-const val androidBrowserClass = "androidx.browser.customtabs.CustomTabsIntent"
\ No newline at end of file
+const val androidBrowserClass = "androidx.browser.customtabs.CustomTabsIntent"
+
+const val okHttpClientClass = "okhttp3.OkHttpClient"
\ No newline at end of file
@@ -52,6 +52,11 @@ class ServerRequestGetAppConfig extends ServerRequest {
 
     }
 
+    @Override
+    protected boolean isPersistable() {
+        return false;
+    }
+
     public interface IGetAppConfigEvents {
         void onAppConfigAvailable(JSONObject obj);
     }
@@ -0,0 +1,136 @@
+package io.branch.referral;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class BranchCircuitBreakerTest {
+    private static final Defines.RequestPath PATH = Defines.RequestPath.TrackStandardEvent;
+    private static final long OPEN_MS = 1000;
+
+    private long now;
+    private BranchCircuitBreaker breaker;
+    private final List<BranchCircuitBreaker.State> transitions = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        now = 0;
+        breaker = new BranchCircuitBreaker(3, OPEN_MS, new BranchCircuitBreaker.Clock() {
+            @Override
+            public long now() {
+                return now;
+            }
+        });
+        breaker.setListener(new BranchCircuitBreaker.StateListener() {
+            @Override
+            public void onCircuitStateChanged(Defines.RequestPath path, BranchCircuitBreaker.State state) {
+                Assert.assertEquals(PATH, path);
+                transitions.add(state);
+            }
+        });
+    }
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        breaker.onFailure(PATH);
+        breaker.onFailure(PATH);
+        breaker.onSuccess(PATH);
+        breaker.onFailure(PATH);
+        breaker.onFailure(PATH);
+        Assert.assertEquals(BranchCircuitBreaker.State.CLOSED, breaker.getState(PATH));
+        Assert.assertTrue(breaker.allowRequest(PATH));
+
+        breaker.onFailure(PATH);
+        Assert.assertEquals(BranchCircuitBreaker.State.OPEN, breaker.getState(PATH));
+        Assert.assertFalse(breaker.allowRequest(PATH));
+        Assert.assertEquals(OPEN_MS, breaker.getMsUntilNextProbe(PATH));
+    }
+
+    @Test
+    public void testPathsAreIndependent() {
+        trip();
+        Assert.assertFalse(breaker.allowRequest(PATH));
+        Assert.assertTrue(breaker.allowRequest(Defines.RequestPath.GetURL));
+    }
+
+    @Test
+    public void testHalfOpenLetsSingleProbeThrough() {
+        trip();
+        now += OPEN_MS;
+
+        Assert.assertTrue(breaker.allowRequest(PATH));
+        Assert.assertEquals(BranchCircuitBreaker.State.HALF_OPEN, breaker.getState(PATH));
+        Assert.assertFalse(breaker.allowRequest(PATH));
+
+        breaker.onSuccess(PATH);
+        Assert.assertEquals(BranchCircuitBreaker.State.CLOSED, breaker.getState(PATH));
+        Assert.assertTrue(breaker.allowRequest(PATH));
+        Assert.assertTrue(breaker.allowRequest(PATH));
+    }
+
+    @Test
+    public void testCheckingDoesNotClaimTheProbe() {
+        trip();
+        Assert.assertFalse(breaker.isRequestAllowed(PATH));
+        now += OPEN_MS;
+
+        Assert.assertTrue(breaker.isRequestAllowed(PATH));
+        Assert.assertTrue(breaker.isRequestAllowed(PATH));
+        Assert.assertEquals(BranchCircuitBreaker.State.OPEN, breaker.getState(PATH));
+
+        Assert.assertTrue(breaker.allowRequest(PATH));
+        Assert.assertFalse(breaker.isRequestAllowed(PATH));
+        Assert.assertFalse(breaker.allowRequest(PATH));
+    }
+
+    @Test
+    public void testFailedProbeReopens() {
+        trip();
+        now += OPEN_MS;
+        Assert.assertTrue(breaker.allowRequest(PATH));
+
+        breaker.onFailure(PATH);
+        Assert.assertEquals(BranchCircuitBreaker.State.OPEN, breaker.getState(PATH));
+        Assert.assertFalse(breaker.allowRequest(PATH));
+
+        now += OPEN_MS;
+        Assert.assertTrue(breaker.allowRequest(PATH));
+    }
+
+    @Test
+    public void testLostProbeExpires() {
+        trip();
+        now += OPEN_MS;
+        Assert.assertTrue(breaker.allowRequest(PATH));
+        Assert.assertFalse(breaker.allowRequest(PATH));
+
+        now += OPEN_MS;
+        Assert.assertTrue(breaker.allowRequest(PATH));
+    }
+
+    @Test
+    public void testListenerSeesTransitions() {
+        trip();
+        now += OPEN_MS;
+        breaker.allowRequest(PATH);
+        breaker.onSuccess(PATH);
+
+        List<BranchCircuitBreaker.State> expected = new ArrayList<>();
+        expected.add(BranchCircuitBreaker.State.OPEN);
+        expected.add(BranchCircuitBreaker.State.HALF_OPEN);
+        expected.add(BranchCircuitBreaker.State.CLOSED);
+        Assert.assertEquals(expected, transitions);
+    }
+
+    private void trip() {
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure(PATH);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package io.branch.referral;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hammers {@link BranchDispatchQueue} from many threads at once and checks that no item is ever
+ * dispatched twice, that the lane and barrier rules hold at every dispatch, and that no wakeup is
+ * lost, ie. every item eventually runs.
+ */
+@RunWith(JUnit4.class)
+public class BranchDispatchQueueStressTest {
+    private static final int LANES = 3;
+    private static final int PRODUCERS = 8;
+    private static final int WORKERS = 4;
+    private static final int ITEMS_PER_PRODUCER = 2000;
+
+    private static class Item {
+        final AtomicInteger state = new AtomicInteger(BranchDispatchQueue.IDLE);
+        final AtomicInteger dispatches = new AtomicInteger();
+        final boolean concurrent;
+        volatile boolean blocked;
+
+        Item(boolean concurrent) {
+            this.concurrent = concurrent;
+        }
+    }
+
+    private static class RecordingPolicy implements BranchDispatchQueue.Policy<Item> {
+        final BlockingQueue<Item> dispatched = new LinkedBlockingQueue<>();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger orderedRunning = new AtomicInteger();
+        final AtomicInteger violations = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        volatile int rejectEvery;
+        // Racing cancellations make the running counts approximate, see runStress
+        volatile boolean checkLanes = true;
+        volatile BranchDispatchQueue<Item> queue;
+
+        @Override
+        public AtomicInteger dispatchState(Item item) {
+            return item.state;
+        }
+
+        @Override
+        public boolean isConcurrent(Item item) {
+            return item.concurrent;
+        }
+
+        @Override
+        public boolean isBlocked(Item item) {
+            return item.blocked;
+        }
+
+        @Override
+        public int maxInFlight() {
+            return LANES;
+        }
+
+        @Override
+        public BranchDispatchQueue.Admission admit(Item item) {
+            if (rejectEvery > 0 && System.identityHashCode(item) % rejectEvery == 0) {
+                return BranchDispatchQueue.Admission.REJECT;
+            }
+            return BranchDispatchQueue.Admission.ADMIT;
+        }
+
+        @Override
+        public void onDispatch(Item item) {
+            int running = this.running.incrementAndGet();
+            int ordered = item.concurrent ? orderedRunning.get() : orderedRunning.incrementAndGet();
+            if (checkLanes && (running > LANES || (!item.concurrent && running != 1) || (item.concurrent && ordered > 0))) {
+                violations.incrementAndGet();
+            }
+            if (item.dispatches.incrementAndGet() != 1) {
+                violations.incrementAndGet();
+            }
+            dispatched.add(item);
+        }
+
+        @Override
+        public void onRejected(Item item) {
+            rejected.incrementAndGet();
+            queue.remove(item);
+        }
+
+        // Called by a worker when the item's network call completes
+        void complete(Item item) {
+            if (!item.concurrent) {
+                orderedRunning.decrementAndGet();
+            }
+            running.decrementAndGet();
+            queue.remove(item);
+            queue.drain();
+        }
+    }
+
+    @Test
+    public void testEveryItemIsDispatchedExactlyOnce() throws InterruptedException {
+        RecordingPolicy policy = new RecordingPolicy();
+        List<Item> all = runStress(policy, 0.2, false);
+
+        for (Item item : all) {
+            Assert.assertEquals(1, item.dispatches.get());
+        }
+        Assert.assertEquals(0, policy.violations.get());
+    }
+
+    @Test
+    public void testRejectedItemsDoNotStallTheQueue() throws InterruptedException {
+        RecordingPolicy policy = new RecordingPolicy();
+        policy.rejectEvery = 7;
+        List<Item> all = runStress(policy, 0.3, false);
+
+        int dispatched = 0;
+        for (Item item : all) {
+            Assert.assertTrue(item.dispatches.get() <= 1);
+            dispatched += item.dispatches.get();
+        }
+        Assert.assertEquals(all.size(), dispatched + policy.rejected.get());
+        Assert.assertEquals(0, policy.violations.get());
+    }
+
+    @Test
+    public void testConcurrentCancellationReleasesLanes() throws InterruptedException {
+        RecordingPolicy policy = new RecordingPolicy();
+        policy.checkLanes = false;
+        List<Item> all = runStress(policy, 0.5, true);
+
+        // Lanes released twice or never would show up as stranded items or a non zero in flight count
+        for (Item item : all) {
+            Assert.assertTrue(item.dispatches.get() <= 1);
+        }
+        Assert.assertEquals(0, policy.violations.get());
+    }
+
+    @Test
+    public void testBlockedItemHoldsBackTheItemsBehindIt() {
+        RecordingPolicy policy = new RecordingPolicy();
+        BranchDispatchQueue<Item> queue = new BranchDispatchQueue<>(policy);
+        policy.queue = queue;
+
+        Item blocked = new Item(false);
+        blocked.blocked = true;
+        Item behind = new Item(true);
+        queue.addLast(blocked);
+        queue.addLast(behind);
+        queue.drain();
+        Assert.assertEquals(0, queue.getInFlightCount());
+
+        blocked.blocked = false;
+        queue.drain();
+        Assert.assertEquals(1, queue.getInFlightCount());
+        Assert.assertEquals(BranchDispatchQueue.IN_FLIGHT, blocked.state.get());
+        Assert.assertEquals(BranchDispatchQueue.IDLE, behind.state.get());
+
+        policy.complete(blocked);
+        Assert.assertEquals(BranchDispatchQueue.IN_FLIGHT, behind.state.get());
+        Assert.assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void testDrainFromStartsTheUnblockedItemAndThoseBehindIt() {
+        RecordingPolicy policy = new RecordingPolicy();
+        BranchDispatchQueue<Item> queue = new BranchDispatchQueue<>(policy);
+        policy.queue = queue;
+
+        Item ahead = new Item(true);
+        Item blocked = new Item(true);
+        blocked.blocked = true;
+        Item behind = new Item(true);
+        queue.addLast(ahead);
+        queue.addLast(blocked);
+        queue.addLast(behind);
+        queue.drain();
+        Assert.assertEquals(1, queue.getInFlightCount());
+
+        blocked.blocked = false;
+        queue.drainFrom(blocked);
+        Assert.assertEquals(BranchDispatchQueue.IN_FLIGHT, blocked.state.get());
+        Assert.assertEquals(BranchDispatchQueue.IN_FLIGHT, behind.state.get());
+        Assert.assertEquals(1, ahead.dispatches.get());
+        Assert.assertEquals(3, queue.getInFlightCount());
+    }
+
+    @Test
+    public void testDrainFromDoesNotOvertakeABlockedItem() {
+        RecordingPolicy policy = new RecordingPolicy();
+        BranchDispatchQueue<Item> queue = new BranchDispatchQueue<>(policy);
+        policy.queue = queue;
+
+        Item first = new Item(true);
+        first.blocked = true;
+        Item second = new Item(true);
+        second.blocked = true;
+        queue.addLast(first);
+        queue.addLast(second);
+        queue.drain();
+
+        second.blocked = false;
+        queue.drainFrom(second);
+        Assert.assertEquals(BranchDispatchQueue.IDLE, second.state.get());
+
+        first.blocked = false;
+        queue.drainFrom(first);
+        Assert.assertEquals(BranchDispatchQueue.IN_FLIGHT, first.state.get());
+        Assert.assertEquals(BranchDispatchQueue.IN_FLIGHT, second.state.get());
+    }
+
+    @Test
+    public void testDrainFromKeepsTheOrderedBarrier() {
+        RecordingPolicy policy = new RecordingPolicy();
+        BranchDispatchQueue<Item> queue = new BranchDispatchQueue<>(policy);
+        policy.queue = queue;
+
+        Item inFlight = new Item(true);
+        Item blocked = new Item(false);
+        blocked.blocked = true;
+        queue.addLast(inFlight);
+        queue.addLast(blocked);
+        queue.drain();
+
+        blocked.blocked = false;
+        queue.drainFrom(blocked);
+        Assert.assertEquals(BranchDispatchQueue.IDLE, blocked.state.get());
+
+        policy.complete(inFlight);
+        Assert.assertEquals(BranchDispatchQueue.IN_FLIGHT, blocked.state.get());
+    }
+
+    @Test
+    public void testAddFirstDoesNotOvertakeInFlightBarrier() {
+        RecordingPolicy policy = new RecordingPolicy();
+        BranchDispatchQueue<Item> queue = new BranchDispatchQueue<>(policy);
+        policy.queue = queue;
+
+        Item first = new Item(false);
+        queue.addLast(first);
+        queue.drain();
+        Item urgent = new Item(false);
+        queue.addFirst(urgent);
+        queue.drain();
+        Assert.assertEquals(BranchDispatchQueue.IDLE, urgent.state.get());
+
+        policy.complete(first);
+        Assert.assertEquals(BranchDispatchQueue.IN_FLIGHT, urgent.state.get());
+    }
+
+    private List<Item> runStress(final RecordingPolicy policy, final double orderedRatio, final boolean cancel) throws InterruptedException {
+        final BranchDispatchQueue<Item> queue = new BranchDispatchQueue<>(policy);
+        policy.queue = queue;
+        final List<Item> all = new ArrayList<>();
+        final Random random = new Random(42);
+        final List<List<Item>> perProducer = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            List<Item> items = new ArrayList<>();
+            for (int i = 0; i < ITEMS_PER_PRODUCER; i++) {
+                items.add(new Item(random.nextDouble() >= orderedRatio));
+            }
+            perProducer.add(items);
+            all.addAll(items);
+        }
+
+        final AtomicBoolean producing = new AtomicBoolean(true);
+        ExecutorService pool = Executors.newFixedThreadPool(PRODUCERS + WORKERS);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch produced = new CountDownLatch(PRODUCERS);
+        for (final List<Item> items : perProducer) {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    await(start);
+                    for (Item item : items) {
+                        queue.addLast(item);
+                        queue.drain();
+                        if (cancel && item.hashCode() % 5 == 0) {
+                            // A cancellation racing with dispatch and completion
+                            queue.remove(item);
+                            queue.drain();
+                        }
+                    }
+                    produced.countDown();
+                }
+            });
+        }
+        for (int w = 0; w < WORKERS; w++) {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    await(start);
+                    while (producing.get() || !policy.dispatched.isEmpty()) {
+                        Item item;
+                        try {
+                            item = policy.dispatched.poll(10, TimeUnit.MILLISECONDS);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        if (item != null) {
+                            if (cancel) {
+                                queue.remove(item);
+                                queue.drain();
+                            } else {
+                                policy.complete(item);
+                            }
+                        }
+                    }
+                }
+            });
+        }
+
+        start.countDown();
+        Assert.assertTrue(produced.await(30, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 30000;
+        while (queue.size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        producing.set(false);
+        pool.shutdown();
+        Assert.assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+        // A lost wakeup leaves idle items queued with free lanes and nothing in flight to wake them
+        Assert.assertEquals("items stranded in the queue", 0, queue.size());
+        Assert.assertEquals(0, queue.getInFlightCount());
+        return all;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
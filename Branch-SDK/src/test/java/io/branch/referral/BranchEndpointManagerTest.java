@@ -0,0 +1,226 @@
+package io.branch.referral;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Routes requests through {@link BranchEndpointManager} to two local stand-ins for the Branch API,
+ * one of which is degraded.
+ */
+@RunWith(JUnit4.class)
+public class BranchEndpointManagerTest {
+    private static final int REQUESTS = 30;
+    private static final String PATH = Defines.RequestPath.TrackStandardEvent.getPath();
+
+    private StandInServer primary;
+    private StandInServer secondary;
+    private List<String> candidates;
+    private MemoryStore store;
+    private BranchEndpointManager manager;
+
+    @Before
+    public void setUp() throws IOException {
+        primary = new StandInServer();
+        secondary = new StandInServer();
+        candidates = Arrays.asList(primary.baseUrl, secondary.baseUrl);
+        store = new MemoryStore();
+        manager = new BranchEndpointManager(store);
+    }
+
+    @After
+    public void tearDown() {
+        primary.stop();
+        secondary.stop();
+    }
+
+    private static class MemoryStore implements BranchEndpointManager.Store {
+        String scores;
+
+        @Override
+        public String load() {
+            return scores;
+        }
+
+        @Override
+        public void save(String scores) {
+            this.scores = scores;
+        }
+    }
+
+    private static class StandInServer implements HttpHandler {
+        final HttpServer server;
+        final String baseUrl;
+        final AtomicInteger requests = new AtomicInteger();
+        volatile int status = 200;
+        volatile long delayMs;
+
+        StandInServer() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/", this);
+            server.start();
+            baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            InputStream in = exchange.getRequestBody();
+            while (in.read() != -1) {
+                // Discard
+            }
+            if (delayMs > 0) {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException ignored) {
+                }
+            }
+            byte[] body = "{}".getBytes("UTF-8");
+            exchange.sendResponseHeaders(status, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+    }
+
+    // Sends a request the way the request queue does and reports its outcome
+    private void send() {
+        String url = manager.select(candidates) + PATH;
+        long start = System.currentTimeMillis();
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(1000);
+            connection.setReadTimeout(1000);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            OutputStream out = connection.getOutputStream();
+            out.write("{}".getBytes("UTF-8"));
+            out.close();
+            int status = connection.getResponseCode();
+            if (status >= 500) {
+                manager.onFailure(url);
+            } else {
+                manager.onSuccess(url, System.currentTimeMillis() - start);
+            }
+        } catch (IOException e) {
+            manager.onFailure(url);
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private void sendAll() {
+        for (int i = 0; i < REQUESTS; i++) {
+            send();
+        }
+    }
+
+    @Test
+    public void testHealthyPrimaryKeepsTheTraffic() {
+        sendAll();
+        // The secondary is measured once
+        Assert.assertEquals(REQUESTS - 1, primary.requests.get());
+        Assert.assertEquals(1, secondary.requests.get());
+    }
+
+    @Test
+    public void testFailingPrimaryIsAvoided() {
+        primary.status = 503;
+        sendAll();
+        Assert.assertEquals(1, primary.requests.get());
+        Assert.assertEquals(REQUESTS - 1, secondary.requests.get());
+    }
+
+    @Test
+    public void testFailsOverWhenThePrimaryCannotBeReached() {
+        primary.stop();
+        sendAll();
+        Assert.assertEquals(0, primary.requests.get());
+        // Only the first request went to the primary
+        Assert.assertEquals(REQUESTS - 1, secondary.requests.get());
+        Assert.assertEquals(secondary.baseUrl, manager.select(candidates));
+    }
+
+    @Test
+    public void testSlowPrimaryLosesToAFasterSecondary() {
+        primary.delayMs = 300;
+        sendAll();
+        Assert.assertTrue(primary.requests.get() <= 2);
+        Assert.assertTrue(secondary.requests.get() >= REQUESTS - 2);
+    }
+
+    @Test
+    public void testScoresSurviveARelaunch() {
+        primary.status = 503;
+        send();
+        Assert.assertNotNull(store.scores);
+
+        BranchEndpointManager relaunched = new BranchEndpointManager(store);
+        Assert.assertEquals(secondary.baseUrl, relaunched.select(candidates));
+    }
+
+    @Test
+    public void testCoolDownGrowsAndEnds() {
+        final long[] now = {0};
+        BranchEndpointManager clocked = new BranchEndpointManager(new MemoryStore(), new BranchEndpointManager.Clock() {
+            @Override
+            public long now() {
+                return now[0];
+            }
+        });
+        List<String> urls = Arrays.asList("https://a.example/", "https://b.example/");
+        Assert.assertEquals("https://a.example/", clocked.select(urls));
+        clocked.onSuccess("https://a.example/v1/open", 100);
+
+        clocked.onFailure("https://a.example/v1/open");
+        Assert.assertEquals("https://b.example/", clocked.select(urls));
+        now[0] += BranchEndpointManager.BASE_COOL_DOWN_MS;
+        Assert.assertEquals("https://a.example/", clocked.select(urls));
+
+        clocked.onFailure("https://a.example/v1/open");
+        now[0] += BranchEndpointManager.BASE_COOL_DOWN_MS;
+        Assert.assertEquals("https://b.example/", clocked.select(urls));
+        now[0] += BranchEndpointManager.BASE_COOL_DOWN_MS;
+        Assert.assertEquals("https://a.example/", clocked.select(urls));
+
+        // With every url cooling down, the one back soonest is used
+        clocked.onFailure("https://b.example/v1/open");
+        clocked.onFailure("https://a.example/v1/open");
+        Assert.assertEquals("https://b.example/", clocked.select(urls));
+    }
+
+    @Test
+    public void testEUEndpointIsNeverLeft() {
+        List<String> urls = BranchEndpointManager.getAllowedBaseUrls(true, 33);
+        Assert.assertEquals(Arrays.asList(PrefHelper.BRANCH_EU_BASE_URL_V3), urls);
+        manager.onFailure(PrefHelper.BRANCH_EU_BASE_URL_V3 + PATH);
+        Assert.assertEquals(PrefHelper.BRANCH_EU_BASE_URL_V3, manager.select(urls));
+
+        Assert.assertEquals(Arrays.asList(PrefHelper.BRANCH_BASE_URL_V1), BranchEndpointManager.getAllowedBaseUrls(false, 19));
+        Assert.assertEquals(Arrays.asList(PrefHelper.BRANCH_BASE_URL_V2, PrefHelper.BRANCH_BASE_URL_V1), BranchEndpointManager.getAllowedBaseUrls(false, 33));
+    }
+}
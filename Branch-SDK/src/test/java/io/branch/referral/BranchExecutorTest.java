@@ -0,0 +1,146 @@
+package io.branch.referral;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class BranchExecutorTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    @After
+    public void tearDown() {
+        BranchExecutor.setHostExecutor(null);
+    }
+
+    private static class RecordingExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+            task.run();
+        }
+    }
+
+    private static Runnable recordAs(final String name, final List<String> order, final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+                done.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void testQueuedTasksRunByPriorityThenSubmissionOrder() throws InterruptedException {
+        // Hold every worker so that the tasks below wait in the queue
+        int poolSize = BranchExecutor.getDefaultPoolSize();
+        final CountDownLatch started = new CountDownLatch(poolSize);
+        final CountDownLatch releaseOne = new CountDownLatch(1);
+        final CountDownLatch releaseAll = new CountDownLatch(1);
+        for (int i = 0; i < poolSize; i++) {
+            final CountDownLatch release = i == 0 ? releaseOne : releaseAll;
+            BranchExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, BranchExecutor.PRIORITY_NORMAL);
+        }
+        Assert.assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(5);
+        BranchExecutor.execute(recordAs("low", order, done), BranchExecutor.PRIORITY_LOW);
+        BranchExecutor.execute(recordAs("normal", order, done), BranchExecutor.PRIORITY_NORMAL);
+        BranchExecutor.execute(recordAs("high 1", order, done), BranchExecutor.PRIORITY_HIGH);
+        BranchExecutor.execute(recordAs("high 2", order, done), BranchExecutor.PRIORITY_HIGH);
+        BranchExecutor.execute(recordAs("normal 2", order, done), BranchExecutor.PRIORITY_NORMAL);
+
+        // A single free worker takes the queued tasks one after the other
+        releaseOne.countDown();
+        boolean finished = done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        releaseAll.countDown();
+        Assert.assertTrue(finished);
+        Assert.assertEquals(Arrays.asList("high 1", "high 2", "normal", "normal 2", "low"), order);
+    }
+
+    @Test
+    public void testHostExecutorRunsTheTasks() {
+        RecordingExecutor host = new RecordingExecutor();
+        BranchExecutor.setHostExecutor(host);
+
+        List<String> order = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(2);
+        Runnable low = recordAs("low", order, done);
+        Runnable high = recordAs("high", order, done);
+        BranchExecutor.execute(low, BranchExecutor.PRIORITY_LOW);
+        BranchExecutor.execute(high, BranchExecutor.PRIORITY_HIGH);
+
+        // Handed over as is, in submission order: priorities are left to the host executor
+        Assert.assertEquals(Arrays.asList(low, high), host.tasks);
+        Assert.assertEquals(Arrays.asList("low", "high"), order);
+    }
+
+    @Test
+    public void testRejectedTasksFallBackToTheSdkPool() throws InterruptedException {
+        BranchExecutor.setHostExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException("shut down");
+            }
+        });
+
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(1);
+        BranchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                threads.add(Thread.currentThread().getName());
+                done.countDown();
+            }
+        }, BranchExecutor.PRIORITY_NORMAL);
+
+        Assert.assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assert.assertTrue(threads.get(0).startsWith("branch-worker-"));
+    }
+
+    @Test
+    public void testClearingTheHostExecutorRestoresTheSdkPool() throws InterruptedException {
+        RecordingExecutor host = new RecordingExecutor();
+        BranchExecutor.setHostExecutor(host);
+        BranchExecutor.setHostExecutor(null);
+
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(1);
+        BranchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                threads.add(Thread.currentThread().getName());
+                done.countDown();
+            }
+        }, BranchExecutor.PRIORITY_NORMAL);
+
+        Assert.assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assert.assertTrue(host.tasks.isEmpty());
+        Assert.assertTrue(threads.get(0).startsWith("branch-worker-"));
+    }
+}
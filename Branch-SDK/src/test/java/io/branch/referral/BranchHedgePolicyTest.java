@@ -0,0 +1,149 @@
+package io.branch.referral;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Random;
+
+@RunWith(JUnit4.class)
+public class BranchHedgePolicyTest {
+    private MemoryStore store;
+
+    @Before
+    public void setUp() {
+        store = new MemoryStore();
+    }
+
+    static class MemoryStore implements BranchHedgePolicy.Store {
+        String state;
+
+        @Override
+        public String load() {
+            return state;
+        }
+
+        @Override
+        public void save(String state) {
+            this.state = state;
+        }
+    }
+
+    @Test
+    public void testNoHedgeUntilEnoughLatencies() {
+        BranchHedgePolicy policy = new BranchHedgePolicy(store, 95, 1);
+        for (int i = 0; i < BranchHedgePolicy.MIN_SAMPLES; i++) {
+            Assert.assertEquals(-1, policy.onRequest());
+            policy.onLatency(100);
+        }
+        Assert.assertEquals(100, policy.onRequest());
+    }
+
+    @Test
+    public void testDelayIsThePercentileOfRecentLatencies() {
+        BranchHedgePolicy policy = new BranchHedgePolicy(store, 90, 1);
+        for (int i = 1; i <= 20; i++) {
+            policy.onLatency(i * 10);
+        }
+        Assert.assertEquals(180, policy.onRequest());
+
+        // Only the latest latencies count
+        for (int i = 0; i < BranchHedgePolicy.MAX_SAMPLES; i++) {
+            policy.onLatency(1000);
+        }
+        Assert.assertEquals(1000, policy.onRequest());
+    }
+
+    @Test
+    public void testHedgeRateIsCapped() {
+        BranchHedgePolicy policy = new BranchHedgePolicy(store, 50, 0.1);
+        int hedges = 0;
+        for (int i = 0; i < 100; i++) {
+            policy.onRequest();
+            if (policy.tryAcquireHedge()) {
+                hedges++;
+            }
+        }
+        Assert.assertEquals(10, hedges);
+
+        // Unused credit only piles up to a short burst
+        for (int i = 0; i < 1000; i++) {
+            policy.onRequest();
+        }
+        for (int i = 0; i < BranchHedgePolicy.MAX_CREDIT; i++) {
+            Assert.assertTrue(policy.tryAcquireHedge());
+        }
+        Assert.assertFalse(policy.tryAcquireHedge());
+    }
+
+    // Mostly 100 to 300ms, with 3% of requests stuck behind a lost packet or a slow backend
+    private static long sampleLatency(Random random) {
+        long latency = 100 + random.nextInt(200);
+        if (random.nextDouble() < 0.03) {
+            latency += 1000 + random.nextInt(5000);
+        }
+        return latency;
+    }
+
+    @Test
+    public void testHedgingTrimsTheTailUnderTheCap() {
+        final int inits = 20000;
+        final double maxHedgeRate = 0.1;
+        Random random = new Random(42);
+        long[] plain = new long[inits];
+        long[] hedged = new long[inits];
+        BranchHedgePolicy policy = new BranchHedgePolicy(store, 95, maxHedgeRate);
+        int hedges = 0;
+
+        for (int i = 0; i < inits; i++) {
+            long first = sampleLatency(random);
+            plain[i] = first;
+
+            long delay = policy.onRequest();
+            long seen = first;
+            if (delay >= 0 && first > delay && policy.tryAcquireHedge()) {
+                hedges++;
+                // The copy is an independent request, sent once the first has waited for delay
+                long second = sampleLatency(random);
+                seen = Math.min(first, delay + second);
+                policy.onLatency(first <= delay + second ? first : second);
+            } else {
+                policy.onLatency(first);
+            }
+            hedged[i] = seen;
+        }
+
+        Arrays.sort(plain);
+        Arrays.sort(hedged);
+        Assert.assertTrue("hedges: " + hedges, hedges > 0 && hedges <= inits * maxHedgeRate);
+        Assert.assertEquals(percentile(plain, 50), percentile(hedged, 50));
+        Assert.assertTrue("p99 without hedging: " + percentile(plain, 99) + "ms, with hedging: " + percentile(hedged, 99) + "ms",
+                percentile(hedged, 99) * 4 < percentile(plain, 99));
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    @Test
+    public void testStateSurvivesARelaunch() {
+        BranchHedgePolicy policy = new BranchHedgePolicy(store, 50, 0.5);
+        for (int i = 0; i < BranchHedgePolicy.MAX_SAMPLES + 8; i++) {
+            policy.onLatency(i < 8 ? 5000 : 200);
+        }
+        policy.onRequest();
+        policy.onRequest();
+        // Saves the credit
+        Assert.assertTrue(policy.tryAcquireHedge());
+        policy.onRequest();
+        policy.onLatency(200);
+
+        BranchHedgePolicy relaunched = new BranchHedgePolicy(store, 99, 0.5);
+        Assert.assertEquals(200, relaunched.onRequest());
+        Assert.assertTrue(relaunched.tryAcquireHedge());
+    }
+}
@@ -0,0 +1,163 @@
+package io.branch.referral;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(JUnit4.class)
+public class BranchPrefsCacheTest {
+    private MemoryStore store;
+    private ManualScheduler scheduler;
+    private BranchPrefsCache cache;
+
+    @Before
+    public void setUp() {
+        store = new MemoryStore();
+        store.values.put("bnc_session_id", "1234");
+        store.values.put("bnc_retry_count", 3);
+        scheduler = new ManualScheduler();
+        cache = new BranchPrefsCache(store, scheduler);
+    }
+
+    private static class MemoryStore implements BranchPrefsCache.Store {
+        final Map<String, Object> values = new HashMap<>();
+        int loads;
+        int writes;
+
+        @Override
+        public Map<String, ?> loadAll() {
+            loads++;
+            return new HashMap<>(values);
+        }
+
+        @Override
+        public void write(boolean clear, Map<String, Object> changes) {
+            writes++;
+            if (clear) {
+                values.clear();
+            }
+            for (Map.Entry<String, Object> change : changes.entrySet()) {
+                if (change.getValue() == null) {
+                    values.remove(change.getKey());
+                } else {
+                    values.put(change.getKey(), change.getValue());
+                }
+            }
+        }
+    }
+
+    private static class ManualScheduler implements BranchPrefsCache.Scheduler {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+            Assert.assertEquals(BranchPrefsCache.WRITE_BEHIND_MS, delayMs);
+            tasks.add(task);
+        }
+
+        void runAll() {
+            List<Runnable> due = new ArrayList<>(tasks);
+            tasks.clear();
+            for (Runnable task : due) {
+                task.run();
+            }
+        }
+    }
+
+    @Test
+    public void testLoadsTheStoreOnce() {
+        Assert.assertEquals("1234", cache.getString("bnc_session_id", "bnc_no_value"));
+        Assert.assertEquals(3, cache.getInt("bnc_retry_count", 0));
+        Assert.assertEquals("bnc_no_value", cache.getString("bnc_identity", "bnc_no_value"));
+        Assert.assertEquals(7L, cache.getLong("bnc_timeout", 7L));
+        Assert.assertFalse(cache.getBoolean("bnc_dma_eea", false));
+        Assert.assertTrue(cache.contains("bnc_session_id"));
+        Assert.assertEquals(1, store.loads);
+    }
+
+    @Test
+    public void testWritesAreSeenAtOnceAndWrittenBehind() {
+        cache.put("bnc_session_id", "5678");
+        cache.put("bnc_timeout", 5500L);
+        Assert.assertEquals("5678", cache.getString("bnc_session_id", "bnc_no_value"));
+        Assert.assertEquals(5500L, cache.getLong("bnc_timeout", 0));
+        Assert.assertEquals("1234", store.values.get("bnc_session_id"));
+        Assert.assertEquals(1, scheduler.tasks.size());
+
+        scheduler.runAll();
+        Assert.assertEquals(1, store.writes);
+        Assert.assertEquals("5678", store.values.get("bnc_session_id"));
+        Assert.assertEquals(5500L, store.values.get("bnc_timeout"));
+    }
+
+    @Test
+    public void testFlushWritesAtOnce() {
+        // As when the app goes to the background
+        cache.put("bnc_session_id", "5678");
+        cache.flush();
+        Assert.assertEquals(1, store.writes);
+        Assert.assertEquals("5678", store.values.get("bnc_session_id"));
+
+        scheduler.runAll();
+        Assert.assertEquals(1, store.writes);
+    }
+
+    @Test
+    public void testRepeatedWritesAreCoalesced() {
+        for (int i = 0; i < 50; i++) {
+            cache.put("bnc_endpoint_scores", "{\"i\":" + i + "}");
+        }
+        cache.remove("bnc_retry_count");
+        Assert.assertEquals(1, scheduler.tasks.size());
+        scheduler.runAll();
+        Assert.assertEquals(1, store.writes);
+        Assert.assertEquals("{\"i\":49}", store.values.get("bnc_endpoint_scores"));
+        Assert.assertFalse(store.values.containsKey("bnc_retry_count"));
+        Assert.assertFalse(cache.contains("bnc_retry_count"));
+
+        // Nothing pending, nothing written
+        cache.flush();
+        Assert.assertEquals(1, store.writes);
+    }
+
+    @Test
+    public void testClearThenWrite() {
+        cache.clear();
+        cache.put("bnc_link_click_id", "abc");
+        Assert.assertFalse(cache.contains("bnc_session_id"));
+        Assert.assertEquals("abc", cache.getString("bnc_link_click_id", "bnc_no_value"));
+
+        cache.flush();
+        Assert.assertEquals(1, store.values.size());
+        Assert.assertEquals("abc", store.values.get("bnc_link_click_id"));
+        // The scheduled flush finds nothing left to write
+        scheduler.runAll();
+        Assert.assertEquals(1, store.writes);
+    }
+
+    @Test
+    public void testJsonIsParsedOncePerValue() throws Exception {
+        cache.put("bnc_gclid_json_object", "{\"bnc_gclid_value\":\"abc\"}");
+        JSONObject first = cache.getJSONObject("bnc_gclid_json_object");
+        Assert.assertEquals("abc", first.getString("bnc_gclid_value"));
+        Assert.assertSame(first, cache.getJSONObject("bnc_gclid_json_object"));
+
+        cache.put("bnc_gclid_json_object", "{\"bnc_gclid_value\":\"def\"}");
+        JSONObject second = cache.getJSONObject("bnc_gclid_json_object");
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals("def", second.getString("bnc_gclid_value"));
+
+        cache.put("bnc_gclid_json_object", "not json");
+        Assert.assertNull(cache.getJSONObject("bnc_gclid_json_object"));
+        Assert.assertNull(cache.getJSONObject("bnc_no_such_key"));
+        Assert.assertNull(cache.getJSONObject("bnc_retry_count"));
+    }
+}
@@ -0,0 +1,131 @@
+package io.branch.referral;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+@RunWith(JUnit4.class)
+public class BranchRetryPolicyTest {
+
+    @Test
+    public void testBackoffGrowsExponentiallyUpToCap() {
+        BranchRetryPolicy policy = new BranchRetryPolicy(new FixedRandom(0.999999));
+        policy.configure(1000, 5000, 10, 100);
+
+        Assert.assertEquals(1000, policy.getBackoffMs(0));
+        Assert.assertEquals(2000, policy.getBackoffMs(1));
+        Assert.assertEquals(4000, policy.getBackoffMs(2));
+        Assert.assertEquals(5000, policy.getBackoffMs(3));
+        Assert.assertEquals(5000, policy.getBackoffMs(30));
+    }
+
+    @Test
+    public void testBackoffUsesFullJitter() {
+        BranchRetryPolicy policy = new BranchRetryPolicy(new Random(42));
+        policy.configure(1000, 16000, 10, 100);
+
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = 0; i < 1000; i++) {
+            long delay = policy.getBackoffMs(2);
+            Assert.assertTrue(delay >= 0 && delay <= 4000);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        // Spread across the whole window rather than clustered at the ceiling
+        Assert.assertTrue(min < 400);
+        Assert.assertTrue(max > 3600);
+    }
+
+    @Test
+    public void testSessionBudgetIsSharedAndReset() {
+        BranchRetryPolicy policy = new BranchRetryPolicy(new Random(1));
+        policy.configure(1000, 16000, 3, 2);
+
+        Assert.assertTrue(policy.tryAcquireBudget());
+        Assert.assertTrue(policy.tryAcquireBudget());
+        Assert.assertFalse(policy.tryAcquireBudget());
+        Assert.assertEquals(0, policy.getRemainingBudget());
+
+        policy.resetBudget();
+        Assert.assertEquals(2, policy.getRemainingBudget());
+        Assert.assertTrue(policy.tryAcquireBudget());
+    }
+
+    @Test
+    public void testAttemptsAreLimited() {
+        BranchRetryPolicy policy = new BranchRetryPolicy(new Random(1));
+        policy.configure(1000, 16000, 2, 10);
+
+        Assert.assertTrue(policy.hasAttemptsLeft(0));
+        Assert.assertTrue(policy.hasAttemptsLeft(1));
+        Assert.assertFalse(policy.hasAttemptsLeft(2));
+    }
+
+    @Test
+    public void testRetryAfterSecondsIsHonoured() {
+        BranchRetryPolicy policy = new BranchRetryPolicy(new FixedRandom(0));
+        policy.configure(1000, 16000, 3, 10);
+
+        Assert.assertEquals(7000, policy.getDelayMs(0, "7", 0));
+        Assert.assertEquals(0, policy.getDelayMs(0, null, 0));
+        Assert.assertEquals(0, policy.getDelayMs(0, "soon", 0));
+        Assert.assertEquals(BranchRetryPolicy.NO_RETRY, policy.getDelayMs(0, "3600", 0));
+    }
+
+    @Test
+    public void testRetryAfterDateIsHonoured() {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        long now = 1700000000000L;
+        String header = format.format(new Date(now + 30000));
+
+        Assert.assertEquals(30000, BranchRetryPolicy.parseRetryAfterMs(header, now));
+        Assert.assertEquals(0, BranchRetryPolicy.parseRetryAfterMs(header, now + 60000));
+    }
+
+    @Test
+    public void testReplaysAreLimitedApartFromBackoffRetries() {
+        int maxReplays = PrefHelper.DEFAULT_NO_CONNECTION_RETRY_MAX;
+        Assert.assertTrue(BranchRetryPolicy.isKeptForReplay(503, true, 0, maxReplays));
+        Assert.assertTrue(BranchRetryPolicy.isKeptForReplay(BranchError.ERR_BRANCH_NO_CONNECTIVITY, true, maxReplays - 1, maxReplays));
+        Assert.assertFalse(BranchRetryPolicy.isKeptForReplay(503, true, maxReplays, maxReplays));
+
+        Assert.assertFalse(BranchRetryPolicy.isKeptForReplay(503, false, 0, maxReplays));
+        Assert.assertFalse(BranchRetryPolicy.isKeptForReplay(400, true, 0, maxReplays));
+        Assert.assertFalse(BranchRetryPolicy.isKeptForReplay(BranchError.ERR_BRANCH_RETRY_BUDGET_EXHAUSTED, true, 0, maxReplays));
+    }
+
+    @Test
+    public void testRetryableStatusCodes() {
+        Assert.assertTrue(BranchRetryPolicy.isRetryable(500));
+        Assert.assertTrue(BranchRetryPolicy.isRetryable(503));
+        Assert.assertTrue(BranchRetryPolicy.isRetryable(BranchError.ERR_BRANCH_REQ_TIMED_OUT));
+        Assert.assertTrue(BranchRetryPolicy.isRetryable(BranchError.ERR_BRANCH_NO_CONNECTIVITY));
+        Assert.assertFalse(BranchRetryPolicy.isRetryable(400));
+        Assert.assertFalse(BranchRetryPolicy.isRetryable(BranchError.ERR_BRANCH_TASK_TIMEOUT));
+        Assert.assertFalse(BranchRetryPolicy.isRetryable(BranchError.ERR_BRANCH_TRACKING_DISABLED));
+        Assert.assertEquals(BranchError.ERR_BRANCH_RETRY_BUDGET_EXHAUSTED,
+                new BranchError("", BranchError.ERR_BRANCH_RETRY_BUDGET_EXHAUSTED).getErrorCode());
+    }
+
+    private static class FixedRandom extends Random {
+        private final double value;
+
+        FixedRandom(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public double nextDouble() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package io.branch.referral;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests of the timeout scheduler on its own. ServerRequestQueueThreadCountTests sends a burst
+ * of requests through the request queue and checks the thread count there.
+ */
+@RunWith(JUnit4.class)
+public class BranchTaskTimeoutSchedulerTest {
+    private static final int BURST_SIZE = 1000;
+
+    @Test
+    public void testThreadCountStaysFlatUnderBurst() {
+        BranchTaskTimeoutScheduler scheduler = new BranchTaskTimeoutScheduler();
+        // Warm up so the single timer thread is already counted
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, 0);
+
+        int threadsBefore = Thread.activeCount();
+        final AtomicInteger fired = new AtomicInteger();
+        List<ScheduledFuture<?>> timeouts = new ArrayList<>();
+        for (int i = 0; i < BURST_SIZE; i++) {
+            timeouts.add(scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    fired.incrementAndGet();
+                }
+            }, TimeUnit.MINUTES.toMillis(1)));
+        }
+
+        Assert.assertEquals(BURST_SIZE, scheduler.getPendingCount());
+        Assert.assertEquals(1, scheduler.getPoolSize());
+        Assert.assertTrue("thread count grew from " + threadsBefore + " to " + Thread.activeCount(),
+                Thread.activeCount() <= threadsBefore + 1);
+
+        // Completed requests cancel their timeout, which must release it straight away
+        for (ScheduledFuture<?> timeout : timeouts) {
+            timeout.cancel(false);
+        }
+        Assert.assertEquals(0, scheduler.getPendingCount());
+        Assert.assertEquals(0, fired.get());
+    }
+
+    @Test
+    public void testTimeoutFiresOnlyWhenNotCancelled() throws InterruptedException {
+        BranchTaskTimeoutScheduler scheduler = new BranchTaskTimeoutScheduler();
+        final CountDownLatch fired = new CountDownLatch(1);
+        final AtomicInteger cancelledFired = new AtomicInteger();
+
+        ScheduledFuture<?> cancelled = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                cancelledFired.incrementAndGet();
+            }
+        }, 50);
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                fired.countDown();
+            }
+        }, 100);
+        cancelled.cancel(false);
+
+        Assert.assertTrue(fired.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, cancelledFired.get());
+    }
+}
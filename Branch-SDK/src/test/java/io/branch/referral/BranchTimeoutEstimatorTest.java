@@ -0,0 +1,123 @@
+package io.branch.referral;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class BranchTimeoutEstimatorTest {
+    private static final Defines.RequestPath PATH = Defines.RequestPath.TrackStandardEvent;
+    private static final int READ_TIMEOUT = 5500;
+    private static final int TASK_TIMEOUT = 15500;
+    private static final int MIN_TIMEOUT = 3000;
+    private static final int MAX_TIMEOUT = 20000;
+
+    private String networkType;
+    private BranchTimeoutEstimator estimator;
+
+    @Before
+    public void setUp() {
+        networkType = "wifi";
+        estimator = new BranchTimeoutEstimator(new BranchTimeoutEstimator.NetworkType() {
+            @Override
+            public String current() {
+                return networkType;
+            }
+        });
+        estimator.configure(READ_TIMEOUT, TASK_TIMEOUT, MIN_TIMEOUT, MAX_TIMEOUT);
+    }
+
+    @Test
+    public void testStaticTimeoutsUntilMeasured() {
+        Assert.assertEquals(READ_TIMEOUT, estimator.getReadTimeout(PATH));
+        Assert.assertEquals(TASK_TIMEOUT, estimator.getTaskTimeout(PATH));
+        Assert.assertEquals(READ_TIMEOUT, estimator.getReadTimeout(null));
+    }
+
+    @Test
+    public void testFastNetworkShortensTimeouts() {
+        for (int i = 0; i < 20; i++) {
+            estimator.onRoundTrip(PATH, 150 + (i % 2) * 100);
+        }
+        Assert.assertEquals(MIN_TIMEOUT, estimator.getReadTimeout(PATH));
+        Assert.assertEquals(2 * MIN_TIMEOUT, estimator.getTaskTimeout(PATH));
+    }
+
+    @Test
+    public void testSlowNetworkLengthensTimeouts() {
+        // A 3G connection answering in 3 to 5 seconds
+        for (int i = 0; i < 20; i++) {
+            estimator.onRoundTrip(PATH, 3000 + (i % 2) * 2000);
+        }
+        int readTimeout = estimator.getReadTimeout(PATH);
+        // The static read timeout would cut these responses off
+        Assert.assertTrue("read timeout " + readTimeout, readTimeout > READ_TIMEOUT);
+        Assert.assertTrue(readTimeout < MAX_TIMEOUT);
+        Assert.assertEquals(2 * readTimeout, estimator.getTaskTimeout(PATH));
+    }
+
+    @Test
+    public void testFollowsAChangeInRoundTripTime() {
+        for (int i = 0; i < 20; i++) {
+            estimator.onRoundTrip(PATH, 4000);
+        }
+        int slow = estimator.getReadTimeout(PATH);
+        for (int i = 0; i < 40; i++) {
+            estimator.onRoundTrip(PATH, 200);
+        }
+        Assert.assertTrue(slow > estimator.getReadTimeout(PATH));
+        Assert.assertEquals(MIN_TIMEOUT, estimator.getReadTimeout(PATH));
+    }
+
+    @Test
+    public void testPathsAndNetworksAreIndependent() {
+        for (int i = 0; i < 10; i++) {
+            estimator.onRoundTrip(PATH, 200);
+        }
+        Assert.assertEquals(MIN_TIMEOUT, estimator.getReadTimeout(PATH));
+        Assert.assertEquals(READ_TIMEOUT, estimator.getReadTimeout(Defines.RequestPath.GetURL));
+
+        networkType = "mobile";
+        Assert.assertEquals(READ_TIMEOUT, estimator.getReadTimeout(PATH));
+        networkType = null;
+        Assert.assertEquals(READ_TIMEOUT, estimator.getReadTimeout(PATH));
+        networkType = "wifi";
+        Assert.assertEquals(MIN_TIMEOUT, estimator.getReadTimeout(PATH));
+    }
+
+    @Test
+    public void testTimeoutsBackOffUntilTheNextResponse() {
+        for (int i = 0; i < 10; i++) {
+            estimator.onRoundTrip(PATH, 4000);
+        }
+        int readTimeout = estimator.getReadTimeout(PATH);
+        estimator.onTimeout(PATH);
+        Assert.assertEquals(Math.min(MAX_TIMEOUT, 2 * readTimeout), estimator.getReadTimeout(PATH));
+        for (int i = 0; i < 10; i++) {
+            estimator.onTimeout(PATH);
+        }
+        Assert.assertEquals(MAX_TIMEOUT, estimator.getReadTimeout(PATH));
+
+        estimator.onRoundTrip(PATH, 4000);
+        Assert.assertTrue(estimator.getReadTimeout(PATH) < MAX_TIMEOUT);
+    }
+
+    @Test
+    public void testTimeoutOfAnUnmeasuredPathKeepsTheStaticTimeouts() {
+        estimator.onTimeout(PATH);
+        Assert.assertEquals(READ_TIMEOUT, estimator.getReadTimeout(PATH));
+        Assert.assertEquals(TASK_TIMEOUT, estimator.getTaskTimeout(PATH));
+    }
+
+    @Test
+    public void testEqualBoundsFixTheTimeouts() {
+        estimator.configure(READ_TIMEOUT, TASK_TIMEOUT, 8000, 8000);
+        estimator.onRoundTrip(PATH, 100);
+        Assert.assertEquals(8000, estimator.getReadTimeout(PATH));
+        Assert.assertEquals(8000, estimator.getTaskTimeout(PATH));
+        estimator.onRoundTrip(PATH, 30000);
+        Assert.assertEquals(8000, estimator.getReadTimeout(PATH));
+    }
+}
@@ -0,0 +1,159 @@
+package io.branch.referral;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static io.branch.referral.ServerRequest.PROCESS_WAIT_LOCK.GAID_FETCH_WAIT_LOCK;
+import static io.branch.referral.ServerRequest.PROCESS_WAIT_LOCK.INSTALL_REFERRER_FETCH_WAIT_LOCK;
+import static io.branch.referral.ServerRequest.PROCESS_WAIT_LOCK.SDK_INIT_WAIT_LOCK;
+import static io.branch.referral.ServerRequest.PROCESS_WAIT_LOCK.USER_AGENT_STRING_LOCK;
+
+@RunWith(JUnit4.class)
+public class BranchWaitLockIndexTest {
+    private final List<Request> unblocked = new ArrayList<>();
+    private BranchWaitLockIndex<Request> index;
+
+    // Reports lock changes to the index the way ServerRequest does while it is queued
+    private class Request {
+        final String name;
+        final Set<ServerRequest.PROCESS_WAIT_LOCK> locks = EnumSet.noneOf(ServerRequest.PROCESS_WAIT_LOCK.class);
+        boolean tracked;
+
+        Request(String name, ServerRequest.PROCESS_WAIT_LOCK... locks) {
+            this.name = name;
+            this.locks.addAll(Arrays.asList(locks));
+        }
+
+        void addLock(ServerRequest.PROCESS_WAIT_LOCK lock) {
+            if (locks.add(lock) && tracked) {
+                index.onLockAdded(this, lock);
+            }
+        }
+
+        void removeLock(ServerRequest.PROCESS_WAIT_LOCK lock) {
+            if (locks.remove(lock) && tracked) {
+                index.onLockRemoved(this, lock, locks.isEmpty());
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        index = new BranchWaitLockIndex<>(new BranchWaitLockIndex.Locks<Request>() {
+            @Override
+            public boolean hasLock(Request item, ServerRequest.PROCESS_WAIT_LOCK lock) {
+                return item.locks.contains(lock);
+            }
+
+            @Override
+            public void removeLock(Request item, ServerRequest.PROCESS_WAIT_LOCK lock) {
+                item.removeLock(lock);
+            }
+        }, new BranchWaitLockIndex.Listener<Request>() {
+            @Override
+            public void onUnblocked(Request item) {
+                unblocked.add(item);
+            }
+        });
+    }
+
+    private Request track(Request request) {
+        request.tracked = true;
+        index.track(request);
+        return request;
+    }
+
+    private void untrack(Request request) {
+        request.tracked = false;
+        index.untrack(request);
+    }
+
+    @Test
+    public void testIndexesLocksHeldWhenTrackedAndAddedLater() {
+        Request open = track(new Request("open", SDK_INIT_WAIT_LOCK, GAID_FETCH_WAIT_LOCK));
+        Assert.assertTrue(index.isWaiting(open, SDK_INIT_WAIT_LOCK));
+        Assert.assertTrue(index.isWaiting(open, GAID_FETCH_WAIT_LOCK));
+        Assert.assertFalse(index.isWaiting(open, USER_AGENT_STRING_LOCK));
+
+        open.addLock(USER_AGENT_STRING_LOCK);
+        Assert.assertTrue(index.isWaiting(open, USER_AGENT_STRING_LOCK));
+    }
+
+    @Test
+    public void testReleasingTheLastLockDispatchesExactlyTheUnblockedRequests() {
+        Request onlyInit = track(new Request("onlyInit", SDK_INIT_WAIT_LOCK));
+        Request initAndGaid = track(new Request("initAndGaid", SDK_INIT_WAIT_LOCK, GAID_FETCH_WAIT_LOCK));
+        Request onlyGaid = track(new Request("onlyGaid", GAID_FETCH_WAIT_LOCK));
+        track(new Request("userAgent", USER_AGENT_STRING_LOCK));
+
+        index.unlock(SDK_INIT_WAIT_LOCK);
+        Assert.assertEquals(Collections.singletonList(onlyInit), unblocked);
+        Assert.assertEquals(0, index.getWaiterCount(SDK_INIT_WAIT_LOCK));
+        Assert.assertTrue(initAndGaid.locks.contains(GAID_FETCH_WAIT_LOCK));
+
+        unblocked.clear();
+        index.unlock(GAID_FETCH_WAIT_LOCK);
+        Assert.assertEquals(new HashSet<>(Arrays.asList(initAndGaid, onlyGaid)), new HashSet<>(unblocked));
+        Assert.assertEquals(2, unblocked.size());
+        Assert.assertEquals(0, index.getWaiterCount(GAID_FETCH_WAIT_LOCK));
+        Assert.assertEquals(1, index.getWaiterCount(USER_AGENT_STRING_LOCK));
+    }
+
+    @Test
+    public void testUnlockingALockNobodyHoldsDispatchesNothing() {
+        track(new Request("open", SDK_INIT_WAIT_LOCK));
+        index.unlock(INSTALL_REFERRER_FETCH_WAIT_LOCK);
+        Assert.assertTrue(unblocked.isEmpty());
+    }
+
+    @Test
+    public void testUnlockingASingleRequest() {
+        Request install = track(new Request("install", INSTALL_REFERRER_FETCH_WAIT_LOCK));
+        Request other = track(new Request("other", INSTALL_REFERRER_FETCH_WAIT_LOCK));
+
+        index.unlock(install, INSTALL_REFERRER_FETCH_WAIT_LOCK);
+        Assert.assertEquals(Collections.singletonList(install), unblocked);
+        Assert.assertFalse(index.isWaiting(install, INSTALL_REFERRER_FETCH_WAIT_LOCK));
+        Assert.assertTrue(index.isWaiting(other, INSTALL_REFERRER_FETCH_WAIT_LOCK));
+    }
+
+    @Test
+    public void testLockRemovedOnTheRequestLeavesNoStaleEntry() {
+        Request install = track(new Request("install", INSTALL_REFERRER_FETCH_WAIT_LOCK, GAID_FETCH_WAIT_LOCK));
+
+        install.removeLock(INSTALL_REFERRER_FETCH_WAIT_LOCK);
+        Assert.assertFalse(index.isWaiting(install, INSTALL_REFERRER_FETCH_WAIT_LOCK));
+        Assert.assertTrue(unblocked.isEmpty());
+
+        install.removeLock(GAID_FETCH_WAIT_LOCK);
+        Assert.assertEquals(Collections.singletonList(install), unblocked);
+        Assert.assertEquals(0, index.getWaiterCount(GAID_FETCH_WAIT_LOCK));
+    }
+
+    @Test
+    public void testUntrackedRequestsAreLeftAlone() {
+        Request dropped = track(new Request("dropped", SDK_INIT_WAIT_LOCK));
+        untrack(dropped);
+        Assert.assertEquals(0, index.getWaiterCount(SDK_INIT_WAIT_LOCK));
+
+        index.unlock(SDK_INIT_WAIT_LOCK);
+        Assert.assertTrue(dropped.locks.contains(SDK_INIT_WAIT_LOCK));
+        Assert.assertTrue(unblocked.isEmpty());
+    }
+}
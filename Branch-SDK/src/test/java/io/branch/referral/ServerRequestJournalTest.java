@@ -0,0 +1,115 @@
+package io.branch.referral;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class ServerRequestJournalTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("branch_journal", ".journal");
+        Assert.assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void testReplayReturnsLiveEntriesInOrder() {
+        ServerRequestJournal journal = new ServerRequestJournal(file);
+        journal.put("a", "{\"a\":1}");
+        journal.put("b", "{\"b\":2}");
+        journal.put("c", "{\"c\":3}");
+        journal.remove("b");
+
+        List<String> replayed = new ServerRequestJournal(file).replay();
+        Assert.assertEquals(Arrays.asList("{\"a\":1}", "{\"c\":3}"), replayed);
+    }
+
+    @Test
+    public void testClearDropsEverything() {
+        ServerRequestJournal journal = new ServerRequestJournal(file);
+        journal.put("a", "{}");
+        journal.clear();
+        journal.put("b", "{\"b\":true}");
+
+        Assert.assertEquals(Arrays.asList("{\"b\":true}"), new ServerRequestJournal(file).replay());
+    }
+
+    @Test
+    public void testTornTailIsDiscarded() throws IOException {
+        ServerRequestJournal journal = new ServerRequestJournal(file);
+        journal.put("a", "{\"a\":1}");
+        long goodLength = file.length();
+        journal.put("b", "{\"b\":2}");
+
+        // Simulate the process dying half way through the second record
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(file.length() - 3);
+        raf.close();
+
+        ServerRequestJournal reopened = new ServerRequestJournal(file);
+        Assert.assertEquals(Arrays.asList("{\"a\":1}"), reopened.replay());
+        Assert.assertEquals(goodLength, file.length());
+
+        // Appending after a truncated tail must produce a readable journal
+        reopened.put("c", "{\"c\":3}");
+        Assert.assertEquals(Arrays.asList("{\"a\":1}", "{\"c\":3}"), new ServerRequestJournal(file).replay());
+    }
+
+    @Test
+    public void testCorruptRecordIsDiscarded() throws IOException {
+        ServerRequestJournal journal = new ServerRequestJournal(file);
+        journal.put("a", "{\"a\":1}");
+        journal.put("b", "{\"b\":2}");
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(file.length() - 2);
+        raf.write('x');
+        raf.close();
+
+        Assert.assertEquals(Arrays.asList("{\"a\":1}"), new ServerRequestJournal(file).replay());
+    }
+
+    @Test
+    public void testCompactionBoundsFileSize() {
+        ServerRequestJournal journal = new ServerRequestJournal(file);
+        journal.put("live", "{\"live\":true}");
+        long baseline = file.length();
+        for (int i = 0; i < 1000; i++) {
+            journal.put("id" + i, "{\"event\":\"PURCHASE\",\"index\":" + i + "}");
+            journal.remove("id" + i);
+        }
+
+        Assert.assertTrue("journal was not compacted: " + file.length(), file.length() < baseline * 40);
+        Assert.assertEquals(Arrays.asList("{\"live\":true}"), new ServerRequestJournal(file).replay());
+    }
+
+    @Test
+    public void testUnknownHeaderIsDiscarded() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.writeBytes("not a journal");
+        raf.close();
+
+        ServerRequestJournal journal = new ServerRequestJournal(file);
+        Assert.assertTrue(journal.replay().isEmpty());
+        journal.put("a", "{}");
+        Assert.assertEquals(Arrays.asList("{}"), new ServerRequestJournal(file).replay());
+    }
+}
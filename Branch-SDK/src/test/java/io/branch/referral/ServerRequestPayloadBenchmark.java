@@ -0,0 +1,151 @@
+package io.branch.referral;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Iterator;
+
+/**
+ * Compares the allocations of preparing a large v1/install post for sending by copying it through
+ * its JSON text with merging the values of the attempt into it through a
+ * {@link ServerRequestPayload}. Each body is then walked the way the request body writer reads it.
+ * <p>
+ * Benchmarks are left out of the unit tests, run them with {@code ./gradlew test -PrunBenchmarks}.
+ */
+@RunWith(JUnit4.class)
+public class ServerRequestPayloadBenchmark {
+    private static final int WARMUP = 5000;
+    private static final int ITERATIONS = 20000;
+
+    private interface Preparer {
+        JSONObject prepare(JSONObject post) throws JSONException;
+    }
+
+    private static final Preparer DEEP_COPY = new Preparer() {
+        @Override
+        public JSONObject prepare(JSONObject post) throws JSONException {
+            return addAttemptValues(new JSONObject(post.toString()));
+        }
+    };
+
+    private static final Preparer PAYLOAD = new Preparer() {
+        @Override
+        public JSONObject prepare(JSONObject post) throws JSONException {
+            return addAttemptValues(new ServerRequestPayload(post).toJSON());
+        }
+    };
+
+    // What the request queue and the remote interface add to every attempt
+    private static JSONObject addAttemptValues(JSONObject payload) throws JSONException {
+        JSONObject instrumentation = new JSONObject();
+        instrumentation.put("v1/install-qwt", "3");
+        payload.put(Defines.Jsonkey.Branch_Instrumentation.getKey(), instrumentation);
+        payload.put("retryNumber", 1);
+        payload.put(Defines.Jsonkey.BranchKey.getKey(), "key_live_hkDytPACtipny3N9XmnbZlapBDdj4WIL");
+        return payload;
+    }
+
+    // Reads every top level value, as the body writer does
+    private static int walk(JSONObject payload) {
+        int count = 0;
+        Iterator<String> keys = payload.keys();
+        while (keys.hasNext()) {
+            if (payload.opt(keys.next()) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // A v1/install post of an app with install metadata and a few partner parameters
+    static JSONObject installPost() throws JSONException {
+        JSONObject post = new JSONObject();
+        post.put("hardware_id", "a1b2c3d4e5f60718");
+        post.put("is_hardware_id_real", true);
+        post.put("brand", "Google");
+        post.put("model", "Pixel 8");
+        post.put("screen_dpi", 420);
+        post.put("screen_height", 2400);
+        post.put("screen_width", 1080);
+        post.put("wifi", true);
+        post.put("ui_mode", "UI_MODE_TYPE_NORMAL");
+        post.put("os", "Android");
+        post.put("os_version", 34);
+        post.put("country", "US");
+        post.put("language", "en");
+        post.put("local_ip", "192.168.1.23");
+        post.put("app_version", "5.12.0");
+        post.put("facebook_app_link_checked", false);
+        post.put("is_referrable", 1);
+        post.put("debug", false);
+        post.put("update", 0);
+        post.put("latest_install_time", 1700000000000L);
+        post.put("latest_update_time", 1700000000000L);
+        post.put("first_install_time", 1690000000000L);
+        post.put("previous_update_time", 1695000000000L);
+        post.put("environment", "FULL_APP");
+        post.put("android_app_link_url", "https://example.app.link/abc123?%24deeplink_path=product%2F42");
+        post.put("external_intent_uri", "example://open/product/42");
+        post.put("install_begin_ts", 1690000000);
+        post.put("clicked_referrer_ts", 1689999990);
+        post.put("install_referrer_extras", "utm_source=google-play&utm_medium=organic&link_click_id=1234567890");
+        post.put("google_advertising_id", "38400000-8cf0-11bd-b23e-10b96e40000d");
+        post.put("lat_val", 0);
+        post.put("cd", new JSONObject().put("mv", "-1").put("pn", "io.branch.example"));
+        JSONObject metadata = new JSONObject();
+        for (int i = 0; i < 20; i++) {
+            metadata.put("install_metadata_key_" + i, "install metadata value number " + i);
+        }
+        post.put("metadata", metadata);
+        JSONArray brands = new JSONArray();
+        for (int i = 0; i < 10; i++) {
+            brands.put(new JSONObject().put("brand", "Brand " + i).put("version", "1." + i));
+        }
+        post.put("partner_data", new JSONObject().put("brands", brands));
+        return post;
+    }
+
+    @Test
+    public void testPayloadAllocatesLess() throws JSONException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        JSONObject post = installPost();
+        String postJson = post.toString();
+        Assert.assertTrue(DEEP_COPY.prepare(post).similar(PAYLOAD.prepare(post)));
+        Assert.assertEquals(postJson, post.toString());
+
+        long deep = measure(allocations, DEEP_COPY, post);
+        long payload = measure(allocations, PAYLOAD, post);
+        String results = "Bytes allocated per " + postJson.length() + " byte v1/install post, deep copy: " + deep
+                + ", payload: " + payload;
+
+        Assert.assertTrue(results, payload * 10 < deep);
+    }
+
+    private static long measure(com.sun.management.ThreadMXBean allocations, Preparer preparer, JSONObject post) throws JSONException {
+        int sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += walk(preparer.prepare(post));
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += walk(preparer.prepare(post));
+        }
+        long allocated = (allocations.getThreadAllocatedBytes(threadId) - before) / ITERATIONS;
+        Assert.assertTrue(sink > 0);
+        return allocated;
+    }
+}
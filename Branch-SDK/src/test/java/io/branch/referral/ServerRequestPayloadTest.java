@@ -0,0 +1,84 @@
+package io.branch.referral;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ServerRequestPayloadTest {
+    private JSONObject base;
+    private String baseJson;
+
+    @Before
+    public void setUp() throws JSONException {
+        base = new JSONObject();
+        base.put("name", "PURCHASE");
+        base.put("retryNumber", 0);
+        base.put("user_data", new JSONObject().put("os", "Android"));
+        baseJson = base.toString();
+    }
+
+    @Test
+    public void testHasTheKeysOfTheBase() throws JSONException {
+        JSONObject json = new ServerRequestPayload(base).toJSON();
+        Assert.assertNotSame(base, json);
+        Assert.assertEquals(3, json.length());
+        Assert.assertEquals("PURCHASE", json.getString("name"));
+        Assert.assertEquals("Android", json.getJSONObject("user_data").getString("os"));
+        // Nested values are shared rather than copied
+        Assert.assertSame(base.get("user_data"), json.get("user_data"));
+    }
+
+    @Test
+    public void testAttemptValuesTakePrecedence() throws JSONException {
+        JSONObject json = new ServerRequestPayload(base)
+                .put("retryNumber", 2)
+                .put("branch_key", "key_live_test")
+                .toJSON();
+
+        Assert.assertEquals(4, json.length());
+        Assert.assertEquals(2, json.getInt("retryNumber"));
+        Assert.assertEquals("key_live_test", json.getString("branch_key"));
+        // The post of the request is untouched
+        Assert.assertEquals(baseJson, base.toString());
+    }
+
+    @Test
+    public void testWritesToTheMergedObjectStayOutOfTheBase() throws JSONException {
+        JSONObject json = new ServerRequestPayload(base).toJSON();
+        json.put("branch_key", "key_live_test");
+        json.remove("name");
+        json.keys().next();
+
+        Assert.assertEquals(baseJson, base.toString());
+    }
+
+    @Test
+    public void testNestedPayloadIsSerializedWhole() throws JSONException {
+        JSONObject payload = new ServerRequestPayload(base)
+                .put("retryNumber", 1)
+                .put("instrumentation", new JSONObject().put("v1/open-qwt", "12"))
+                .toJSON();
+        JSONObject parent = new JSONObject();
+        parent.put("body", payload);
+
+        JSONObject parsed = new JSONObject(parent.toString()).getJSONObject("body");
+        Assert.assertEquals(4, parsed.length());
+        Assert.assertEquals(1, parsed.getInt("retryNumber"));
+        Assert.assertEquals("PURCHASE", parsed.getString("name"));
+        Assert.assertEquals("Android", parsed.getJSONObject("user_data").getString("os"));
+        Assert.assertEquals("12", parsed.getJSONObject("instrumentation").getString("v1/open-qwt"));
+        Assert.assertTrue(parsed.similar(new JSONObject(parent.toString(2)).getJSONObject("body")));
+    }
+
+    @Test
+    public void testEmptyPayload() {
+        JSONObject json = new ServerRequestPayload(new JSONObject()).toJSON();
+        Assert.assertEquals(0, json.length());
+        Assert.assertEquals("{}", json.toString());
+    }
+}
@@ -0,0 +1,231 @@
+package io.branch.referral.network;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.branch.referral.BranchError;
+
+@RunWith(JUnit4.class)
+public class BlockingTransportAdapterTest {
+    private static final int CONCURRENT_REQUESTS = 50;
+    private static final long LATENCY_MS = 300;
+
+    private ExecutorService executor;
+    private ScheduledExecutorService scheduler;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * A blocking remote interface that sleeps for {@link #LATENCY_MS}, as if waiting on the server.
+     */
+    private static class SlowRemoteInterface extends BranchRemoteInterface {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger peakInFlight = new AtomicInteger();
+        final AtomicInteger interrupted = new AtomicInteger();
+
+        @Override
+        public BranchResponse doRestfulGet(String url) throws BranchRemoteException {
+            return respond();
+        }
+
+        @Override
+        public BranchResponse doRestfulPost(String url, JSONObject payload) throws BranchRemoteException {
+            return respond();
+        }
+
+        private BranchResponse respond() throws BranchRemoteException {
+            int running = inFlight.incrementAndGet();
+            peakInFlight.accumulateAndGet(running, Math::max);
+            try {
+                Thread.sleep(LATENCY_MS);
+                return new BranchResponse("{}", 200);
+            } catch (InterruptedException e) {
+                interrupted.incrementAndGet();
+                throw new BranchRemoteException(BranchError.ERR_BRANCH_REQ_TIMED_OUT, "interrupted");
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * A transport that answers every call from one timer thread after {@link #LATENCY_MS}, the
+     * way a non blocking network stack would.
+     */
+    private class NonBlockingTransport implements BranchAsyncTransport {
+        @Override
+        public Call get(String url, long deadlineMs, Callback callback) {
+            return respond(callback);
+        }
+
+        @Override
+        public Call post(String url, JSONObject payload, long deadlineMs, Callback callback) {
+            return respond(callback);
+        }
+
+        private Call respond(final Callback callback) {
+            final AtomicBoolean done = new AtomicBoolean();
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (done.compareAndSet(false, true)) {
+                        callback.onResponse(new BranchRemoteInterface.BranchResponse("{}", 200));
+                    }
+                }
+            }, LATENCY_MS, TimeUnit.MILLISECONDS);
+            return new Call() {
+                @Override
+                public void cancel() {
+                    done.set(true);
+                }
+
+                @Override
+                public boolean isDone() {
+                    return done.get();
+                }
+            };
+        }
+    }
+
+    private static class CountingCallback implements BranchAsyncTransport.Callback {
+        final CountDownLatch latch;
+        final AtomicInteger responses = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        volatile int lastErrorCode;
+
+        CountingCallback(int expected) {
+            latch = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onResponse(BranchRemoteInterface.BranchResponse response) {
+            responses.incrementAndGet();
+            latch.countDown();
+        }
+
+        @Override
+        public void onFailure(BranchRemoteInterface.BranchRemoteException exception) {
+            lastErrorCode = exception.getBranchErrorCode();
+            failures.incrementAndGet();
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void testThreadUsageAtFiftyConcurrentRequests() throws InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        SlowRemoteInterface remote = new SlowRemoteInterface();
+        BlockingTransportAdapter adapter = new BlockingTransportAdapter(remote, executor, null);
+        int baseline = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+        CountingCallback blocking = runConcurrently(adapter);
+        int blockingThreads = threads.getPeakThreadCount() - baseline;
+
+        // Let the cached pool's idle threads expire out of the next measurement
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        baseline = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+        CountingCallback nonBlocking = runConcurrently(new NonBlockingTransport());
+        int nonBlockingThreads = threads.getPeakThreadCount() - baseline;
+
+        Assert.assertEquals(CONCURRENT_REQUESTS, blocking.responses.get());
+        Assert.assertEquals(CONCURRENT_REQUESTS, nonBlocking.responses.get());
+        Assert.assertEquals(CONCURRENT_REQUESTS, remote.peakInFlight.get());
+        Assert.assertTrue("extra threads with the blocking adapter: " + blockingThreads, blockingThreads >= CONCURRENT_REQUESTS);
+        Assert.assertTrue("extra threads with a non blocking transport: " + nonBlockingThreads, nonBlockingThreads <= 1);
+    }
+
+    @Test
+    public void testDeadlineFailsTheCallAndInterruptsTheWorker() throws InterruptedException {
+        SlowRemoteInterface remote = new SlowRemoteInterface();
+        BlockingTransportAdapter adapter = new BlockingTransportAdapter(remote, executor, scheduler);
+        CountingCallback callback = new CountingCallback(1);
+
+        BranchAsyncTransport.Call call = adapter.post("https://api2.branch.io/v1/open", new JSONObject(), 50, callback);
+
+        Assert.assertTrue(callback.latch.await(LATENCY_MS / 2, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(call.isDone());
+        Assert.assertEquals(BranchError.ERR_BRANCH_TASK_TIMEOUT, callback.lastErrorCode);
+        waitForIdle(remote);
+        Assert.assertEquals(1, remote.interrupted.get());
+        // The interrupted call's own failure is not delivered a second time
+        Assert.assertEquals(1, callback.failures.get());
+        Assert.assertEquals(0, callback.responses.get());
+    }
+
+    @Test
+    public void testCancelledCallIsNotDelivered() throws InterruptedException {
+        SlowRemoteInterface remote = new SlowRemoteInterface();
+        BlockingTransportAdapter adapter = new BlockingTransportAdapter(remote, executor, scheduler);
+        CountingCallback callback = new CountingCallback(1);
+
+        BranchAsyncTransport.Call call = adapter.get("https://api2.branch.io/v1/url", 0, callback);
+        Thread.sleep(20);
+        call.cancel();
+
+        Assert.assertTrue(call.isDone());
+        Assert.assertFalse(callback.latch.await(LATENCY_MS * 2, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(1, remote.interrupted.get());
+    }
+
+    @Test
+    public void testCallingThreadExecutorCompletesBeforeReturning() {
+        SlowRemoteInterface remote = new SlowRemoteInterface();
+        BlockingTransportAdapter adapter = new BlockingTransportAdapter(remote, new java.util.concurrent.Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, null);
+        CountingCallback callback = new CountingCallback(1);
+
+        BranchAsyncTransport.Call call = adapter.post("https://api2.branch.io/v1/open", new JSONObject(), 0, callback);
+
+        Assert.assertTrue(call.isDone());
+        Assert.assertEquals(1, callback.responses.get());
+        Assert.assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    private CountingCallback runConcurrently(BranchAsyncTransport transport) throws InterruptedException {
+        CountingCallback callback = new CountingCallback(CONCURRENT_REQUESTS);
+        for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+            transport.post("https://api2.branch.io/v2/event/standard", new JSONObject(), 0, callback);
+        }
+        Assert.assertTrue(callback.latch.await(10, TimeUnit.SECONDS));
+        return callback;
+    }
+
+    private static void waitForIdle(SlowRemoteInterface remote) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (remote.inFlight.get() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+}
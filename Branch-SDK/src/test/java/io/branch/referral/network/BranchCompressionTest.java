@@ -0,0 +1,136 @@
+package io.branch.referral.network;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+
+import io.branch.referral.Defines;
+
+@RunWith(JUnit4.class)
+public class BranchCompressionTest {
+
+    @After
+    public void tearDown() {
+        BranchCompression.resetBytesSaved();
+    }
+
+    @Test
+    public void testGzipRoundTrip() throws IOException, JSONException {
+        JSONObject payload = eventPayload();
+        byte[] body = payload.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = BranchCompression.gzip(payload, body.length);
+
+        byte[] decoded = readAll(BranchCompression.decode(new ByteArrayInputStream(compressed), "gzip"));
+        Assert.assertEquals(payload.toString(), new JSONObject(new String(decoded, StandardCharsets.UTF_8)).toString());
+    }
+
+    @Test
+    public void testRepetitiveEventPayloadShrinks() throws IOException, JSONException {
+        JSONObject payload = eventPayload();
+        byte[] body = payload.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = BranchCompression.gzip(payload, body.length);
+
+        Assert.assertTrue("compressed " + compressed.length + " of " + body.length, compressed.length * 4 < body.length);
+    }
+
+    @Test
+    public void testDecodeDeflate() throws IOException {
+        byte[] body = "{\"session_id\":\"123\"}".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DeflaterOutputStream deflater = new DeflaterOutputStream(buffer);
+        deflater.write(body);
+        deflater.close();
+
+        Assert.assertArrayEquals(body, readAll(BranchCompression.decode(new ByteArrayInputStream(buffer.toByteArray()), " Deflate ")));
+    }
+
+    @Test
+    public void testUnknownOrMissingEncodingPassesThrough() throws IOException {
+        byte[] body = "plain".getBytes(StandardCharsets.UTF_8);
+
+        Assert.assertArrayEquals(body, readAll(BranchCompression.decode(new ByteArrayInputStream(body), null)));
+        Assert.assertArrayEquals(body, readAll(BranchCompression.decode(new ByteArrayInputStream(body), "identity")));
+    }
+
+    @Test
+    public void testResolvePath() {
+        Assert.assertEquals(Defines.RequestPath.TrackStandardEvent, BranchCompression.resolvePath("https://api2.branch.io/v2/event/standard"));
+        Assert.assertEquals(Defines.RequestPath.RegisterOpen, BranchCompression.resolvePath("https://api2.branch.io/v1/open"));
+        Assert.assertEquals(Defines.RequestPath.GetURL, BranchCompression.resolvePath("https://api2.branch.io/v1/url?retryNumber=0&sdk=android"));
+        Assert.assertNull(BranchCompression.resolvePath("https://example.com/other"));
+        Assert.assertNull(BranchCompression.resolvePath(null));
+    }
+
+    @Test
+    public void testBytesSavedAreTalliedPerPath() throws IOException {
+        BranchCompression.recordSaving(Defines.RequestPath.RegisterOpen, 1000, 200);
+        BranchCompression.recordSaving(Defines.RequestPath.RegisterOpen, 500, 100);
+        BranchCompression.recordSaving(Defines.RequestPath.TrackCustomEvent, 300, 300);
+        BranchCompression.recordSaving(null, 300, 100);
+
+        Map<Defines.RequestPath, Long> saved = BranchCompression.getBytesSaved();
+        Assert.assertEquals(1, saved.size());
+        Assert.assertEquals(Long.valueOf(1200), saved.get(Defines.RequestPath.RegisterOpen));
+    }
+
+    @Test
+    public void testCountingStreamsMeasureWireAndDecodedSize() throws IOException, JSONException {
+        JSONObject payload = eventPayload();
+        byte[] body = payload.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = BranchCompression.gzip(payload, body.length);
+
+        BranchCompression.CountingInputStream wire = new BranchCompression.CountingInputStream(new ByteArrayInputStream(compressed));
+        BranchCompression.CountingInputStream decoded = new BranchCompression.CountingInputStream(BranchCompression.decode(wire, "gzip"));
+        readAll(decoded);
+
+        Assert.assertEquals(compressed.length, wire.getCount());
+        Assert.assertEquals(body.length, decoded.getCount());
+    }
+
+    private static JSONObject eventPayload() throws JSONException {
+        JSONObject payload = new JSONObject();
+        JSONObject userData = new JSONObject();
+        userData.put("os", "Android");
+        userData.put("os_version", 33);
+        userData.put("brand", "Google");
+        userData.put("model", "Pixel 7");
+        userData.put("user_agent", "Mozilla/5.0 (Linux; Android 13; Pixel 7 Build/TQ3A.230805.001; wv) AppleWebKit/537.36 (KHTML, like Gecko) Version/4.0 Chrome/116.0.0.0 Mobile Safari/537.36");
+        payload.put("user_data", userData);
+        JSONArray contentItems = new JSONArray();
+        for (int i = 0; i < 20; i++) {
+            JSONObject item = new JSONObject();
+            item.put("$canonical_identifier", "item/" + i);
+            item.put("$og_title", "Content title " + i);
+            item.put("$content_schema", "COMMERCE_PRODUCT");
+            item.put("$price", 10.5);
+            item.put("$currency", "USD");
+            contentItems.put(item);
+        }
+        payload.put("content_items", contentItems);
+        return payload;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
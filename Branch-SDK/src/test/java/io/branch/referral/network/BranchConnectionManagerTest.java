@@ -0,0 +1,140 @@
+package io.branch.referral.network;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Runs {@link BranchConnectionManager} against a local stand-in for the Branch API and checks,
+ * from the server side, that requests share a connection.
+ */
+@RunWith(JUnit4.class)
+public class BranchConnectionManagerTest {
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+
+    private HttpServer server;
+    private final List<Integer> clientPorts = new CopyOnWriteArrayList<>();
+    private BranchConnectionManager manager;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                byte[] body = "{\"session_id\":\"1\"}".getBytes(StandardCharsets.UTF_8);
+                // The API root has nothing to serve, like the real one
+                int status = "/".equals(exchange.getRequestURI().getPath()) ? 404 : 200;
+                exchange.sendResponseHeaders(status, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+        manager = new BranchConnectionManager();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testReadResponsesShareOneConnection() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            HttpURLConnection connection = manager.openConnection(new URL(baseUrl + "v1/open"));
+            BranchConnectionManager.ConnectionTimings timings = manager.connect(connection);
+            Assert.assertEquals(200, connection.getResponseCode());
+            timings.onFirstByte();
+            BranchConnectionManager.drainAndClose(connection.getInputStream());
+
+            Assert.assertTrue(timings.getConnectMs() >= 0);
+            Assert.assertTrue(timings.getTtfbMs() >= 0);
+            Assert.assertEquals(0, timings.getTlsMs());
+        }
+
+        Assert.assertEquals(3, clientPorts.size());
+        Assert.assertEquals(clientPorts.get(0), clientPorts.get(1));
+        Assert.assertEquals(clientPorts.get(1), clientPorts.get(2));
+    }
+
+    @Test
+    public void testReleaseReturnsUnreadResponseToThePool() throws IOException {
+        HttpURLConnection first = manager.openConnection(new URL(baseUrl + "v1/open"));
+        manager.connect(first);
+        Assert.assertEquals(200, first.getResponseCode());
+        manager.release(first);
+
+        HttpURLConnection second = manager.openConnection(new URL(baseUrl + "v2/event"));
+        manager.connect(second);
+        Assert.assertEquals(200, second.getResponseCode());
+        manager.release(second);
+
+        Assert.assertEquals(2, clientPorts.size());
+        Assert.assertEquals(clientPorts.get(0), clientPorts.get(1));
+    }
+
+    @Test
+    public void testPrewarmSendsNoRequest() throws IOException {
+        manager.prewarm(baseUrl, CONNECT_TIMEOUT_MS);
+        Assert.assertTrue(clientPorts.isEmpty());
+
+        HttpURLConnection connection = manager.openConnection(new URL(baseUrl + "v1/install"));
+        manager.connect(connection);
+        Assert.assertEquals(200, connection.getResponseCode());
+        manager.release(connection);
+
+        Assert.assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void testFollowsTheDefaultSSLSocketFactory() throws Exception {
+        URL url = new URL("https://127.0.0.1/v1/open");
+        SSLSocketFactory platformDefault = HttpsURLConnection.getDefaultSSLSocketFactory();
+        SSLSocketFactory first = ((HttpsURLConnection) manager.openConnection(url)).getSSLSocketFactory();
+        Assert.assertSame(first, ((HttpsURLConnection) manager.openConnection(url)).getSSLSocketFactory());
+
+        try {
+            // Stands in for a pinning factory the app sets after the manager was created
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, null, null);
+            HttpsURLConnection.setDefaultSSLSocketFactory(context.getSocketFactory());
+            SSLSocketFactory pinned = ((HttpsURLConnection) manager.openConnection(url)).getSSLSocketFactory();
+            Assert.assertNotSame(first, pinned);
+            Assert.assertSame(pinned, ((HttpsURLConnection) manager.openConnection(url)).getSSLSocketFactory());
+        } finally {
+            HttpsURLConnection.setDefaultSSLSocketFactory(platformDefault);
+        }
+    }
+
+    @Test
+    public void testPrewarmFailureIsSwallowed() {
+        server.stop(0);
+        manager.prewarm(baseUrl, CONNECT_TIMEOUT_MS);
+        Assert.assertTrue(clientPorts.isEmpty());
+    }
+}
@@ -0,0 +1,89 @@
+package io.branch.referral.network;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Compares the heap allocated per request body by {@code toString().getBytes()}, the way bodies
+ * used to be written, with streaming them through {@link BranchJsonWriter}. Both write to a sink
+ * that discards the bytes, like a socket would take them.
+ * <p>
+ * Benchmarks are left out of the unit tests, run them with {@code ./gradlew test -PrunBenchmarks}.
+ * The correctness of the writer is covered by {@link BranchJsonWriterTest}.
+ */
+@RunWith(JUnit4.class)
+public class BranchJsonWriterAllocationBenchmark {
+    private static final int WARMUP = 2000;
+    private static final int ITERATIONS = 5000;
+
+    private static final OutputStream SINK = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private interface BodyWriter {
+        void write(JSONObject payload) throws IOException, JSONException;
+    }
+
+    @Test
+    public void testStreamingAllocatesLessThanToString() throws IOException, JSONException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        JSONObject payload = BranchJsonWriterTest.requestPayload();
+        BodyWriter toString = new BodyWriter() {
+            @Override
+            public void write(JSONObject payload) throws IOException {
+                byte[] body = payload.toString().getBytes("UTF-8");
+                SINK.write(body, 0, body.length);
+            }
+        };
+        BodyWriter streaming = new BodyWriter() {
+            @Override
+            public void write(JSONObject payload) throws IOException, JSONException {
+                BranchJsonWriter.utf8Length(payload);
+                Writer writer = new BufferedWriter(new OutputStreamWriter(SINK, "UTF-8"), 8192);
+                BranchJsonWriter.write(payload, writer);
+                writer.flush();
+            }
+        };
+
+        long toStringBytes = allocatedPerBody(allocations, toString, payload);
+        long streamingBytes = allocatedPerBody(allocations, streaming, payload);
+        Assert.assertTrue("Bytes allocated per body, streaming: " + streamingBytes + ", toString: " + toStringBytes,
+                streamingBytes < toStringBytes);
+    }
+
+    private static long allocatedPerBody(com.sun.management.ThreadMXBean allocations, BodyWriter writer, JSONObject payload) throws IOException, JSONException {
+        for (int i = 0; i < WARMUP; i++) {
+            writer.write(payload);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            writer.write(payload);
+        }
+        return (allocations.getThreadAllocatedBytes(threadId) - before) / ITERATIONS;
+    }
+}
@@ -0,0 +1,114 @@
+package io.branch.referral.network;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+@RunWith(JUnit4.class)
+public class BranchJsonWriterTest {
+
+    @Test
+    public void testOutputParsesBackToTheSameTree() throws IOException, JSONException {
+        JSONObject payload = requestPayload();
+
+        Assert.assertEquals(payload.toString(), new JSONObject(write(payload)).toString());
+    }
+
+    @Test
+    public void testEscapes() throws IOException, JSONException {
+        JSONObject payload = new JSONObject();
+        payload.put("quote\"key", "back\\slash\nnew line\ttab\u0001control\u2028separator");
+
+        String json = write(payload);
+        Assert.assertEquals("{\"quote\\\"key\":\"back\\\\slash\\nnew line\\ttab\\u0001control\\u2028separator\"}", json);
+        Assert.assertEquals(payload.getString("quote\"key"), new JSONObject(json).getString("quote\"key"));
+    }
+
+    @Test
+    public void testNumbersAndNulls() throws IOException, JSONException {
+        JSONObject payload = new JSONObject();
+        payload.put("int", 7);
+        payload.put("long", 1700000000000L);
+        payload.put("double", 10.5);
+        payload.put("whole_double", 3.0);
+        payload.put("true", true);
+        payload.put("null", JSONObject.NULL);
+        payload.put("array", new JSONArray().put(1).put(JSONObject.NULL).put("a"));
+
+        Assert.assertEquals(payload.toString(), new JSONObject(write(payload)).toString());
+    }
+
+    @Test
+    public void testUtf8LengthMatchesTheBytesWritten() throws IOException, JSONException {
+        JSONObject payload = requestPayload();
+        payload.put("multi_byte", "caf\u00e9 \u65e5\u672c \ud83d\ude00");
+        payload.put("lone_surrogates", "\ud83d end \ude00");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+        BranchJsonWriter.write(payload, writer);
+        writer.close();
+
+        Assert.assertEquals(bytes.size(), BranchJsonWriter.utf8Length(payload));
+        Assert.assertEquals("\ud83d end \ude00", new JSONObject(new String(bytes.toByteArray(), StandardCharsets.UTF_8)).getString("lone_surrogates"));
+    }
+
+    @Test
+    public void testCountingWriterReplacesUnpairedSurrogates() throws IOException {
+        String text = "a\ud83d\ude00b\ud83dc\ude00";
+        BranchJsonWriter.Utf8CountingWriter counter = new BranchJsonWriter.Utf8CountingWriter();
+        counter.write(text);
+        counter.close();
+
+        Assert.assertEquals(text.getBytes(StandardCharsets.UTF_8).length, counter.getCount());
+    }
+
+    static JSONObject requestPayload() throws JSONException {
+        JSONObject payload = new JSONObject();
+        payload.put("hardware_id", "2d9c5a8e-2b3f-4f3a-9b6a-7b0b5d3f1e44");
+        payload.put("is_hardware_id_real", false);
+        payload.put("brand", "Google");
+        payload.put("model", "Pixel 7");
+        payload.put("screen_dpi", 420);
+        payload.put("screen_height", 2400);
+        payload.put("screen_width", 1080);
+        payload.put("wifi", true);
+        payload.put("os", "Android");
+        payload.put("os_version", 33);
+        payload.put("latest_install_time", 1700000000000L);
+        payload.put("user_agent", "Mozilla/5.0 (Linux; Android 13; Pixel 7 Build/TQ3A.230805.001; wv) AppleWebKit/537.36 (KHTML, like Gecko) Version/4.0 Chrome/116.0.0.0 Mobile Safari/537.36");
+        JSONObject metadata = new JSONObject();
+        for (int i = 0; i < 10; i++) {
+            metadata.put("key_" + i, "value " + i);
+        }
+        payload.put("metadata", metadata);
+        JSONArray contentItems = new JSONArray();
+        for (int i = 0; i < 20; i++) {
+            JSONObject item = new JSONObject();
+            item.put("$canonical_identifier", "item/" + i);
+            item.put("$og_title", "Content title " + i);
+            item.put("$price", 10.5 + i);
+            item.put("$quantity", i);
+            contentItems.put(item);
+        }
+        payload.put("content_items", contentItems);
+        return payload;
+    }
+
+    private static String write(JSONObject json) throws IOException, JSONException {
+        StringWriter writer = new StringWriter();
+        BranchJsonWriter.write(json, writer);
+        return writer.toString();
+    }
+}
@@ -0,0 +1,170 @@
+package io.branch.referral.network;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Sends the same burst of concurrent requests through {@link BranchRemoteInterfaceOkHttp} to a
+ * local HTTP/2 server and through {@link BranchConnectionManager}, which backs the default
+ * {@link HttpURLConnection} network layer, to a local HTTP/1.1 server, and compares the latency and
+ * the connections each needs.
+ * <p>
+ * Benchmarks are left out of the unit tests, run them with {@code ./gradlew test -PrunBenchmarks}.
+ * The behaviour of the OkHttp network layer is covered by {@link BranchRemoteInterfaceOkHttpTest}.
+ */
+@RunWith(JUnit4.class)
+public class BranchRemoteInterfaceOkHttpBenchmark {
+    private static final int CONCURRENT_REQUESTS = 20;
+    private static final int ROUNDS = 5;
+    private static final long SERVER_LATENCY_MS = 20;
+
+    private MockWebServer h2Server;
+    private MockWebServer http1Server;
+    private ExecutorService callers;
+
+    @Before
+    public void setUp() throws IOException {
+        h2Server = new MockWebServer();
+        h2Server.setProtocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE));
+        h2Server.setDispatcher(new ApiDispatcher());
+        h2Server.start();
+        http1Server = new MockWebServer();
+        http1Server.setDispatcher(new ApiDispatcher());
+        http1Server.start();
+        callers = Executors.newFixedThreadPool(CONCURRENT_REQUESTS);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        callers.shutdownNow();
+        h2Server.shutdown();
+        http1Server.shutdown();
+    }
+
+    private static class ApiDispatcher extends Dispatcher {
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            return new MockResponse()
+                    .setHeader("X-Branch-Request-Id", "request-" + request.getSequenceNumber())
+                    .setBody("{\"session_id\":\"1\"}")
+                    .setHeadersDelay(SERVER_LATENCY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test
+    public void testHttp2AgainstHttpUrlConnection() throws Exception {
+        OkHttpClient client = new OkHttpClient.Builder()
+                .protocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE))
+                .build();
+        final BranchRemoteInterfaceOkHttp okHttp = new BranchRemoteInterfaceOkHttp(client, null);
+        final String h2Url = h2Server.url("/v1/open").toString();
+        long h2Ms = runRounds(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return okHttp.doRestfulPost(h2Url, payload()).getResponseCode();
+            }
+        });
+
+        final BranchConnectionManager manager = new BranchConnectionManager(HttpsURLConnection.getDefaultSSLSocketFactory());
+        final URL http1Url = http1Server.url("/v1/open").url();
+        long http1Ms = runRounds(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return postWithUrlConnection(manager, http1Url);
+            }
+        });
+
+        int h2Connections = countConnections(h2Server);
+        int http1Connections = countConnections(http1Server);
+        String results = ROUNDS + " rounds of " + CONCURRENT_REQUESTS + " concurrent requests, HTTP/2 over OkHttp: "
+                + h2Ms + "ms over " + h2Connections + " connection(s), HTTP/1.1 over HttpURLConnection: "
+                + http1Ms + "ms over " + http1Connections + " connection(s)";
+        Assert.assertEquals(results, 1, h2Connections);
+        Assert.assertTrue(results, http1Connections > 1);
+    }
+
+    private long runRounds(Callable<Integer> request) throws Exception {
+        // A warm up round, so that both sides are measured over established connections
+        runRound(request);
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            runRound(request);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private void runRound(Callable<Integer> request) throws Exception {
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+            results.add(callers.submit(request));
+        }
+        for (Future<Integer> result : results) {
+            Assert.assertEquals(Integer.valueOf(200), result.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private static int postWithUrlConnection(BranchConnectionManager manager, URL url) throws IOException, JSONException {
+        HttpURLConnection connection = manager.openConnection(url);
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        manager.connect(connection);
+        OutputStream out = connection.getOutputStream();
+        out.write(payload().toString().getBytes(StandardCharsets.UTF_8));
+        out.close();
+        int responseCode = connection.getResponseCode();
+        manager.release(connection);
+        return responseCode;
+    }
+
+    // Every request the server took that was the first on its connection
+    private static int countConnections(MockWebServer server) throws InterruptedException {
+        int connections = 0;
+        int requests = server.getRequestCount();
+        for (int i = 0; i < requests; i++) {
+            RecordedRequest request = server.takeRequest(1, TimeUnit.SECONDS);
+            if (request != null && request.getSequenceNumber() == 0) {
+                connections++;
+            }
+        }
+        return connections;
+    }
+
+    private static JSONObject payload() throws JSONException {
+        return new JSONObject()
+                .put("hardware_id", "2d9c5a8e-2b3f-4f3a-9b6a-7b0b5d3f1e44")
+                .put("brand", "Google")
+                .put("model", "Pixel 7")
+                .put("os", "Android")
+                .put("os_version", 33);
+    }
+}
@@ -0,0 +1,153 @@
+package io.branch.referral.network;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.branch.referral.BranchError;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Checks the requests {@link BranchRemoteInterfaceOkHttp} sends and how it reads the responses,
+ * against a local HTTP/2 server that answers at once.
+ */
+@RunWith(JUnit4.class)
+public class BranchRemoteInterfaceOkHttpTest {
+    private static final int CONCURRENT_REQUESTS = 20;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private MockWebServer server;
+    private BranchRemoteInterfaceOkHttp remote;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setProtocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE));
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().endsWith("/unavailable")) {
+                    return new MockResponse().setResponseCode(503).setHeader("Retry-After", "30");
+                }
+                return new MockResponse()
+                        .setHeader("X-Branch-Request-Id", "request-" + request.getSequenceNumber())
+                        .setBody("{\"session_id\":\"1\"}");
+            }
+        });
+        server.start();
+        OkHttpClient client = new OkHttpClient.Builder()
+                .protocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE))
+                .build();
+        remote = new BranchRemoteInterfaceOkHttp(client, null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    private static JSONObject payload() throws JSONException {
+        return new JSONObject()
+                .put("hardware_id", "2d9c5a8e-2b3f-4f3a-9b6a-7b0b5d3f1e44")
+                .put("brand", "Google")
+                .put("os", "Android")
+                .put("os_version", 33);
+    }
+
+    @Test
+    public void testPostSendsTheJsonPayload() throws Exception {
+        BranchRemoteInterface.BranchResponse response = remote.doRestfulPost(server.url("/v1/open").toString(), payload());
+
+        Assert.assertEquals(200, response.getResponseCode());
+        Assert.assertEquals("request-0", response.requestId);
+        RecordedRequest request = server.takeRequest(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        Assert.assertEquals("POST", request.getMethod());
+        Assert.assertTrue(request.getHeader("Content-Type").startsWith("application/json"));
+        Assert.assertTrue(payload().similar(new JSONObject(request.getBody().readUtf8())));
+    }
+
+    @Test
+    public void testErrorStatusAndRetryAfterAreReturned() throws Exception {
+        BranchRemoteInterface.BranchResponse response = remote.doRestfulGet(server.url("/v1/unavailable").toString());
+
+        Assert.assertEquals(503, response.getResponseCode());
+        Assert.assertEquals("30", response.retryAfter);
+    }
+
+    @Test
+    public void testUnreachableServerFailsTheAsyncCall() throws Exception {
+        String url = server.url("/v1/open").toString();
+        server.shutdown();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<BranchRemoteInterface.BranchRemoteException> failure = new AtomicReference<>();
+        BranchAsyncTransport.Call call = remote.getAsyncTransport().post(url, payload(), 5000, new BranchAsyncTransport.Callback() {
+            @Override
+            public void onResponse(BranchRemoteInterface.BranchResponse response) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(BranchRemoteInterface.BranchRemoteException exception) {
+                failure.set(exception);
+                latch.countDown();
+            }
+        });
+
+        Assert.assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assert.assertNotNull(failure.get());
+        Assert.assertEquals(BranchError.ERR_BRANCH_NO_CONNECTIVITY, failure.get().getBranchErrorCode());
+        Assert.assertTrue(call.isDone());
+    }
+
+    @Test
+    public void testAsyncTransportMultiplexesOverOneConnection() throws Exception {
+        BranchAsyncTransport transport = remote.getAsyncTransport();
+        final CountDownLatch latch = new CountDownLatch(CONCURRENT_REQUESTS);
+        final AtomicInteger ok = new AtomicInteger();
+        for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+            transport.post(server.url("/v2/event/standard").toString(), payload(), 5000, new BranchAsyncTransport.Callback() {
+                @Override
+                public void onResponse(BranchRemoteInterface.BranchResponse response) {
+                    if (response.getResponseCode() == 200 && response.requestId != null) {
+                        ok.incrementAndGet();
+                    }
+                    latch.countDown();
+                }
+
+                @Override
+                public void onFailure(BranchRemoteInterface.BranchRemoteException exception) {
+                    latch.countDown();
+                }
+            });
+        }
+
+        Assert.assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assert.assertEquals(CONCURRENT_REQUESTS, ok.get());
+        // Every request but the first shared its connection
+        int connections = 0;
+        for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+            if (server.takeRequest(TIMEOUT_SECONDS, TimeUnit.SECONDS).getSequenceNumber() == 0) {
+                connections++;
+            }
+        }
+        Assert.assertEquals(1, connections);
+    }
+}
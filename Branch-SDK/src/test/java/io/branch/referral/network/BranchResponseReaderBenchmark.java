@@ -0,0 +1,116 @@
+package io.branch.referral.network;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compares reading and parsing a v1/open response the way responses used to be read, line by line
+ * through a {@link BufferedReader}, with {@link BranchResponseReader}. Reports the heap allocated
+ * and the time taken per response.
+ * <p>
+ * Benchmarks are left out of the unit tests, run them with {@code ./gradlew test -PrunBenchmarks}.
+ */
+@RunWith(JUnit4.class)
+public class BranchResponseReaderBenchmark {
+    private static final int WARMUP = 5000;
+    private static final int ITERATIONS = 20000;
+
+    private interface ResponseReader {
+        Object read(InputStream in, int contentLength) throws IOException, JSONException;
+    }
+
+    private static final ResponseReader LINES = new ResponseReader() {
+        @Override
+        public Object read(InputStream in, int contentLength) throws IOException {
+            // The platform default charset, which is UTF-8 on Android
+            BufferedReader rd = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = rd.readLine()) != null) {
+                sb.append(line);
+            }
+            rd.close();
+            return sb.toString();
+        }
+    };
+
+    private static final ResponseReader POOLED = new ResponseReader() {
+        @Override
+        public Object read(InputStream in, int contentLength) throws IOException {
+            return BranchResponseReader.readUtf8(in, contentLength);
+        }
+    };
+
+    private static final ResponseReader LINES_AND_PARSE = new ResponseReader() {
+        @Override
+        public Object read(InputStream in, int contentLength) throws IOException, JSONException {
+            String body = (String) LINES.read(in, contentLength);
+            try {
+                return new JSONObject(body);
+            } catch (JSONException e) {
+                return new JSONArray(body);
+            }
+        }
+    };
+
+    private static final ResponseReader POOLED_AND_PARSE = new ResponseReader() {
+        @Override
+        public Object read(InputStream in, int contentLength) throws IOException, JSONException {
+            return BranchResponseReader.parseJson(BranchResponseReader.readUtf8(in, contentLength));
+        }
+    };
+
+    @Test
+    public void testPooledReadingAllocatesLess() throws IOException, JSONException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        byte[] body = BranchResponseReaderTest.openResponse().getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(LINES.read(new ByteArrayInputStream(body), body.length), POOLED.read(new ByteArrayInputStream(body), body.length));
+
+        long[] lines = measure(allocations, LINES, body);
+        long[] pooled = measure(allocations, POOLED, body);
+        long[] linesAndParse = measure(allocations, LINES_AND_PARSE, body);
+        long[] pooledAndParse = measure(allocations, POOLED_AND_PARSE, body);
+        String results = "Per " + body.length + " byte v1/open response, bytes allocated / ns, read line by line: "
+                + lines[0] + "/" + lines[1] + ", read pooled: " + pooled[0] + "/" + pooled[1]
+                + "; read and parsed line by line: " + linesAndParse[0] + "/" + linesAndParse[1]
+                + ", pooled: " + pooledAndParse[0] + "/" + pooledAndParse[1];
+
+        Assert.assertTrue(results, pooled[0] * 4 < lines[0]);
+        Assert.assertTrue(results, pooledAndParse[0] < linesAndParse[0]);
+    }
+
+    // The bytes allocated and nanoseconds taken per response
+    private static long[] measure(com.sun.management.ThreadMXBean allocations, ResponseReader reader, byte[] body) throws IOException, JSONException {
+        for (int i = 0; i < WARMUP; i++) {
+            reader.read(new ByteArrayInputStream(body), body.length);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            reader.read(new ByteArrayInputStream(body), body.length);
+        }
+        long elapsed = System.nanoTime() - start;
+        return new long[]{(allocations.getThreadAllocatedBytes(threadId) - before) / ITERATIONS, elapsed / ITERATIONS};
+    }
+}
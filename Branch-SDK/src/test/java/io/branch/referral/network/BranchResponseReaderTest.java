@@ -0,0 +1,130 @@
+package io.branch.referral.network;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+@RunWith(JUnit4.class)
+public class BranchResponseReaderTest {
+
+    // A body the size of a typical v1/open response
+    static String openResponse() throws JSONException {
+        JSONObject data = new JSONObject();
+        data.put("+clicked_branch_link", true);
+        data.put("+is_first_session", false);
+        data.put("+match_guaranteed", true);
+        data.put("~channel", "email");
+        data.put("~campaign", "spring_sale");
+        data.put("~feature", "marketing");
+        data.put("~tags", new JSONArray().put("promo").put("newsletter"));
+        data.put("~referring_link", "https://example.app.link/Xy9kLmN0pQ");
+        data.put("$canonical_identifier", "content/12345");
+        data.put("$og_title", "Spring sale, 20% off everything");
+        data.put("$og_description", "Prices as marked, while stocks last. Caf\u00e9 cr\u00e8me \u2615 included.");
+        data.put("$og_image_url", "https://cdn.example.com/images/spring-sale-hero.png");
+        data.put("$desktop_url", "https://www.example.com/sale?utm_source=branch&utm_medium=email");
+        data.put("product_id", "SKU-998877");
+        data.put("+click_timestamp", 1718000000);
+
+        JSONObject response = new JSONObject();
+        response.put("session_id", "1234567890123456789");
+        response.put("randomized_bundle_token", "1234567890987654321");
+        response.put("randomized_device_token", "9876543210123456789");
+        response.put("link", "https://example.app.link?%24identity_id=1234567890987654321");
+        response.put("data", data.toString());
+        response.put("invoke_features", new JSONObject().put("enable_fallback_url", false));
+        return response.toString();
+    }
+
+    private static class TrackingStream extends ByteArrayInputStream {
+        boolean closed;
+
+        TrackingStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+
+    @Test
+    public void testReadsWithAndWithoutContentLength() throws IOException, JSONException {
+        String body = openResponse();
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+
+        TrackingStream withLength = new TrackingStream(bytes);
+        Assert.assertEquals(body, BranchResponseReader.readUtf8(withLength, bytes.length));
+        Assert.assertTrue(withLength.closed);
+
+        TrackingStream withoutLength = new TrackingStream(bytes);
+        Assert.assertEquals(body, BranchResponseReader.readUtf8(withoutLength, -1));
+        Assert.assertTrue(withoutLength.closed);
+    }
+
+    @Test
+    public void testKeepsNewlinesAndCharactersAcrossBuffers() throws IOException {
+        StringBuilder body = new StringBuilder();
+        while (body.length() < BranchResponseReader.BUFFER_SIZE * 3) {
+            // Two, three and four byte characters, which end up split between reads
+            body.append("{\"\u00e9\":\"\u20ac\ud83d\ude00\"}\r\n");
+        }
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+
+        Assert.assertEquals(body.toString(), BranchResponseReader.readUtf8(new ByteArrayInputStream(bytes), -1));
+        Assert.assertEquals(body.toString(), BranchResponseReader.readUtf8(new ByteArrayInputStream(bytes), bytes.length));
+        Assert.assertEquals("", BranchResponseReader.readUtf8(new ByteArrayInputStream(new byte[0]), 0));
+    }
+
+    @Test
+    public void testTruncatedBodyFailsAndCloses() {
+        byte[] bytes = "{\"session_id\":".getBytes(StandardCharsets.UTF_8);
+        TrackingStream stream = new TrackingStream(bytes);
+        try {
+            BranchResponseReader.readUtf8(stream, bytes.length + 10);
+            Assert.fail();
+        } catch (IOException expected) {
+            Assert.assertTrue(stream.closed);
+        }
+    }
+
+    @Test
+    public void testBuffersAreReused() {
+        byte[] buffer = BranchResponseReader.acquire(100);
+        BranchResponseReader.release(buffer);
+        Assert.assertSame(buffer, BranchResponseReader.acquire(100));
+
+        byte[] large = BranchResponseReader.acquire(BranchResponseReader.MAX_POOLED_SIZE + 1);
+        BranchResponseReader.release(large);
+        Assert.assertNotSame(large, BranchResponseReader.acquire(BranchResponseReader.MAX_POOLED_SIZE + 1));
+    }
+
+    @Test
+    public void testParsesObjectsAndArrays() throws JSONException {
+        Object object = BranchResponseReader.parseJson(openResponse());
+        Assert.assertTrue(object instanceof JSONObject);
+        Assert.assertEquals("1234567890123456789", ((JSONObject) object).getString("session_id"));
+
+        Object array = BranchResponseReader.parseJson(" \n[{\"a\":1},2]");
+        Assert.assertTrue(array instanceof JSONArray);
+        Assert.assertEquals(2, ((JSONArray) array).length());
+
+        for (String notJson : new String[]{"", "  ", "<html></html>", "[1,"}) {
+            try {
+                BranchResponseReader.parseJson(notJson);
+                Assert.fail(notJson);
+            } catch (JSONException expected) {
+            }
+        }
+    }
+}